@@ -30,6 +30,7 @@ import org.apache.commons.cli.PosixParser;
 import org.hibernate.SessionFactory;
 import org.hibernate.cfg.Configuration;
 import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.serialization.GtfsReaderStatsCollector;
 import org.onebusaway.gtfs.services.GtfsMutableRelationalDao;
 import org.onebusaway.gtfs.services.HibernateGtfsFactory;
 import org.slf4j.Logger;
@@ -47,6 +48,8 @@ public class GtfsDatabaseLoaderMain {
 
   private static final String ARG_PASSWORD = "password";
 
+  private static final String ARG_LOAD_STATS = "loadStats";
+
   public static void main(String[] args) throws IOException {
     GtfsDatabaseLoaderMain m = new GtfsDatabaseLoaderMain();
     m.run(args);
@@ -86,10 +89,19 @@ public class GtfsDatabaseLoaderMain {
     GtfsReader reader = new GtfsReader();
     reader.setInputLocation(new File(args[0]));
 
+    GtfsReaderStatsCollector loadStats = null;
+    if (cli.hasOption(ARG_LOAD_STATS)) {
+      loadStats = new GtfsReaderStatsCollector();
+      reader.addListener(loadStats);
+    }
+
     GtfsMutableRelationalDao dao = factory.getDao();
     reader.setEntityStore(dao);
     reader.run();
     reader.close();
+
+    if (loadStats != null)
+      loadStats.printSummary(System.out);
   }
 
   private CommandLine parseCommandLineOptions(String[] args) {
@@ -118,6 +130,7 @@ public class GtfsDatabaseLoaderMain {
 
     options.addOption(ARG_USERNAME, true, "JDBC username");
     options.addOption(ARG_PASSWORD, true, "JDBC password");
+    options.addOption(ARG_LOAD_STATS, false, "print load statistics");
   }
 
   protected void printUsage() {
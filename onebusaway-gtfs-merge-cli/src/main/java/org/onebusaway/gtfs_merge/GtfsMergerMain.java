@@ -38,6 +38,7 @@ import org.apache.commons.cli.PosixParser;
 import org.apache.commons.cli.UnrecognizedOptionException;
 import org.onebusaway.csv_entities.schema.annotations.CsvFields;
 import org.onebusaway.gtfs.serialization.GtfsEntitySchemaFactory;
+import org.onebusaway.gtfs.serialization.GtfsReaderStatsCollector;
 import org.onebusaway.gtfs_merge.strategies.AbstractEntityMergeStrategy;
 import org.onebusaway.gtfs_merge.strategies.EntityMergeStrategy;
 
@@ -51,6 +52,8 @@ public class GtfsMergerMain {
 
   public static final String ARG_ERROR_ON_DROPPED_DUPLICATES = "errorOnDroppedDuplicates";
 
+  public static final String ARG_LOAD_STATS = "loadStats";
+
   /****
    * Generic Arguments
    ****/
@@ -126,6 +129,8 @@ public class GtfsMergerMain {
         "log dropped duplicates");
     options.addOption(ARG_ERROR_ON_DROPPED_DUPLICATES, false,
         "error on dropped duplicates");
+    options.addOption(ARG_LOAD_STATS, false,
+        "print load statistics of the input feeds");
   }
 
   protected void printHelp(PrintWriter out, Options options) throws IOException {
@@ -161,7 +166,16 @@ public class GtfsMergerMain {
     }
     File outputPath = new File(args[args.length - 1]);
 
+    GtfsReaderStatsCollector loadStats = null;
+    if (cli.hasOption(ARG_LOAD_STATS)) {
+      loadStats = new GtfsReaderStatsCollector();
+      merger.addReaderListener(loadStats);
+    }
+
     merger.run(inputPaths, outputPath);
+
+    if (loadStats != null)
+      loadStats.printSummary(System.out);
   }
 
   /*****************************************************************************
@@ -28,6 +28,7 @@ import java.util.Set;
 
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.serialization.GtfsReaderListener;
 import org.onebusaway.gtfs.serialization.GtfsWriter;
 import org.onebusaway.gtfs_merge.strategies.AgencyMergeStrategy;
 import org.onebusaway.gtfs_merge.strategies.EntityMergeStrategy;
@@ -72,6 +73,8 @@ public class GtfsMerger {
 
   private EntityMergeStrategy _fareRuleStrategy = new FareRuleMergeStrategy();
 
+  private List<GtfsReaderListener> _readerListeners = new ArrayList<GtfsReaderListener>();
+
   public void setAgencyStrategy(EntityMergeStrategy agencyStrategy) {
     _agencyStrategy = agencyStrategy;
   }
@@ -113,6 +116,14 @@ public class GtfsMerger {
     _fareRuleStrategy = fareRuleStrategy;
   }
 
+  /**
+   * @param listener receives the load statistics of each input feed
+   * @see GtfsReader#addListener(GtfsReaderListener)
+   */
+  public void addReaderListener(GtfsReaderListener listener) {
+    _readerListeners.add(listener);
+  }
+
   public EntityMergeStrategy getEntityMergeStrategyForEntityType(
       Class<?> entityType) {
     List<EntityMergeStrategy> strategies = new ArrayList<EntityMergeStrategy>();
@@ -164,6 +175,8 @@ public class GtfsMerger {
 
       GtfsReader reader = new GtfsReader();
       reader.setInputLocation(inputPath);
+      for (GtfsReaderListener listener : _readerListeners)
+        reader.addListener(listener);
 
       GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
       dao.setPackShapePoints(true);
@@ -95,7 +95,6 @@ public abstract class AbstractCollectionEntityMergeStrategy<KEY extends Serializ
       renameKey(context, key, newKey);
       key = newKey;
       rawKey = getRawKey(key);
-      MergeSupport.clearCaches(context.getSource());
     }
 
     context.putEntityWithRawId(rawKey, key);
@@ -19,6 +19,7 @@ import org.onebusaway.csv_entities.schema.BeanWrapper;
 import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
 import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.services.GtfsMutableRelationalDao;
 import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.onebusaway.gtfs_merge.GtfsMergeContext;
 
@@ -47,6 +48,16 @@ public class MergeSupport {
     }
   }
 
+  /**
+   * Updates the relation indices of the source feed for an entity modified in
+   * place, if the source feed is mutable.
+   */
+  public static void updateEntity(GtfsRelationalDao source, Object entity) {
+    if (source instanceof GtfsMutableRelationalDao) {
+      ((GtfsMutableRelationalDao) source).updateEntity(entity);
+    }
+  }
+
   public static String noNull(String name) {
     return name == null ? "" : name;
   }
@@ -99,12 +99,15 @@ public class ServiceCalendarMergeStrategy extends
     ServiceCalendar calendar = source.getCalendarForServiceId(oldId);
     if (calendar != null) {
       calendar.setServiceId(newId);
+      MergeSupport.updateEntity(source, calendar);
     }
     for (ServiceCalendarDate calendarDate : source.getCalendarDatesForServiceId(oldId)) {
       calendarDate.setServiceId(newId);
+      MergeSupport.updateEntity(source, calendarDate);
     }
     for (Trip trip : source.getTripsForServiceId(oldId)) {
       trip.setServiceId(newId);
+      MergeSupport.updateEntity(source, trip);
     }
   }
 
@@ -60,9 +60,11 @@ public class ShapePointMergeStrategy extends
     GtfsRelationalDao source = context.getSource();
     for (ShapePoint shapePoint : source.getShapePointsForShapeId(oldId)) {
       shapePoint.setShapeId(newId);
+      MergeSupport.updateEntity(source, shapePoint);
     }
     for (Trip trip : source.getTripsForShapeId(oldId)) {
       trip.setShapeId(newId);
+      MergeSupport.updateEntity(source, trip);
     }
   }
 
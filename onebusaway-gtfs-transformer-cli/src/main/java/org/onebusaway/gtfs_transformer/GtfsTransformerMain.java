@@ -35,6 +35,7 @@ import org.apache.commons.cli.Options;
 import org.apache.commons.cli.ParseException;
 import org.apache.commons.cli.PosixParser;
 import org.apache.commons.cli.UnrecognizedOptionException;
+import org.onebusaway.gtfs.serialization.GtfsReaderStatsCollector;
 import org.onebusaway.gtfs_transformer.updates.EnsureStopTimesIncreaseUpdateStrategy;
 import org.onebusaway.gtfs_transformer.updates.LocalVsExpressUpdateStrategy;
 import org.onebusaway.gtfs_transformer.updates.RemoveDuplicateTripsStrategy;
@@ -62,6 +63,10 @@ public class GtfsTransformerMain {
 
   private static final String ARG_OVERWRITE_DUPLICATES = "overwriteDuplicates";
 
+  private static final String ARG_LOAD_STATS = "loadStats";
+
+  private static final String ARG_NO_PACK_ENTITIES = "noPackEntities";
+
   private static CommandLineParser _parser = new PosixParser();
 
   private Options _options = new Options();
@@ -134,6 +139,9 @@ public class GtfsTransformerMain {
         "remove duplicate trips");
     options.addOption(ARG_OVERWRITE_DUPLICATES, false,
         "overwrite duplicate elements");
+    options.addOption(ARG_LOAD_STATS, false, "print load statistics");
+    options.addOption(ARG_NO_PACK_ENTITIES, false,
+        "store stop times and shape points as objects rather than packed rows");
   }
 
   protected void printHelp(PrintWriter out, Options options) throws IOException {
@@ -167,6 +175,15 @@ public class GtfsTransformerMain {
     transformer.setGtfsInputDirectories(paths);
     transformer.setOutputDirectory(new File(args[args.length - 1]));
 
+    GtfsReaderStatsCollector loadStats = null;
+    if (cli.hasOption(ARG_LOAD_STATS)) {
+      loadStats = new GtfsReaderStatsCollector();
+      transformer.getReader().addListener(loadStats);
+    }
+
+    if (cli.hasOption(ARG_NO_PACK_ENTITIES))
+      transformer.setPackEntities(false);
+
     Option[] options = getOptionsInCommandLineOrder(cli, originalArgs);
 
     for (Option option : options) {
@@ -198,6 +215,9 @@ public class GtfsTransformerMain {
     }
 
     transformer.run();
+
+    if (loadStats != null)
+      loadStats.printSummary(System.out);
   }
 
   private Option[] getOptionsInCommandLineOrder(CommandLine cli,
@@ -37,6 +37,15 @@ import org.onebusaway.gtfs_transformer.services.GtfsTransformStrategy;
 import org.onebusaway.gtfs_transformer.services.SchemaUpdateStrategy;
 import org.onebusaway.gtfs_transformer.services.TransformContext;
 
+/**
+ * Reads a GTFS feed, applies transforms to it and writes it out again.
+ * 
+ * Stop times and shape points, by far the most numerous entities, are stored
+ * as packed rows by default, see {@link #setPackEntities(boolean)}. Transforms
+ * can still modify, copy and remove them: a removed row is only marked as
+ * such, so the stop times and shape points a transform holds stay valid for
+ * the whole run.
+ */
 public class GtfsTransformer {
 
   /*****************************************************************************
@@ -57,7 +66,7 @@ public class GtfsTransformer {
 
   private GtfsReader _reader = new GtfsReader();
 
-  private GtfsMutableRelationalDao _dao = new GtfsRelationalDaoImpl();
+  private GtfsMutableRelationalDao _dao = createDao();
 
   private String _agencyId;
 
@@ -109,6 +118,23 @@ public class GtfsTransformer {
     return _dao;
   }
 
+  /**
+   * When enabled, stop times and shape points are stored as packed rows, each
+   * stop time or shape point being a proxy to its row. Enabled by default.
+   * Must be set before {@link #run()}.
+   * 
+   * @param packEntities
+   */
+  public void setPackEntities(boolean packEntities) {
+    GtfsRelationalDaoImpl dao = (GtfsRelationalDaoImpl) _dao;
+    dao.setPackStopTimes(packEntities);
+    dao.setPackShapePoints(packEntities);
+  }
+
+  public boolean isPackEntities() {
+    return ((GtfsRelationalDaoImpl) _dao).isPackStopTimes();
+  }
+
   public TransformFactory getTransformFactory() {
     return _transformFactory;
   }
@@ -136,6 +162,13 @@ public class GtfsTransformer {
    * Private Methods
    ****/
 
+  private static GtfsMutableRelationalDao createDao() {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+    return dao;
+  }
+
   private void readGtfs() throws IOException {
 
     GenericMutableDao dao = _dao;
@@ -44,12 +44,15 @@ public class ServiceIdTransformStrategyImpl implements EntityTransformStrategy {
     ServiceCalendar calendar = dao.getCalendarForServiceId(oldServiceId);
     if (calendar != null) {
       calendar.setServiceId(newServiceId);
+      dao.updateEntity(calendar);
     }
     for (ServiceCalendarDate calendarDate : dao.getCalendarDatesForServiceId(oldServiceId)) {
       calendarDate.setServiceId(newServiceId);
+      dao.updateEntity(calendarDate);
     }
     for (Trip trip : dao.getTripsForServiceId(oldServiceId)) {
       trip.setServiceId(newServiceId);
+      dao.updateEntity(trip);
     }
   }
 }
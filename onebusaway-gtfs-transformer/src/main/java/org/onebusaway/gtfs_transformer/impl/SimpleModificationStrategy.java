@@ -41,5 +41,6 @@ public class SimpleModificationStrategy implements EntityTransformStrategy {
       DeferredValueSetter setter = entry.getValue();
       setter.setValue(wrapper, propertyName);
     }
+    dao.updateEntity(entity);
   }
 }
@@ -46,5 +46,6 @@ public class StringModificationStrategy implements EntityTransformStrategy {
         wrapper.setPropertyValue(property, propertyStringValue);
       }
     }
+    dao.updateEntity(entity);
   }
 }
@@ -115,7 +115,6 @@ public class CalendarExtensionStrategy implements GtfsTransformStrategy {
         }
       }
     }
-    UpdateLibrary.clearDaoCache(dao);
   }
 
   /**
@@ -119,6 +119,7 @@ public class CalendarSimplicationStrategy implements GtfsTransformStrategy {
               tripToKeep.setId(updatedTripId);
             }
           }
+          dao.updateEntity(tripToKeep);
         }
       }
     }
@@ -241,6 +242,5 @@ public class CalendarSimplicationStrategy implements GtfsTransformStrategy {
     for (Object entity : newEntities) {
       dao.saveEntity(entity);
     }
-    UpdateLibrary.clearDaoCache(dao);
   }
 }
@@ -70,6 +70,7 @@ public class DeduplicateServiceIdsStrategy implements GtfsTransformStrategy {
       AgencyAndId mappedServiceId = serviceIdMapping.get(trip.getServiceId());
       if (mappedServiceId != null) {
         trip.setServiceId(mappedServiceId);
+        dao.updateEntity(trip);
       }
     }
 
@@ -84,6 +85,5 @@ public class DeduplicateServiceIdsStrategy implements GtfsTransformStrategy {
     }
 
     _log.info("removed {} duplicate service ids", serviceIdMapping.size());
-    UpdateLibrary.clearDaoCache(dao);
   }
 }
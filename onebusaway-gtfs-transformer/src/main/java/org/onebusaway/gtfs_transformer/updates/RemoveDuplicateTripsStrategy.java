@@ -62,8 +62,6 @@ public class RemoveDuplicateTripsStrategy implements GtfsTransformStrategy {
       }
     }
 
-    UpdateLibrary.clearDaoCache(dao);
-
     _log.info("removed " + duplicateTrips + " duplicate trips");
   }
 
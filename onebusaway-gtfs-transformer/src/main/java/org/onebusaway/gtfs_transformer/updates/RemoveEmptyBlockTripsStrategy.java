@@ -66,8 +66,6 @@ public class RemoveEmptyBlockTripsStrategy implements GtfsTransformStrategy {
       for (Trip trip : trips)
         dao.removeEntity(trip);
     }
-    
-    UpdateLibrary.clearDaoCache(dao);
 
     _log.info("blocksRemoved=" + blocksRemoved + " tripsRemoved="
         + tripsRemoved);
@@ -56,7 +56,5 @@ public class RemoveRepeatedStopTimesInSameTripStrategy implements GtfsTransformS
 		}
 
 		_log.info("removed=" + removed + " total=" + total);
-
-		UpdateLibrary.clearDaoCache(dao);
 	}
 }
@@ -82,6 +82,7 @@ public class ShapeDirectionTransformStrategy implements GtfsTransformStrategy {
 
       for (Trip t : tripsToTransform) {
         t.setShapeId(newShapeId);
+        dao.updateEntity(t);
       }
 
     }
@@ -94,17 +94,18 @@ public class ShapeTransformStrategy implements GtfsTransformStrategy {
     subList.clear();
     subList.addAll(segment);
 
-    int index = 0;
-    for (ShapePoint point : shapePoints) {
+    int segmentTo = fromIndex + segment.size();
+    for (int index = 0; index < shapePoints.size(); index++) {
+      ShapePoint point = shapePoints.get(index);
       point.setDistTraveled(ShapePoint.MISSING_VALUE);
-      point.setSequence(index++);
+      point.setSequence(index);
       point.setShapeId(shapeId);
+      if (index < fromIndex || index >= segmentTo)
+        dao.updateEntity(point);
     }
 
     for (ShapePoint point : segment)
       dao.saveEntity(point);
-
-    UpdateLibrary.clearDaoCache(dao);
   }
 
   private int closest(List<ShapePoint> shapePoints, ShapePoint point, int index) {
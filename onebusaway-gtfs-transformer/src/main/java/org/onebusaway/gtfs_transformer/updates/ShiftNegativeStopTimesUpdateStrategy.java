@@ -50,6 +50,7 @@ public class ShiftNegativeStopTimesUpdateStrategy implements GtfsTransformStrate
           trip.getServiceId(), -dayShift);
       shiftedIds.add(shifted);
       trip.setServiceId(shifted.getShiftedServiceId());
+      dao.updateEntity(trip);
     }
 
     CalendarService calendarService = CalendarServiceDataFactoryImpl.createService(dao);
@@ -68,8 +69,6 @@ public class ShiftNegativeStopTimesUpdateStrategy implements GtfsTransformStrate
         dao.saveEntity(newEntity);
       }
     }
-    
-    UpdateLibrary.clearDaoCache(dao);
   }
 
   private int getMinStopTime(List<StopTime> stopTimes) {
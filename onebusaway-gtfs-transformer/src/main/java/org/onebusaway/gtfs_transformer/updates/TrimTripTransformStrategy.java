@@ -122,8 +122,6 @@ public class TrimTripTransformStrategy implements GtfsTransformStrategy {
     for (StopTime stopTime : stopTimesToAdd) {
       dao.saveEntity(stopTime);
     }
-
-    UpdateLibrary.clearDaoCache(dao);
     Set<AgencyAndId> shapeIds = new HashSet<AgencyAndId>(dao.getAllShapeIds());
     for (Trip trip : dao.getAllTrips()) {
       shapeIds.remove(trip.getShapeId());
@@ -18,12 +18,16 @@ package org.onebusaway.gtfs_transformer;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.List;
 
 import org.junit.Before;
 import org.junit.Test;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.services.GtfsRelationalDao;
 import org.onebusaway.gtfs.services.MockGtfs;
 import org.onebusaway.gtfs_transformer.updates.UpdateLibrary;
@@ -55,6 +59,42 @@ public class GtfsTransformerTest {
     assertEquals(2, dao.getAllStopTimes().size());
   }
 
+  @Test
+  public void testRemoveRouteUnpacked() throws Exception {
+    assertTrue(_transformer.isPackEntities());
+    _transformer.setPackEntities(false);
+    GtfsRelationalDao dao = transform("{'op':'remove', 'match':{'file':'routes.txt', 'route_id':'r0'}}");
+    assertNull(dao.getTripForId(new AgencyAndId("a0", "t0")));
+    assertEquals(2, dao.getAllStopTimes().size());
+  }
+
+  @Test
+  public void testRemoveRoutePacked() throws Exception {
+    GtfsRelationalDao dao = transform("{'op':'remove', 'match':{'file':'routes.txt', 'route_id':'r0'}}");
+    assertNull(dao.getTripForId(new AgencyAndId("a0", "t0")));
+    assertNotNull(dao.getTripForId(new AgencyAndId("a0", "t1")));
+    assertEquals(2, dao.getAllStopTimes().size());
+    for (StopTime stopTime : dao.getAllStopTimes())
+      assertEquals(new AgencyAndId("a0", "t1"), stopTime.getTrip().getId());
+    assertEquals(2, dao.getStopTimesForTrip(
+        dao.getTripForId(new AgencyAndId("a0", "t1"))).size());
+  }
+
+  @Test
+  public void testTrimTrip() throws Exception {
+    GtfsRelationalDao dao = transform("{'op':'trim_trip', 'match':{'file':'trips.txt', 'trip_id':'t0'}, 'from_stop_id':'s1'}");
+    assertNull(dao.getTripForId(new AgencyAndId("a0", "t0")));
+    Trip trip = dao.getTripForId(new AgencyAndId("a0", "t0-s1"));
+    List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+    assertEquals(1, stopTimes.size());
+
+    // The copy of a packed stop time has the values of its row
+    StopTime stopTime = stopTimes.get(0);
+    assertEquals(new AgencyAndId("a0", "s0"), stopTime.getStop().getId());
+    assertEquals(9 * 60 * 60, stopTime.getArrivalTime());
+    assertEquals(3, dao.getAllStopTimes().size());
+  }
+
   @Test
   public void testUpdateTrips() throws Exception {
     GtfsRelationalDao dao = transform("{'op':'update', 'match':{'file':'trips.txt', 'route_id':'r0'}, 'update':{'route_id': 'r1'}}");
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+/**
+ * Interns {@link AgencyAndId} values, so that every entity referring to the
+ * same id (trips sharing a service id, the points of a shape, ...) shares a
+ * single instance, along with a single instance of each agency id string.
+ * Besides the memory saved on large feeds, hash map probes with interned ids
+ * hit the identity check of {@link AgencyAndId#equals(Object)}.
+ * 
+ * The table also assigns dense int surrogate keys to ids, per entity type, in
+ * the order the ids are first registered, so that per-entity data can be kept
+ * in arrays indexed by surrogate key rather than in maps keyed by id. Keys are
+ * only assigned on request, by the storage that uses them, which releases
+ * them with {@link #releaseSurrogateKeys(Class)} when it is cleared.
+ * 
+ * Interned instances are shared, so they must not be modified: to change the
+ * id of an entity, set a new {@link AgencyAndId} instead. The table is safe for
+ * concurrent use.
+ */
+public class AgencyAndIdTable {
+
+  private final ConcurrentMap<AgencyAndId, AgencyAndId> _ids = new ConcurrentHashMap<AgencyAndId, AgencyAndId>();
+
+  private final ConcurrentMap<String, String> _agencyIds = new ConcurrentHashMap<String, String>();
+
+  private final Map<Class<?>, SurrogateKeys> _surrogateKeysByType = new ConcurrentHashMap<Class<?>, SurrogateKeys>();
+
+  /**
+   * @param id
+   * @return the interned instance equal to the specified id, which becomes the
+   *         interned instance if there is none yet. Null, and ids without
+   *         values, are returned as is.
+   */
+  public AgencyAndId intern(AgencyAndId id) {
+    if (id == null || !id.hasValues())
+      return id;
+    AgencyAndId existing = _ids.get(id);
+    if (existing != null)
+      return existing;
+    String agencyId = internAgencyId(id.getAgencyId());
+    if (agencyId != id.getAgencyId())
+      id = new AgencyAndId(agencyId, id.getId());
+    existing = _ids.putIfAbsent(id, id);
+    return existing != null ? existing : id;
+  }
+
+  public AgencyAndId intern(String agencyId, String id) {
+    return intern(new AgencyAndId(agencyId, id));
+  }
+
+  public String internAgencyId(String agencyId) {
+    if (agencyId == null)
+      return null;
+    String existing = _agencyIds.putIfAbsent(agencyId, agencyId);
+    return existing != null ? existing : agencyId;
+  }
+
+  /**
+   * @return the number of interned ids
+   */
+  public int size() {
+    return _ids.size();
+  }
+
+  /**
+   * Registers an id of the specified entity type, assigning it the next
+   * surrogate key for the type if it does not have one yet.
+   * 
+   * @param entityType
+   * @param id
+   * @return the surrogate key of the id, from zero up
+   */
+  public int getOrAssignSurrogateKey(Class<?> entityType, AgencyAndId id) {
+    return getSurrogateKeys(entityType).getOrAssign(intern(id));
+  }
+
+  /**
+   * @param entityType
+   * @param id
+   * @return the surrogate key of the id, or -1 if the id was never registered
+   *         for the entity type
+   */
+  public int getSurrogateKey(Class<?> entityType, AgencyAndId id) {
+    SurrogateKeys keys = _surrogateKeysByType.get(entityType);
+    if (keys == null)
+      return -1;
+    return keys.get(id);
+  }
+
+  /**
+   * @param entityType
+   * @param surrogateKey
+   * @return the id with the specified surrogate key
+   */
+  public AgencyAndId getIdForSurrogateKey(Class<?> entityType, int surrogateKey) {
+    SurrogateKeys keys = _surrogateKeysByType.get(entityType);
+    if (keys == null)
+      throw new IndexOutOfBoundsException("no surrogate keys for type "
+          + entityType.getName());
+    return keys.getId(surrogateKey);
+  }
+
+  /**
+   * @param entityType
+   * @return the number of surrogate keys assigned for the entity type
+   */
+  public int getSurrogateKeyCount(Class<?> entityType) {
+    SurrogateKeys keys = _surrogateKeysByType.get(entityType);
+    return keys == null ? 0 : keys.size();
+  }
+
+  /**
+   * Releases the surrogate keys of the entity type, so that keys are assigned
+   * from zero again.
+   * 
+   * @param entityType
+   */
+  public synchronized void releaseSurrogateKeys(Class<?> entityType) {
+    _surrogateKeysByType.remove(entityType);
+  }
+
+  public void clear() {
+    _ids.clear();
+    _agencyIds.clear();
+    _surrogateKeysByType.clear();
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private synchronized SurrogateKeys getSurrogateKeys(Class<?> entityType) {
+    SurrogateKeys keys = _surrogateKeysByType.get(entityType);
+    if (keys == null) {
+      keys = new SurrogateKeys();
+      _surrogateKeysByType.put(entityType, keys);
+    }
+    return keys;
+  }
+
+  private static class SurrogateKeys {
+
+    private final Map<AgencyAndId, Integer> _keysById = new HashMap<AgencyAndId, Integer>();
+
+    private final List<AgencyAndId> _ids = new ArrayList<AgencyAndId>();
+
+    public synchronized int getOrAssign(AgencyAndId id) {
+      Integer key = _keysById.get(id);
+      if (key == null) {
+        key = _ids.size();
+        _keysById.put(id, key);
+        _ids.add(id);
+      }
+      return key;
+    }
+
+    public synchronized int get(AgencyAndId id) {
+      Integer key = _keysById.get(id);
+      return key == null ? -1 : key;
+    }
+
+    public synchronized AgencyAndId getId(int key) {
+      return _ids.get(key);
+    }
+
+    public synchronized int size() {
+      return _ids.size();
+    }
+  }
+}
@@ -0,0 +1,693 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.FeedInfo;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.GtfsRelationalDao;
+
+/**
+ * An immutable snapshot of a {@link GtfsRelationalDaoImpl}, as returned by
+ * {@link GtfsRelationalDaoImpl#freeze()}.
+ *
+ * The entities of each type are held in an array sorted by id, and looked up
+ * by id with a binary search. Each relation is held as a single array of the
+ * positions of its entities, grouped by key, so the lists returned by queries
+ * are unmodifiable views of those arrays, and no list is copied on a query.
+ * Packed stop times and shape points are not copied into entities, but read
+ * from the packed arrays of the original dao.
+ *
+ * Nothing is built lazily and nothing is modified after construction, so any
+ * number of threads can query the dao at the same time without locking. The
+ * entities themselves, and any packed arrays, are shared with the original dao
+ * and must not be modified while the snapshot is in use.
+ */
+public final class FrozenGtfsRelationalDaoImpl implements GtfsRelationalDao {
+
+  private static final List<Class<?>> GTFS_ENTITY_CLASSES = Arrays.<Class<?>> asList(
+      Agency.class, ServiceCalendar.class, ServiceCalendarDate.class,
+      FareAttribute.class, FareRule.class, FeedInfo.class, Frequency.class,
+      Pathway.class, Route.class, ShapePoint.class, Stop.class,
+      StopTime.class, Transfer.class, Trip.class);
+
+  private static final Comparator<Object> ID_ORDER = new Comparator<Object>() {
+    @SuppressWarnings("unchecked")
+    public int compare(Object a, Object b) {
+      Object idA = ((IdentityBean<?>) a).getId();
+      Object idB = ((IdentityBean<?>) b).getId();
+      return ((Comparable<Object>) idA).compareTo(idB);
+    }
+  };
+
+  private final Map<Class<?>, EntityArray<?>> _entitiesByType;
+
+  private final Relation<Route> _routesByAgency;
+
+  private final Relation<Stop> _stopsByStation;
+
+  private final Relation<StopTime> _stopTimesByTrip;
+
+  private final Relation<StopTime> _stopTimesByStop;
+
+  private final Relation<Trip> _tripsByRoute;
+
+  private final Relation<Trip> _tripsByShapeId;
+
+  private final Relation<Trip> _tripsByServiceId;
+
+  private final Relation<Trip> _tripsByBlockId;
+
+  private final Relation<ShapePoint> _shapePointsByShapeId;
+
+  private final Relation<Frequency> _frequenciesByTrip;
+
+  private final Relation<ServiceCalendarDate> _calendarDatesByServiceId;
+
+  private final Relation<ServiceCalendar> _calendarsByServiceId;
+
+  private final Relation<FareRule> _fareRulesByFareAttribute;
+
+  private final List<AgencyAndId> _shapeIds;
+
+  private final List<AgencyAndId> _serviceIds;
+
+  FrozenGtfsRelationalDaoImpl(final GtfsRelationalDaoImpl dao) {
+
+    Set<Class<?>> entityTypes = new LinkedHashSet<Class<?>>(
+        GTFS_ENTITY_CLASSES);
+    entityTypes.addAll(dao.getEntityClasses());
+
+    Map<Class<?>, EntityArray<?>> entitiesByType = new HashMap<Class<?>, EntityArray<?>>();
+    for (Class<?> entityType : entityTypes)
+      entitiesByType.put(entityType, createEntityArray(dao, entityType));
+    _entitiesByType = entitiesByType;
+
+    List<Agency> agencies = getEntities(Agency.class);
+    List<Stop> stops = getEntities(Stop.class);
+    List<Route> routes = getEntities(Route.class);
+    List<Trip> trips = getEntities(Trip.class);
+    List<FareAttribute> fares = getEntities(FareAttribute.class);
+
+    Set<AgencyAndId> shapeIds = new LinkedHashSet<AgencyAndId>();
+    Set<AgencyAndId> serviceIds = new LinkedHashSet<AgencyAndId>();
+    Set<AgencyAndId> blockIds = new LinkedHashSet<AgencyAndId>();
+    for (Trip trip : trips) {
+      shapeIds.add(trip.getShapeId());
+      serviceIds.add(trip.getServiceId());
+      if (trip.getBlockId() != null)
+        blockIds.add(new AgencyAndId(trip.getId().getAgencyId(),
+            trip.getBlockId()));
+    }
+
+    _routesByAgency = createRelation(Route.class, agencies,
+        new RelationQuery<Agency, Route>() {
+          public List<Route> getValues(Agency agency) {
+            return dao.getRoutesForAgency(agency);
+          }
+        });
+    _stopsByStation = createRelation(Stop.class, stops,
+        new RelationQuery<Stop, Stop>() {
+          public List<Stop> getValues(Stop station) {
+            return dao.getStopsForStation(station);
+          }
+        });
+    _stopTimesByTrip = createRelation(StopTime.class, trips,
+        new RelationQuery<Trip, StopTime>() {
+          public List<StopTime> getValues(Trip trip) {
+            return dao.getStopTimesForTrip(trip);
+          }
+        });
+    _stopTimesByStop = createRelation(StopTime.class, stops,
+        new RelationQuery<Stop, StopTime>() {
+          public List<StopTime> getValues(Stop stop) {
+            return dao.getStopTimesForStop(stop);
+          }
+        });
+    _tripsByRoute = createRelation(Trip.class, routes,
+        new RelationQuery<Route, Trip>() {
+          public List<Trip> getValues(Route route) {
+            return dao.getTripsForRoute(route);
+          }
+        });
+    _tripsByShapeId = createRelation(Trip.class, shapeIds,
+        new RelationQuery<AgencyAndId, Trip>() {
+          public List<Trip> getValues(AgencyAndId shapeId) {
+            return dao.getTripsForShapeId(shapeId);
+          }
+        });
+    _tripsByServiceId = createRelation(Trip.class, serviceIds,
+        new RelationQuery<AgencyAndId, Trip>() {
+          public List<Trip> getValues(AgencyAndId serviceId) {
+            return dao.getTripsForServiceId(serviceId);
+          }
+        });
+    _tripsByBlockId = createRelation(Trip.class, blockIds,
+        new RelationQuery<AgencyAndId, Trip>() {
+          public List<Trip> getValues(AgencyAndId blockId) {
+            return dao.getTripsForBlockId(blockId);
+          }
+        });
+    _shapeIds = Collections.unmodifiableList(Arrays.asList(dao.getAllShapeIds().toArray(
+        new AgencyAndId[0])));
+    _shapePointsByShapeId = createRelation(ShapePoint.class, _shapeIds,
+        new RelationQuery<AgencyAndId, ShapePoint>() {
+          public List<ShapePoint> getValues(AgencyAndId shapeId) {
+            return dao.getShapePointsForShapeId(shapeId);
+          }
+        });
+    _frequenciesByTrip = createRelation(Frequency.class, trips,
+        new RelationQuery<Trip, Frequency>() {
+          public List<Frequency> getValues(Trip trip) {
+            return dao.getFrequenciesForTrip(trip);
+          }
+        });
+    _serviceIds = Collections.unmodifiableList(Arrays.asList(dao.getAllServiceIds().toArray(
+        new AgencyAndId[0])));
+    _calendarDatesByServiceId = createRelation(ServiceCalendarDate.class,
+        _serviceIds, new RelationQuery<AgencyAndId, ServiceCalendarDate>() {
+          public List<ServiceCalendarDate> getValues(AgencyAndId serviceId) {
+            return dao.getCalendarDatesForServiceId(serviceId);
+          }
+        });
+    _calendarsByServiceId = createRelation(ServiceCalendar.class,
+        _serviceIds, new RelationQuery<AgencyAndId, ServiceCalendar>() {
+          public List<ServiceCalendar> getValues(AgencyAndId serviceId) {
+            ServiceCalendar calendar = dao.getCalendarForServiceId(serviceId);
+            if (calendar == null)
+              return Collections.emptyList();
+            return Collections.singletonList(calendar);
+          }
+        });
+    _fareRulesByFareAttribute = createRelation(FareRule.class, fares,
+        new RelationQuery<FareAttribute, FareRule>() {
+          public List<FareRule> getValues(FareAttribute fare) {
+            return dao.getFareRulesForFareAttribute(fare);
+          }
+        });
+  }
+
+  /****
+   * {@link GenericDao} Interface
+   ****/
+
+  @Override
+  public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+    return getEntities(type);
+  }
+
+  @Override
+  public <T> T getEntityForId(Class<T> type, Serializable id) {
+    @SuppressWarnings("unchecked")
+    EntityArray<T> entities = (EntityArray<T>) _entitiesByType.get(type);
+    if (entities == null || id == null)
+      return null;
+    int row = entities.getRowForId(id);
+    return row < 0 ? null : entities.getEntities().get(row);
+  }
+
+  /****
+   * {@link GtfsDao} Interface
+   ****/
+
+  @Override
+  public Collection<Agency> getAllAgencies() {
+    return getEntities(Agency.class);
+  }
+
+  @Override
+  public Agency getAgencyForId(String id) {
+    return getEntityForId(Agency.class, id);
+  }
+
+  @Override
+  public Collection<ServiceCalendar> getAllCalendars() {
+    return getEntities(ServiceCalendar.class);
+  }
+
+  @Override
+  public ServiceCalendar getCalendarForId(int id) {
+    return getEntityForId(ServiceCalendar.class, id);
+  }
+
+  @Override
+  public Collection<ServiceCalendarDate> getAllCalendarDates() {
+    return getEntities(ServiceCalendarDate.class);
+  }
+
+  @Override
+  public ServiceCalendarDate getCalendarDateForId(int id) {
+    return getEntityForId(ServiceCalendarDate.class, id);
+  }
+
+  @Override
+  public Collection<FareAttribute> getAllFareAttributes() {
+    return getEntities(FareAttribute.class);
+  }
+
+  @Override
+  public FareAttribute getFareAttributeForId(AgencyAndId id) {
+    return getEntityForId(FareAttribute.class, id);
+  }
+
+  @Override
+  public Collection<FareRule> getAllFareRules() {
+    return getEntities(FareRule.class);
+  }
+
+  @Override
+  public FareRule getFareRuleForId(int id) {
+    return getEntityForId(FareRule.class, id);
+  }
+
+  @Override
+  public Collection<FeedInfo> getAllFeedInfos() {
+    return getEntities(FeedInfo.class);
+  }
+
+  @Override
+  public FeedInfo getFeedInfoForId(int id) {
+    return getEntityForId(FeedInfo.class, id);
+  }
+
+  @Override
+  public Collection<Frequency> getAllFrequencies() {
+    return getEntities(Frequency.class);
+  }
+
+  @Override
+  public Frequency getFrequencyForId(int id) {
+    return getEntityForId(Frequency.class, id);
+  }
+
+  @Override
+  public Collection<Pathway> getAllPathways() {
+    return getEntities(Pathway.class);
+  }
+
+  @Override
+  public Pathway getPathwayForId(AgencyAndId id) {
+    return getEntityForId(Pathway.class, id);
+  }
+
+  @Override
+  public Collection<Route> getAllRoutes() {
+    return getEntities(Route.class);
+  }
+
+  @Override
+  public Route getRouteForId(AgencyAndId id) {
+    return getEntityForId(Route.class, id);
+  }
+
+  @Override
+  public Collection<ShapePoint> getAllShapePoints() {
+    return getEntities(ShapePoint.class);
+  }
+
+  @Override
+  public ShapePoint getShapePointForId(int id) {
+    return getEntityForId(ShapePoint.class, id);
+  }
+
+  @Override
+  public Collection<Stop> getAllStops() {
+    return getEntities(Stop.class);
+  }
+
+  @Override
+  public Stop getStopForId(AgencyAndId id) {
+    return getEntityForId(Stop.class, id);
+  }
+
+  @Override
+  public Collection<StopTime> getAllStopTimes() {
+    return getEntities(StopTime.class);
+  }
+
+  @Override
+  public StopTime getStopTimeForId(int id) {
+    return getEntityForId(StopTime.class, id);
+  }
+
+  @Override
+  public Collection<Transfer> getAllTransfers() {
+    return getEntities(Transfer.class);
+  }
+
+  @Override
+  public Transfer getTransferForId(int id) {
+    return getEntityForId(Transfer.class, id);
+  }
+
+  @Override
+  public Collection<Trip> getAllTrips() {
+    return getEntities(Trip.class);
+  }
+
+  @Override
+  public Trip getTripForId(AgencyAndId id) {
+    return getEntityForId(Trip.class, id);
+  }
+
+  /****
+   * {@link GtfsRelationalDao} Interface
+   ****/
+
+  @Override
+  public List<String> getTripAgencyIdsReferencingServiceId(AgencyAndId serviceId) {
+    Set<String> agencyIds = new TreeSet<String>();
+    for (Trip trip : getTripsForServiceId(serviceId))
+      agencyIds.add(trip.getId().getAgencyId());
+    return new ArrayList<String>(agencyIds);
+  }
+
+  @Override
+  public List<Route> getRoutesForAgency(Agency agency) {
+    return _routesByAgency.getValues(agency);
+  }
+
+  @Override
+  public List<Stop> getStopsForStation(Stop station) {
+    return _stopsByStation.getValues(station);
+  }
+
+  @Override
+  public List<Trip> getTripsForRoute(Route route) {
+    return _tripsByRoute.getValues(route);
+  }
+
+  @Override
+  public List<Trip> getTripsForShapeId(AgencyAndId shapeId) {
+    return _tripsByShapeId.getValues(shapeId);
+  }
+
+  @Override
+  public List<Trip> getTripsForServiceId(AgencyAndId serviceId) {
+    return _tripsByServiceId.getValues(serviceId);
+  }
+
+  @Override
+  public List<Trip> getTripsForBlockId(AgencyAndId blockId) {
+    return _tripsByBlockId.getValues(blockId);
+  }
+
+  @Override
+  public List<StopTime> getStopTimesForTrip(Trip trip) {
+    return _stopTimesByTrip.getValues(trip);
+  }
+
+  @Override
+  public List<StopTime> getStopTimesForStop(Stop stop) {
+    return _stopTimesByStop.getValues(stop);
+  }
+
+  @Override
+  public List<AgencyAndId> getAllShapeIds() {
+    return _shapeIds;
+  }
+
+  @Override
+  public List<ShapePoint> getShapePointsForShapeId(AgencyAndId shapeId) {
+    return _shapePointsByShapeId.getValues(shapeId);
+  }
+
+  @Override
+  public List<Frequency> getFrequenciesForTrip(Trip trip) {
+    return _frequenciesByTrip.getValues(trip);
+  }
+
+  @Override
+  public List<AgencyAndId> getAllServiceIds() {
+    return _serviceIds;
+  }
+
+  @Override
+  public ServiceCalendar getCalendarForServiceId(AgencyAndId serviceId) {
+    List<ServiceCalendar> calendars = _calendarsByServiceId.getValues(serviceId);
+    return calendars.isEmpty() ? null : calendars.get(0);
+  }
+
+  @Override
+  public List<ServiceCalendarDate> getCalendarDatesForServiceId(
+      AgencyAndId serviceId) {
+    return _calendarDatesByServiceId.getValues(serviceId);
+  }
+
+  @Override
+  public List<FareRule> getFareRulesForFareAttribute(FareAttribute fareAttribute) {
+    return _fareRulesByFareAttribute.getValues(fareAttribute);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  @SuppressWarnings("unchecked")
+  private <T> List<T> getEntities(Class<T> type) {
+    EntityArray<T> entities = (EntityArray<T>) _entitiesByType.get(type);
+    if (entities == null)
+      return Collections.emptyList();
+    return entities.getEntities();
+  }
+
+  private static <T> EntityArray<T> createEntityArray(
+      GtfsRelationalDaoImpl dao, Class<T> type) {
+    // Packed rows are looked up by id, which is only their position as long
+    // as no row was removed. Stop times grouped into patterns are ordered by
+    // trip instead, and looked up through the index of their ids.
+    if (dao.isPackStopTimes() && type.equals(StopTime.class)) {
+      dao.getAllStopTimes();
+      List<?> stopTimes = dao.getPackedEntities(type);
+      if (stopTimes instanceof StopTimePatternArray)
+        return new EntityArray<T>((StopTimePatternArray) stopTimes);
+      if (((StopTimeArray) stopTimes).getRemovedCount() == 0)
+        return new EntityArray<T>(stopTimes);
+    } else if (dao.isPackShapePoints() && type.equals(ShapePoint.class)) {
+      dao.getAllShapePoints();
+      ShapePointArray shapePoints = dao.getShapePointArray();
+      if (shapePoints.getRemovedCount() == 0)
+        return new EntityArray<T>(shapePoints);
+    }
+    Object[] entities = dao.getAllEntitiesForType(type).toArray();
+    Arrays.sort(entities, ID_ORDER);
+    return new EntityArray<T>(entities);
+  }
+
+  private <K, V> Relation<V> createRelation(Class<V> valueType,
+      Collection<K> keys, RelationQuery<K, V> query) {
+
+    @SuppressWarnings("unchecked")
+    EntityArray<V> values = (EntityArray<V>) _entitiesByType.get(valueType);
+
+    Map<Object, Integer> groupsByKey = new HashMap<Object, Integer>();
+    List<List<V>> groups = new ArrayList<List<V>>();
+    int count = 0;
+    for (K key : keys) {
+      List<V> group = query.getValues(key);
+      if (group.isEmpty() || groupsByKey.containsKey(key))
+        continue;
+      groupsByKey.put(key, groups.size());
+      groups.add(group);
+      count += group.size();
+    }
+
+    int[] offsets = new int[groups.size() + 1];
+    int[] rows = new int[count];
+    int index = 0;
+    for (int i = 0; i < groups.size(); i++) {
+      offsets[i] = index;
+      for (V value : groups.get(i))
+        rows[index++] = values.getRow(value);
+    }
+    offsets[groups.size()] = index;
+
+    return new Relation<V>(values.getEntities(), groupsByKey, offsets, rows);
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private interface RelationQuery<K, V> {
+    public List<V> getValues(K key);
+  }
+
+  /**
+   * The entities of a type, sorted by id, or the rows of a packed array, whose
+   * ids are their positions in the array, or stop times grouped into patterns
+   */
+  private static final class EntityArray<T> {
+
+    private final List<T> _entities;
+
+    private final Object[] _ids;
+
+    private final StopTimePatternArray _patterns;
+
+    @SuppressWarnings("unchecked")
+    public EntityArray(Object[] entities) {
+      _entities = Collections.unmodifiableList((List<T>) Arrays.asList(entities));
+      _ids = new Object[entities.length];
+      for (int i = 0; i < entities.length; i++)
+        _ids[i] = ((IdentityBean<?>) entities[i]).getId();
+      _patterns = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public EntityArray(List<?> packedEntities) {
+      _entities = Collections.unmodifiableList((List<T>) packedEntities);
+      _ids = null;
+      _patterns = null;
+    }
+
+    @SuppressWarnings("unchecked")
+    public EntityArray(StopTimePatternArray patterns) {
+      _entities = Collections.unmodifiableList((List<T>) patterns);
+      _ids = null;
+      _patterns = patterns;
+    }
+
+    public List<T> getEntities() {
+      return _entities;
+    }
+
+    /**
+     * @return the position of the entity with the specified id, or a negative
+     *         value if there is none
+     */
+    public int getRowForId(Serializable id) {
+      if (_patterns != null) {
+        if (!(id instanceof Integer))
+          return -1;
+        return _patterns.getIndexForId((Integer) id);
+      }
+      if (_ids == null) {
+        if (!(id instanceof Integer))
+          return -1;
+        int row = (Integer) id;
+        return row < _entities.size() ? row : -1;
+      }
+      return Arrays.binarySearch(_ids, id);
+    }
+
+    public int getRow(Object entity) {
+      int row = -1;
+      if (_patterns != null)
+        row = _patterns.getRow((StopTime) entity);
+      if (row < 0)
+        row = getRowForId(((IdentityBean<?>) entity).getId());
+      if (row < 0)
+        throw new IllegalStateException("related entity is not stored: "
+            + entity);
+      return row;
+    }
+  }
+
+  /**
+   * The entities related to each key, as ranges of an array of entity
+   * positions grouped by key
+   */
+  private static final class Relation<V> {
+
+    private final List<V> _entities;
+
+    private final Map<Object, Integer> _groupsByKey;
+
+    private final int[] _offsets;
+
+    private final int[] _rows;
+
+    public Relation(List<V> entities, Map<Object, Integer> groupsByKey,
+        int[] offsets, int[] rows) {
+      _entities = entities;
+      _groupsByKey = groupsByKey;
+      _offsets = offsets;
+      _rows = rows;
+    }
+
+    public List<V> getValues(Object key) {
+      Integer group = _groupsByKey.get(key);
+      if (group == null)
+        return Collections.emptyList();
+      return new RowList<V>(_entities, _rows, _offsets[group],
+          _offsets[group + 1]);
+    }
+  }
+
+  /**
+   * An unmodifiable view of a range of entity positions
+   */
+  private static final class RowList<V> extends AbstractList<V> implements
+      RandomAccess {
+
+    private final List<V> _entities;
+
+    private final int[] _rows;
+
+    private final int _from;
+
+    private final int _size;
+
+    public RowList(List<V> entities, int[] rows, int from, int to) {
+      _entities = entities;
+      _rows = rows;
+      _from = from;
+      _size = to - from;
+    }
+
+    @Override
+    public V get(int index) {
+      if (index < 0 || index >= _size)
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+            + _size);
+      return _entities.get(_rows[_from + index]);
+    }
+
+    @Override
+    public int size() {
+      return _size;
+    }
+  }
+}
@@ -17,42 +17,158 @@ package org.onebusaway.gtfs.impl;
 
 import java.io.Serializable;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.IdentityBean;
 import org.onebusaway.gtfs.services.GenericMutableDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * A simple in-memory {@link GenericMutableDao}, keeping entities in a map per
+ * entity type.
+ * 
+ * Entities of different types may be saved concurrently from different
+ * threads, as long as each entity type has a single writer at a time and
+ * readers of a type only look it up after its writer has finished, which is
+ * how the parallel mode of
+ * {@link org.onebusaway.gtfs.serialization.GtfsReader} uses it.
+ * 
+ * Entity types with integer ids, which are generated densely from 1 as
+ * entities are saved, are kept in an array indexed by id rather than a map.
+ * 
+ * When {@link #setCanonicalizeIds(boolean)} is enabled, {@link AgencyAndId}
+ * entity ids are canonicalized through an {@link AgencyAndIdTable} as entities
+ * are saved.
+ * 
+ * An {@link EntityLoader} may be registered for an entity type, in which case
+ * the entities of the type are only loaded the first time they are looked up.
+ * 
+ * Storage can be sized for a known number of entities with
+ * {@link #ensureCapacity(Class, int)} before they are saved, and trimmed to
+ * the entities actually saved with {@link #compact()} afterwards.
+ */
 public class GenericDaoImpl implements GenericMutableDao {
 
   private final Logger _log = LoggerFactory.getLogger(GenericDaoImpl.class);
 
-  private Map<Class<?>, Map<Object, Object>> _entitiesByClassAndId = new HashMap<Class<?>, Map<Object, Object>>();
+  private Map<Class<?>, Map<Object, Object>> _entitiesByClassAndId = new ConcurrentHashMap<Class<?>, Map<Object, Object>>();
+
+  private Map<Class<?>, EntityHandler<Serializable>> _handlers = new ConcurrentHashMap<Class<?>, EntityHandler<Serializable>>();
+
+  private final AgencyAndIdTable _idTable = new AgencyAndIdTable();
 
-  private Map<Class<?>, EntityHandler<Serializable>> _handlers = new HashMap<Class<?>, EntityHandler<Serializable>>();
+  private final Map<Class<?>, EntityLoader> _loadersByType = new ConcurrentHashMap<Class<?>, EntityLoader>();
+
+  /**
+   * Guards all entity loaders, rather than one lock per type, since loading
+   * one type can look up, and so load, another
+   */
+  private final Object _loaderLock = new Object();
 
   private boolean _generateIds = true;
 
+  private boolean _canonicalizeIds = false;
+
   public void setGenerateIds(boolean generateIds) {
     _generateIds = generateIds;
   }
 
+  public boolean isCanonicalizeIds() {
+    return _canonicalizeIds;
+  }
+
+  /**
+   * Replaces the {@link AgencyAndId} id of each saved entity by its canonical
+   * instance from {@link #getIdTable()}. Disabled by default, since the table
+   * then keeps an entry for every stored id.
+   */
+  public void setCanonicalizeIds(boolean canonicalizeIds) {
+    _canonicalizeIds = canonicalizeIds;
+  }
+
+  /**
+   * @return the table canonicalizing the {@link AgencyAndId} ids of the stored
+   *         entities. Surrogate keys are only assigned by the packed storage of
+   *         {@link GtfsDaoImpl}, for the types it packs.
+   */
+  public AgencyAndIdTable getIdTable() {
+    return _idTable;
+  }
+
+  /**
+   * Defers loading the entities of the specified type until they are first
+   * looked up through {@link #getAllEntitiesForType(Class)},
+   * {@link #getEntityForId(Class, Serializable)} or one of the methods built
+   * on them. The loader is called at most once, even when several threads look
+   * up the type at the same time, and it adds the entities with
+   * {@link #saveEntity(Object)}. If the loader fails, the entities it saved are
+   * discarded and the next lookup tries again.
+   * 
+   * @param entityType
+   * @param loader
+   */
+  public void setEntityLoader(Class<?> entityType, EntityLoader loader) {
+    _loadersByType.put(entityType, loader);
+  }
+
+  /**
+   * @param entityType
+   * @return true if entities of the type are still waiting to be loaded by an
+   *         {@link EntityLoader}
+   */
+  public boolean isPendingEntityLoad(Class<?> entityType) {
+    EntityLoader loader = _loadersByType.get(entityType);
+    return loader != null && loader != LOADED;
+  }
+
+  /**
+   * Sizes the storage of an entity type that has no entities yet for the
+   * specified number of entities, so that it does not have to grow while they
+   * are saved. Storage that already holds entities is left as is.
+   * 
+   * @param entityType
+   * @param additionalEntities the number of entities about to be saved
+   */
+  public void ensureCapacity(Class<?> entityType, int additionalEntities) {
+    if (!_entitiesByClassAndId.containsKey(entityType))
+      _entitiesByClassAndId.put(entityType, createEntityMap(entityType,
+          additionalEntities));
+  }
+
+  /**
+   * Trims the storage of every entity type to the entities it holds, and
+   * replaces equal strings held by the stored entities with a single instance.
+   * This is meant to be called once loading is complete: maps previously
+   * returned by {@link #getEntitiesByIdForEntityType(Class, Class)} are no
+   * longer updated afterwards.
+   */
+  public void compact() {
+    compact(new HashMap<String, String>());
+  }
+
   public Set<Class<?>> getEntityClasses() {
     return _entitiesByClassAndId.keySet();
   }
 
   public void clear() {
     _entitiesByClassAndId.clear();
+    _loadersByType.clear();
+    _idTable.clear();
   }
 
   @SuppressWarnings("unchecked")
   public <K, V> Map<K, V> getEntitiesByIdForEntityType(Class<K> keyType,
       Class<V> entityType) {
+    ensureLoaded(entityType);
     return (Map<K, V>) _entitiesByClassAndId.get(entityType);
   }
 
@@ -63,6 +179,7 @@ public class GenericDaoImpl implements GenericMutableDao {
   @SuppressWarnings("unchecked")
   @Override
   public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+    ensureLoaded(type);
     Map<Object, Object> entitiesById = _entitiesByClassAndId.get(type);
     if (entitiesById == null)
       return new ArrayList<T>();
@@ -72,6 +189,7 @@ public class GenericDaoImpl implements GenericMutableDao {
   @SuppressWarnings("unchecked")
   @Override
   public <T> T getEntityForId(Class<T> type, Serializable id) {
+    ensureLoaded(type);
     Map<Object, Object> byId = _entitiesByClassAndId.get(type);
 
     if (byId == null) {
@@ -99,10 +217,17 @@ public class GenericDaoImpl implements GenericMutableDao {
 
     Map<Object, Object> byId = _entitiesByClassAndId.get(c);
     if (byId == null) {
-      byId = new HashMap<Object, Object>();
+      byId = createEntityMap(c, 0);
       _entitiesByClassAndId.put(c, byId);
     }
     Object id = bean.getId();
+    if (_canonicalizeIds && id instanceof AgencyAndId) {
+      AgencyAndId canonicalId = _idTable.intern((AgencyAndId) id);
+      if (canonicalId != id) {
+        bean.setId(canonicalId);
+        id = canonicalId;
+      }
+    }
     Object prev = byId.put(id, entity);
     if (prev != null)
       _log.warn("entity with id already exists: class=" + c + " id=" + id
@@ -131,6 +256,8 @@ public class GenericDaoImpl implements GenericMutableDao {
 
   @Override
   public <T> void clearAllEntitiesForType(Class<T> type) {
+    if (_loadersByType.containsKey(type))
+      _loadersByType.put(type, LOADED);
     _entitiesByClassAndId.remove(type);
   }
 
@@ -141,6 +268,8 @@ public class GenericDaoImpl implements GenericMutableDao {
     Class<?> type = entity.getClass();
     K id = entity.getId();
 
+    ensureLoaded(type);
+
     Map<Object, Object> byId = _entitiesByClassAndId.get(type);
 
     if (byId == null) {
@@ -170,23 +299,146 @@ public class GenericDaoImpl implements GenericMutableDao {
   }
 
   /****
-   * Private Methods
+   * Protected Methods
    ****/
 
-  private EntityHandler<?> createEntityHandler(Class<?> entityType) {
+  /**
+   * @param strings the canonical instance of each string seen so far, which
+   *          subclasses should use for the strings of their own storage
+   */
+  protected void compact(Map<String, String> strings) {
+    for (Map.Entry<Class<?>, Map<Object, Object>> entry : _entitiesByClassAndId.entrySet()) {
+      Map<Object, Object> entitiesById = entry.getValue();
+      List<Field> fields = getStringFields(entry.getKey());
+      for (Object entity : entitiesById.values())
+        internStrings(entity, fields, strings);
+      if (entitiesById instanceof IntegerIdEntityMap) {
+        ((IntegerIdEntityMap) entitiesById).trimToSize();
+        continue;
+      }
+      Map<Object, Object> compacted = new HashMap<Object, Object>(
+          getMapCapacity(entitiesById.size()));
+      compacted.putAll(entitiesById);
+      entry.setValue(compacted);
+    }
+  }
+
+  /**
+   * @return the canonical instance of the specified string, which becomes the
+   *         canonical instance if there is none yet
+   */
+  protected static String internString(Map<String, String> strings,
+      String value) {
+    if (value == null)
+      return null;
+    String existing = strings.get(value);
+    if (existing != null)
+      return existing;
+    strings.put(value, value);
+    return value;
+  }
 
-    if (_generateIds) {
+  /**
+   * Runs the pending {@link EntityLoader} of the specified type, if any.
+   * Threads looking up the type while it is being loaded wait for the load to
+   * complete, except for the loading thread itself, which sees the entities
+   * loaded so far.
+   */
+  protected void ensureLoaded(Class<?> entityType) {
+    if (_loadersByType.isEmpty())
+      return;
+    EntityLoader loader = _loadersByType.get(entityType);
+    if (loader == null || loader == LOADED)
+      return;
+    synchronized (_loaderLock) {
+      loader = _loadersByType.get(entityType);
+      if (loader == LOADED || loader == LOADING)
+        return;
+      _loadersByType.put(entityType, LOADING);
+      boolean loaded = false;
       try {
-        Field field = entityType.getDeclaredField("id");
-        if (field != null) {
-          Class<?> type = field.getType();
-          if (type.equals(Integer.class) || type.equals(Integer.TYPE))
-            return new GeneratedIdHandler();
+        _log.info("loading entities on demand: " + entityType.getName());
+        loader.loadEntities(entityType);
+        loaded = true;
+      } finally {
+        if (loaded) {
+          _loadersByType.put(entityType, LOADED);
+        } else {
+          clearAllEntitiesForType(entityType);
+          _loadersByType.put(entityType, loader);
         }
-      } catch (Exception ex) {
+      }
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * @return the storage of an entity type, which is an array indexed by id for
+   *         entity types with integer ids
+   */
+  private static Map<Object, Object> createEntityMap(Class<?> entityType,
+      int expectedSize) {
+    if (hasIntegerId(entityType))
+      return new IntegerIdEntityMap(expectedSize);
+    return new HashMap<Object, Object>(getMapCapacity(expectedSize));
+  }
+
+  private static boolean hasIntegerId(Class<?> entityType) {
+    try {
+      Class<?> type = entityType.getDeclaredField("id").getType();
+      return type.equals(Integer.class) || type.equals(Integer.TYPE);
+    } catch (NoSuchFieldException ex) {
+      return false;
+    } catch (SecurityException ex) {
+      return false;
+    }
+  }
+
+  private static int getMapCapacity(int size) {
+    return (int) Math.min(Integer.MAX_VALUE, (long) size * 4 / 3 + 1);
+  }
 
+  private static List<Field> getStringFields(Class<?> entityType) {
+    List<Field> fields = new ArrayList<Field>();
+    for (Class<?> c = entityType; c != null && c != Object.class;
+        c = c.getSuperclass()) {
+      for (Field field : c.getDeclaredFields()) {
+        int modifiers = field.getModifiers();
+        if (field.getType() == String.class && !Modifier.isStatic(modifiers)
+            && !Modifier.isFinal(modifiers)) {
+          try {
+            field.setAccessible(true);
+            fields.add(field);
+          } catch (SecurityException ex) {
+            // the field is left as is
+          }
+        }
+      }
+    }
+    return fields;
+  }
+
+  private static void internStrings(Object entity, List<Field> fields,
+      Map<String, String> strings) {
+    try {
+      for (Field field : fields) {
+        String value = (String) field.get(entity);
+        String canonical = internString(strings, value);
+        if (canonical != value)
+          field.set(entity, canonical);
       }
+    } catch (IllegalAccessException ex) {
+      throw new IllegalStateException(ex);
     }
+  }
+
+  private EntityHandler<?> createEntityHandler(Class<?> entityType) {
+
+    if (_generateIds && hasIntegerId(entityType))
+      return new GeneratedIdHandler();
 
     return new EntityHandler<Serializable>() {
       public void handle(IdentityBean<Serializable> entity) {
@@ -194,6 +446,25 @@ public class GenericDaoImpl implements GenericMutableDao {
     };
   }
 
+  /**
+   * Loads the entities of a type on demand.
+   * 
+   * @see GenericDaoImpl#setEntityLoader(Class, EntityLoader)
+   */
+  public interface EntityLoader {
+    public void loadEntities(Class<?> entityType);
+  }
+
+  private static final EntityLoader LOADING = new EntityLoader() {
+    public void loadEntities(Class<?> entityType) {
+    }
+  };
+
+  private static final EntityLoader LOADED = new EntityLoader() {
+    public void loadEntities(Class<?> entityType) {
+    }
+  };
+
   private interface EntityHandler<T extends Serializable> {
     public void handle(IdentityBean<T> entity);
   }
@@ -16,8 +16,13 @@
 package org.onebusaway.gtfs.impl;
 
 import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -38,17 +43,47 @@ import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.services.GenericMutableDao;
 import org.onebusaway.gtfs.services.GtfsDao;
 import org.onebusaway.gtfs.services.GtfsMutableDao;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
 
+  private final Logger _log = LoggerFactory.getLogger(GtfsDaoImpl.class);
+
   private StopTimeArray stopTimes = new StopTimeArray();
 
+  /**
+   * The stop times of {@link #stopTimes}, grouped into patterns when the dao is
+   * closed, or null while they are stored as rows
+   */
+  private StopTimePatternArray stopTimePatterns = null;
+
+  /**
+   * The patterns last converted back to rows of {@link #stopTimes}, whose stop
+   * times can still be removed by their id until the dao is closed again
+   */
+  private StopTimePatternArray unpackedStopTimePatterns = null;
+
   private ShapePointArray shapePoints = new ShapePointArray();
 
+  private final TripArray trips = new TripArray(getIdTable());
+
+  private final StopArray stops = new StopArray(getIdTable());
+
+  private final RouteArray routes = new RouteArray(getIdTable());
+
   private boolean packStopTimes = false;
 
+  private boolean packStopTimePatterns = false;
+
   private boolean packShapePoints = false;
 
+  private boolean packTrips = false;
+
+  private boolean packStops = false;
+
+  private boolean packRoutes = false;
+
   public boolean isPackStopTimes() {
     return packStopTimes;
   }
@@ -57,6 +92,23 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
     this.packStopTimes = packStopTimes;
   }
 
+  public boolean isPackStopTimePatterns() {
+    return packStopTimePatterns;
+  }
+
+  /**
+   * Groups packed stop times into a {@link StopTimePatternArray} when the dao
+   * is closed, so that trips repeating the stops of another trip at a shifted
+   * time only store their start time. Stop times are then ordered by trip and
+   * stop sequence, and keep their ids. Saving or removing stop times converts
+   * them back to rows until the dao is closed again, as does
+   * {@link #unpackStopTimePatterns()}. Has no effect unless
+   * {@link #setPackStopTimes(boolean)} is enabled.
+   */
+  public void setPackStopTimePatterns(boolean packStopTimePatterns) {
+    this.packStopTimePatterns = packStopTimePatterns;
+  }
+
   public boolean isPackShapePoints() {
     return packShapePoints;
   }
@@ -65,6 +117,131 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
     this.packShapePoints = packShapePoints;
   }
 
+  public boolean isPackTrips() {
+    return packTrips;
+  }
+
+  /**
+   * Stores trips in a {@link TripArray} rather than as {@link Trip} objects.
+   * Packed stop times then refer to their trip by row, so this is most
+   * effective along with {@link #setPackStopTimes(boolean)}. Must be set
+   * before any stop time is saved. As with unpacked trips, a trip is returned
+   * as the same instance each time, as long as that instance is referenced.
+   */
+  public void setPackTrips(boolean packTrips) {
+    stopTimes.setTripArray(packTrips ? trips : null);
+    this.packTrips = packTrips;
+  }
+
+  public boolean isPackStops() {
+    return packStops;
+  }
+
+  public void setPackStops(boolean packStops) {
+    this.packStops = packStops;
+  }
+
+  public boolean isPackRoutes() {
+    return packRoutes;
+  }
+
+  public void setPackRoutes(boolean packRoutes) {
+    this.packRoutes = packRoutes;
+  }
+
+  /**
+   * @return the packed storage for stop times, used when
+   *         {@link #isPackStopTimes()} is enabled, which is empty while the
+   *         stop times are grouped into patterns, until
+   *         {@link #unpackStopTimePatterns()} is called
+   */
+  public StopTimeArray getStopTimeArray() {
+    return stopTimes;
+  }
+
+  /**
+   * @return the stop times grouped into patterns when the dao was closed, or
+   *         null while they are stored as rows
+   */
+  public StopTimePatternArray getStopTimePatternArray() {
+    return stopTimePatterns;
+  }
+
+  /**
+   * Converts the stop times grouped into patterns back to rows of the
+   * {@link #getStopTimeArray()}, which they are stored as until the dao is
+   * closed again. Each stop time keeps its id as its row. Stop times obtained
+   * before are invalidated. Does nothing while the stop times are stored as
+   * rows.
+   */
+  public void unpackStopTimePatterns() {
+    if (stopTimePatterns == null)
+      return;
+    StopTimePatternArray patterns = stopTimePatterns;
+    stopTimePatterns = null;
+    unpackedStopTimePatterns = patterns;
+    int rowCount = patterns.getIdCount();
+    stopTimes.ensureCapacity(rowCount);
+    for (int id = 0; id < rowCount; id++) {
+      StopTime stopTime = patterns.getForId(id);
+      if (stopTime != null) {
+        stopTimes.add(stopTime);
+      } else {
+        // Removed rows are kept as such, so that rows stay equal to ids
+        stopTimes.add(null, null, StopTime.MISSING_VALUE,
+            StopTime.MISSING_VALUE, 0, 0, null, null, 0, 0,
+            StopTime.MISSING_VALUE);
+        stopTimes.removeRow(id);
+      }
+    }
+    packedEntitiesReplaced(StopTime.class);
+  }
+
+  /**
+   * Replaces the packed storage for stop times, such as with an
+   * {@link OffHeapStopTimeArray} to keep stop times outside of the heap. Must
+   * be set before any stop time is saved.
+   */
+  public void setStopTimeArray(StopTimeArray stopTimes) {
+    if (!this.stopTimes.isEmpty() || stopTimePatterns != null)
+      throw new IllegalStateException(
+          "stop time storage can't change once stop times are added");
+    stopTimes.setTripArray(packTrips ? trips : null);
+    this.stopTimes = stopTimes;
+  }
+
+  /**
+   * @return the packed storage for shape points, used when
+   *         {@link #isPackShapePoints()} is enabled
+   */
+  public ShapePointArray getShapePointArray() {
+    return shapePoints;
+  }
+
+  /**
+   * @return the packed storage for trips, used when {@link #isPackTrips()} is
+   *         enabled
+   */
+  public TripArray getTripArray() {
+    return trips;
+  }
+
+  /**
+   * @return the packed storage for stops, used when {@link #isPackStops()} is
+   *         enabled
+   */
+  public StopArray getStopArray() {
+    return stops;
+  }
+
+  /**
+   * @return the packed storage for routes, used when {@link #isPackRoutes()}
+   *         is enabled
+   */
+  public RouteArray getRouteArray() {
+    return routes;
+  }
+
   /***
    * {@link GtfsDao} Interface
    ****/
@@ -108,6 +285,7 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
 
   public Collection<ShapePoint> getAllShapePoints() {
     if (packShapePoints) {
+      ensureLoaded(ShapePoint.class);
       return shapePoints;
     }
     return getAllEntitiesForType(ShapePoint.class);
@@ -115,7 +293,8 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
 
   public Collection<StopTime> getAllStopTimes() {
     if (packStopTimes) {
-      return stopTimes;
+      ensureLoaded(StopTime.class);
+      return getPackedStopTimes();
     }
     return getAllEntitiesForType(StopTime.class);
   }
@@ -171,7 +350,8 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
 
   public ShapePoint getShapePointForId(int id) {
     if (packShapePoints) {
-      return shapePoints.get(id);
+      ensureLoaded(ShapePoint.class);
+      return shapePoints.getForId(id);
     }
     return getEntityForId(ShapePoint.class, id);
   }
@@ -182,7 +362,8 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
 
   public StopTime getStopTimeForId(int id) {
     if (packStopTimes) {
-      return stopTimes.get(id);
+      ensureLoaded(StopTime.class);
+      return getPackedStopTimeForId(id);
     }
     return getEntityForId(StopTime.class, id);
   }
@@ -199,92 +380,394 @@ public class GtfsDaoImpl extends GenericDaoImpl implements GtfsMutableDao {
    * {@link GenericMutableDao} Interface
    ****/
 
+  /**
+   * For packed entities, the map is a read-only view of their storage, which
+   * reflects later changes.
+   */
+  @SuppressWarnings("unchecked")
   @Override
   public <K, V> Map<K, V> getEntitiesByIdForEntityType(Class<K> keyType,
       Class<V> entityType) {
-    noKeyCheck(keyType);
+    ensureLoaded(entityType);
+    if (getPackedEntities(entityType) != null)
+      return (Map<K, V>) new PackedEntityMap(entityType);
     return super.getEntitiesByIdForEntityType(keyType, entityType);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
-    if (packStopTimes && type.equals(StopTime.class)) {
-      return (Collection<T>) stopTimes;
-    } else if (packShapePoints && type.equals(ShapePoint.class)) {
-      return (Collection<T>) shapePoints;
-    }
+    ensureLoaded(type);
+    List<?> packed = getPackedEntities(type);
+    if (packed != null)
+      return (Collection<T>) packed;
     return super.getAllEntitiesForType(type);
   }
 
   @SuppressWarnings("unchecked")
   @Override
   public <T> T getEntityForId(Class<T> type, Serializable id) {
+    ensureLoaded(type);
     if (packStopTimes && type.equals(StopTime.class)) {
-      return (T) stopTimes.get((Integer) id);
+      return (T) getPackedStopTimeForId((Integer) id);
     } else if (packShapePoints && type.equals(ShapePoint.class)) {
-      return (T) shapePoints.get((Integer) id);
+      return (T) shapePoints.getForId((Integer) id);
+    } else if (packTrips && type.equals(Trip.class)) {
+      return (T) trips.getForId((AgencyAndId) id);
+    } else if (packStops && type.equals(Stop.class)) {
+      return (T) stops.getForId((AgencyAndId) id);
+    } else if (packRoutes && type.equals(Route.class)) {
+      return (T) routes.getForId((AgencyAndId) id);
     }
     return super.getEntityForId(type, id);
   }
 
   @Override
   public void saveEntity(Object entity) {
-    if (packStopTimes && entity.getClass().equals(StopTime.class)) {
-      stopTimes.add((StopTime) entity);
-      return;
-    } else if (packShapePoints && entity.getClass().equals(ShapePoint.class)) {
-      shapePoints.add((ShapePoint) entity);
+    if (entity instanceof StopTime)
+      unpackStopTimePatterns();
+    @SuppressWarnings("unchecked")
+    List<Object> packed = (List<Object>) getPackedEntities(entity.getClass());
+    if (packed != null) {
+      packed.add(entity);
       return;
     }
     super.saveEntity(entity);
   }
 
   @Override
-  public <T> void clearAllEntitiesForType(Class<T> type) {
-    if (packStopTimes && type.equals(StopTime.class)) {
-      stopTimes.clear();
+  public void saveOrUpdateEntity(Object entity) {
+    // A packed entity is stored as a row, and saved again unless it is a proxy
+    // to its row
+    if (entity instanceof StopTime && packStopTimes
+        && getPackedStopTimeRow((StopTime) entity) >= 0) {
       return;
-    } else if (packShapePoints && type.equals(ShapePoint.class)) {
-      shapePoints.clear();
+    } else if (entity instanceof ShapePoint && packShapePoints
+        && shapePoints.getRow((ShapePoint) entity) >= 0) {
+      return;
+    } else if (entity instanceof Trip && packTrips
+        && trips.getRow((Trip) entity) >= 0) {
+      return;
+    } else if (entity instanceof Stop && packStops
+        && stops.getRow((Stop) entity) >= 0) {
+      return;
+    } else if (entity instanceof Route && packRoutes
+        && routes.getRow((Route) entity) >= 0) {
       return;
     }
+    super.saveOrUpdateEntity(entity);
+  }
+
+  @Override
+  public <T> void clearAllEntitiesForType(Class<T> type) {
+    List<?> packed = getPackedEntities(type);
+    if (packed != null)
+      packed.clear();
+    if (type.equals(StopTime.class)) {
+      stopTimePatterns = null;
+      unpackedStopTimePatterns = null;
+    }
     super.clearAllEntitiesForType(type);
   }
 
+  @Override
+  public void clear() {
+    stopTimes.clear();
+    stopTimePatterns = null;
+    unpackedStopTimePatterns = null;
+    shapePoints.clear();
+    trips.clear();
+    stops.clear();
+    routes.clear();
+    super.clear();
+  }
+
+  /**
+   * Packed entities are marked as removed, so that the others keep their rows.
+   * The removed rows of stop times and shape points are kept when the dao is
+   * closed, so that the stop times and shape points obtained before stay
+   * valid, and are only dropped by {@link #compact()}, which numbers the
+   * others again. The removed rows of trips, stops and routes are always kept,
+   * as packed stop times may refer to them.
+   * 
+   * A stop time or shape point is only removed if it was returned by this dao,
+   * since its id is its row: another with the same id, such as a copy or one
+   * of another dao, is not stored, and leaves the stored one in place.
+   */
   @Override
   public <K extends Serializable, T extends IdentityBean<K>> void removeEntity(
       T entity) {
-    if (packStopTimes && entity.getClass().equals(StopTime.class)) {
-      throw new UnsupportedOperationException();
-    } else if (packShapePoints && entity.getClass().equals(ShapePoint.class)) {
-      throw new UnsupportedOperationException();
+    int row;
+    if (entity instanceof StopTime && packStopTimes) {
+      row = getStoredStopTimeRow((StopTime) entity);
+      if (row >= 0) {
+        // Stop times keep their ids as rows when converted back to rows
+        unpackStopTimePatterns();
+        stopTimes.removeRow(row);
+      }
+    } else if (entity instanceof ShapePoint && packShapePoints) {
+      row = shapePoints.getRow((ShapePoint) entity);
+      shapePoints.removeRow(row);
+    } else if (entity instanceof Trip && packTrips) {
+      row = trips.getRow((Trip) entity);
+      trips.removeRow(row);
+    } else if (entity instanceof Stop && packStops) {
+      row = stops.getRow((Stop) entity);
+      stops.removeRow(row);
+    } else if (entity instanceof Route && packRoutes) {
+      row = routes.getRow((Route) entity);
+      routes.removeRow(row);
+    } else {
+      super.removeEntity(entity);
+      return;
+    }
+    if (row < 0)
+      _log.warn("no stored entity with type " + entity.getClass()
+          + " and id " + entity.getId());
+  }
+
+  @Override
+  public void ensureCapacity(Class<?> entityType, int additionalEntities) {
+    if (packStopTimes && entityType.equals(StopTime.class)) {
+      unpackStopTimePatterns();
+      stopTimes.ensureCapacity(stopTimes.getRowCount() + additionalEntities);
+    } else if (packShapePoints && entityType.equals(ShapePoint.class)) {
+      shapePoints.ensureCapacity(shapePoints.getRowCount()
+          + additionalEntities);
+    } else if (packTrips && entityType.equals(Trip.class)) {
+      trips.ensureCapacity(trips.getRowCount() + additionalEntities);
+    } else if (packStops && entityType.equals(Stop.class)) {
+      stops.ensureCapacity(stops.getRowCount() + additionalEntities);
+    } else if (packRoutes && entityType.equals(Route.class)) {
+      routes.ensureCapacity(routes.getRowCount() + additionalEntities);
+    } else {
+      super.ensureCapacity(entityType, additionalEntities);
     }
-    super.removeEntity(entity);
   }
 
   @Override
   public void close() {
-    if (packStopTimes) {
+    unpackedStopTimePatterns = null;
+    if (packStopTimes && packStopTimePatterns && !stopTimes.isEmpty()) {
+      stopTimePatterns = new StopTimePatternArray(stopTimes,
+          stopTimes.getTripArray());
+      stopTimes.clear();
+      stopTimes.trimToSize();
+    } else if (packStopTimes) {
       stopTimes.trimToSize();
     }
     if (packShapePoints) {
       shapePoints.trimToSize();
     }
+    if (packTrips)
+      trips.trimToSize();
+    if (packStops)
+      stops.trimToSize();
+    if (packRoutes)
+      routes.trimToSize();
     super.close();
   }
 
+  /****
+   * Protected Methods
+   ****/
+
+  @Override
+  protected void compact(Map<String, String> strings) {
+    super.compact(strings);
+    compactPackedRows();
+    if (packStopTimes) {
+      stopTimes.trimToSize();
+      stopTimes.internStrings(strings);
+      if (stopTimePatterns != null)
+        stopTimePatterns.internStrings(strings);
+    }
+    if (packShapePoints)
+      shapePoints.trimToSize();
+    if (packTrips)
+      trips.trimToSize();
+    if (packStops)
+      stops.trimToSize();
+    if (packRoutes)
+      routes.trimToSize();
+  }
+
+  /**
+   * @return the packed storage of the entity type, or null if its entities
+   *         are not packed
+   */
+  protected List<?> getPackedEntities(Class<?> type) {
+    if (packStopTimes && type.equals(StopTime.class))
+      return getPackedStopTimes();
+    if (packShapePoints && type.equals(ShapePoint.class))
+      return shapePoints;
+    if (packTrips && type.equals(Trip.class))
+      return trips;
+    if (packStops && type.equals(Stop.class))
+      return stops;
+    if (packRoutes && type.equals(Route.class))
+      return routes;
+    return null;
+  }
+
+  /**
+   * @return whether the entity, of a packed type, is stored by this dao, as
+   *         {@link #removeEntity(IdentityBean)} finds it
+   */
+  protected boolean isPackedEntityStored(Object entity) {
+    if (entity instanceof StopTime && packStopTimes)
+      return getStoredStopTimeRow((StopTime) entity) >= 0;
+    if (entity instanceof ShapePoint && packShapePoints)
+      return shapePoints.getRow((ShapePoint) entity) >= 0;
+    if (entity instanceof Trip && packTrips)
+      return trips.getRow((Trip) entity) >= 0;
+    if (entity instanceof Stop && packStops)
+      return stops.getRow((Stop) entity) >= 0;
+    if (entity instanceof Route && packRoutes)
+      return routes.getRow((Route) entity) >= 0;
+    return false;
+  }
+
+  /**
+   * Called when the storage of packed entities of the type is replaced, which
+   * invalidates any of its entities held by subclasses.
+   */
+  protected void packedEntitiesReplaced(Class<?> type) {
+
+  }
+
   /****
    * Private Methods
    ****/
 
-  private <K> void noKeyCheck(Class<K> keyType) {
-    if (packStopTimes && keyType.equals(StopTime.class)) {
-      throw new UnsupportedOperationException();
+  private List<StopTime> getPackedStopTimes() {
+    if (stopTimePatterns != null)
+      return stopTimePatterns;
+    return stopTimes;
+  }
+
+  private StopTime getPackedStopTimeForId(Integer id) {
+    if (id == null)
+      return null;
+    if (stopTimePatterns == null)
+      return stopTimes.getForId(id);
+    return stopTimePatterns.getForId(id);
+  }
+
+  private int getPackedStopTimeRow(StopTime stopTime) {
+    if (stopTimePatterns != null)
+      return stopTimePatterns.getRow(stopTime);
+    return stopTimes.getRow(stopTime);
+  }
+
+  /**
+   * @return the row the stop time is stored at once the stop times are stored
+   *         as rows, if it was returned by this dao and is not removed, or
+   *         else -1. Stop times of patterns since converted back to rows are
+   *         found by their id, which they keep as their row.
+   */
+  private int getStoredStopTimeRow(StopTime stopTime) {
+    if (stopTimePatterns != null)
+      return stopTimePatterns.getRow(stopTime) < 0 ? -1 : stopTime.getId();
+    if (unpackedStopTimePatterns != null
+        && unpackedStopTimePatterns.getRow(stopTime) >= 0) {
+      int row = stopTime.getId();
+      return stopTimes.isRemoved(row) ? -1 : row;
     }
-    if (packShapePoints && keyType.equals(ShapePoint.class)) {
-      throw new UnsupportedOperationException();
+    return stopTimes.getRow(stopTime);
+  }
+
+  /**
+   * Drops the removed rows of the packed stop times and shape points, which
+   * numbers their rows again, invalidating the stop times and shape points
+   * obtained before.
+   */
+  private void compactPackedRows() {
+    if (stopTimes.getRemovedCount() > 0) {
+      stopTimes.compact();
+      unpackedStopTimePatterns = null;
+      packedEntitiesReplaced(StopTime.class);
+    }
+    if (shapePoints.getRemovedCount() > 0) {
+      shapePoints.compact();
+      packedEntitiesReplaced(ShapePoint.class);
     }
   }
 
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * A read-only view of packed entities by id, looking them up as
+   * {@link #getEntityForId(Class, Serializable)} does
+   */
+  private class PackedEntityMap extends AbstractMap<Object, Object> {
+
+    private final Class<?> entityType;
+
+    public PackedEntityMap(Class<?> entityType) {
+      this.entityType = entityType;
+    }
+
+    @Override
+    public Object get(Object key) {
+      if (!isKeyType(key))
+        return null;
+      return getEntityForId(entityType, (Serializable) key);
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+      return get(key) != null;
+    }
+
+    @Override
+    public int size() {
+      return getPackedEntities(entityType).size();
+    }
+
+    @Override
+    public Set<Map.Entry<Object, Object>> entrySet() {
+      return new AbstractSet<Map.Entry<Object, Object>>() {
+
+        @Override
+        public Iterator<Map.Entry<Object, Object>> iterator() {
+          final Iterator<?> it = getPackedEntities(entityType).iterator();
+          return new Iterator<Map.Entry<Object, Object>>() {
+
+            @Override
+            public boolean hasNext() {
+              return it.hasNext();
+            }
+
+            @Override
+            public Map.Entry<Object, Object> next() {
+              Object entity = it.next();
+              Object id = ((IdentityBean<?>) entity).getId();
+              return new AbstractMap.SimpleImmutableEntry<Object, Object>(id,
+                  entity);
+            }
+
+            @Override
+            public void remove() {
+              throw new UnsupportedOperationException();
+            }
+          };
+        }
+
+        @Override
+        public int size() {
+          return PackedEntityMap.this.size();
+        }
+      };
+    }
+
+    private boolean isKeyType(Object key) {
+      if (entityType.equals(StopTime.class)
+          || entityType.equals(ShapePoint.class))
+        return key instanceof Integer;
+      return key instanceof AgencyAndId;
+    }
+  }
 }
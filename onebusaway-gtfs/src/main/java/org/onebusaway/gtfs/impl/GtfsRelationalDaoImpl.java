@@ -17,23 +17,29 @@
  */
 package org.onebusaway.gtfs.impl;
 
+import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
-import org.onebusaway.csv_entities.exceptions.EntityInstantiationException;
-import org.onebusaway.csv_entities.schema.BeanWrapper;
-import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.FareAttribute;
 import org.onebusaway.gtfs.model.FareRule;
 import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.IdentityBean;
 import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.ServiceCalendar;
 import org.onebusaway.gtfs.model.ServiceCalendarDate;
@@ -48,226 +54,408 @@ import org.onebusaway.gtfs.services.GtfsMutableRelationalDao;
  * methods, but only if you have enough memory to load your entire GTFS into
  * memory.
  * 
+ * Relations are indexed on their first query, or all at once with
+ * {@link #warmUp()}. Indices that have been built are kept up to date as
+ * entities are saved, updated and removed, so there is no need to clear them
+ * after modifying the dao, as long as entities whose relations are changed in
+ * place are passed to {@link #updateEntity(Object)}. Queries are safe from
+ * concurrent threads, as long as the dao is not modified at the same time.
+ * 
  * @author bdferris
  * 
  */
 public class GtfsRelationalDaoImpl extends GtfsDaoImpl implements
     GtfsMutableRelationalDao {
 
-  private Map<AgencyAndId, List<String>> _tripAgencyIdsByServiceId = null;
+  private static final KeyExtractor<Agency, Route> ROUTE_AGENCY = new KeyExtractor<Agency, Route>() {
+    public Agency getKey(Route route) {
+      return route.getAgency();
+    }
+  };
 
-  private Map<Agency, List<Route>> _routesByAgency = null;
+  private static final KeyExtractor<Trip, StopTime> STOP_TIME_TRIP = new KeyExtractor<Trip, StopTime>() {
+    public Trip getKey(StopTime stopTime) {
+      return stopTime.getTrip();
+    }
+  };
 
-  private Map<Stop, List<Stop>> _stopsByStation = null;
+  private static final KeyExtractor<Stop, StopTime> STOP_TIME_STOP = new KeyExtractor<Stop, StopTime>() {
+    public Stop getKey(StopTime stopTime) {
+      return stopTime.getStop();
+    }
+  };
 
-  private Map<Trip, List<StopTime>> _stopTimesByTrip = null;
+  private static final KeyExtractor<Route, Trip> TRIP_ROUTE = new KeyExtractor<Route, Trip>() {
+    public Route getKey(Trip trip) {
+      return trip.getRoute();
+    }
+  };
 
-  private Map<Stop, List<StopTime>> _stopTimesByStop = null;
+  private static final KeyExtractor<AgencyAndId, Trip> TRIP_SHAPE_ID = new KeyExtractor<AgencyAndId, Trip>() {
+    public AgencyAndId getKey(Trip trip) {
+      return trip.getShapeId();
+    }
+  };
 
-  private Map<Route, List<Trip>> _tripsByRoute = null;
+  private static final KeyExtractor<AgencyAndId, Trip> TRIP_SERVICE_ID = new KeyExtractor<AgencyAndId, Trip>() {
+    public AgencyAndId getKey(Trip trip) {
+      return trip.getServiceId();
+    }
+  };
+
+  private static final KeyExtractor<AgencyAndId, ShapePoint> SHAPE_POINT_SHAPE_ID = new KeyExtractor<AgencyAndId, ShapePoint>() {
+    public AgencyAndId getKey(ShapePoint shapePoint) {
+      return shapePoint.getShapeId();
+    }
+  };
+
+  private static final KeyExtractor<Trip, Frequency> FREQUENCY_TRIP = new KeyExtractor<Trip, Frequency>() {
+    public Trip getKey(Frequency frequency) {
+      return frequency.getTrip();
+    }
+  };
 
-  private Map<AgencyAndId, List<Trip>> _tripsByShapeId = null;
+  private static final KeyExtractor<AgencyAndId, ServiceCalendarDate> CALENDAR_DATE_SERVICE_ID = new KeyExtractor<AgencyAndId, ServiceCalendarDate>() {
+    public AgencyAndId getKey(ServiceCalendarDate calendarDate) {
+      return calendarDate.getServiceId();
+    }
+  };
 
-  private Map<AgencyAndId, List<Trip>> _tripsByServiceId = null;
+  private static final KeyExtractor<AgencyAndId, ServiceCalendar> CALENDAR_SERVICE_ID = new KeyExtractor<AgencyAndId, ServiceCalendar>() {
+    public AgencyAndId getKey(ServiceCalendar calendar) {
+      return calendar.getServiceId();
+    }
+  };
 
-  private Map<AgencyAndId, List<Trip>> _tripsByBlockId = null;
+  private static final KeyExtractor<FareAttribute, FareRule> FARE_RULE_FARE = new KeyExtractor<FareAttribute, FareRule>() {
+    public FareAttribute getKey(FareRule fareRule) {
+      return fareRule.getFare();
+    }
+  };
 
-  private Map<AgencyAndId, List<ShapePoint>> _shapePointsByShapeId = null;
+  private static final KeyExtractor<AgencyAndId, Stop> STOP_PARENT_STATION = new KeyExtractor<AgencyAndId, Stop>() {
+    public AgencyAndId getKey(Stop stop) {
+      if (stop.getLocationType() != 0 || stop.getParentStation() == null)
+        return null;
+      return new AgencyAndId(stop.getId().getAgencyId(),
+          stop.getParentStation());
+    }
+  };
 
-  private Map<Trip, List<Frequency>> _frequenciesByTrip = null;
+  private static final KeyExtractor<AgencyAndId, Trip> TRIP_BLOCK_ID = new KeyExtractor<AgencyAndId, Trip>() {
+    public AgencyAndId getKey(Trip trip) {
+      if (trip.getBlockId() == null)
+        return null;
+      return new AgencyAndId(trip.getId().getAgencyId(), trip.getBlockId());
+    }
+  };
 
-  private Map<AgencyAndId, List<ServiceCalendarDate>> _calendarDatesByServiceId = null;
+  private final RelationIndex<Agency, Route> _routesByAgency = new RelationIndex<Agency, Route>(
+      Route.class, Agency.class, ROUTE_AGENCY, false);
 
-  private Map<AgencyAndId, List<ServiceCalendar>> _calendarsByServiceId = null;
+  private final RelationIndex<AgencyAndId, Stop> _stopsByStation = new RelationIndex<AgencyAndId, Stop>(
+      Stop.class, AgencyAndId.class, STOP_PARENT_STATION, false);
 
-  private Map<FareAttribute, List<FareRule>> _fareRulesByFareAttribute = null;
+  private final RelationIndex<Trip, StopTime> _stopTimesByTrip = new StopTimesByTripIndex();
 
-  public void clearAllCaches() {
-    _tripAgencyIdsByServiceId = clearMap(_tripAgencyIdsByServiceId);
-    _routesByAgency = clearMap(_routesByAgency);
-    _stopsByStation = clearMap(_stopsByStation);
-    _stopTimesByTrip = clearMap(_stopTimesByTrip);
-    _stopTimesByStop = clearMap(_stopTimesByStop);
-    _tripsByRoute = clearMap(_tripsByRoute);
-    _tripsByShapeId = clearMap(_tripsByShapeId);
-    _tripsByServiceId = clearMap(_tripsByServiceId);
-    _tripsByBlockId = clearMap(_tripsByBlockId);
-    _shapePointsByShapeId = clearMap(_shapePointsByShapeId);
-    _frequenciesByTrip = clearMap(_frequenciesByTrip);
-    _calendarDatesByServiceId = clearMap(_calendarDatesByServiceId);
-    _calendarsByServiceId = clearMap(_calendarsByServiceId);
-    _fareRulesByFareAttribute = clearMap(_fareRulesByFareAttribute);
-  }
+  private final RelationIndex<Stop, StopTime> _stopTimesByStop = new RelationIndex<Stop, StopTime>(
+      StopTime.class, Stop.class, STOP_TIME_STOP, false);
 
-  @Override
-  public List<String> getTripAgencyIdsReferencingServiceId(AgencyAndId serviceId) {
+  private final RelationIndex<Route, Trip> _tripsByRoute = new RelationIndex<Route, Trip>(
+      Trip.class, Route.class, TRIP_ROUTE, false);
 
-    if (_tripAgencyIdsByServiceId == null) {
+  private final RelationIndex<AgencyAndId, Trip> _tripsByShapeId = new RelationIndex<AgencyAndId, Trip>(
+      Trip.class, AgencyAndId.class, TRIP_SHAPE_ID, false);
 
-      Map<AgencyAndId, Set<String>> agencyIdsByServiceIds = new HashMap<AgencyAndId, Set<String>>();
+  private final RelationIndex<AgencyAndId, Trip> _tripsByServiceId = new RelationIndex<AgencyAndId, Trip>(
+      Trip.class, AgencyAndId.class, TRIP_SERVICE_ID, false);
 
-      for (Trip trip : getAllTrips()) {
-        AgencyAndId tripId = trip.getId();
-        String tripAgencyId = tripId.getAgencyId();
-        AgencyAndId tripServiceId = trip.getServiceId();
-        Set<String> agencyIds = agencyIdsByServiceIds.get(tripServiceId);
-        if (agencyIds == null) {
-          agencyIds = new HashSet<String>();
-          agencyIdsByServiceIds.put(tripServiceId, agencyIds);
+  private final RelationIndex<AgencyAndId, Trip> _tripsByBlockId = new RelationIndex<AgencyAndId, Trip>(
+      Trip.class, AgencyAndId.class, TRIP_BLOCK_ID, false);
+
+  private final RelationIndex<AgencyAndId, ShapePoint> _shapePointsByShapeId = new RelationIndex<AgencyAndId, ShapePoint>(
+      ShapePoint.class, AgencyAndId.class, SHAPE_POINT_SHAPE_ID, true);
+
+  private final RelationIndex<Trip, Frequency> _frequenciesByTrip = new RelationIndex<Trip, Frequency>(
+      Frequency.class, Trip.class, FREQUENCY_TRIP, false);
+
+  private final RelationIndex<AgencyAndId, ServiceCalendarDate> _calendarDatesByServiceId = new RelationIndex<AgencyAndId, ServiceCalendarDate>(
+      ServiceCalendarDate.class, AgencyAndId.class, CALENDAR_DATE_SERVICE_ID,
+      false);
+
+  private final RelationIndex<AgencyAndId, ServiceCalendar> _calendarsByServiceId = new RelationIndex<AgencyAndId, ServiceCalendar>(
+      ServiceCalendar.class, AgencyAndId.class, CALENDAR_SERVICE_ID, false);
+
+  private final RelationIndex<FareAttribute, FareRule> _fareRulesByFareAttribute = new RelationIndex<FareAttribute, FareRule>(
+      FareRule.class, FareAttribute.class, FARE_RULE_FARE, false);
+
+  private final List<RelationIndex<?, ?>> _indices = Arrays.<RelationIndex<?, ?>> asList(
+      _routesByAgency, _stopsByStation, _stopTimesByTrip, _stopTimesByStop,
+      _tripsByRoute, _tripsByShapeId, _tripsByServiceId, _tripsByBlockId,
+      _shapePointsByShapeId, _frequenciesByTrip, _calendarDatesByServiceId,
+      _calendarsByServiceId, _fareRulesByFareAttribute);
+
+  /**
+   * Drops all of the relation indices, to be rebuilt on next use. Indices are
+   * kept up to date as the dao is modified, so this is only needed after
+   * modifying entities in place without calling {@link #updateEntity(Object)}.
+   */
+  public void clearAllCaches() {
+    for (RelationIndex<?, ?> index : _indices)
+      index.clear();
+  }
+
+  /**
+   * Builds all of the relation indices up front, concurrently on a thread pool
+   * with a thread per available processor, instead of on the first query of
+   * each relation. Once warmed up, and as long as the dao is not modified,
+   * queries from any number of threads only read the indices, without taking
+   * any lock.
+   * 
+   * @throws InterruptedException if interrupted while waiting for the indices
+   *           to be built
+   */
+  public void warmUp() throws InterruptedException {
+    int threads = Math.min(_indices.size(),
+        Runtime.getRuntime().availableProcessors());
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      warmUp(executor);
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /**
+   * Builds all of the relation indices up front as with {@link #warmUp()},
+   * with a task per index submitted to the specified executor.
+   * 
+   * @throws InterruptedException if interrupted while waiting for the indices
+   *           to be built, in which case the remaining tasks are cancelled
+   */
+  public void warmUp(ExecutorService executor) throws InterruptedException {
+
+    List<Future<?>> futures = new ArrayList<Future<?>>();
+    for (final RelationIndex<?, ?> index : _indices) {
+      futures.add(executor.submit(new Runnable() {
+        public void run() {
+          index.getIndex();
         }
-        agencyIds.add(tripAgencyId);
+      }));
+    }
+
+    boolean done = false;
+    try {
+      for (Future<?> future : futures)
+        future.get();
+      done = true;
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof Error)
+        throw (Error) cause;
+      if (cause instanceof RuntimeException)
+        throw (RuntimeException) cause;
+      throw new IllegalStateException(cause);
+    } finally {
+      if (!done) {
+        for (Future<?> future : futures)
+          future.cancel(true);
       }
+    }
+  }
+
+  /**
+   * Takes an immutable snapshot of the dao, with every entity type and relation
+   * held in arrays, which any number of threads can query without locking. The
+   * snapshot shares its entities, and any packed stop times and shape points,
+   * with this dao, which should no longer be modified once frozen.
+   *
+   * @return the read-only snapshot
+   */
+  public FrozenGtfsRelationalDaoImpl freeze() {
+    return new FrozenGtfsRelationalDaoImpl(this);
+  }
+
+  /****
+   * {@link GtfsMutableRelationalDao} Interface
+   ****/
 
-      _tripAgencyIdsByServiceId = new HashMap<AgencyAndId, List<String>>();
+  @Override
+  public void saveEntity(Object entity) {
+    super.saveEntity(entity);
+    Class<?> type = entity.getClass();
+    Object stored = null;
+    for (RelationIndex<?, ?> index : _indices) {
+      if (index.isBuiltForValueType(type)) {
+        if (stored == null)
+          stored = getStoredEntity(entity);
+        index.add(stored);
+      }
+    }
+  }
 
-      for (Map.Entry<AgencyAndId, Set<String>> entry : agencyIdsByServiceIds.entrySet()) {
-        AgencyAndId tripServiceId = entry.getKey();
-        List<String> agencyIds = new ArrayList<String>(entry.getValue());
-        Collections.sort(agencyIds);
-        _tripAgencyIdsByServiceId.put(tripServiceId, agencyIds);
+  /**
+   * Updates the relation indices for an entity that has been modified in
+   * place. An entity still related to the same entities is updated in place,
+   * and the relation is sorted again if its order changed. An entity related
+   * to another entity is moved from the values of its previous key, which is
+   * looked up by scanning the index, to those of its new key. Any index keyed
+   * by the entity is rehashed if its id has changed.
+   */
+  @Override
+  public void updateEntity(Object entity) {
+    super.updateEntity(entity);
+    Class<?> type = entity.getClass();
+    Boolean idChanged = null;
+    for (RelationIndex<?, ?> index : _indices) {
+      if (index.isBuiltForValueType(type)) {
+        index.update(entity);
+      } else if (index.isBuiltForKeyType(type)) {
+        if (idChanged == null)
+          idChanged = isIdChanged(entity);
+        if (idChanged)
+          index.rehash();
       }
     }
+  }
+
+  @Override
+  public <K extends Serializable, T extends IdentityBean<K>> void removeEntity(
+      T entity) {
+    // A packed stop time or shape point that is not stored, such as a copy,
+    // leaves the stored one with the same id in the dao, and in the indices
+    boolean stored = getPackedEntities(entity.getClass()) == null
+        || isPackedEntityStored(entity);
+    super.removeEntity(entity);
+    if (!stored)
+      return;
+    Class<?> type = entity.getClass();
+    for (RelationIndex<?, ?> index : _indices) {
+      if (index.isBuiltForValueType(type))
+        index.remove(entity);
+    }
+  }
+
+  @Override
+  public <T> void clearAllEntitiesForType(Class<T> type) {
+    super.clearAllEntitiesForType(type);
+    for (RelationIndex<?, ?> index : _indices) {
+      if (index.isBuiltForValueType(type))
+        index.clear();
+    }
+  }
+
+  @Override
+  public void clear() {
+    super.clear();
+    clearAllCaches();
+  }
+
+  /**
+   * {@link org.onebusaway.gtfs.serialization.GtfsReader} stores the entities
+   * it reads without going through {@link #saveEntity(Object)}, so the indices
+   * are dropped when the dao is closed at the end of a read.
+   */
+  @Override
+  public void close() {
+    super.close();
+    clearAllCaches();
+  }
+
+  @Override
+  protected void packedEntitiesReplaced(Class<?> type) {
+    clearAllCaches();
+  }
+
+  /****
+   * {@link GtfsRelationalDao} Interface
+   ****/
 
-    List<String> agencyIds = _tripAgencyIdsByServiceId.get(serviceId);
-    if (agencyIds == null)
-      agencyIds = new ArrayList<String>();
-    return agencyIds;
+  @Override
+  public List<String> getTripAgencyIdsReferencingServiceId(AgencyAndId serviceId) {
+    Set<String> agencyIds = new TreeSet<String>();
+    for (Trip trip : getTripsForServiceId(serviceId))
+      agencyIds.add(trip.getId().getAgencyId());
+    return new ArrayList<String>(agencyIds);
   }
 
   @Override
   public List<Route> getRoutesForAgency(Agency agency) {
-    if (_routesByAgency == null)
-      _routesByAgency = mapToValueList(getAllRoutes(), "agency", Agency.class);
-    return list(_routesByAgency.get(agency));
+    return _routesByAgency.getValues(agency);
   }
 
   @Override
   public List<Stop> getStopsForStation(Stop station) {
-    if (_stopsByStation == null) {
-      _stopsByStation = new HashMap<Stop, List<Stop>>();
-      for (Stop stop : getAllStops()) {
-        if (stop.getLocationType() == 0 && stop.getParentStation() != null) {
-          Stop parentStation = getStopForId(new AgencyAndId(
-              stop.getId().getAgencyId(), stop.getParentStation()));
-          List<Stop> subStops = _stopsByStation.get(parentStation);
-          if (subStops == null) {
-            subStops = new ArrayList<Stop>(2);
-            _stopsByStation.put(parentStation, subStops);
-          }
-          subStops.add(stop);
-        }
-      }
-    }
-    return list(_stopsByStation.get(station));
+    if (station == null)
+      return list(null);
+    return _stopsByStation.getValues(station.getId());
   }
 
   @Override
   public List<AgencyAndId> getAllShapeIds() {
-    ensureShapePointRelation();
-    return new ArrayList<AgencyAndId>(_shapePointsByShapeId.keySet());
+    return new ArrayList<AgencyAndId>(
+        _shapePointsByShapeId.getIndex().keySet());
   }
 
   @Override
   public List<ShapePoint> getShapePointsForShapeId(AgencyAndId shapeId) {
-    ensureShapePointRelation();
-    return list(_shapePointsByShapeId.get(shapeId));
+    return _shapePointsByShapeId.getValues(shapeId);
   }
 
   @Override
   public List<StopTime> getStopTimesForTrip(Trip trip) {
-
-    if (_stopTimesByTrip == null) {
-      _stopTimesByTrip = mapToValueList(getAllStopTimes(), "trip", Trip.class);
-      for (List<StopTime> stopTimes : _stopTimesByTrip.values())
-        Collections.sort(stopTimes);
-    }
-
-    return list(_stopTimesByTrip.get(trip));
+    return _stopTimesByTrip.getValues(trip);
   }
 
   @Override
   public List<StopTime> getStopTimesForStop(Stop stop) {
-    if (_stopTimesByStop == null)
-      _stopTimesByStop = mapToValueList(getAllStopTimes(), "stop", Stop.class);
-    return list(_stopTimesByStop.get(stop));
+    return _stopTimesByStop.getValues(stop);
   }
 
   @Override
   public List<Trip> getTripsForRoute(Route route) {
-    if (_tripsByRoute == null)
-      _tripsByRoute = mapToValueList(getAllTrips(), "route", Route.class);
-    return list(_tripsByRoute.get(route));
+    return _tripsByRoute.getValues(route);
   }
 
   @Override
   public List<Trip> getTripsForShapeId(AgencyAndId shapeId) {
-    if (_tripsByShapeId == null) {
-      _tripsByShapeId = mapToValueList(getAllTrips(), "shapeId",
-          AgencyAndId.class);
-    }
-    return list(_tripsByShapeId.get(shapeId));
+    return _tripsByShapeId.getValues(shapeId);
   }
 
   @Override
   public List<Trip> getTripsForServiceId(AgencyAndId serviceId) {
-    if (_tripsByServiceId == null) {
-      _tripsByServiceId = mapToValueList(getAllTrips(), "serviceId",
-          AgencyAndId.class);
-    }
-    return list(_tripsByServiceId.get(serviceId));
+    return _tripsByServiceId.getValues(serviceId);
   }
 
   @Override
   public List<Trip> getTripsForBlockId(AgencyAndId blockId) {
-
-    if (_tripsByBlockId == null) {
-      _tripsByBlockId = new HashMap<AgencyAndId, List<Trip>>();
-      for (Trip trip : getAllTrips()) {
-        if (trip.getBlockId() != null) {
-          AgencyAndId bid = new AgencyAndId(trip.getId().getAgencyId(),
-              trip.getBlockId());
-          List<Trip> trips = _tripsByBlockId.get(bid);
-          if (trips == null) {
-            trips = new ArrayList<Trip>();
-            _tripsByBlockId.put(bid, trips);
-          }
-          trips.add(trip);
-        }
-      }
-    }
-
-    return list(_tripsByBlockId.get(blockId));
+    if (blockId == null)
+      return list(null);
+    return _tripsByBlockId.getValues(blockId);
   }
 
   @Override
   public List<Frequency> getFrequenciesForTrip(Trip trip) {
-    if (_frequenciesByTrip == null)
-      _frequenciesByTrip = mapToValueList(getAllFrequencies(), "trip",
-          Trip.class);
-    return list(_frequenciesByTrip.get(trip));
+    return _frequenciesByTrip.getValues(trip);
   }
 
   @Override
   public List<AgencyAndId> getAllServiceIds() {
-    ensureCalendarDatesByServiceIdRelation();
-    ensureCalendarsByServiceIdRelation();
     Set<AgencyAndId> serviceIds = new HashSet<AgencyAndId>();
-    serviceIds.addAll(_calendarDatesByServiceId.keySet());
-    serviceIds.addAll(_calendarsByServiceId.keySet());
+    serviceIds.addAll(_calendarDatesByServiceId.getIndex().keySet());
+    serviceIds.addAll(_calendarsByServiceId.getIndex().keySet());
     return new ArrayList<AgencyAndId>(serviceIds);
   }
 
   @Override
   public List<ServiceCalendarDate> getCalendarDatesForServiceId(
       AgencyAndId serviceId) {
-    ensureCalendarDatesByServiceIdRelation();
-    return list(_calendarDatesByServiceId.get(serviceId));
+    return _calendarDatesByServiceId.getValues(serviceId);
   }
 
   @Override
   public ServiceCalendar getCalendarForServiceId(AgencyAndId serviceId) {
-    ensureCalendarsByServiceIdRelation();
-    List<ServiceCalendar> calendars = list(_calendarsByServiceId.get(serviceId));
+    List<ServiceCalendar> calendars = _calendarsByServiceId.getValues(serviceId);
     switch (calendars.size()) {
       case 0:
         return null;
@@ -279,38 +467,35 @@ public class GtfsRelationalDaoImpl extends GtfsDaoImpl implements
 
   @Override
   public List<FareRule> getFareRulesForFareAttribute(FareAttribute fareAttribute) {
-    if (_fareRulesByFareAttribute == null) {
-      _fareRulesByFareAttribute = mapToValueList(getAllFareRules(), "fare",
-          FareAttribute.class);
-    }
-    return list(_fareRulesByFareAttribute.get(fareAttribute));
+    return _fareRulesByFareAttribute.getValues(fareAttribute);
   }
 
   /****
    * Private Methods
    ****/
 
-  private void ensureCalendarDatesByServiceIdRelation() {
-    if (_calendarDatesByServiceId == null) {
-      _calendarDatesByServiceId = mapToValueList(getAllCalendarDates(),
-          "serviceId", AgencyAndId.class);
-    }
-  }
-
-  private void ensureCalendarsByServiceIdRelation() {
-    if (_calendarsByServiceId == null) {
-      _calendarsByServiceId = mapToValueList(getAllCalendars(), "serviceId",
-          AgencyAndId.class);
-    }
+  /**
+   * @return the instance of a just saved entity returned by queries, which
+   *         differs from the saved entity for packed stop times and shape
+   *         points
+   */
+  private Object getStoredEntity(Object entity) {
+    List<?> packed = getPackedEntities(entity.getClass());
+    if (packed != null)
+      return packed.get(packed.size() - 1);
+    return entity;
   }
 
-  private void ensureShapePointRelation() {
-    if (_shapePointsByShapeId == null) {
-      _shapePointsByShapeId = mapToValueList(getAllShapePoints(), "shapeId",
-          AgencyAndId.class);
-      for (List<ShapePoint> shapePoints : _shapePointsByShapeId.values())
-        Collections.sort(shapePoints);
-    }
+  private boolean isIdChanged(Object entity) {
+    Serializable id = ((IdentityBean<?>) entity).getId();
+    if (id == null)
+      return true;
+    Object stored = getEntityForId(entity.getClass(), id);
+    // Packed entities are looked up as a new proxy to the row saved with the
+    // id, so only a missing row tells that the id changed
+    if (getPackedEntities(entity.getClass()) != null)
+      return stored == null;
+    return stored != entity;
   }
 
   private static <T> List<T> list(List<T> list) {
@@ -319,33 +504,16 @@ public class GtfsRelationalDaoImpl extends GtfsDaoImpl implements
     return Collections.unmodifiableList(list);
   }
 
-  @SuppressWarnings("unchecked")
   private static <K, V> Map<K, List<V>> mapToValueList(Iterable<V> values,
-      String property, Class<K> keyType) {
-    return mapToValueCollection(values, property, keyType,
-        new ArrayList<V>().getClass());
-  }
+      KeyExtractor<K, V> keyExtractor) {
 
-  @SuppressWarnings("unchecked")
-  private static <K, V, C extends Collection<V>, CIMPL extends C> Map<K, C> mapToValueCollection(
-      Iterable<V> values, String property, Class<K> keyType,
-      Class<CIMPL> collectionType) {
-
-    Map<K, C> byKey = new HashMap<K, C>();
-    SimplePropertyQuery query = new SimplePropertyQuery(property);
+    Map<K, List<V>> byKey = new HashMap<K, List<V>>();
 
     for (V value : values) {
-
-      K key = (K) query.invoke(value);
-      C valuesForKey = byKey.get(key);
+      K key = keyExtractor.getKey(value);
+      List<V> valuesForKey = byKey.get(key);
       if (valuesForKey == null) {
-
-        try {
-          valuesForKey = collectionType.newInstance();
-        } catch (Exception ex) {
-          throw new EntityInstantiationException(collectionType, ex);
-        }
-
+        valuesForKey = new ArrayList<V>();
         byKey.put(key, valuesForKey);
       }
       valuesForKey.add(value);
@@ -354,27 +522,402 @@ public class GtfsRelationalDaoImpl extends GtfsDaoImpl implements
     return byKey;
   }
 
-  private <K, V> Map<K, V> clearMap(Map<K, V> map) {
-    if (map != null)
-      map.clear();
-    return null;
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * Reads the key of an entity in a relation, in place of a reflective
+   * property lookup
+   */
+  private interface KeyExtractor<K, V> {
+    public K getKey(V value);
   }
 
-  private static final class SimplePropertyQuery {
+  /**
+   * A relation index, built on first use. The index is built by a single
+   * thread, while other threads wanting it wait, and is then published through
+   * a volatile field, so that threads reading a built index take no lock.
+   * 
+   * Once built, the index is updated as entities are added, updated and
+   * removed. The list of values of a key is copied on its first change after
+   * a query returned it, so that lists previously returned by queries are
+   * unaffected, and callers can remove the entities of a list while iterating
+   * over it. Further changes to the copy, until it is returned by a query in
+   * turn, are made in place, so a batch of changes to a key copies its values
+   * once.
+   */
+  private class RelationIndex<K, V> {
+
+    private final Class<V> _valueType;
+
+    private final Class<K> _keyType;
+
+    private final KeyExtractor<K, V> _keyExtractor;
+
+    private final boolean _sorted;
+
+    private volatile Map<K, List<V>> _index = null;
+
+    /**
+     * The key an entity was last moved from, which is checked first for the
+     * next entity, as a batch of entities usually moves from the same key
+     */
+    private K _previousKey = null;
+
+    /**
+     * @param valueType the type of entity indexed
+     * @param keyType the type of key the entities are indexed by
+     * @param keyExtractor
+     * @param sorted whether the values of each key are kept in their natural
+     *          order
+     */
+    public RelationIndex(Class<V> valueType, Class<K> keyType,
+        KeyExtractor<K, V> keyExtractor, boolean sorted) {
+      _valueType = valueType;
+      _keyType = keyType;
+      _keyExtractor = keyExtractor;
+      _sorted = sorted;
+    }
+
+    public Map<K, List<V>> getIndex() {
+      Map<K, List<V>> index = _index;
+      if (index == null) {
+        synchronized (this) {
+          index = _index;
+          if (index == null) {
+            index = build();
+            _index = index;
+          }
+        }
+      }
+      return index;
+    }
+
+    public List<V> getValues(K key) {
+      List<V> values = getIndex().get(key);
+      if (values instanceof ValueList)
+        ((ValueList<V>) values).shared = true;
+      return list(values);
+    }
+
+    public boolean isBuiltForValueType(Class<?> type) {
+      return _valueType == type && _index != null;
+    }
+
+    public boolean isBuiltForKeyType(Class<?> type) {
+      return _keyType == type && _index != null;
+    }
+
+    public void add(Object entity) {
+      Map<K, List<V>> index = _index;
+      if (index == null)
+        return;
+      V value = _valueType.cast(entity);
+      K key = _keyExtractor.getKey(value);
+      List<V> values = index.get(key);
+      if (values == null) {
+        ValueList<V> created = new ValueList<V>(1);
+        created.add(value);
+        index.put(key, created);
+      } else {
+        values = getValuesForUpdate(index, key, values);
+        values.add(getInsertionIndex(values, value), value);
+      }
+    }
+
+    public void update(Object entity) {
+      Map<K, List<V>> index = _index;
+      if (index == null)
+        return;
+      V value = _valueType.cast(entity);
+      K key = _keyExtractor.getKey(value);
+      List<V> values = index.get(key);
+      int i = values != null ? indexOf(values, value) : -1;
+      if (i == -1) {
+        // The key of the entity changed: move it from its previous key, or
+        // drop the index if the entity was not indexed at all
+        if (removeFromPreviousKey(index, value))
+          add(value);
+        else
+          clear();
+      } else if (_sorted && !isSorted(values)) {
+        sort(getValuesForUpdate(index, key, values));
+      }
+    }
+
+    public void remove(Object entity) {
+      Map<K, List<V>> index = _index;
+      if (index == null)
+        return;
+      V value = _valueType.cast(entity);
+      K key = _keyExtractor.getKey(value);
+      List<V> values = index.get(key);
+      int i = values != null ? indexOf(values, value) : -1;
+      if (i == -1) {
+        // The key of the entity changed without an update
+        removeFromPreviousKey(index, value);
+      } else if (values.size() == 1) {
+        index.remove(key);
+      } else {
+        getValuesForUpdate(index, key, values).remove(i);
+      }
+    }
 
-    private String[] _properties;
+    public synchronized void clear() {
+      _index = null;
+      _previousKey = null;
+    }
 
-    public SimplePropertyQuery(String query) {
-      _properties = query.split("\\.");
+    /**
+     * Puts the keys of the index in the buckets of their current hash codes,
+     * after the id of a key entity changed in place. Keys that became equal
+     * have their values merged.
+     */
+    public synchronized void rehash() {
+      Map<K, List<V>> index = _index;
+      if (index == null)
+        return;
+      Map<K, List<V>> rehashed = new HashMap<K, List<V>>(
+          Math.max(16, (int) (index.size() / .75f) + 1));
+      for (Map.Entry<K, List<V>> entry : index.entrySet()) {
+        K key = entry.getKey();
+        List<V> values = entry.getValue();
+        List<V> existing = rehashed.get(key);
+        if (existing != null) {
+          ValueList<V> merged = new ValueList<V>(existing.size()
+              + values.size());
+          merged.addAll(existing);
+          merged.addAll(values);
+          if (_sorted)
+            sort(merged);
+          values = merged;
+        }
+        rehashed.put(key, values);
+      }
+      _index = rehashed;
     }
 
-    public Object invoke(Object value) {
-      for (String property : _properties) {
-        BeanWrapper wrapper = BeanWrapperFactory.wrap(value);
-        value = wrapper.getPropertyValue(property);
+    protected Map<K, List<V>> build() {
+      Map<K, List<V>> index = mapToValueList(
+          getAllEntitiesForType(_valueType), _keyExtractor);
+      if (_sorted) {
+        for (List<V> values : index.values())
+          sort(values);
       }
-      return value;
+      return index;
+    }
+
+    /****
+     * Private Methods
+     ****/
+
+    /**
+     * @return the values of the key, copied into a list of the index first if
+     *         they may have been returned by a query
+     */
+    private List<V> getValuesForUpdate(Map<K, List<V>> index, K key,
+        List<V> values) {
+      List<V> updated = getValuesForUpdate(values);
+      if (updated != values)
+        index.put(key, updated);
+      return updated;
+    }
+
+    private List<V> getValuesForUpdate(List<V> values) {
+      if (values instanceof ValueList && !((ValueList<V>) values).shared)
+        return values;
+      ValueList<V> copy = new ValueList<V>(values.size() + 1);
+      copy.addAll(values);
+      return copy;
+    }
+
+    /**
+     * Removes the entity from the values of whichever key it is indexed under,
+     * looking for the entity by identity in every key before looking for it by
+     * id
+     * 
+     * @return false if the entity was not found
+     */
+    private boolean removeFromPreviousKey(Map<K, List<V>> index, V value) {
+      if (_previousKey != null) {
+        List<V> values = index.get(_previousKey);
+        int i = values != null ? indexOf(values, value) : -1;
+        if (i != -1) {
+          if (values.size() == 1) {
+            index.remove(_previousKey);
+            _previousKey = null;
+          } else {
+            getValuesForUpdate(index, _previousKey, values).remove(i);
+          }
+          return true;
+        }
+      }
+      return removeFromPreviousKey(index, value, true)
+          || removeFromPreviousKey(index, value, false);
+    }
+
+    private boolean removeFromPreviousKey(Map<K, List<V>> index, V value,
+        boolean byIdentity) {
+      Iterator<Map.Entry<K, List<V>>> it = index.entrySet().iterator();
+      while (it.hasNext()) {
+        Map.Entry<K, List<V>> entry = it.next();
+        List<V> values = entry.getValue();
+        int i = byIdentity ? indexOfIdentity(values, value)
+            : values.indexOf(value);
+        if (i == -1)
+          continue;
+        if (values.size() == 1) {
+          it.remove();
+          _previousKey = null;
+        } else {
+          values = getValuesForUpdate(values);
+          values.remove(i);
+          entry.setValue(values);
+          _previousKey = entry.getKey();
+        }
+        return true;
+      }
+      return false;
+    }
+
+    /**
+     * Looks up a stored entity by identity, and then by id, which is how
+     * packed stop times and shape points are matched
+     */
+    private int indexOf(List<V> values, V value) {
+      int i = indexOfIdentity(values, value);
+      return i != -1 ? i : values.indexOf(value);
+    }
+
+    private int indexOfIdentity(List<V> values, V value) {
+      for (int i = 0; i < values.size(); i++) {
+        if (values.get(i) == value)
+          return i;
+      }
+      return -1;
+    }
+
+    /**
+     * @return the index after the last value that sorts no later than the
+     *         specified value, or the end of the list for unsorted values
+     */
+    private int getInsertionIndex(List<V> values, V value) {
+      int i = values.size();
+      if (_sorted) {
+        while (i > 0 && compare(values.get(i - 1), value) > 0)
+          i--;
+      }
+      return i;
+    }
+
+    private boolean isSorted(List<V> values) {
+      for (int i = 1; i < values.size(); i++) {
+        if (compare(values.get(i - 1), values.get(i)) > 0)
+          return false;
+      }
+      return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    private int compare(V a, V b) {
+      return ((Comparable<V>) a).compareTo(b);
+    }
+
+    @SuppressWarnings("unchecked")
+    private void sort(List<V> values) {
+      Collections.sort((List<Comparable<Object>>) values);
     }
   }
 
+  /**
+   * The values of a key, as changed by a {@link RelationIndex} after the index
+   * was built, along with whether a query returned them since
+   */
+  private static class ValueList<V> extends ArrayList<V> {
+
+    private static final long serialVersionUID = 1L;
+
+    private boolean shared = false;
+
+    public ValueList(int initialCapacity) {
+      super(initialCapacity);
+    }
+  }
+
+  /**
+   * Indexes packed stop times by trip as views of the rows of each trip,
+   * rather than as lists of proxies, when the rows of each trip are contiguous
+   * and in stop sequence order, as they are in a feed sorted by trip.
+   */
+  private class StopTimesByTripIndex extends RelationIndex<Trip, StopTime> {
+
+    public StopTimesByTripIndex() {
+      super(StopTime.class, Trip.class, STOP_TIME_TRIP, true);
+    }
+
+    @Override
+    protected Map<Trip, List<StopTime>> build() {
+      Collection<StopTime> stopTimes = getAllStopTimes();
+      if (isPackStopTimes()) {
+        Map<Trip, List<StopTime>> slices = getSlicesByTrip(
+            (List<StopTime>) stopTimes);
+        if (slices != null)
+          return slices;
+      }
+      return super.build();
+    }
+
+    /**
+     * @return the rows of each trip, or null if the rows of a trip are not
+     *         contiguous or not in stop sequence order, or if rows were removed
+     */
+    private Map<Trip, List<StopTime>> getSlicesByTrip(
+        List<StopTime> stopTimes) {
+      StopTimeArray array = stopTimes instanceof StopTimeArray
+          ? (StopTimeArray) stopTimes : null;
+      if (array != null && array.getRemovedCount() > 0)
+        return null;
+      Map<Trip, List<StopTime>> slices = new HashMap<Trip, List<StopTime>>();
+      int size = stopTimes.size();
+      int from = 0;
+      Trip trip = null;
+      int prevStopSequence = 0;
+      for (int i = 0; i < size; i++) {
+        Trip rowTrip;
+        int stopSequence;
+        if (array != null) {
+          rowTrip = array.getTrip(i);
+          stopSequence = array.getStopSequence(i);
+        } else {
+          StopTime stopTime = stopTimes.get(i);
+          rowTrip = stopTime.getTrip();
+          stopSequence = stopTime.getStopSequence();
+        }
+        if (i > 0 && (rowTrip == null ? trip == null : rowTrip.equals(trip))) {
+          if (stopSequence < prevStopSequence)
+            return null;
+        } else {
+          if (i > 0 && slices.put(trip, slice(stopTimes, from, i)) != null)
+            return null;
+          from = i;
+          trip = rowTrip;
+        }
+        prevStopSequence = stopSequence;
+      }
+      if (size > 0 && slices.put(trip, slice(stopTimes, from, size)) != null)
+        return null;
+      return slices;
+    }
+
+    /**
+     * Packed rows are sliced by row rather than by position, so that the
+     * slices of other trips are left as they are when a row is removed.
+     */
+    private List<StopTime> slice(List<StopTime> stopTimes, int from, int to) {
+      if (stopTimes instanceof StopTimeArray)
+        return ((StopTimeArray) stopTimes).getRows(from, to);
+      return stopTimes.subList(from, to);
+    }
+  }
 }
@@ -0,0 +1,343 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.AbstractCollection;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Stores the entities of a type with {@link Integer} ids, as used by
+ * {@link GenericDaoImpl}, in an array indexed by id. Generated ids are dense,
+ * from 1 to the number of entities, so this saves the boxed key, the map entry
+ * and the hashing of a {@link HashMap} for each entity. A bit set records
+ * which ids are present, so that removed ids are skipped when iterating.
+ *
+ * Ids that are negative, or too far beyond the ids stored so far to be worth
+ * growing the array for, are kept in a {@link HashMap} instead, as are null
+ * and non-{@link Integer} keys, which a {@link HashMap} accepts too, such as
+ * the null id of an entity saved without generated ids. Entities are
+ * iterated in id order, followed by any entities of the map. As with a
+ * {@link HashMap}, the value of an entry can be set, which sets it in the map.
+ * The map is not safe for concurrent modification.
+ */
+final class IntegerIdEntityMap extends AbstractMap<Object, Object> {
+
+  /**
+   * The id, in excess of twice the number of entities, up to which the array
+   * is grown rather than the id kept in the overflow map
+   */
+  private static final int MAX_GAP = 1024;
+
+  private Object[] _entities;
+
+  private final BitSet _present = new BitSet();
+
+  private int _denseSize = 0;
+
+  private Map<Object, Object> _overflow = null;
+
+  private EntrySet _entrySet = null;
+
+  private Values _values = null;
+
+  /**
+   * @param expectedSize the number of entities about to be stored, with ids
+   *          from 1 up to that number
+   */
+  public IntegerIdEntityMap(int expectedSize) {
+    _entities = new Object[Math.max(16, expectedSize + 1)];
+  }
+
+  public IntegerIdEntityMap() {
+    this(0);
+  }
+
+  /**
+   * Shrinks the array to the largest id stored.
+   */
+  public void trimToSize() {
+    int length = _present.length();
+    if (length < _entities.length)
+      _entities = Arrays.copyOf(_entities, length);
+    if (_overflow != null && _overflow.isEmpty())
+      _overflow = null;
+  }
+
+  @Override
+  public int size() {
+    return _denseSize + (_overflow != null ? _overflow.size() : 0);
+  }
+
+  @Override
+  public boolean containsKey(Object key) {
+    return get(key) != null;
+  }
+
+  @Override
+  public Object get(Object key) {
+    if (key instanceof Integer) {
+      int id = ((Integer) key).intValue();
+      if (id >= 0 && id < _entities.length)
+        return _entities[id];
+    }
+    return _overflow != null ? _overflow.get(key) : null;
+  }
+
+  @Override
+  public Object put(Object key, Object entity) {
+    if (entity == null)
+      throw new IllegalArgumentException("entity must not be null");
+    if (key instanceof Integer) {
+      int id = ((Integer) key).intValue();
+      if (id >= 0 && (id < _entities.length || id <= 2L * size() + MAX_GAP)) {
+        if (id >= _entities.length)
+          grow(id);
+        Object prev = _entities[id];
+        _entities[id] = entity;
+        if (prev == null) {
+          _present.set(id);
+          _denseSize++;
+        }
+        return prev;
+      }
+    }
+    if (_overflow == null)
+      _overflow = new HashMap<Object, Object>();
+    return _overflow.put(key, entity);
+  }
+
+  @Override
+  public Object remove(Object key) {
+    if (key instanceof Integer) {
+      int id = ((Integer) key).intValue();
+      if (id >= 0 && id < _entities.length)
+        return removeDense(id);
+    }
+    return _overflow != null ? _overflow.remove(key) : null;
+  }
+
+  @Override
+  public void clear() {
+    Arrays.fill(_entities, null);
+    _present.clear();
+    _denseSize = 0;
+    _overflow = null;
+  }
+
+  @Override
+  public Set<Map.Entry<Object, Object>> entrySet() {
+    if (_entrySet == null)
+      _entrySet = new EntrySet();
+    return _entrySet;
+  }
+
+  @Override
+  public Collection<Object> values() {
+    if (_values == null)
+      _values = new Values();
+    return _values;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void grow(int id) {
+    int length = (int) Math.min(Integer.MAX_VALUE - 8,
+        Math.max(id + 1L, _entities.length * 3L / 2));
+    _entities = Arrays.copyOf(_entities, length);
+    if (_overflow == null)
+      return;
+    // Ids of the overflow map now covered by the array are moved to it
+    for (Iterator<Map.Entry<Object, Object>> it = _overflow.entrySet().iterator(); it.hasNext();) {
+      Map.Entry<Object, Object> entry = it.next();
+      if (!(entry.getKey() instanceof Integer))
+        continue;
+      int overflowId = ((Integer) entry.getKey()).intValue();
+      if (overflowId >= 0 && overflowId < length) {
+        _entities[overflowId] = entry.getValue();
+        _present.set(overflowId);
+        _denseSize++;
+        it.remove();
+      }
+    }
+  }
+
+  private Object removeDense(int id) {
+    Object prev = _entities[id];
+    if (prev != null) {
+      _entities[id] = null;
+      _present.clear(id);
+      _denseSize--;
+    }
+    return prev;
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private class EntrySet extends AbstractSet<Map.Entry<Object, Object>> {
+
+    @Override
+    public Iterator<Map.Entry<Object, Object>> iterator() {
+      return new EntityIterator<Map.Entry<Object, Object>>() {
+        @Override
+        protected Map.Entry<Object, Object> getDense(int id, Object entity) {
+          return new EntityEntry(id, entity, null);
+        }
+
+        @Override
+        protected Map.Entry<Object, Object> getOverflow(
+            Map.Entry<Object, Object> entry) {
+          return new EntityEntry(entry.getKey(), entry.getValue(), entry);
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return IntegerIdEntityMap.this.size();
+    }
+
+    @Override
+    public void clear() {
+      IntegerIdEntityMap.this.clear();
+    }
+  }
+
+  /**
+   * An entry whose value is set in the map too, unless the entry was removed
+   */
+  private class EntityEntry extends AbstractMap.SimpleEntry<Object, Object> {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Map.Entry<Object, Object> _overflowEntry;
+
+    public EntityEntry(Object key, Object entity,
+        Map.Entry<Object, Object> overflowEntry) {
+      super(key, entity);
+      _overflowEntry = overflowEntry;
+    }
+
+    @Override
+    public Object setValue(Object entity) {
+      if (entity == null)
+        throw new IllegalArgumentException("entity must not be null");
+      if (_overflowEntry != null) {
+        _overflowEntry.setValue(entity);
+      } else {
+        int id = ((Integer) getKey()).intValue();
+        if (id < _entities.length && _entities[id] != null)
+          _entities[id] = entity;
+      }
+      return super.setValue(entity);
+    }
+  }
+
+  private class Values extends AbstractCollection<Object> {
+
+    @Override
+    public Iterator<Object> iterator() {
+      return new EntityIterator<Object>() {
+        @Override
+        protected Object getDense(int id, Object entity) {
+          return entity;
+        }
+
+        @Override
+        protected Object getOverflow(Map.Entry<Object, Object> entry) {
+          return entry.getValue();
+        }
+      };
+    }
+
+    @Override
+    public int size() {
+      return IntegerIdEntityMap.this.size();
+    }
+
+    @Override
+    public void clear() {
+      IntegerIdEntityMap.this.clear();
+    }
+  }
+
+  /**
+   * Iterates the array in id order, then the overflow map. Entities may be
+   * removed from the map while iterating, through the iterator or not.
+   */
+  private abstract class EntityIterator<E> implements Iterator<E> {
+
+    private int _nextId = _present.nextSetBit(0);
+
+    private int _lastId = -1;
+
+    private Iterator<Map.Entry<Object, Object>> _overflowIterator = null;
+
+    protected abstract E getDense(int id, Object entity);
+
+    protected abstract E getOverflow(Map.Entry<Object, Object> entry);
+
+    @Override
+    public boolean hasNext() {
+      while (_nextId >= 0 && _nextId < _entities.length
+          && _entities[_nextId] == null)
+        _nextId = _present.nextSetBit(_nextId + 1);
+      if (_nextId >= 0 && _nextId < _entities.length)
+        return true;
+      if (_overflowIterator == null && _overflow != null)
+        _overflowIterator = _overflow.entrySet().iterator();
+      return _overflowIterator != null && _overflowIterator.hasNext();
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+      if (_overflowIterator == null) {
+        int id = _nextId;
+        _lastId = id;
+        _nextId = _present.nextSetBit(id + 1);
+        return getDense(id, _entities[id]);
+      }
+      _lastId = -1;
+      return getOverflow(_overflowIterator.next());
+    }
+
+    @Override
+    public void remove() {
+      if (_overflowIterator != null) {
+        _overflowIterator.remove();
+      } else if (_lastId >= 0) {
+        removeDense(_lastId);
+        _lastId = -1;
+      } else {
+        throw new IllegalStateException();
+      }
+    }
+  }
+}
@@ -0,0 +1,577 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.StopTimeProxy;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * A {@link StopTimeArray} whose columns live outside of the Java heap, in
+ * direct byte buffers or in a memory-mapped file, so that the heap, and the
+ * time the garbage collector spends on it, no longer grow with the number of
+ * stop times. Trips and stops are stored as int indices into tables of the
+ * distinct trips and stops, which stay on the heap, or as trip rows when a
+ * {@link TripArray} is set. Stop headsigns and route short names are stored as
+ * codes of a {@link StringDictionary}.
+ *
+ * Rows are stored in segments of a fixed number of rows, with a buffer per
+ * segment, so that the array grows without copying the rows stored so far and
+ * without the two gigabyte limit of a single buffer. Once the array is no
+ * longer modified, it may be read from any number of threads.
+ */
+public class OffHeapStopTimeArray extends StopTimeArray {
+
+  private static final int SEGMENT_BITS = 16;
+
+  private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+  private static final int SEGMENT_MASK = SEGMENT_SIZE - 1;
+
+  private static final int TRIP = 0;
+
+  private static final int STOP = 1;
+
+  private static final int ARRIVAL_TIME = 2;
+
+  private static final int DEPARTURE_TIME = 3;
+
+  private static final int TIMEPOINT = 4;
+
+  private static final int STOP_SEQUENCE = 5;
+
+  private static final int STOP_HEADSIGN = 6;
+
+  private static final int ROUTE_SHORT_NAME = 7;
+
+  private static final int PICKUP_TYPE = 8;
+
+  private static final int DROP_OFF_TYPE = 9;
+
+  private static final int INT_COLUMNS = 10;
+
+  /**
+   * The shape distances traveled follow the int columns in each segment
+   */
+  private static final int SHAPE_DIST_TRAVELED_OFFSET = INT_COLUMNS
+      * SEGMENT_SIZE * 4;
+
+  private static final int SEGMENT_BYTES = SHAPE_DIST_TRAVELED_OFFSET
+      + SEGMENT_SIZE * 8;
+
+  private final File file;
+
+  private ByteBuffer[] segments = new ByteBuffer[0];
+
+  private int size = 0;
+
+  private final List<Trip> tripTable = new ArrayList<Trip>();
+
+  private final Map<Trip, Integer> tripIndices = new HashMap<Trip, Integer>();
+
+  private final List<Stop> stopTable = new ArrayList<Stop>();
+
+  private final Map<Stop, Integer> stopIndices = new HashMap<Stop, Integer>();
+
+  private final StringDictionary strings = new StringDictionary();
+
+  /**
+   * Stores the stop times in direct byte buffers.
+   */
+  public OffHeapStopTimeArray() {
+    this(null);
+  }
+
+  /**
+   * Stores the stop times in a memory-mapped file, so that they are paged in
+   * and out by the operating system and can exceed the available memory. The
+   * contents of the file are overwritten. The file can be deleted once the
+   * array is no longer used.
+   *
+   * @param file the file to map, or null to use direct byte buffers
+   */
+  public OffHeapStopTimeArray(File file) {
+    this.file = file;
+  }
+
+  public File getFile() {
+    return file;
+  }
+
+  @Override
+  public void setTripArray(TripArray tripArray) {
+    if (size > 0 && tripArray != getTripArray())
+      throw new IllegalStateException(
+          "trip storage can't change once stop times are added");
+    super.setTripArray(tripArray);
+  }
+
+  /**
+   * Releases the segments beyond those holding rows.
+   */
+  @Override
+  public void trimToSize() {
+    int count = (size + SEGMENT_MASK) >>> SEGMENT_BITS;
+    if (count < segments.length)
+      segments = Arrays.copyOf(segments, count);
+  }
+
+  /**
+   * Does nothing, as strings are already stored once each in the dictionary.
+   */
+  @Override
+  public void internStrings(Map<String, String> strings) {
+
+  }
+
+  @Override
+  public void add(Trip trip, Stop stop, int arrivalTime, int departureTime,
+      int timepoint, int stopSequence, String stopHeadsign,
+      String routeShortName, int pickupType, int dropOffType,
+      double shapeDistTraveled) {
+    int index = size;
+    ensureCapacity(size + 1);
+    setInt(TRIP, index, encodeTrip(trip));
+    size++;
+    setInt(STOP, index, encodeStop(stop));
+    setInt(ARRIVAL_TIME, index, arrivalTime);
+    setInt(DEPARTURE_TIME, index, departureTime);
+    setInt(TIMEPOINT, index, timepoint);
+    setInt(STOP_SEQUENCE, index, stopSequence);
+    setInt(STOP_HEADSIGN, index, strings.encode(stopHeadsign));
+    setInt(ROUTE_SHORT_NAME, index, strings.encode(routeShortName));
+    setInt(PICKUP_TYPE, index, pickupType);
+    setInt(DROP_OFF_TYPE, index, dropOffType);
+    writeShapeDistTraveled(index, shapeDistTraveled);
+  }
+
+  @Override
+  public void append(StopTimeArray other) {
+    ensureCapacity(size + other.size());
+    for (StopTime stopTime : other)
+      add(stopTime);
+  }
+
+  @Override
+  public int getRowCount() {
+    return size;
+  }
+
+  @Override
+  public int getRow(StopTime stopTime) {
+    StopTimeProxy proxy = stopTime.getProxy();
+    if (!(proxy instanceof StopTimeProxyImpl))
+      return -1;
+    StopTimeProxyImpl rowProxy = (StopTimeProxyImpl) proxy;
+    if (rowProxy.getArray() != this || isRemoved(rowProxy.index))
+      return -1;
+    return rowProxy.index;
+  }
+
+  @Override
+  public Trip getTrip(int index) {
+    return decodeTrip(getInt(TRIP, index));
+  }
+
+  @Override
+  public Stop getStop(int index) {
+    return decodeStop(getInt(STOP, index));
+  }
+
+  @Override
+  public int getArrivalTime(int index) {
+    return getInt(ARRIVAL_TIME, index);
+  }
+
+  @Override
+  public int getDepartureTime(int index) {
+    return getInt(DEPARTURE_TIME, index);
+  }
+
+  @Override
+  public int getTimepoint(int index) {
+    return getInt(TIMEPOINT, index);
+  }
+
+  @Override
+  public int getStopSequence(int index) {
+    return getInt(STOP_SEQUENCE, index);
+  }
+
+  @Override
+  public String getStopHeadsign(int index) {
+    return strings.decode(getInt(STOP_HEADSIGN, index));
+  }
+
+  @Override
+  public String getRouteShortName(int index) {
+    return strings.decode(getInt(ROUTE_SHORT_NAME, index));
+  }
+
+  @Override
+  public int getPickupType(int index) {
+    return getInt(PICKUP_TYPE, index);
+  }
+
+  @Override
+  public int getDropOffType(int index) {
+    return getInt(DROP_OFF_TYPE, index);
+  }
+
+  @Override
+  public double getShapeDistTraveled(int index) {
+    return readShapeDistTraveled(index);
+  }
+
+  /****
+   * {@link Collection} Interface
+   ****/
+
+  @Override
+  public void clear() {
+    super.clear();
+    size = 0;
+    segments = new ByteBuffer[0];
+    tripTable.clear();
+    tripIndices.clear();
+    stopTable.clear();
+    stopIndices.clear();
+    strings.clear();
+  }
+
+  /**
+   * Allocates the segments for at least the specified number of rows.
+   */
+  @Override
+  public void ensureCapacity(int capacity) {
+    int count = (int) ((capacity + (long) SEGMENT_MASK) >>> SEGMENT_BITS);
+    if (count <= segments.length)
+      return;
+    ByteBuffer[] newSegments = Arrays.copyOf(segments, count);
+    for (int i = segments.length; i < count; i++)
+      newSegments[i] = createSegment(i);
+    segments = newSegments;
+  }
+
+  /****
+   * Protected Methods
+   ****/
+
+  @Override
+  protected StopTimeProxy createProxy(int row) {
+    return new StopTimeProxyImpl(row);
+  }
+
+  @Override
+  protected void moveRow(int from, int to) {
+    for (int column = 0; column < INT_COLUMNS; column++)
+      setInt(column, to, getInt(column, from));
+    writeShapeDistTraveled(to, readShapeDistTraveled(from));
+  }
+
+  /**
+   * Truncates the array to the specified number of rows, keeping its segments
+   * until {@link #trimToSize()} is called.
+   */
+  @Override
+  protected void setRowCount(int rowCount) {
+    size = rowCount;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private ByteBuffer createSegment(int segmentIndex) {
+    if (file == null)
+      return ByteBuffer.allocateDirect(SEGMENT_BYTES).order(
+          ByteOrder.nativeOrder());
+    // A mapping stays valid once the file is closed
+    RandomAccessFile raf = null;
+    try {
+      raf = new RandomAccessFile(file, "rw");
+      ByteBuffer segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE,
+          (long) segmentIndex * SEGMENT_BYTES, SEGMENT_BYTES);
+      return segment.order(ByteOrder.nativeOrder());
+    } catch (IOException ex) {
+      throw new IllegalStateException("error mapping stop times file " + file,
+          ex);
+    } finally {
+      if (raf != null) {
+        try {
+          raf.close();
+        } catch (IOException ex) {
+          throw new IllegalStateException(ex);
+        }
+      }
+    }
+  }
+
+  private int getInt(int column, int index) {
+    ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+    return segment.getInt(((column << SEGMENT_BITS) + (index & SEGMENT_MASK))
+        << 2);
+  }
+
+  private void setInt(int column, int index, int value) {
+    ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+    segment.putInt(((column << SEGMENT_BITS) + (index & SEGMENT_MASK)) << 2,
+        value);
+  }
+
+  private double readShapeDistTraveled(int index) {
+    ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+    return segment.getDouble(SHAPE_DIST_TRAVELED_OFFSET
+        + ((index & SEGMENT_MASK) << 3));
+  }
+
+  private void writeShapeDistTraveled(int index,
+      double shapeDistTraveled) {
+    ByteBuffer segment = segments[index >>> SEGMENT_BITS];
+    segment.putDouble(SHAPE_DIST_TRAVELED_OFFSET
+        + ((index & SEGMENT_MASK) << 3), shapeDistTraveled);
+  }
+
+  /**
+   * @return the row of the trip in the trip array when one is set, or else its
+   *         index in the trip table, or -1 for null
+   */
+  private int encodeTrip(Trip trip) {
+    if (trip == null)
+      return -1;
+    TripArray tripArray = getTripArray();
+    if (tripArray != null) {
+      int row = tripArray.getReferenceRow(trip);
+      if (row < 0)
+        throw new IllegalArgumentException("trip is not in the trip array: "
+            + trip);
+      return row;
+    }
+    Integer index = tripIndices.get(trip);
+    if (index == null) {
+      index = tripTable.size();
+      tripTable.add(trip);
+      tripIndices.put(trip, index);
+    }
+    return index;
+  }
+
+  private Trip decodeTrip(int code) {
+    if (code < 0)
+      return null;
+    TripArray tripArray = getTripArray();
+    if (tripArray != null)
+      return tripArray.getForRow(code);
+    return tripTable.get(code);
+  }
+
+  private int encodeStop(Stop stop) {
+    if (stop == null)
+      return -1;
+    Integer index = stopIndices.get(stop);
+    if (index == null) {
+      index = stopTable.size();
+      stopTable.add(stop);
+      stopIndices.put(stop, index);
+    }
+    return index;
+  }
+
+  private Stop decodeStop(int code) {
+    return code < 0 ? null : stopTable.get(code);
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private class StopTimeProxyImpl implements StopTimeProxy {
+
+    private final int index;
+
+    public StopTimeProxyImpl(int index) {
+      this.index = index;
+    }
+
+    public OffHeapStopTimeArray getArray() {
+      return OffHeapStopTimeArray.this;
+    }
+
+    @Override
+    public Integer getId() {
+      return index;
+    }
+
+    @Override
+    public void setId(Integer id) {
+      // ignored
+    }
+
+    @Override
+    public Trip getTrip() {
+      return decodeTrip(getInt(TRIP, index));
+    }
+
+    @Override
+    public void setTrip(Trip trip) {
+      setInt(TRIP, index, encodeTrip(trip));
+    }
+
+    @Override
+    public int getStopSequence() {
+      return getInt(STOP_SEQUENCE, index);
+    }
+
+    @Override
+    public void setStopSequence(int stopSequence) {
+      setInt(STOP_SEQUENCE, index, stopSequence);
+    }
+
+    @Override
+    public Stop getStop() {
+      return decodeStop(getInt(STOP, index));
+    }
+
+    @Override
+    public void setStop(Stop stop) {
+      setInt(STOP, index, encodeStop(stop));
+    }
+
+    @Override
+    public boolean isArrivalTimeSet() {
+      return getInt(ARRIVAL_TIME, index) != StopTime.MISSING_VALUE;
+    }
+
+    @Override
+    public int getArrivalTime() {
+      return getInt(ARRIVAL_TIME, index);
+    }
+
+    @Override
+    public void setArrivalTime(int arrivalTime) {
+      setInt(ARRIVAL_TIME, index, arrivalTime);
+    }
+
+    @Override
+    public void clearArrivalTime() {
+      setInt(ARRIVAL_TIME, index, StopTime.MISSING_VALUE);
+    }
+
+    @Override
+    public boolean isDepartureTimeSet() {
+      return getInt(DEPARTURE_TIME, index) != StopTime.MISSING_VALUE;
+    }
+
+    @Override
+    public int getDepartureTime() {
+      return getInt(DEPARTURE_TIME, index);
+    }
+
+    @Override
+    public void setDepartureTime(int departureTime) {
+      setInt(DEPARTURE_TIME, index, departureTime);
+    }
+
+    @Override
+    public void clearDepartureTime() {
+      setInt(DEPARTURE_TIME, index, StopTime.MISSING_VALUE);
+    }
+
+    @Override
+    public int getTimepoint() {
+      return getInt(TIMEPOINT, index);
+    }
+
+    @Override
+    public void setTimepoint(int timepoint) {
+      setInt(TIMEPOINT, index, timepoint);
+    }
+
+    @Override
+    public String getStopHeadsign() {
+      return strings.decode(getInt(STOP_HEADSIGN, index));
+    }
+
+    @Override
+    public void setStopHeadsign(String headSign) {
+      setInt(STOP_HEADSIGN, index, strings.encode(headSign));
+    }
+
+    @Override
+    public String getRouteShortName() {
+      return strings.decode(getInt(ROUTE_SHORT_NAME, index));
+    }
+
+    @Override
+    public void setRouteShortName(String routeShortName) {
+      setInt(ROUTE_SHORT_NAME, index, strings.encode(routeShortName));
+    }
+
+    @Override
+    public int getPickupType() {
+      return getInt(PICKUP_TYPE, index);
+    }
+
+    @Override
+    public void setPickupType(int pickupType) {
+      setInt(PICKUP_TYPE, index, pickupType);
+    }
+
+    @Override
+    public int getDropOffType() {
+      return getInt(DROP_OFF_TYPE, index);
+    }
+
+    @Override
+    public void setDropOffType(int dropOffType) {
+      setInt(DROP_OFF_TYPE, index, dropOffType);
+    }
+
+    @Override
+    public boolean isShapeDistTraveledSet() {
+      return readShapeDistTraveled(index) != StopTime.MISSING_VALUE;
+    }
+
+    @Override
+    public double getShapeDistTraveled() {
+      return readShapeDistTraveled(index);
+    }
+
+    @Override
+    public void setShapeDistTraveled(double shapeDistTraveled) {
+      writeShapeDistTraveled(index, shapeDistTraveled);
+    }
+
+    @Override
+    public void clearShapeDistTraveled() {
+      writeShapeDistTraveled(index, StopTime.MISSING_VALUE);
+    }
+  }
+}
@@ -0,0 +1,362 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The rows shared by the packed storage of entities with {@link AgencyAndId}
+ * ids, such as {@link TripArray}: their ids, the lookup of a row by id and the
+ * identity of the entity proxied to each row, while subclasses hold the other
+ * fields in columns of their own.
+ * 
+ * Removed rows are marked as such, and skipped by the list and the lookup by
+ * id. Their values are kept, and rows are never numbered again, since packed
+ * stop times refer to their trip by row, so that a stop time keeps its trip
+ * after it is removed, as it would with unpacked trips. Removed rows are only
+ * dropped when the array is cleared.
+ * 
+ * Adding an entity with the id of a stored one replaces it, as
+ * {@link GenericDaoImpl} does: the row of the stored one is marked as removed.
+ */
+public abstract class PackedEntityArray<T extends IdentityBean<AgencyAndId>>
+    extends AbstractList<T> {
+
+  private final Logger _log = LoggerFactory.getLogger(PackedEntityArray.class);
+
+  private final Class<T> entityType;
+
+  private final AgencyAndIdTable idTable;
+
+  /**
+   * The strings of the columns of subclasses, each held once
+   */
+  protected final StringDictionary strings = new StringDictionary();
+
+  private final PackedEntityCache<T> entities = new PackedEntityCache<T>() {
+    @Override
+    protected T create(int row) {
+      return createEntity(row);
+    }
+  };
+
+  /**
+   * The number of rows, including removed rows
+   */
+  private int rowCount = 0;
+
+  private final BitSet removed = new BitSet();
+
+  private int removedCount = 0;
+
+  /**
+   * The rows of the list positions, computed on demand while rows are removed
+   */
+  private volatile int[] rowsByPosition = null;
+
+  private int[] rowsBySurrogateKey = new int[0];
+
+  private AgencyAndId[] ids = new AgencyAndId[0];
+
+  /**
+   * @param entityType the type of the entities, whose surrogate keys in the
+   *          table are used to look up rows by id
+   * @param idTable the table canonicalizing the ids of the entities
+   */
+  protected PackedEntityArray(Class<T> entityType, AgencyAndIdTable idTable) {
+    this.entityType = entityType;
+    this.idTable = idTable;
+  }
+
+  public void trimToSize() {
+    if (ids.length != rowCount)
+      setLength(rowCount);
+  }
+
+  /**
+   * @return the entity with the specified id, or null if there is none
+   */
+  public T getForId(AgencyAndId id) {
+    int row = getRowForId(id);
+    return row < 0 ? null : entities.get(row);
+  }
+
+  /**
+   * @return the row of the entity saved with the specified id, or -1 if there
+   *         is none or it was removed. As with the maps of
+   *         {@link GenericDaoImpl}, a row is found by the id it was saved with,
+   *         even if the id has changed.
+   */
+  public int getRowForId(AgencyAndId id) {
+    if (id == null)
+      return -1;
+    int key = idTable.getSurrogateKey(entityType, id);
+    if (key < 0 || key >= rowsBySurrogateKey.length)
+      return -1;
+    return rowsBySurrogateKey[key];
+  }
+
+  /**
+   * @return the row of an entity returned by this array, or else of the stored
+   *         entity with the same id, or -1 if there is none or it was removed
+   */
+  public int getRow(T entity) {
+    int row = getProxyRow(entity);
+    if (row >= 0)
+      return removed.get(row) ? -1 : row;
+    return getRowForId(entity.getId());
+  }
+
+  /**
+   * @return the row by which other packed rows refer to the entity: that of
+   *         an entity returned by this array, even if it was removed, or else
+   *         of the stored entity with the same id, or -1 if there is none
+   */
+  public int getReferenceRow(T entity) {
+    int row = getProxyRow(entity);
+    if (row >= 0)
+      return row;
+    return getRowForId(entity.getId());
+  }
+
+  /**
+   * @return the entity of the row, even if it was removed, as needed by the
+   *         entities referring to it by row
+   */
+  public T getForRow(int row) {
+    if (row < 0 || row >= rowCount)
+      throw new IndexOutOfBoundsException("Row: " + row + ", Rows: "
+          + rowCount);
+    return entities.get(row);
+  }
+
+  /**
+   * @return the number of rows, including removed rows
+   */
+  public int getRowCount() {
+    return rowCount;
+  }
+
+  public int getRemovedCount() {
+    return removedCount;
+  }
+
+  public boolean isRemoved(int row) {
+    return removed.get(row);
+  }
+
+  /**
+   * Marks the row as removed, so that it is no longer found by its id, while
+   * the other rows keep their number.
+   * 
+   * @return false if there is no such row or it was already removed
+   */
+  public boolean removeRow(int row) {
+    if (row < 0 || row >= rowCount || removed.get(row))
+      return false;
+    removed.set(row);
+    removedCount++;
+    rowsByPosition = null;
+    int key = ids[row] == null ? -1 : idTable.getSurrogateKey(entityType,
+        ids[row]);
+    if (key >= 0 && key < rowsBySurrogateKey.length
+        && rowsBySurrogateKey[key] == row) {
+      rowsBySurrogateKey[key] = -1;
+    } else {
+      // The id of the row changed since it was saved
+      for (int i = 0; i < rowsBySurrogateKey.length; i++) {
+        if (rowsBySurrogateKey[i] == row)
+          rowsBySurrogateKey[i] = -1;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Makes room for at least the specified number of rows, growing the columns
+   * by half their length at a time otherwise.
+   */
+  public void ensureCapacity(int capacity) {
+    if (ids.length < capacity) {
+      int newLength = ids.length + (ids.length >> 1);
+      setLength(Math.max(capacity, Math.max(8, newLength)));
+    }
+  }
+
+  /****
+   * {@link List} Interface
+   ****/
+
+  @Override
+  public boolean add(T entity) {
+    int row = rowCount;
+    ensureCapacity(rowCount + 1);
+    AgencyAndId id = idTable.intern(entity.getId());
+    setRow(row, entity);
+    ids[row] = id;
+    rowCount++;
+    rowsByPosition = null;
+    if (id != null) {
+      int key = idTable.getOrAssignSurrogateKey(entityType, id);
+      if (key >= rowsBySurrogateKey.length) {
+        int length = rowsBySurrogateKey.length;
+        rowsBySurrogateKey = Arrays.copyOf(rowsBySurrogateKey, Math.max(key + 1,
+            length + (length >> 1) + 8));
+        Arrays.fill(rowsBySurrogateKey, length, rowsBySurrogateKey.length, -1);
+      }
+      int prevRow = rowsBySurrogateKey[key];
+      if (prevRow >= 0) {
+        _log.warn("entity with id already exists: class=" + entityType
+            + " id=" + id + " prev=" + entities.get(prevRow) + " new="
+            + entity);
+        removeRow(prevRow);
+      }
+      rowsBySurrogateKey[key] = row;
+    }
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    rowCount = 0;
+    removed.clear();
+    removedCount = 0;
+    rowsByPosition = null;
+    setLength(0);
+    rowsBySurrogateKey = new int[0];
+    idTable.releaseSurrogateKeys(entityType);
+    strings.clear();
+  }
+
+  @Override
+  public Iterator<T> iterator() {
+    return new EntityIterator();
+  }
+
+  @Override
+  public T get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size());
+    }
+    return entities.get(getRowForPosition(index));
+  }
+
+  @Override
+  public int size() {
+    return rowCount - removedCount;
+  }
+
+  /****
+   * Protected Methods
+   ****/
+
+  /**
+   * @return a new entity proxied to the row
+   */
+  protected abstract T createEntity(int row);
+
+  /**
+   * @return the row of the entity if it is proxied to a row of this array, or
+   *         else -1
+   */
+  protected abstract int getProxyRow(T entity);
+
+  /**
+   * Copies the fields of the entity, other than its id, to the row
+   */
+  protected abstract void setRow(int row, T entity);
+
+  /**
+   * Resizes the columns of the subclass to the specified number of rows
+   */
+  protected abstract void setColumnsLength(int newLength);
+
+  protected AgencyAndId getRowId(int row) {
+    return ids[row];
+  }
+
+  protected void setRowId(int row, AgencyAndId id) {
+    ids[row] = idTable.intern(id);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private int getRowForPosition(int index) {
+    if (removedCount == 0)
+      return index;
+    int[] rows = rowsByPosition;
+    if (rows == null || rows.length != size()) {
+      rows = new int[size()];
+      int i = 0;
+      int row = removed.nextClearBit(0);
+      while (row < rowCount) {
+        rows[i++] = row;
+        row = removed.nextClearBit(row + 1);
+      }
+      rowsByPosition = rows;
+    }
+    return rows[index];
+  }
+
+  private void setLength(int newLength) {
+    entities.setLength(newLength);
+    ids = Arrays.copyOf(ids, newLength);
+    setColumnsLength(newLength);
+  }
+
+  private class EntityIterator implements Iterator<T> {
+
+    private int row = removed.nextClearBit(0);
+
+    private int lastRow = -1;
+
+    @Override
+    public boolean hasNext() {
+      return row < rowCount;
+    }
+
+    @Override
+    public T next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      lastRow = row;
+      row = removed.nextClearBit(row + 1);
+      return entities.get(lastRow);
+    }
+
+    @Override
+    public void remove() {
+      if (lastRow < 0)
+        throw new IllegalStateException();
+      removeRow(lastRow);
+      lastRow = -1;
+    }
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * The proxied entities of the rows of a packed array, such as
+ * {@link TripArray}. The entity of a row is created when it is first returned
+ * and then held weakly, so that a row is returned as the same instance as long
+ * as that instance is referenced, as an unpacked dao does, while rows that are
+ * no longer referenced take no entity or proxy of their own. Once collected,
+ * an entity is created again on its next access, which can't be told apart
+ * from the previous one, as its values are held by the row. Each row that is
+ * referenced takes a weak reference in addition to its entity and proxy.
+ * 
+ * Rows may be read from several threads at once, such as while stop times are
+ * parsed in chunks, so an entity is published through an atomic array. The
+ * length of the cache follows that of the columns of the array, which are
+ * only resized while no rows are read.
+ */
+abstract class PackedEntityCache<T> {
+
+  private AtomicReferenceArray<EntityReference<T>> entities = new AtomicReferenceArray<EntityReference<T>>(
+      0);
+
+  private final ReferenceQueue<T> collected = new ReferenceQueue<T>();
+
+  /**
+   * @return the entity of the row, created on first access and again once the
+   *         previous one has been collected
+   */
+  public T get(int row) {
+    expungeCollected();
+    AtomicReferenceArray<EntityReference<T>> entities = this.entities;
+    while (true) {
+      EntityReference<T> ref = entities.get(row);
+      T entity = ref == null ? null : ref.get();
+      if (entity != null)
+        return entity;
+      entity = create(row);
+      if (entities.compareAndSet(row, ref, new EntityReference<T>(entity, row,
+          collected)))
+        return entity;
+    }
+  }
+
+  public void setLength(int newLength) {
+    AtomicReferenceArray<EntityReference<T>> entities = new AtomicReferenceArray<EntityReference<T>>(
+        newLength);
+    int length = Math.min(newLength, this.entities.length());
+    for (int i = 0; i < length; i++)
+      entities.set(i, this.entities.get(i));
+    this.entities = entities;
+  }
+
+  /**
+   * @return a new entity proxied to the row
+   */
+  protected abstract T create(int row);
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Clears the rows whose entities have been collected, so that their
+   * references are dropped too.
+   */
+  private void expungeCollected() {
+    AtomicReferenceArray<EntityReference<T>> entities = this.entities;
+    while (true) {
+      @SuppressWarnings("unchecked")
+      EntityReference<T> ref = (EntityReference<T>) collected.poll();
+      if (ref == null)
+        return;
+      if (ref.row < entities.length())
+        entities.compareAndSet(ref.row, ref, null);
+    }
+  }
+
+  private static class EntityReference<T> extends WeakReference<T> {
+
+    private final int row;
+
+    public EntityReference(T entity, int row, ReferenceQueue<T> queue) {
+      super(entity, queue);
+      this.row = row;
+    }
+  }
+}
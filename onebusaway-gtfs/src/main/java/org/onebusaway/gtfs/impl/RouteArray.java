@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.Arrays;
+
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.RouteProxy;
+
+/**
+ * Packed storage for routes, used by {@link GtfsDaoImpl} when
+ * {@link GtfsDaoImpl#isPackRoutes()} is enabled, with a column per field as in
+ * {@link TripArray}, whose rows keep their identity the same way.
+ */
+public class RouteArray extends PackedEntityArray<Route> {
+
+  private Agency[] agencies = new Agency[0];
+
+  private int[] shortNames = new int[0];
+
+  private int[] longNames = new int[0];
+
+  private int[] types = new int[0];
+
+  private int[] descs = new int[0];
+
+  private int[] urls = new int[0];
+
+  private int[] colors = new int[0];
+
+  private int[] textColors = new int[0];
+
+  private int[] routeBikesAllowed = new int[0];
+
+  private int[] bikesAllowed = new int[0];
+
+  private int[] competentAuthorities = new int[0];
+
+  private int[] shortNameSortables = new int[0];
+
+  public RouteArray() {
+    this(new AgencyAndIdTable());
+  }
+
+  /**
+   * @param idTable the table canonicalizing the ids of the routes, whose
+   *          surrogate keys for the {@link Route} type are used to look up
+   *          routes by id
+   */
+  public RouteArray(AgencyAndIdTable idTable) {
+    super(Route.class, idTable);
+  }
+
+  /****
+   * {@link PackedEntityArray} Interface
+   ****/
+
+  @Override
+  protected Route createEntity(int row) {
+    Route route = new Route();
+    route.setProxy(new RouteProxyImpl(row));
+    return route;
+  }
+
+  @Override
+  protected int getProxyRow(Route route) {
+    RouteProxy proxy = route.getProxy();
+    if (proxy instanceof RouteProxyImpl
+        && ((RouteProxyImpl) proxy).getArray() == this)
+      return ((RouteProxyImpl) proxy).index;
+    return -1;
+  }
+
+  @Override
+  protected void setRow(int row, Route route) {
+    agencies[row] = route.getAgency();
+    shortNames[row] = strings.encode(route.getShortName());
+    longNames[row] = strings.encode(route.getLongName());
+    types[row] = route.getType();
+    descs[row] = strings.encode(route.getDesc());
+    urls[row] = strings.encode(route.getUrl());
+    colors[row] = strings.encode(route.getColor());
+    textColors[row] = strings.encode(route.getTextColor());
+    routeBikesAllowed[row] = route.getRouteBikesAllowed();
+    bikesAllowed[row] = route.getBikesAllowed();
+    competentAuthorities[row] = strings.encode(route.getCompetentAuthority());
+    shortNameSortables[row] = strings.encode(route.getShortNameSortable());
+  }
+
+  @Override
+  protected void setColumnsLength(int newLength) {
+    this.agencies = Arrays.copyOf(this.agencies, newLength);
+    this.shortNames = Arrays.copyOf(this.shortNames, newLength);
+    this.longNames = Arrays.copyOf(this.longNames, newLength);
+    this.types = Arrays.copyOf(this.types, newLength);
+    this.descs = Arrays.copyOf(this.descs, newLength);
+    this.urls = Arrays.copyOf(this.urls, newLength);
+    this.colors = Arrays.copyOf(this.colors, newLength);
+    this.textColors = Arrays.copyOf(this.textColors, newLength);
+    this.routeBikesAllowed = Arrays.copyOf(this.routeBikesAllowed, newLength);
+    this.bikesAllowed = Arrays.copyOf(this.bikesAllowed, newLength);
+    this.competentAuthorities = Arrays.copyOf(this.competentAuthorities,
+        newLength);
+    this.shortNameSortables = Arrays.copyOf(this.shortNameSortables, newLength);
+  }
+
+  private class RouteProxyImpl implements RouteProxy {
+
+    private final int index;
+
+    public RouteProxyImpl(int index) {
+      this.index = index;
+    }
+
+    public RouteArray getArray() {
+      return RouteArray.this;
+    }
+
+    @Override
+    public AgencyAndId getId() {
+      return getRowId(index);
+    }
+
+    @Override
+    public void setId(AgencyAndId id) {
+      setRowId(index, id);
+    }
+
+    @Override
+    public Agency getAgency() {
+      return agencies[index];
+    }
+
+    @Override
+    public void setAgency(Agency agency) {
+      agencies[index] = agency;
+    }
+
+    @Override
+    public String getShortName() {
+      return strings.decode(shortNames[index]);
+    }
+
+    @Override
+    public void setShortName(String shortName) {
+      shortNames[index] = strings.encode(shortName);
+    }
+
+    @Override
+    public String getLongName() {
+      return strings.decode(longNames[index]);
+    }
+
+    @Override
+    public void setLongName(String longName) {
+      longNames[index] = strings.encode(longName);
+    }
+
+    @Override
+    public int getType() {
+      return types[index];
+    }
+
+    @Override
+    public void setType(int type) {
+      types[index] = type;
+    }
+
+    @Override
+    public String getDesc() {
+      return strings.decode(descs[index]);
+    }
+
+    @Override
+    public void setDesc(String desc) {
+      descs[index] = strings.encode(desc);
+    }
+
+    @Override
+    public String getUrl() {
+      return strings.decode(urls[index]);
+    }
+
+    @Override
+    public void setUrl(String url) {
+      urls[index] = strings.encode(url);
+    }
+
+    @Override
+    public String getColor() {
+      return strings.decode(colors[index]);
+    }
+
+    @Override
+    public void setColor(String color) {
+      colors[index] = strings.encode(color);
+    }
+
+    @Override
+    public String getTextColor() {
+      return strings.decode(textColors[index]);
+    }
+
+    @Override
+    public void setTextColor(String textColor) {
+      textColors[index] = strings.encode(textColor);
+    }
+
+    @Deprecated
+    @Override
+    public int getRouteBikesAllowed() {
+      return routeBikesAllowed[index];
+    }
+
+    @Deprecated
+    @Override
+    public void setRouteBikesAllowed(int routeBikesAllowed) {
+      RouteArray.this.routeBikesAllowed[index] = routeBikesAllowed;
+    }
+
+    @Override
+    public int getBikesAllowed() {
+      return bikesAllowed[index];
+    }
+
+    @Override
+    public void setBikesAllowed(int bikesAllowed) {
+      RouteArray.this.bikesAllowed[index] = bikesAllowed;
+    }
+
+    @Override
+    public String getCompetentAuthority() {
+      return strings.decode(competentAuthorities[index]);
+    }
+
+    @Override
+    public void setCompetentAuthority(String competentAuthority) {
+      competentAuthorities[index] = strings.encode(competentAuthority);
+    }
+
+    @Override
+    public String getShortNameSortable() {
+      return strings.decode(shortNameSortables[index]);
+    }
+
+    @Override
+    public void setShortNameSortable(String shortNameSortable) {
+      shortNameSortables[index] = strings.encode(shortNameSortable);
+    }
+  }
+}
@@ -17,6 +17,7 @@ package org.onebusaway.gtfs.impl;
 
 import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
@@ -25,10 +26,31 @@ import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.ShapePoint;
 import org.onebusaway.gtfs.model.ShapePointProxy;
 
+/**
+ * Stores shape points column-wise, returning each as a {@link ShapePoint}
+ * proxy to its row. The row of a shape point is also its id.
+ *
+ * Removed rows are marked as such, and skipped by the list, so that the other
+ * rows keep their ids. They are dropped by {@link #compact()}, which numbers
+ * the remaining rows again, so that shape points obtained before no longer
+ * refer to their row.
+ */
 public class ShapePointArray extends AbstractList<ShapePoint> {
 
+  /**
+   * The number of rows, including removed rows
+   */
   private int size = 0;
 
+  private final BitSet removed = new BitSet();
+
+  private int removedCount = 0;
+
+  /**
+   * The rows of the list positions, computed on demand while rows are removed
+   */
+  private volatile int[] rowsByPosition = null;
+
   private AgencyAndId[] shapeIds = new AgencyAndId[0];
 
   private int[] sequences = new int[0];
@@ -40,7 +62,127 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
   private double[] distTraveled = new double[0];
 
   public void trimToSize() {
-    setLength(size);
+    if (shapeIds.length != size)
+      setLength(size);
+  }
+
+  /**
+   * Appends a shape point from its individual field values, without the need
+   * for an intermediate {@link ShapePoint} instance.
+   */
+  public void add(AgencyAndId shapeId, int sequence, double lat, double lon,
+      double distTraveled) {
+    int index = size;
+    size++;
+    ensureCapacity(size);
+    shapeIds[index] = shapeId;
+    sequences[index] = sequence;
+    lats[index] = lat;
+    lons[index] = lon;
+    this.distTraveled[index] = distTraveled;
+  }
+
+  /**
+   * Appends all the shape points of another array, in order.
+   */
+  public void append(ShapePointArray other) {
+    if (other.removedCount > 0) {
+      for (ShapePoint shapePoint : other)
+        add(shapePoint);
+      return;
+    }
+    int index = size;
+    int count = other.size;
+    ensureCapacity(size + count);
+    System.arraycopy(other.shapeIds, 0, shapeIds, index, count);
+    System.arraycopy(other.sequences, 0, sequences, index, count);
+    System.arraycopy(other.lats, 0, lats, index, count);
+    System.arraycopy(other.lons, 0, lons, index, count);
+    System.arraycopy(other.distTraveled, 0, distTraveled, index, count);
+    size += count;
+  }
+
+  /**
+   * @return the number of rows, including removed rows, which is one more than
+   *         the largest id
+   */
+  public int getRowCount() {
+    return size;
+  }
+
+  public int getRemovedCount() {
+    return removedCount;
+  }
+
+  public boolean isRemoved(int row) {
+    return removed.get(row);
+  }
+
+  /**
+   * @return the shape point of the row, or null if there is no such row or it
+   *         was removed
+   */
+  public ShapePoint getForId(int row) {
+    if (row < 0 || row >= size || removed.get(row))
+      return null;
+    return createShapePoint(row);
+  }
+
+  /**
+   * @return the row of the shape point if it is a proxy to a row of this
+   *         array that is not removed, or else -1
+   */
+  public int getRow(ShapePoint shapePoint) {
+    ShapePointProxy proxy = shapePoint.getProxy();
+    if (!(proxy instanceof ShapePointProxyImpl))
+      return -1;
+    ShapePointProxyImpl rowProxy = (ShapePointProxyImpl) proxy;
+    // Rows past the end were cleared since the proxy was created
+    if (rowProxy.getArray() != this || rowProxy.index >= size
+        || removed.get(rowProxy.index))
+      return -1;
+    return rowProxy.index;
+  }
+
+  /**
+   * Marks the row as removed, leaving the ids of the other rows unchanged.
+   * 
+   * @return false if there is no such row or it was already removed
+   */
+  public boolean removeRow(int row) {
+    if (row < 0 || row >= size || removed.get(row))
+      return false;
+    removed.set(row);
+    removedCount++;
+    rowsByPosition = null;
+    return true;
+  }
+
+  /**
+   * Drops the removed rows, moving the remaining rows down in order. Rows are
+   * numbered again, so shape points obtained before are invalidated.
+   */
+  public void compact() {
+    if (removedCount == 0)
+      return;
+    int to = 0;
+    int from = removed.nextClearBit(0);
+    while (from < size) {
+      if (from != to) {
+        shapeIds[to] = shapeIds[from];
+        sequences[to] = sequences[from];
+        lats[to] = lats[from];
+        lons[to] = lons[from];
+        distTraveled[to] = distTraveled[from];
+      }
+      to++;
+      from = removed.nextClearBit(from + 1);
+    }
+    Arrays.fill(shapeIds, to, size, null);
+    size = to;
+    removed.clear();
+    removedCount = 0;
+    rowsByPosition = null;
   }
 
   /****
@@ -49,20 +191,18 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
 
   @Override
   public boolean add(ShapePoint shapePoint) {
-    int index = size;
-    size++;
-    ensureCapacity(size);
-    shapeIds[index] = shapePoint.getShapeId();
-    sequences[index] = shapePoint.getSequence();
-    lats[index] = shapePoint.getLat();
-    lons[index] = shapePoint.getLon();
-    distTraveled[index] = shapePoint.getDistTraveled();
+    add(shapePoint.getShapeId(), shapePoint.getSequence(),
+        shapePoint.getLat(), shapePoint.getLon(),
+        shapePoint.getDistTraveled());
     return true;
   }
 
   @Override
   public void clear() {
     size = 0;
+    removed.clear();
+    removedCount = 0;
+    rowsByPosition = null;
     setLength(0);
   }
 
@@ -73,30 +213,36 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
 
   @Override
   public ShapePoint get(int index) {
-    if (index < 0 || index >= size) {
-      throw new NoSuchElementException();
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size());
     }
-    ShapePoint shapePoint = new ShapePoint();
-    shapePoint.setProxy(new ShapePointProxyImpl(index));
-    return shapePoint;
+    return createShapePoint(getRowForPosition(index));
   }
 
   @Override
   public int size() {
-    return size;
+    return size - removedCount;
   }
 
-  /****
-   * Private Methods
-   ****/
-
-  private void ensureCapacity(int capacity) {
+  /**
+   * Makes room for at least the specified number of rows, so that a known
+   * number of rows can be added without intermediate copies of the columns.
+   * Otherwise, the columns grow by half their length at a time, which keeps
+   * the unused capacity of a large array, and the peak memory of copying it,
+   * in proportion.
+   */
+  public void ensureCapacity(int capacity) {
     if (shapeIds.length < capacity) {
-      int newLength = Math.max(8, shapeIds.length << 2);
-      setLength(newLength);
+      int newLength = shapeIds.length + (shapeIds.length >> 1);
+      setLength(Math.max(capacity, Math.max(8, newLength)));
     }
   }
 
+  /****
+   * Private Methods
+   ****/
+
   private void setLength(int newLength) {
     this.shapeIds = Arrays.copyOf(this.shapeIds, newLength);
     this.sequences = Arrays.copyOf(this.sequences, newLength);
@@ -105,13 +251,38 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
     this.distTraveled = Arrays.copyOf(this.distTraveled, newLength);
   }
 
+  private ShapePoint createShapePoint(int row) {
+    ShapePoint shapePoint = new ShapePoint();
+    shapePoint.setProxy(new ShapePointProxyImpl(row));
+    return shapePoint;
+  }
+
+  private int getRowForPosition(int index) {
+    if (removedCount == 0)
+      return index;
+    int[] rows = rowsByPosition;
+    if (rows == null || rows.length != size()) {
+      rows = new int[size()];
+      int i = 0;
+      int row = removed.nextClearBit(0);
+      while (row < size) {
+        rows[i++] = row;
+        row = removed.nextClearBit(row + 1);
+      }
+      rowsByPosition = rows;
+    }
+    return rows[index];
+  }
+
   private class ShapePointIterator implements Iterator<ShapePoint> {
 
-    private int index = 0;
+    private int row = removed.nextClearBit(0);
+
+    private int lastRow = -1;
 
     @Override
     public boolean hasNext() {
-      return index < size;
+      return row < size;
     }
 
     @Override
@@ -119,15 +290,17 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
-      ShapePoint shapePoint = new ShapePoint();
-      shapePoint.setProxy(new ShapePointProxyImpl(index));
-      index++;
-      return shapePoint;
+      lastRow = row;
+      row = removed.nextClearBit(row + 1);
+      return createShapePoint(lastRow);
     }
 
     @Override
     public void remove() {
-      throw new UnsupportedOperationException();
+      if (lastRow < 0)
+        throw new IllegalStateException();
+      removeRow(lastRow);
+      lastRow = -1;
     }
   }
 
@@ -139,6 +312,10 @@ public class ShapePointArray extends AbstractList<ShapePoint> {
       this.index = index;
     }
 
+    public ShapePointArray getArray() {
+      return ShapePointArray.this;
+    }
+
     @Override
     public Integer getId() {
       return index;
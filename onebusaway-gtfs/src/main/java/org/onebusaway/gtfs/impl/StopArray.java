@@ -0,0 +1,305 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.Arrays;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopProxy;
+
+/**
+ * Packed storage for stops, used by {@link GtfsDaoImpl} when
+ * {@link GtfsDaoImpl#isPackStops()} is enabled, with a column per field as in
+ * {@link TripArray}, whose rows keep their identity the same way.
+ */
+public class StopArray extends PackedEntityArray<Stop> {
+
+  private int[] codes = new int[0];
+
+  private int[] names = new int[0];
+
+  private int[] descs = new int[0];
+
+  private double[] lats = new double[0];
+
+  private double[] lons = new double[0];
+
+  private int[] zoneIds = new int[0];
+
+  private int[] urls = new int[0];
+
+  private int[] locationTypes = new int[0];
+
+  private int[] parentStations = new int[0];
+
+  private int[] wheelchairBoardings = new int[0];
+
+  private int[] directions = new int[0];
+
+  private int[] timezones = new int[0];
+
+  private int[] vehicleTypes = new int[0];
+
+  private int[] platformCodes = new int[0];
+
+  private int[] tripsAggregateds = new int[0];
+
+  public StopArray() {
+    this(new AgencyAndIdTable());
+  }
+
+  /**
+   * @param idTable the table canonicalizing the ids of the stops, whose
+   *          surrogate keys for the {@link Stop} type are used to look up
+   *          stops by id
+   */
+  public StopArray(AgencyAndIdTable idTable) {
+    super(Stop.class, idTable);
+  }
+
+  /****
+   * {@link PackedEntityArray} Interface
+   ****/
+
+  @Override
+  protected Stop createEntity(int row) {
+    Stop stop = new Stop();
+    stop.setProxy(new StopProxyImpl(row));
+    return stop;
+  }
+
+  @Override
+  protected int getProxyRow(Stop stop) {
+    StopProxy proxy = stop.getProxy();
+    if (proxy instanceof StopProxyImpl
+        && ((StopProxyImpl) proxy).getArray() == this)
+      return ((StopProxyImpl) proxy).index;
+    return -1;
+  }
+
+  @Override
+  protected void setRow(int row, Stop stop) {
+    codes[row] = strings.encode(stop.getCode());
+    names[row] = strings.encode(stop.getName());
+    descs[row] = strings.encode(stop.getDesc());
+    lats[row] = stop.getLat();
+    lons[row] = stop.getLon();
+    zoneIds[row] = strings.encode(stop.getZoneId());
+    urls[row] = strings.encode(stop.getUrl());
+    locationTypes[row] = stop.getLocationType();
+    parentStations[row] = strings.encode(stop.getParentStation());
+    wheelchairBoardings[row] = stop.getWheelchairBoarding();
+    directions[row] = strings.encode(stop.getDirection());
+    timezones[row] = strings.encode(stop.getTimezone());
+    vehicleTypes[row] = stop.getVehicleType();
+    platformCodes[row] = strings.encode(stop.getPlatformCode());
+    tripsAggregateds[row] = strings.encode(stop.getTripsAggregated());
+  }
+
+  @Override
+  protected void setColumnsLength(int newLength) {
+    this.codes = Arrays.copyOf(this.codes, newLength);
+    this.names = Arrays.copyOf(this.names, newLength);
+    this.descs = Arrays.copyOf(this.descs, newLength);
+    this.lats = Arrays.copyOf(this.lats, newLength);
+    this.lons = Arrays.copyOf(this.lons, newLength);
+    this.zoneIds = Arrays.copyOf(this.zoneIds, newLength);
+    this.urls = Arrays.copyOf(this.urls, newLength);
+    this.locationTypes = Arrays.copyOf(this.locationTypes, newLength);
+    this.parentStations = Arrays.copyOf(this.parentStations, newLength);
+    this.wheelchairBoardings = Arrays.copyOf(this.wheelchairBoardings,
+        newLength);
+    this.directions = Arrays.copyOf(this.directions, newLength);
+    this.timezones = Arrays.copyOf(this.timezones, newLength);
+    this.vehicleTypes = Arrays.copyOf(this.vehicleTypes, newLength);
+    this.platformCodes = Arrays.copyOf(this.platformCodes, newLength);
+    this.tripsAggregateds = Arrays.copyOf(this.tripsAggregateds, newLength);
+  }
+
+  private class StopProxyImpl implements StopProxy {
+
+    private final int index;
+
+    public StopProxyImpl(int index) {
+      this.index = index;
+    }
+
+    public StopArray getArray() {
+      return StopArray.this;
+    }
+
+    @Override
+    public AgencyAndId getId() {
+      return getRowId(index);
+    }
+
+    @Override
+    public void setId(AgencyAndId id) {
+      setRowId(index, id);
+    }
+
+    @Override
+    public String getCode() {
+      return strings.decode(codes[index]);
+    }
+
+    @Override
+    public void setCode(String code) {
+      codes[index] = strings.encode(code);
+    }
+
+    @Override
+    public String getName() {
+      return strings.decode(names[index]);
+    }
+
+    @Override
+    public void setName(String name) {
+      names[index] = strings.encode(name);
+    }
+
+    @Override
+    public String getDesc() {
+      return strings.decode(descs[index]);
+    }
+
+    @Override
+    public void setDesc(String desc) {
+      descs[index] = strings.encode(desc);
+    }
+
+    @Override
+    public double getLat() {
+      return lats[index];
+    }
+
+    @Override
+    public void setLat(double lat) {
+      lats[index] = lat;
+    }
+
+    @Override
+    public double getLon() {
+      return lons[index];
+    }
+
+    @Override
+    public void setLon(double lon) {
+      lons[index] = lon;
+    }
+
+    @Override
+    public String getZoneId() {
+      return strings.decode(zoneIds[index]);
+    }
+
+    @Override
+    public void setZoneId(String zoneId) {
+      zoneIds[index] = strings.encode(zoneId);
+    }
+
+    @Override
+    public String getUrl() {
+      return strings.decode(urls[index]);
+    }
+
+    @Override
+    public void setUrl(String url) {
+      urls[index] = strings.encode(url);
+    }
+
+    @Override
+    public int getLocationType() {
+      return locationTypes[index];
+    }
+
+    @Override
+    public void setLocationType(int locationType) {
+      locationTypes[index] = locationType;
+    }
+
+    @Override
+    public String getParentStation() {
+      return strings.decode(parentStations[index]);
+    }
+
+    @Override
+    public void setParentStation(String parentStation) {
+      parentStations[index] = strings.encode(parentStation);
+    }
+
+    @Override
+    public int getWheelchairBoarding() {
+      return wheelchairBoardings[index];
+    }
+
+    @Override
+    public void setWheelchairBoarding(int wheelchairBoarding) {
+      wheelchairBoardings[index] = wheelchairBoarding;
+    }
+
+    @Override
+    public String getDirection() {
+      return strings.decode(directions[index]);
+    }
+
+    @Override
+    public void setDirection(String direction) {
+      directions[index] = strings.encode(direction);
+    }
+
+    @Override
+    public String getTimezone() {
+      return strings.decode(timezones[index]);
+    }
+
+    @Override
+    public void setTimezone(String timezone) {
+      timezones[index] = strings.encode(timezone);
+    }
+
+    @Override
+    public int getVehicleType() {
+      return vehicleTypes[index];
+    }
+
+    @Override
+    public void setVehicleType(int vehicleType) {
+      vehicleTypes[index] = vehicleType;
+    }
+
+    @Override
+    public String getPlatformCode() {
+      return strings.decode(platformCodes[index]);
+    }
+
+    @Override
+    public void setPlatformCode(String platformCode) {
+      platformCodes[index] = strings.encode(platformCode);
+    }
+
+    @Override
+    public String getTripsAggregated() {
+      return strings.decode(tripsAggregateds[index]);
+    }
+
+    @Override
+    public void setTripsAggregated(String tripsAggregated) {
+      tripsAggregateds[index] = strings.encode(tripsAggregated);
+    }
+  }
+}
@@ -17,8 +17,11 @@ package org.onebusaway.gtfs.impl;
 
 import java.util.AbstractList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import org.onebusaway.gtfs.model.Stop;
@@ -26,12 +29,44 @@ import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.StopTimeProxy;
 import org.onebusaway.gtfs.model.Trip;
 
+/**
+ * Stores stop times column-wise, returning each as a {@link StopTime} proxy to
+ * its row. The fields of a row can also be read with the row accessors, such
+ * as {@link #getArrivalTime(int)}, which allocate nothing, unlike
+ * {@link #get(int)}, when scanning many stop times. The row of a stop time is
+ * also its id.
+ *
+ * Removed rows are marked as such, and skipped by the list, so that the other
+ * rows keep their ids. They are dropped by {@link #compact()}, which numbers
+ * the remaining rows again, so that stop times and rows obtained before no
+ * longer refer to the same stop time.
+ */
 public class StopTimeArray extends AbstractList<StopTime> {
 
+  /**
+   * The number of rows, including removed rows
+   */
   private int size = 0;
 
+  private final BitSet removed = new BitSet();
+
+  private int removedCount = 0;
+
+  /**
+   * The rows of the list positions, computed on demand while rows are removed
+   */
+  private volatile int[] rowsByPosition = null;
+
+  private TripArray tripArray = null;
+
   private Trip[] trips = new Trip[0];
 
+  /**
+   * The rows of the trips in the {@link #tripArray}, instead of {@link #trips},
+   * when one is set
+   */
+  private int[] tripRows = new int[0];
+
   private Stop[] stops = new Stop[0];
 
   private int[] arrivalTimes = new int[0];
@@ -52,8 +87,233 @@ public class StopTimeArray extends AbstractList<StopTime> {
 
   private double[] shapeDistTraveled = new double[0];
 
+  /**
+   * Stores the trips of the stop times as their rows in the specified packed
+   * trips, rather than as {@link Trip} references, so that each trip is not
+   * held as a proxy by its stop times. Trips are then returned as proxies to
+   * their row. Stop times can only be added for trips of the array once set.
+   * 
+   * @param tripArray the packed trips, or null to store trip references
+   */
+  public void setTripArray(TripArray tripArray) {
+    if (size > 0 && tripArray != this.tripArray)
+      throw new IllegalStateException(
+          "trip storage can't change once stop times are added");
+    this.tripArray = tripArray;
+  }
+
+  public TripArray getTripArray() {
+    return tripArray;
+  }
+
   public void trimToSize() {
-    setLength(size);
+    if (stops.length != size)
+      setLength(size);
+  }
+
+  /**
+   * Replaces the stop headsigns and route short names equal to a string of the
+   * map with that instance, adding those that are not in the map yet.
+   */
+  public void internStrings(Map<String, String> strings) {
+    for (int i = 0; i < size; i++) {
+      stopHeadsigns[i] = GenericDaoImpl.internString(strings,
+          stopHeadsigns[i]);
+      routeShortNames[i] = GenericDaoImpl.internString(strings,
+          routeShortNames[i]);
+    }
+  }
+
+  /**
+   * Appends a stop time from its individual field values, without the need
+   * for an intermediate {@link StopTime} instance.
+   */
+  public void add(Trip trip, Stop stop, int arrivalTime, int departureTime,
+      int timepoint, int stopSequence, String stopHeadsign,
+      String routeShortName, int pickupType, int dropOffType,
+      double shapeDistTraveled) {
+    int index = size;
+    ensureCapacity(size + 1);
+    setTrip(index, trip);
+    size++;
+    stops[index] = stop;
+    arrivalTimes[index] = arrivalTime;
+    departureTimes[index] = departureTime;
+    timepoints[index] = timepoint;
+    stopSequences[index] = stopSequence;
+    stopHeadsigns[index] = stopHeadsign;
+    routeShortNames[index] = routeShortName;
+    pickupTypes[index] = pickupType;
+    dropOffTypes[index] = dropOffType;
+    this.shapeDistTraveled[index] = shapeDistTraveled;
+  }
+
+  /**
+   * Appends all the stop times of another array, in order.
+   */
+  public void append(StopTimeArray other) {
+    if (other.tripArray != tripArray || other.getClass() != StopTimeArray.class
+        || other.removedCount > 0) {
+      for (StopTime stopTime : other)
+        add(stopTime);
+      return;
+    }
+    int index = size;
+    int count = other.size;
+    ensureCapacity(size + count);
+    if (tripArray == null)
+      System.arraycopy(other.trips, 0, trips, index, count);
+    else
+      System.arraycopy(other.tripRows, 0, tripRows, index, count);
+    System.arraycopy(other.stops, 0, stops, index, count);
+    System.arraycopy(other.arrivalTimes, 0, arrivalTimes, index, count);
+    System.arraycopy(other.departureTimes, 0, departureTimes, index, count);
+    System.arraycopy(other.timepoints, 0, timepoints, index, count);
+    System.arraycopy(other.stopSequences, 0, stopSequences, index, count);
+    System.arraycopy(other.stopHeadsigns, 0, stopHeadsigns, index, count);
+    System.arraycopy(other.routeShortNames, 0, routeShortNames, index, count);
+    System.arraycopy(other.pickupTypes, 0, pickupTypes, index, count);
+    System.arraycopy(other.dropOffTypes, 0, dropOffTypes, index, count);
+    System.arraycopy(other.shapeDistTraveled, 0, shapeDistTraveled, index,
+        count);
+    size += count;
+  }
+
+  /**
+   * @return the number of rows, including removed rows, which is one more than
+   *         the largest id
+   */
+  public int getRowCount() {
+    return size;
+  }
+
+  public int getRemovedCount() {
+    return removedCount;
+  }
+
+  public boolean isRemoved(int row) {
+    return removed.get(row);
+  }
+
+  /**
+   * @return the stop time of the row, or null if there is no such row or it
+   *         was removed
+   */
+  public StopTime getForId(int row) {
+    if (row < 0 || row >= getRowCount() || removed.get(row))
+      return null;
+    return createStopTime(row);
+  }
+
+  /**
+   * @return the row of the stop time if it is a proxy to a row of this array
+   *         that is not removed, or else -1
+   */
+  public int getRow(StopTime stopTime) {
+    StopTimeProxy proxy = stopTime.getProxy();
+    if (!(proxy instanceof StopTimeProxyImpl))
+      return -1;
+    StopTimeProxyImpl rowProxy = (StopTimeProxyImpl) proxy;
+    // Rows past the end were cleared since the proxy was created
+    if (rowProxy.getArray() != this || rowProxy.index >= getRowCount()
+        || removed.get(rowProxy.index))
+      return -1;
+    return rowProxy.index;
+  }
+
+  /**
+   * @return a view of the stop times of a range of rows, which keeps referring
+   *         to the same rows as other rows are removed
+   */
+  public List<StopTime> getRows(int fromRow, int toRow) {
+    return new RowList(fromRow, toRow);
+  }
+
+  /**
+   * Marks the row as removed, leaving the ids of the other rows unchanged.
+   * 
+   * @return false if there is no such row or it was already removed
+   */
+  public boolean removeRow(int row) {
+    if (row < 0 || row >= getRowCount() || removed.get(row))
+      return false;
+    removed.set(row);
+    removedCount++;
+    rowsByPosition = null;
+    return true;
+  }
+
+  /**
+   * Drops the removed rows, moving the remaining rows down in order. Rows are
+   * numbered again, so stop times and rows obtained before are invalidated.
+   */
+  public void compact() {
+    if (removedCount == 0)
+      return;
+    int rowCount = getRowCount();
+    int to = 0;
+    int from = removed.nextClearBit(0);
+    while (from < rowCount) {
+      if (from != to)
+        moveRow(from, to);
+      to++;
+      from = removed.nextClearBit(from + 1);
+    }
+    setRowCount(to);
+    removed.clear();
+    removedCount = 0;
+    rowsByPosition = null;
+  }
+
+  /**
+   * @return the trip of the stop time of the row, which is a new proxy to its
+   *         row in the trip array when a {@link TripArray} is set
+   */
+  public Trip getTrip(int index) {
+    if (tripArray == null)
+      return trips[index];
+    int row = tripRows[index];
+    return row < 0 ? null : tripArray.getForRow(row);
+  }
+
+  public Stop getStop(int index) {
+    return stops[index];
+  }
+
+  public int getArrivalTime(int index) {
+    return arrivalTimes[index];
+  }
+
+  public int getDepartureTime(int index) {
+    return departureTimes[index];
+  }
+
+  public int getTimepoint(int index) {
+    return timepoints[index];
+  }
+
+  public int getStopSequence(int index) {
+    return stopSequences[index];
+  }
+
+  public String getStopHeadsign(int index) {
+    return stopHeadsigns[index];
+  }
+
+  public String getRouteShortName(int index) {
+    return routeShortNames[index];
+  }
+
+  public int getPickupType(int index) {
+    return pickupTypes[index];
+  }
+
+  public int getDropOffType(int index) {
+    return dropOffTypes[index];
+  }
+
+  public double getShapeDistTraveled(int index) {
+    return shapeDistTraveled[index];
   }
 
   /****
@@ -62,26 +322,20 @@ public class StopTimeArray extends AbstractList<StopTime> {
 
   @Override
   public boolean add(StopTime stopTime) {
-    int index = size;
-    size++;
-    ensureCapacity(size);
-    trips[index] = stopTime.getTrip();
-    stops[index] = stopTime.getStop();
-    arrivalTimes[index] = stopTime.getArrivalTime();
-    departureTimes[index] = stopTime.getDepartureTime();
-    timepoints[index] = stopTime.getTimepoint();
-    stopSequences[index] = stopTime.getStopSequence();
-    stopHeadsigns[index] = stopTime.getStopHeadsign();
-    routeShortNames[index] = stopTime.getRouteShortName();
-    pickupTypes[index] = stopTime.getPickupType();
-    dropOffTypes[index] = stopTime.getDropOffType();
-    shapeDistTraveled[index] = stopTime.getShapeDistTraveled();
+    add(stopTime.getTrip(), stopTime.getStop(), stopTime.getArrivalTime(),
+        stopTime.getDepartureTime(), stopTime.getTimepoint(),
+        stopTime.getStopSequence(), stopTime.getStopHeadsign(),
+        stopTime.getRouteShortName(), stopTime.getPickupType(),
+        stopTime.getDropOffType(), stopTime.getShapeDistTraveled());
     return true;
   }
 
   @Override
   public void clear() {
     size = 0;
+    removed.clear();
+    removedCount = 0;
+    rowsByPosition = null;
     setLength(0);
   }
 
@@ -92,32 +346,112 @@ public class StopTimeArray extends AbstractList<StopTime> {
 
   @Override
   public StopTime get(int index) {
-    if (index < 0 || index >= size) {
-      throw new NoSuchElementException();
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size());
     }
-    StopTime stopTime = new StopTime();
-    stopTime.setProxy(new StopTimeProxyImpl(index));
-    return stopTime;
+    return createStopTime(getRowForPosition(index));
   }
 
   @Override
   public int size() {
-    return size;
+    return getRowCount() - removedCount;
+  }
+
+  /**
+   * Makes room for at least the specified number of rows, so that a known
+   * number of rows can be added without intermediate copies of the columns.
+   * Otherwise, the columns grow by half their length at a time, which keeps
+   * the unused capacity of a large array, and the peak memory of copying it,
+   * in proportion.
+   */
+  public void ensureCapacity(int capacity) {
+    if (stops.length < capacity) {
+      int newLength = stops.length + (stops.length >> 1);
+      setLength(Math.max(capacity, Math.max(8, newLength)));
+    }
+  }
+
+  /****
+   * Protected Methods
+   ****/
+
+  /**
+   * @return a proxy to the row, for the stop times returned by the array
+   */
+  protected StopTimeProxy createProxy(int row) {
+    return new StopTimeProxyImpl(row);
+  }
+
+  /**
+   * Copies a row over another one, when compacting the array
+   */
+  protected void moveRow(int from, int to) {
+    if (tripArray == null)
+      trips[to] = trips[from];
+    else
+      tripRows[to] = tripRows[from];
+    stops[to] = stops[from];
+    arrivalTimes[to] = arrivalTimes[from];
+    departureTimes[to] = departureTimes[from];
+    timepoints[to] = timepoints[from];
+    stopSequences[to] = stopSequences[from];
+    stopHeadsigns[to] = stopHeadsigns[from];
+    routeShortNames[to] = routeShortNames[from];
+    pickupTypes[to] = pickupTypes[from];
+    dropOffTypes[to] = dropOffTypes[from];
+    shapeDistTraveled[to] = shapeDistTraveled[from];
+  }
+
+  /**
+   * Truncates the array to the specified number of rows, when compacting the
+   * array
+   */
+  protected void setRowCount(int rowCount) {
+    if (tripArray == null)
+      Arrays.fill(trips, rowCount, size, null);
+    Arrays.fill(stops, rowCount, size, null);
+    Arrays.fill(stopHeadsigns, rowCount, size, null);
+    Arrays.fill(routeShortNames, rowCount, size, null);
+    size = rowCount;
   }
 
   /****
    * Private Methods
    ****/
 
-  private void ensureCapacity(int capacity) {
-    if (trips.length < capacity) {
-      int newLength = Math.max(8, trips.length << 2);
-      setLength(newLength);
+  private StopTime createStopTime(int row) {
+    StopTime stopTime = new StopTime();
+    stopTime.setProxy(createProxy(row));
+    return stopTime;
+  }
+
+  private int getRowForPosition(int index) {
+    if (removedCount == 0)
+      return index;
+    int[] rows = rowsByPosition;
+    if (rows == null || rows.length != size()) {
+      rows = new int[size()];
+      int rowCount = getRowCount();
+      int i = 0;
+      int row = removed.nextClearBit(0);
+      while (row < rowCount) {
+        rows[i++] = row;
+        row = removed.nextClearBit(row + 1);
+      }
+      rowsByPosition = rows;
     }
+    return rows[index];
   }
 
   private void setLength(int newLength) {
-    this.trips = Arrays.copyOf(this.trips, newLength);
+    if (tripArray == null) {
+      this.trips = Arrays.copyOf(this.trips, newLength);
+      this.tripRows = new int[0];
+    } else {
+      this.tripRows = Arrays.copyOf(this.tripRows, newLength);
+      this.trips = new Trip[0];
+    }
     this.stops = Arrays.copyOf(this.stops, newLength);
     this.arrivalTimes = Arrays.copyOf(this.arrivalTimes, newLength);
     this.departureTimes = Arrays.copyOf(this.departureTimes, newLength);
@@ -130,13 +464,30 @@ public class StopTimeArray extends AbstractList<StopTime> {
     this.shapeDistTraveled = Arrays.copyOf(this.shapeDistTraveled, newLength);
   }
 
+  private void setTrip(int index, Trip trip) {
+    if (tripArray == null) {
+      trips[index] = trip;
+      return;
+    }
+    int row = -1;
+    if (trip != null) {
+      row = tripArray.getReferenceRow(trip);
+      if (row < 0)
+        throw new IllegalArgumentException("trip is not in the trip array: "
+            + trip);
+    }
+    tripRows[index] = row;
+  }
+
   private class StopTimeIterator implements Iterator<StopTime> {
 
-    private int index = 0;
+    private int row = removed.nextClearBit(0);
+
+    private int lastRow = -1;
 
     @Override
     public boolean hasNext() {
-      return index < size;
+      return row < getRowCount();
     }
 
     @Override
@@ -144,15 +495,42 @@ public class StopTimeArray extends AbstractList<StopTime> {
       if (!hasNext()) {
         throw new NoSuchElementException();
       }
-      StopTime stopTime = new StopTime();
-      stopTime.setProxy(new StopTimeProxyImpl(index));
-      index++;
-      return stopTime;
+      lastRow = row;
+      row = removed.nextClearBit(row + 1);
+      return createStopTime(lastRow);
     }
 
     @Override
     public void remove() {
-      throw new UnsupportedOperationException();
+      if (lastRow < 0)
+        throw new IllegalStateException();
+      removeRow(lastRow);
+      lastRow = -1;
+    }
+  }
+
+  private class RowList extends AbstractList<StopTime> {
+
+    private final int fromRow;
+
+    private final int toRow;
+
+    public RowList(int fromRow, int toRow) {
+      this.fromRow = fromRow;
+      this.toRow = toRow;
+    }
+
+    @Override
+    public StopTime get(int index) {
+      if (index < 0 || index >= size())
+        throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+            + size());
+      return createStopTime(fromRow + index);
+    }
+
+    @Override
+    public int size() {
+      return toRow - fromRow;
     }
   }
 
@@ -164,6 +542,10 @@ public class StopTimeArray extends AbstractList<StopTime> {
       this.index = index;
     }
 
+    public StopTimeArray getArray() {
+      return StopTimeArray.this;
+    }
+
     @Override
     public Integer getId() {
       return index;
@@ -176,12 +558,12 @@ public class StopTimeArray extends AbstractList<StopTime> {
 
     @Override
     public Trip getTrip() {
-      return trips[index];
+      return StopTimeArray.this.getTrip(index);
     }
 
     @Override
     public void setTrip(Trip trip) {
-      trips[index] = trip;
+      StopTimeArray.this.setTrip(index, trip);
     }
 
     @Override
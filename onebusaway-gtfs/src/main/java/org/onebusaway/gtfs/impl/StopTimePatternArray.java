@@ -0,0 +1,672 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.StopTimeProxy;
+import org.onebusaway.gtfs.model.Trip;
+
+/**
+ * Stores stop times grouped by trip, with the fields that trips repeat stored
+ * once per pattern. Most trips of a route visit the same stops, with the same
+ * headsigns and pickup and drop off types, and differ only by a shift in time.
+ * A pattern holds the stops of a trip along with the times of each stop as
+ * offsets from the start of the trip, and each trip only stores its pattern
+ * and its start time. Trips with irregular times simply get a pattern of their
+ * own.
+ *
+ * Stop times are ordered by trip, in the order each trip was first seen, and
+ * by stop sequence within a trip. They keep the ids they had when the array
+ * was built, so that they can still be looked up by id with
+ * {@link #getForId(int)}. They can be modified through their proxies,
+ * in which case the trip first gets its own copy of its pattern, so that other
+ * trips are not affected. Stop times can't be added or removed, nor moved to
+ * another trip, since the stop times of a trip share its storage.
+ */
+public class StopTimePatternArray extends AbstractList<StopTime> {
+
+  private static final int MISSING_OFFSET = Integer.MIN_VALUE;
+
+  private final TripArray tripArray;
+
+  private final int tripCount;
+
+  private final Trip[] trips;
+
+  /**
+   * The rows of the trips in the {@link #tripArray}, instead of {@link #trips},
+   * when one is set
+   */
+  private final int[] tripRows;
+
+  /**
+   * The index of the first stop time of each trip, followed by the number of
+   * stop times
+   */
+  private final int[] firstIndices;
+
+  private final int[] startTimes;
+
+  /**
+   * The id of each stop time, by index
+   */
+  private final int[] ids;
+
+  /**
+   * The index of each stop time, by id, or -1 if there is no stop time with
+   * that id
+   */
+  private final int[] indicesById;
+
+  private final Pattern[] patterns;
+
+  private int patternCount = 0;
+
+  /**
+   * @param stopTimes the stop times to store, which keep their ids, or are
+   *          given their index as id if they have none
+   * @param tripArray the packed trips of the stop times, or null if trips are
+   *          not packed
+   */
+  public StopTimePatternArray(List<StopTime> stopTimes, TripArray tripArray) {
+
+    this.tripArray = tripArray;
+
+    int size = stopTimes.size();
+    Map<Trip, Integer> tripIndices = new HashMap<Trip, Integer>();
+    List<Trip> tripsInOrder = new ArrayList<Trip>();
+    int[] tripIndexByRow = new int[size];
+    int[] stopSequences = new int[size];
+
+    for (int i = 0; i < size; i++) {
+      StopTime stopTime = stopTimes.get(i);
+      Trip trip = stopTime.getTrip();
+      Integer tripIndex = tripIndices.get(trip);
+      if (tripIndex == null) {
+        tripIndex = tripsInOrder.size();
+        tripIndices.put(trip, tripIndex);
+        tripsInOrder.add(trip);
+      }
+      tripIndexByRow[i] = tripIndex;
+      stopSequences[i] = stopTime.getStopSequence();
+    }
+
+    tripCount = tripsInOrder.size();
+    trips = tripArray == null ? new Trip[tripCount] : new Trip[0];
+    tripRows = tripArray == null ? new int[0] : new int[tripCount];
+    firstIndices = new int[tripCount + 1];
+    startTimes = new int[tripCount];
+    ids = new int[size];
+    patterns = new Pattern[tripCount];
+
+    // Rows are grouped by trip with a counting sort, then sorted by stop
+    // sequence within each trip
+    for (int i = 0; i < size; i++)
+      firstIndices[tripIndexByRow[i] + 1]++;
+    for (int i = 0; i < tripCount; i++)
+      firstIndices[i + 1] += firstIndices[i];
+    int[] rows = new int[size];
+    int[] next = Arrays.copyOf(firstIndices, tripCount);
+    for (int i = 0; i < size; i++)
+      rows[next[tripIndexByRow[i]]++] = i;
+
+    Map<Pattern, Pattern> uniquePatterns = new HashMap<Pattern, Pattern>();
+    for (int tripIndex = 0; tripIndex < tripCount; tripIndex++) {
+      int from = firstIndices[tripIndex];
+      int to = firstIndices[tripIndex + 1];
+      sortByStopSequence(rows, from, to, stopSequences);
+
+      setTrip(tripIndex, tripsInOrder.get(tripIndex));
+      int startTime = getStartTime(stopTimes, rows, from, to);
+      startTimes[tripIndex] = startTime;
+      Pattern pattern = new Pattern(to - from);
+      for (int i = from; i < to; i++)
+        pattern.set(i - from, stopTimes.get(rows[i]), startTime);
+
+      Pattern existing = uniquePatterns.get(pattern);
+      if (existing == null) {
+        uniquePatterns.put(pattern, pattern);
+        patternCount++;
+      } else {
+        pattern = existing;
+      }
+      pattern.references++;
+      patterns[tripIndex] = pattern;
+    }
+
+    int maxId = -1;
+    for (int i = 0; i < size; i++) {
+      Integer id = stopTimes.get(rows[i]).getId();
+      ids[i] = id == null ? i : id;
+      maxId = Math.max(maxId, ids[i]);
+    }
+    indicesById = new int[maxId + 1];
+    Arrays.fill(indicesById, -1);
+    for (int i = 0; i < size; i++) {
+      if (ids[i] >= 0)
+        indicesById[ids[i]] = i;
+    }
+  }
+
+  public TripArray getTripArray() {
+    return tripArray;
+  }
+
+  /**
+   * @return the number of distinct patterns the trips share
+   */
+  public int getPatternCount() {
+    return patternCount;
+  }
+
+  /**
+   * @return the stop time with the id, or null if there is none
+   */
+  public StopTime getForId(int id) {
+    int index = getIndexForId(id);
+    return index < 0 ? null : get(index);
+  }
+
+  /**
+   * @return the index of the stop time with the id, or -1 if there is none
+   */
+  public int getIndexForId(int id) {
+    if (id < 0 || id >= indicesById.length)
+      return -1;
+    return indicesById[id];
+  }
+
+  /**
+   * @return one more than the largest id of the stop times, or zero if there
+   *         are none
+   */
+  public int getIdCount() {
+    return indicesById.length;
+  }
+
+  /**
+   * @return the index of the stop time if it is a proxy to a stop time of this
+   *         array, or else -1
+   */
+  public int getRow(StopTime stopTime) {
+    StopTimeProxy proxy = stopTime.getProxy();
+    if (!(proxy instanceof StopTimeProxyImpl))
+      return -1;
+    StopTimeProxyImpl rowProxy = (StopTimeProxyImpl) proxy;
+    return rowProxy.getArray() == this ? rowProxy.index : -1;
+  }
+
+  /**
+   * Replaces the stop headsigns and route short names equal to a string of the
+   * map with that instance, adding those that are not in the map yet.
+   */
+  public void internStrings(Map<String, String> strings) {
+    for (int i = 0; i < tripCount; i++) {
+      Pattern pattern = patterns[i];
+      for (int j = 0; j < pattern.stops.length; j++) {
+        pattern.stopHeadsigns[j] = GenericDaoImpl.internString(strings,
+            pattern.stopHeadsigns[j]);
+        pattern.routeShortNames[j] = GenericDaoImpl.internString(strings,
+            pattern.routeShortNames[j]);
+      }
+    }
+  }
+
+  /****
+   * {@link Collection} Interface
+   ****/
+
+  @Override
+  public Iterator<StopTime> iterator() {
+    return new StopTimeIterator();
+  }
+
+  @Override
+  public StopTime get(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: "
+          + size());
+    }
+    int tripIndex = Arrays.binarySearch(firstIndices, index);
+    if (tripIndex < 0)
+      tripIndex = -(tripIndex + 1) - 1;
+    return createStopTime(index, tripIndex);
+  }
+
+  @Override
+  public int size() {
+    return firstIndices[tripCount];
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static void sortByStopSequence(int[] rows, int from, int to,
+      int[] stopSequences) {
+    // Stop times are usually in order already, so an insertion sort is linear
+    for (int i = from + 1; i < to; i++) {
+      int row = rows[i];
+      int j = i;
+      while (j > from && stopSequences[rows[j - 1]] > stopSequences[row]) {
+        rows[j] = rows[j - 1];
+        j--;
+      }
+      rows[j] = row;
+    }
+  }
+
+  /**
+   * @return the first arrival or departure time of the stop times, or zero if
+   *         none is set
+   */
+  private static int getStartTime(List<StopTime> stopTimes, int[] rows,
+      int from, int to) {
+    for (int i = from; i < to; i++) {
+      StopTime stopTime = stopTimes.get(rows[i]);
+      if (stopTime.isArrivalTimeSet())
+        return stopTime.getArrivalTime();
+      if (stopTime.isDepartureTimeSet())
+        return stopTime.getDepartureTime();
+    }
+    return 0;
+  }
+
+  private static int toOffset(int time, int startTime) {
+    return time == StopTime.MISSING_VALUE ? MISSING_OFFSET : time - startTime;
+  }
+
+  private static int toTime(int offset, int startTime) {
+    return offset == MISSING_OFFSET ? StopTime.MISSING_VALUE : startTime
+        + offset;
+  }
+
+  private StopTime createStopTime(int index, int tripIndex) {
+    StopTime stopTime = new StopTime();
+    stopTime.setProxy(new StopTimeProxyImpl(index, tripIndex, index
+        - firstIndices[tripIndex]));
+    return stopTime;
+  }
+
+  private Trip getTrip(int tripIndex) {
+    if (tripArray == null)
+      return trips[tripIndex];
+    int row = tripRows[tripIndex];
+    return row < 0 ? null : tripArray.getForRow(row);
+  }
+
+  private void setTrip(int tripIndex, Trip trip) {
+    if (tripArray == null) {
+      trips[tripIndex] = trip;
+      return;
+    }
+    int row = -1;
+    if (trip != null) {
+      row = tripArray.getReferenceRow(trip);
+      if (row < 0)
+        throw new IllegalArgumentException("trip is not in the trip array: "
+            + trip);
+    }
+    tripRows[tripIndex] = row;
+  }
+
+  /**
+   * @return the pattern of the trip, copied first if other trips share it
+   */
+  private Pattern getPatternForUpdate(int tripIndex) {
+    Pattern pattern = patterns[tripIndex];
+    if (pattern.references > 1) {
+      pattern.references--;
+      pattern = pattern.copy();
+      pattern.references = 1;
+      patterns[tripIndex] = pattern;
+      patternCount++;
+    }
+    return pattern;
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static final class Pattern {
+
+    private final Stop[] stops;
+
+    private final int[] stopSequences;
+
+    private final int[] arrivalOffsets;
+
+    private final int[] departureOffsets;
+
+    private final int[] timepoints;
+
+    private final String[] stopHeadsigns;
+
+    private final String[] routeShortNames;
+
+    private final int[] pickupTypes;
+
+    private final int[] dropOffTypes;
+
+    private final double[] shapeDistTraveled;
+
+    private int references = 0;
+
+    public Pattern(int length) {
+      stops = new Stop[length];
+      stopSequences = new int[length];
+      arrivalOffsets = new int[length];
+      departureOffsets = new int[length];
+      timepoints = new int[length];
+      stopHeadsigns = new String[length];
+      routeShortNames = new String[length];
+      pickupTypes = new int[length];
+      dropOffTypes = new int[length];
+      shapeDistTraveled = new double[length];
+    }
+
+    public void set(int i, StopTime stopTime, int startTime) {
+      stops[i] = stopTime.getStop();
+      stopSequences[i] = stopTime.getStopSequence();
+      arrivalOffsets[i] = toOffset(stopTime.getArrivalTime(), startTime);
+      departureOffsets[i] = toOffset(stopTime.getDepartureTime(), startTime);
+      timepoints[i] = stopTime.getTimepoint();
+      stopHeadsigns[i] = stopTime.getStopHeadsign();
+      routeShortNames[i] = stopTime.getRouteShortName();
+      pickupTypes[i] = stopTime.getPickupType();
+      dropOffTypes[i] = stopTime.getDropOffType();
+      shapeDistTraveled[i] = stopTime.getShapeDistTraveled();
+    }
+
+    public Pattern copy() {
+      Pattern copy = new Pattern(stops.length);
+      System.arraycopy(stops, 0, copy.stops, 0, stops.length);
+      System.arraycopy(stopSequences, 0, copy.stopSequences, 0, stops.length);
+      System.arraycopy(arrivalOffsets, 0, copy.arrivalOffsets, 0, stops.length);
+      System.arraycopy(departureOffsets, 0, copy.departureOffsets, 0,
+          stops.length);
+      System.arraycopy(timepoints, 0, copy.timepoints, 0, stops.length);
+      System.arraycopy(stopHeadsigns, 0, copy.stopHeadsigns, 0, stops.length);
+      System.arraycopy(routeShortNames, 0, copy.routeShortNames, 0,
+          stops.length);
+      System.arraycopy(pickupTypes, 0, copy.pickupTypes, 0, stops.length);
+      System.arraycopy(dropOffTypes, 0, copy.dropOffTypes, 0, stops.length);
+      System.arraycopy(shapeDistTraveled, 0, copy.shapeDistTraveled, 0,
+          stops.length);
+      return copy;
+    }
+
+    @Override
+    public int hashCode() {
+      final int prime = 31;
+      int result = 1;
+      result = prime * result + Arrays.hashCode(stops);
+      result = prime * result + Arrays.hashCode(stopSequences);
+      result = prime * result + Arrays.hashCode(arrivalOffsets);
+      result = prime * result + Arrays.hashCode(departureOffsets);
+      result = prime * result + Arrays.hashCode(timepoints);
+      result = prime * result + Arrays.hashCode(stopHeadsigns);
+      result = prime * result + Arrays.hashCode(routeShortNames);
+      result = prime * result + Arrays.hashCode(pickupTypes);
+      result = prime * result + Arrays.hashCode(dropOffTypes);
+      result = prime * result + Arrays.hashCode(shapeDistTraveled);
+      return result;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj)
+        return true;
+      if (obj == null || getClass() != obj.getClass())
+        return false;
+      Pattern other = (Pattern) obj;
+      return Arrays.equals(stops, other.stops)
+          && Arrays.equals(stopSequences, other.stopSequences)
+          && Arrays.equals(arrivalOffsets, other.arrivalOffsets)
+          && Arrays.equals(departureOffsets, other.departureOffsets)
+          && Arrays.equals(timepoints, other.timepoints)
+          && Arrays.equals(stopHeadsigns, other.stopHeadsigns)
+          && Arrays.equals(routeShortNames, other.routeShortNames)
+          && Arrays.equals(pickupTypes, other.pickupTypes)
+          && Arrays.equals(dropOffTypes, other.dropOffTypes)
+          && Arrays.equals(shapeDistTraveled, other.shapeDistTraveled);
+    }
+  }
+
+  private class StopTimeIterator implements Iterator<StopTime> {
+
+    private int index = 0;
+
+    private int tripIndex = 0;
+
+    @Override
+    public boolean hasNext() {
+      return index < size();
+    }
+
+    @Override
+    public StopTime next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      while (firstIndices[tripIndex + 1] <= index)
+        tripIndex++;
+      StopTime stopTime = createStopTime(index, tripIndex);
+      index++;
+      return stopTime;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException();
+    }
+  }
+
+  private class StopTimeProxyImpl implements StopTimeProxy {
+
+    private final int index;
+
+    private final int tripIndex;
+
+    private final int position;
+
+    public StopTimeProxyImpl(int index, int tripIndex, int position) {
+      this.index = index;
+      this.tripIndex = tripIndex;
+      this.position = position;
+    }
+
+    public StopTimePatternArray getArray() {
+      return StopTimePatternArray.this;
+    }
+
+    private Pattern pattern() {
+      return patterns[tripIndex];
+    }
+
+    @Override
+    public Integer getId() {
+      return ids[index];
+    }
+
+    @Override
+    public void setId(Integer id) {
+      // ignored
+    }
+
+    @Override
+    public Trip getTrip() {
+      return StopTimePatternArray.this.getTrip(tripIndex);
+    }
+
+    @Override
+    public void setTrip(Trip trip) {
+      Trip current = getTrip();
+      if (current == null ? trip != null : !current.equals(trip))
+        throw new UnsupportedOperationException(
+            "stop times can't be moved to another trip");
+    }
+
+    @Override
+    public int getStopSequence() {
+      return pattern().stopSequences[position];
+    }
+
+    @Override
+    public void setStopSequence(int stopSequence) {
+      getPatternForUpdate(tripIndex).stopSequences[position] = stopSequence;
+    }
+
+    @Override
+    public Stop getStop() {
+      return pattern().stops[position];
+    }
+
+    @Override
+    public void setStop(Stop stop) {
+      getPatternForUpdate(tripIndex).stops[position] = stop;
+    }
+
+    @Override
+    public boolean isArrivalTimeSet() {
+      return pattern().arrivalOffsets[position] != MISSING_OFFSET;
+    }
+
+    @Override
+    public int getArrivalTime() {
+      return toTime(pattern().arrivalOffsets[position], startTimes[tripIndex]);
+    }
+
+    @Override
+    public void setArrivalTime(int arrivalTime) {
+      getPatternForUpdate(tripIndex).arrivalOffsets[position] = toOffset(
+          arrivalTime, startTimes[tripIndex]);
+    }
+
+    @Override
+    public void clearArrivalTime() {
+      getPatternForUpdate(tripIndex).arrivalOffsets[position] = MISSING_OFFSET;
+    }
+
+    @Override
+    public boolean isDepartureTimeSet() {
+      return pattern().departureOffsets[position] != MISSING_OFFSET;
+    }
+
+    @Override
+    public int getDepartureTime() {
+      return toTime(pattern().departureOffsets[position],
+          startTimes[tripIndex]);
+    }
+
+    @Override
+    public void setDepartureTime(int departureTime) {
+      getPatternForUpdate(tripIndex).departureOffsets[position] = toOffset(
+          departureTime, startTimes[tripIndex]);
+    }
+
+    @Override
+    public void clearDepartureTime() {
+      Pattern pattern = getPatternForUpdate(tripIndex);
+      pattern.departureOffsets[position] = MISSING_OFFSET;
+    }
+
+    @Override
+    public int getTimepoint() {
+      return pattern().timepoints[position];
+    }
+
+    @Override
+    public void setTimepoint(int timepoint) {
+      getPatternForUpdate(tripIndex).timepoints[position] = timepoint;
+    }
+
+    @Override
+    public String getStopHeadsign() {
+      return pattern().stopHeadsigns[position];
+    }
+
+    @Override
+    public void setStopHeadsign(String headSign) {
+      getPatternForUpdate(tripIndex).stopHeadsigns[position] = headSign;
+    }
+
+    @Override
+    public String getRouteShortName() {
+      return pattern().routeShortNames[position];
+    }
+
+    @Override
+    public void setRouteShortName(String routeShortName) {
+      Pattern pattern = getPatternForUpdate(tripIndex);
+      pattern.routeShortNames[position] = routeShortName;
+    }
+
+    @Override
+    public int getPickupType() {
+      return pattern().pickupTypes[position];
+    }
+
+    @Override
+    public void setPickupType(int pickupType) {
+      getPatternForUpdate(tripIndex).pickupTypes[position] = pickupType;
+    }
+
+    @Override
+    public int getDropOffType() {
+      return pattern().dropOffTypes[position];
+    }
+
+    @Override
+    public void setDropOffType(int dropOffType) {
+      getPatternForUpdate(tripIndex).dropOffTypes[position] = dropOffType;
+    }
+
+    @Override
+    public boolean isShapeDistTraveledSet() {
+      return pattern().shapeDistTraveled[position] != StopTime.MISSING_VALUE;
+    }
+
+    @Override
+    public double getShapeDistTraveled() {
+      return pattern().shapeDistTraveled[position];
+    }
+
+    @Override
+    public void setShapeDistTraveled(double shapeDistTraveled) {
+      Pattern pattern = getPatternForUpdate(tripIndex);
+      pattern.shapeDistTraveled[position] = shapeDistTraveled;
+    }
+
+    @Override
+    public void clearShapeDistTraveled() {
+      Pattern pattern = getPatternForUpdate(tripIndex);
+      pattern.shapeDistTraveled[position] = StopTime.MISSING_VALUE;
+    }
+  }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes strings as int codes, assigned in the order the strings are first
+ * encoded, so that a column of strings can be stored as an int array with each
+ * distinct value held once. Null is encoded as 0.
+ *
+ * Codes are never reclaimed, so values replaced in a column stay in the
+ * dictionary until it is cleared. The dictionary is not safe for concurrent
+ * modification, but may be decoded from any number of threads once it is no
+ * longer modified.
+ */
+final class StringDictionary {
+
+  private final Map<String, Integer> _codes = new HashMap<String, Integer>();
+
+  private String[] _strings = new String[] {null};
+
+  private int _size = 1;
+
+  /**
+   * @return the code of the string, which is assigned the next code if it has
+   *         none yet
+   */
+  public int encode(String value) {
+    if (value == null)
+      return 0;
+    Integer code = _codes.get(value);
+    if (code != null)
+      return code;
+    if (_size == _strings.length)
+      _strings = Arrays.copyOf(_strings, _size + (_size >> 1) + 8);
+    _strings[_size] = value;
+    _codes.put(value, _size);
+    return _size++;
+  }
+
+  public String decode(int code) {
+    return _strings[code];
+  }
+
+  /**
+   * @return the number of distinct strings, not counting null
+   */
+  public int size() {
+    return _size - 1;
+  }
+
+  public void clear() {
+    _codes.clear();
+    _strings = new String[] {null};
+    _size = 1;
+  }
+}
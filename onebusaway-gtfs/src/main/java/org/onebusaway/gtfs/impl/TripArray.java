@@ -0,0 +1,314 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import java.util.Arrays;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.model.TripProxy;
+
+/**
+ * Packed storage for trips, used by {@link GtfsDaoImpl} when
+ * {@link GtfsDaoImpl#isPackTrips()} is enabled. Each field is held in a column
+ * of its own: numeric fields in primitive arrays, and string fields as codes
+ * into a {@link StringDictionary} shared by the columns, so that a trip takes
+ * no object of its own and each distinct string, such as a headsign, is held
+ * once. Trips are returned as {@link Trip} instances proxied to their row,
+ * created when a row is first returned and held weakly from then on, so that a
+ * trip keeps its identity as in an unpacked dao while it is referenced,
+ * without holding an object for every row (see {@link PackedEntityCache}).
+ */
+public class TripArray extends PackedEntityArray<Trip> {
+
+  private Route[] routes = new Route[0];
+
+  private AgencyAndId[] serviceIds = new AgencyAndId[0];
+
+  private int[] tripShortNames = new int[0];
+
+  private int[] tripHeadsigns = new int[0];
+
+  private int[] routeShortNames = new int[0];
+
+  private int[] directionIds = new int[0];
+
+  private int[] blockIds = new int[0];
+
+  private AgencyAndId[] shapeIds = new AgencyAndId[0];
+
+  private int[] wheelchairAccessible = new int[0];
+
+  private int[] tripBikesAllowed = new int[0];
+
+  private int[] bikesAllowed = new int[0];
+
+  private int[] tripLongNames = new int[0];
+
+  private int[] directionCodes = new int[0];
+
+  private int[] primaryTrips = new int[0];
+
+  private int[] routeTypes = new int[0];
+
+  public TripArray() {
+    this(new AgencyAndIdTable());
+  }
+
+  /**
+   * @param idTable the table canonicalizing the ids of the trips, whose
+   *          surrogate keys for the {@link Trip} type are used to look up
+   *          trips by id
+   */
+  public TripArray(AgencyAndIdTable idTable) {
+    super(Trip.class, idTable);
+  }
+
+  /****
+   * {@link PackedEntityArray} Interface
+   ****/
+
+  @Override
+  protected Trip createEntity(int row) {
+    Trip trip = new Trip();
+    trip.setProxy(new TripProxyImpl(row));
+    return trip;
+  }
+
+  @Override
+  protected int getProxyRow(Trip trip) {
+    TripProxy proxy = trip.getProxy();
+    if (proxy instanceof TripProxyImpl
+        && ((TripProxyImpl) proxy).getArray() == this)
+      return ((TripProxyImpl) proxy).index;
+    return -1;
+  }
+
+  @Override
+  protected void setRow(int row, Trip trip) {
+    routes[row] = trip.getRoute();
+    serviceIds[row] = trip.getServiceId();
+    tripShortNames[row] = strings.encode(trip.getTripShortName());
+    tripHeadsigns[row] = strings.encode(trip.getTripHeadsign());
+    routeShortNames[row] = strings.encode(trip.getRouteShortName());
+    directionIds[row] = strings.encode(trip.getDirectionId());
+    blockIds[row] = strings.encode(trip.getBlockId());
+    shapeIds[row] = trip.getShapeId();
+    wheelchairAccessible[row] = trip.getWheelchairAccessible();
+    tripBikesAllowed[row] = trip.getTripBikesAllowed();
+    bikesAllowed[row] = trip.getBikesAllowed();
+    tripLongNames[row] = strings.encode(trip.getTripLongName());
+    directionCodes[row] = strings.encode(trip.getDirectionCode());
+    primaryTrips[row] = trip.getPrimaryTrip();
+    routeTypes[row] = trip.getRouteType();
+  }
+
+  @Override
+  protected void setColumnsLength(int newLength) {
+    this.routes = Arrays.copyOf(this.routes, newLength);
+    this.serviceIds = Arrays.copyOf(this.serviceIds, newLength);
+    this.tripShortNames = Arrays.copyOf(this.tripShortNames, newLength);
+    this.tripHeadsigns = Arrays.copyOf(this.tripHeadsigns, newLength);
+    this.routeShortNames = Arrays.copyOf(this.routeShortNames, newLength);
+    this.directionIds = Arrays.copyOf(this.directionIds, newLength);
+    this.blockIds = Arrays.copyOf(this.blockIds, newLength);
+    this.shapeIds = Arrays.copyOf(this.shapeIds, newLength);
+    this.wheelchairAccessible = Arrays.copyOf(this.wheelchairAccessible,
+        newLength);
+    this.tripBikesAllowed = Arrays.copyOf(this.tripBikesAllowed, newLength);
+    this.bikesAllowed = Arrays.copyOf(this.bikesAllowed, newLength);
+    this.tripLongNames = Arrays.copyOf(this.tripLongNames, newLength);
+    this.directionCodes = Arrays.copyOf(this.directionCodes, newLength);
+    this.primaryTrips = Arrays.copyOf(this.primaryTrips, newLength);
+    this.routeTypes = Arrays.copyOf(this.routeTypes, newLength);
+  }
+
+  private class TripProxyImpl implements TripProxy {
+
+    private final int index;
+
+    public TripProxyImpl(int index) {
+      this.index = index;
+    }
+
+    public TripArray getArray() {
+      return TripArray.this;
+    }
+
+    @Override
+    public AgencyAndId getId() {
+      return getRowId(index);
+    }
+
+    @Override
+    public void setId(AgencyAndId id) {
+      setRowId(index, id);
+    }
+
+    @Override
+    public Route getRoute() {
+      return routes[index];
+    }
+
+    @Override
+    public void setRoute(Route route) {
+      routes[index] = route;
+    }
+
+    @Override
+    public AgencyAndId getServiceId() {
+      return serviceIds[index];
+    }
+
+    @Override
+    public void setServiceId(AgencyAndId serviceId) {
+      serviceIds[index] = serviceId;
+    }
+
+    @Override
+    public String getTripShortName() {
+      return strings.decode(tripShortNames[index]);
+    }
+
+    @Override
+    public void setTripShortName(String tripShortName) {
+      tripShortNames[index] = strings.encode(tripShortName);
+    }
+
+    @Override
+    public String getTripHeadsign() {
+      return strings.decode(tripHeadsigns[index]);
+    }
+
+    @Override
+    public void setTripHeadsign(String tripHeadsign) {
+      tripHeadsigns[index] = strings.encode(tripHeadsign);
+    }
+
+    @Override
+    public String getRouteShortName() {
+      return strings.decode(routeShortNames[index]);
+    }
+
+    @Override
+    public void setRouteShortName(String routeShortName) {
+      routeShortNames[index] = strings.encode(routeShortName);
+    }
+
+    @Override
+    public String getDirectionId() {
+      return strings.decode(directionIds[index]);
+    }
+
+    @Override
+    public void setDirectionId(String directionId) {
+      directionIds[index] = strings.encode(directionId);
+    }
+
+    @Override
+    public String getBlockId() {
+      return strings.decode(blockIds[index]);
+    }
+
+    @Override
+    public void setBlockId(String blockId) {
+      blockIds[index] = strings.encode(blockId);
+    }
+
+    @Override
+    public AgencyAndId getShapeId() {
+      return shapeIds[index];
+    }
+
+    @Override
+    public void setShapeId(AgencyAndId shapeId) {
+      shapeIds[index] = shapeId;
+    }
+
+    @Override
+    public int getWheelchairAccessible() {
+      return wheelchairAccessible[index];
+    }
+
+    @Override
+    public void setWheelchairAccessible(int wheelchairAccessible) {
+      TripArray.this.wheelchairAccessible[index] = wheelchairAccessible;
+    }
+
+    @Deprecated
+    @Override
+    public int getTripBikesAllowed() {
+      return tripBikesAllowed[index];
+    }
+
+    @Deprecated
+    @Override
+    public void setTripBikesAllowed(int tripBikesAllowed) {
+      TripArray.this.tripBikesAllowed[index] = tripBikesAllowed;
+    }
+
+    @Override
+    public int getBikesAllowed() {
+      return bikesAllowed[index];
+    }
+
+    @Override
+    public void setBikesAllowed(int bikesAllowed) {
+      TripArray.this.bikesAllowed[index] = bikesAllowed;
+    }
+
+    @Override
+    public String getTripLongName() {
+      return strings.decode(tripLongNames[index]);
+    }
+
+    @Override
+    public void setTripLongName(String tripLongName) {
+      tripLongNames[index] = strings.encode(tripLongName);
+    }
+
+    @Override
+    public String getDirectionCode() {
+      return strings.decode(directionCodes[index]);
+    }
+
+    @Override
+    public void setDirectionCode(String directionCode) {
+      directionCodes[index] = strings.encode(directionCode);
+    }
+
+    @Override
+    public int getPrimaryTrip() {
+      return primaryTrips[index];
+    }
+
+    @Override
+    public void setPrimaryTrip(int primaryTrip) {
+      primaryTrips[index] = primaryTrip;
+    }
+
+    @Override
+    public int getRouteType() {
+      return routeTypes[index];
+    }
+
+    @Override
+    public void setRouteType(int routeType) {
+      routeTypes[index] = routeType;
+    }
+  }
+}
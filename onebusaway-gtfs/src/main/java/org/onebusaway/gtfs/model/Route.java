@@ -15,6 +15,8 @@
  */
 package org.onebusaway.gtfs.model;
 
+import java.io.ObjectStreamException;
+
 import org.onebusaway.csv_entities.schema.annotations.CsvField;
 import org.onebusaway.csv_entities.schema.annotations.CsvFields;
 import org.onebusaway.gtfs.serialization.mappings.RouteAgencyIdFieldMappingFactory;
@@ -67,104 +69,178 @@ public final class Route extends IdentityBean<AgencyAndId> {
   @CsvField(name="short_name_sortable", optional = true)
   private String shortNameSortable;
   
+  @CsvField(ignore = true)
+  private transient RouteProxy proxy;
+
   public Route() {
 
   }
 
   public Route(Route r) {
-    this.id = r.id;
-    this.agency = r.agency;
-    this.shortName = r.shortName;
-    this.longName = r.longName;
-    this.desc = r.desc;
-    this.type = r.type;
-    this.url = r.url;
-    this.color = r.color;
-    this.textColor = r.textColor;
-    this.bikesAllowed = r.bikesAllowed;
-    this.competentAuthority = r.competentAuthority;
-    this.shortNameSortable = r.shortNameSortable;
+    this.id = r.getId();
+    this.agency = r.getAgency();
+    this.shortName = r.getShortName();
+    this.longName = r.getLongName();
+    this.desc = r.getDesc();
+    this.type = r.getType();
+    this.url = r.getUrl();
+    this.color = r.getColor();
+    this.textColor = r.getTextColor();
+    this.routeBikesAllowed = r.getRouteBikesAllowed();
+    this.bikesAllowed = r.getBikesAllowed();
+    this.competentAuthority = r.getCompetentAuthority();
+    this.shortNameSortable = r.getShortNameSortable();
   }
 
   public AgencyAndId getId() {
+    if (proxy != null) {
+      return proxy.getId();
+    }
     return id;
   }
 
   public void setId(AgencyAndId id) {
+    if (proxy != null) {
+      proxy.setId(id);
+      return;
+    }
     this.id = id;
   }
 
   public Agency getAgency() {
+    if (proxy != null) {
+      return proxy.getAgency();
+    }
     return agency;
   }
 
   public void setAgency(Agency agency) {
+    if (proxy != null) {
+      proxy.setAgency(agency);
+      return;
+    }
     this.agency = agency;
   }
 
   public String getShortName() {
+    if (proxy != null) {
+      return proxy.getShortName();
+    }
     return shortName;
   }
 
   public void setShortName(String shortName) {
+    if (proxy != null) {
+      proxy.setShortName(shortName);
+      return;
+    }
     this.shortName = shortName;
   }
 
   public String getLongName() {
+    if (proxy != null) {
+      return proxy.getLongName();
+    }
     return longName;
   }
 
   public void setLongName(String longName) {
+    if (proxy != null) {
+      proxy.setLongName(longName);
+      return;
+    }
     this.longName = longName;
   }
 
   public String getDesc() {
+    if (proxy != null) {
+      return proxy.getDesc();
+    }
     return desc;
   }
 
   public void setDesc(String desc) {
+    if (proxy != null) {
+      proxy.setDesc(desc);
+      return;
+    }
     this.desc = desc;
   }
 
   public int getType() {
+    if (proxy != null) {
+      return proxy.getType();
+    }
     return type;
   }
 
   public void setType(int type) {
+    if (proxy != null) {
+      proxy.setType(type);
+      return;
+    }
     this.type = type;
   }
 
   public String getUrl() {
+    if (proxy != null) {
+      return proxy.getUrl();
+    }
     return url;
   }
 
   public void setUrl(String url) {
+    if (proxy != null) {
+      proxy.setUrl(url);
+      return;
+    }
     this.url = url;
   }
 
   public String getColor() {
+    if (proxy != null) {
+      return proxy.getColor();
+    }
     return color;
   }
 
   public void setColor(String color) {
+    if (proxy != null) {
+      proxy.setColor(color);
+      return;
+    }
     this.color = color;
   }
 
   public String getTextColor() {
+    if (proxy != null) {
+      return proxy.getTextColor();
+    }
     return textColor;
   }
 
   public void setTextColor(String textColor) {
+    if (proxy != null) {
+      proxy.setTextColor(textColor);
+      return;
+    }
     this.textColor = textColor;
   }
   
   @Deprecated
   public int getRouteBikesAllowed() {
+    if (proxy != null) {
+      return proxy.getRouteBikesAllowed();
+    }
     return routeBikesAllowed;
   }
 
   @Deprecated
   public void setRouteBikesAllowed(int routeBikesAllowed) {
+    if (proxy != null) {
+      proxy.setRouteBikesAllowed(routeBikesAllowed);
+      return;
+    }
     this.routeBikesAllowed = routeBikesAllowed;
   }
 
@@ -172,6 +248,9 @@ public final class Route extends IdentityBean<AgencyAndId> {
    * @return 0 = unknown / unspecified, 1 = bikes allowed, 2 = bikes NOT allowed
    */
   public int getBikesAllowed() {
+    if (proxy != null) {
+      return proxy.getBikesAllowed();
+    }
     return bikesAllowed;
   }
 
@@ -180,27 +259,69 @@ public final class Route extends IdentityBean<AgencyAndId> {
    *          NOT allowed
    */
   public void setBikesAllowed(int bikesAllowed) {
+    if (proxy != null) {
+      proxy.setBikesAllowed(bikesAllowed);
+      return;
+    }
     this.bikesAllowed = bikesAllowed;
   }
 
   public String getCompetentAuthority() {
-	return competentAuthority;
+    if (proxy != null) {
+      return proxy.getCompetentAuthority();
+    }
+    return competentAuthority;
   }
 
   public void setCompetentAuthority(String competentAuthority) {
-	this.competentAuthority = competentAuthority;
+    if (proxy != null) {
+      proxy.setCompetentAuthority(competentAuthority);
+      return;
+    }
+    this.competentAuthority = competentAuthority;
   }
 
   public String getShortNameSortable() {
-	return shortNameSortable;
+    if (proxy != null) {
+      return proxy.getShortNameSortable();
+    }
+    return shortNameSortable;
   }
 
   public void setShortNameSortable(String shortNameSortable) {
-	this.shortNameSortable = shortNameSortable;
+    if (proxy != null) {
+      proxy.setShortNameSortable(shortNameSortable);
+      return;
+    }
+    this.shortNameSortable = shortNameSortable;
+  }
+
+  /**
+   * When set, all interactions with the route will be redirected through this
+   * proxy.
+   * 
+   * @param proxy
+   */
+  public void setProxy(RouteProxy proxy) {
+    this.proxy = proxy;
+  }
+
+  public RouteProxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * The proxy is transient, so a proxied route is serialized as a detached copy
+   * of its values.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if (proxy != null)
+      return new Route(this);
+    return this;
   }
 
   @Override
   public String toString() {
-    return "<Route " + id + " " + shortName + ">";
+    return "<Route " + getId() + " " + getShortName() + ">";
   }
 }
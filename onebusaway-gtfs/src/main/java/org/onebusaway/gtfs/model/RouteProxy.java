@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+/**
+ * @see Route#setProxy(RouteProxy)
+ */
+public interface RouteProxy {
+
+  public AgencyAndId getId();
+
+  public void setId(AgencyAndId id);
+
+  public Agency getAgency();
+
+  public void setAgency(Agency agency);
+
+  public String getShortName();
+
+  public void setShortName(String shortName);
+
+  public String getLongName();
+
+  public void setLongName(String longName);
+
+  public int getType();
+
+  public void setType(int type);
+
+  public String getDesc();
+
+  public void setDesc(String desc);
+
+  public String getUrl();
+
+  public void setUrl(String url);
+
+  public String getColor();
+
+  public void setColor(String color);
+
+  public String getTextColor();
+
+  public void setTextColor(String textColor);
+
+  @Deprecated
+  public int getRouteBikesAllowed();
+
+  @Deprecated
+  public void setRouteBikesAllowed(int routeBikesAllowed);
+
+  public int getBikesAllowed();
+
+  public void setBikesAllowed(int bikesAllowed);
+
+  public String getCompetentAuthority();
+
+  public void setCompetentAuthority(String competentAuthority);
+
+  public String getShortNameSortable();
+
+  public void setShortNameSortable(String shortNameSortable);
+}
@@ -54,12 +54,12 @@ public final class ShapePoint extends IdentityBean<Integer> implements
   }
 
   public ShapePoint(ShapePoint shapePoint) {
-    this.id = shapePoint.id;
-    this.shapeId = shapePoint.shapeId;
-    this.sequence = shapePoint.sequence;
-    this.distTraveled = shapePoint.distTraveled;
-    this.lat = shapePoint.lat;
-    this.lon = shapePoint.lon;
+    this.id = shapePoint.getId();
+    this.shapeId = shapePoint.getShapeId();
+    this.sequence = shapePoint.getSequence();
+    this.distTraveled = shapePoint.getDistTraveled();
+    this.lat = shapePoint.getLat();
+    this.lon = shapePoint.getLon();
   }
 
   public Integer getId() {
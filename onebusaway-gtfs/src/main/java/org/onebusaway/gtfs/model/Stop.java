@@ -16,6 +16,8 @@
  */
 package org.onebusaway.gtfs.model;
 
+import java.io.ObjectStreamException;
+
 import org.onebusaway.csv_entities.schema.annotations.CsvField;
 import org.onebusaway.csv_entities.schema.annotations.CsvFields;
 import org.onebusaway.gtfs.serialization.mappings.DefaultAgencyIdFieldMappingFactory;
@@ -75,167 +77,306 @@ public final class Stop extends IdentityBean<AgencyAndId> {
   @CsvField(name="trips_aggregated", optional = true)
   private String tripsAggregated;
 
+  @CsvField(ignore = true)
+  private transient StopProxy proxy;
+
   public Stop() {
 
   }
 
   public Stop(Stop obj) {
-    this.id = obj.id;
-    this.code = obj.code;
-    this.name = obj.name;
-    this.desc = obj.desc;
-    this.lat = obj.lat;
-    this.lon = obj.lon;
-    this.zoneId = obj.zoneId;
-    this.url = obj.url;
-    this.locationType = obj.locationType;
-    this.parentStation = obj.parentStation;
-    this.wheelchairBoarding = obj.wheelchairBoarding;
-    this.direction = obj.direction;
-    this.timezone = obj.timezone;
-    this.vehicleType = obj.vehicleType;
-    this.platformCode = obj.platformCode;
-    this.tripsAggregated = obj.tripsAggregated;
+    this.id = obj.getId();
+    this.code = obj.getCode();
+    this.name = obj.getName();
+    this.desc = obj.getDesc();
+    this.lat = obj.getLat();
+    this.lon = obj.getLon();
+    this.zoneId = obj.getZoneId();
+    this.url = obj.getUrl();
+    this.locationType = obj.getLocationType();
+    this.parentStation = obj.getParentStation();
+    this.wheelchairBoarding = obj.getWheelchairBoarding();
+    this.direction = obj.getDirection();
+    this.timezone = obj.getTimezone();
+    this.vehicleType = obj.getVehicleType();
+    this.platformCode = obj.getPlatformCode();
+    this.tripsAggregated = obj.getTripsAggregated();
   }
 
   public AgencyAndId getId() {
+    if (proxy != null) {
+      return proxy.getId();
+    }
     return id;
   }
 
   public void setId(AgencyAndId id) {
+    if (proxy != null) {
+      proxy.setId(id);
+      return;
+    }
     this.id = id;
   }
 
   public String getCode() {
+    if (proxy != null) {
+      return proxy.getCode();
+    }
     return code;
   }
 
   public void setCode(String code) {
+    if (proxy != null) {
+      proxy.setCode(code);
+      return;
+    }
     this.code = code;
   }
 
   public String getName() {
+    if (proxy != null) {
+      return proxy.getName();
+    }
     return name;
   }
 
   public void setName(String name) {
+    if (proxy != null) {
+      proxy.setName(name);
+      return;
+    }
     this.name = name;
   }
 
   public String getDesc() {
+    if (proxy != null) {
+      return proxy.getDesc();
+    }
     return desc;
   }
 
   public void setDesc(String desc) {
+    if (proxy != null) {
+      proxy.setDesc(desc);
+      return;
+    }
     this.desc = desc;
   }
 
   public double getLat() {
+    if (proxy != null) {
+      return proxy.getLat();
+    }
     return lat;
   }
 
   public void setLat(double lat) {
+    if (proxy != null) {
+      proxy.setLat(lat);
+      return;
+    }
     this.lat = lat;
   }
 
   public double getLon() {
+    if (proxy != null) {
+      return proxy.getLon();
+    }
     return lon;
   }
 
   public void setLon(double lon) {
+    if (proxy != null) {
+      proxy.setLon(lon);
+      return;
+    }
     this.lon = lon;
   }
 
   public String getZoneId() {
+    if (proxy != null) {
+      return proxy.getZoneId();
+    }
     return zoneId;
   }
 
   public void setZoneId(String zoneId) {
+    if (proxy != null) {
+      proxy.setZoneId(zoneId);
+      return;
+    }
     this.zoneId = zoneId;
   }
 
   public String getUrl() {
+    if (proxy != null) {
+      return proxy.getUrl();
+    }
     return url;
   }
 
   public void setUrl(String url) {
+    if (proxy != null) {
+      proxy.setUrl(url);
+      return;
+    }
     this.url = url;
   }
 
   public int getLocationType() {
+    if (proxy != null) {
+      return proxy.getLocationType();
+    }
     return locationType;
   }
 
   public void setLocationType(int locationType) {
+    if (proxy != null) {
+      proxy.setLocationType(locationType);
+      return;
+    }
     this.locationType = locationType;
   }
 
   public String getParentStation() {
+    if (proxy != null) {
+      return proxy.getParentStation();
+    }
     return parentStation;
   }
 
   public void setParentStation(String parentStation) {
+    if (proxy != null) {
+      proxy.setParentStation(parentStation);
+      return;
+    }
     this.parentStation = parentStation;
   }
 
+  /**
+   * When set, all interactions with the stop will be redirected through this
+   * proxy.
+   * 
+   * @param proxy
+   */
+  public void setProxy(StopProxy proxy) {
+    this.proxy = proxy;
+  }
+
+  public StopProxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * The proxy is transient, so a proxied stop is serialized as a detached copy
+   * of its values.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if (proxy != null)
+      return new Stop(this);
+    return this;
+  }
+
   @Override
   public String toString() {
-    return "<Stop " + this.id + ">";
+    return "<Stop " + getId() + ">";
   }
 
   public void setWheelchairBoarding(int wheelchairBoarding) {
+    if (proxy != null) {
+      proxy.setWheelchairBoarding(wheelchairBoarding);
+      return;
+    }
     this.wheelchairBoarding = wheelchairBoarding;
   }
 
   public int getWheelchairBoarding() {
+    if (proxy != null) {
+      return proxy.getWheelchairBoarding();
+    }
     return wheelchairBoarding;
   }
 
   public String getDirection() {
+    if (proxy != null) {
+      return proxy.getDirection();
+    }
     return direction;
   }
 
   public void setDirection(String direction) {
+    if (proxy != null) {
+      proxy.setDirection(direction);
+      return;
+    }
     this.direction = direction;
   }
 
   public String getTimezone() {
+    if (proxy != null) {
+      return proxy.getTimezone();
+    }
     return timezone;
   }
 
   public void setTimezone(String timezone) {
+    if (proxy != null) {
+      proxy.setTimezone(timezone);
+      return;
+    }
     this.timezone = timezone;
   }
   
   public boolean isVehicleTypeSet() {
-    return vehicleType != MISSING_VALUE;
+    return getVehicleType() != MISSING_VALUE;
   }
 
   public int getVehicleType() {
+    if (proxy != null) {
+      return proxy.getVehicleType();
+    }
     return vehicleType;
   }
 
   public void setVehicleType(int vehicleType) {
+    if (proxy != null) {
+      proxy.setVehicleType(vehicleType);
+      return;
+    }
     this.vehicleType = vehicleType;
   }
   
   public void clearVehicleType() {
-    vehicleType = MISSING_VALUE;
+    setVehicleType(MISSING_VALUE);
   }
 
   public String getPlatformCode() {
+    if (proxy != null) {
+      return proxy.getPlatformCode();
+    }
     return platformCode;
   }
 
   public void setPlatformCode(String platformCode) {
+    if (proxy != null) {
+      proxy.setPlatformCode(platformCode);
+      return;
+    }
     this.platformCode = platformCode;
   }
   
   public String getTripsAggregated() {
-	return tripsAggregated;
+    if (proxy != null) {
+      return proxy.getTripsAggregated();
+    }
+    return tripsAggregated;
   }
   
   public void setTripsAggregated(String tripsAggregated) {
-	this.tripsAggregated = tripsAggregated;
+    if (proxy != null) {
+      proxy.setTripsAggregated(tripsAggregated);
+      return;
+    }
+    this.tripsAggregated = tripsAggregated;
   }
 }
@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+/**
+ * @see Stop#setProxy(StopProxy)
+ */
+public interface StopProxy {
+
+  public AgencyAndId getId();
+
+  public void setId(AgencyAndId id);
+
+  public String getCode();
+
+  public void setCode(String code);
+
+  public String getName();
+
+  public void setName(String name);
+
+  public String getDesc();
+
+  public void setDesc(String desc);
+
+  public double getLat();
+
+  public void setLat(double lat);
+
+  public double getLon();
+
+  public void setLon(double lon);
+
+  public String getZoneId();
+
+  public void setZoneId(String zoneId);
+
+  public String getUrl();
+
+  public void setUrl(String url);
+
+  public int getLocationType();
+
+  public void setLocationType(int locationType);
+
+  public String getParentStation();
+
+  public void setParentStation(String parentStation);
+
+  public int getWheelchairBoarding();
+
+  public void setWheelchairBoarding(int wheelchairBoarding);
+
+  public String getDirection();
+
+  public void setDirection(String direction);
+
+  public String getTimezone();
+
+  public void setTimezone(String timezone);
+
+  public int getVehicleType();
+
+  public void setVehicleType(int vehicleType);
+
+  public String getPlatformCode();
+
+  public void setPlatformCode(String platformCode);
+
+  public String getTripsAggregated();
+
+  public void setTripsAggregated(String tripsAggregated);
+}
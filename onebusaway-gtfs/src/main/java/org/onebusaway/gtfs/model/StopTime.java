@@ -72,18 +72,18 @@ public final class StopTime extends IdentityBean<Integer> implements
   }
 
   public StopTime(StopTime st) {
-    this.arrivalTime = st.arrivalTime;
-    this.departureTime = st.departureTime;
-    this.dropOffType = st.dropOffType;
-    this.id = st.id;
-    this.pickupType = st.pickupType;
-    this.routeShortName = st.routeShortName;
-    this.shapeDistTraveled = st.shapeDistTraveled;
-    this.stop = st.stop;
-    this.stopHeadsign = st.stopHeadsign;
-    this.stopSequence = st.stopSequence;
-    this.timepoint = st.timepoint;
-    this.trip = st.trip;
+    this.arrivalTime = st.getArrivalTime();
+    this.departureTime = st.getDepartureTime();
+    this.dropOffType = st.getDropOffType();
+    this.id = st.getId();
+    this.pickupType = st.getPickupType();
+    this.routeShortName = st.getRouteShortName();
+    this.shapeDistTraveled = st.getShapeDistTraveled();
+    this.stop = st.getStop();
+    this.stopHeadsign = st.getStopHeadsign();
+    this.stopSequence = st.getStopSequence();
+    this.timepoint = st.getTimepoint();
+    this.trip = st.getTrip();
   }
 
   public Integer getId() {
@@ -15,6 +15,8 @@
  */
 package org.onebusaway.gtfs.model;
 
+import java.io.ObjectStreamException;
+
 import org.onebusaway.csv_entities.schema.annotations.CsvField;
 import org.onebusaway.csv_entities.schema.annotations.CsvFields;
 import org.onebusaway.gtfs.serialization.mappings.DefaultAgencyIdFieldMappingFactory;
@@ -78,116 +80,196 @@ public final class Trip extends IdentityBean<AgencyAndId> {
   @CsvField(name="route_type", optional = true)
   private int routeType;
 
+  @CsvField(ignore = true)
+  private transient TripProxy proxy;
+
   public Trip() {
 
   }
 
   public Trip(Trip obj) {
-    this.id = obj.id;
-    this.route = obj.route;
-    this.serviceId = obj.serviceId;
-    this.tripShortName = obj.tripShortName;
-    this.tripHeadsign = obj.tripHeadsign;
-    this.routeShortName = obj.routeShortName;
-    this.directionId = obj.directionId;
-    this.blockId = obj.blockId;
-    this.shapeId = obj.shapeId;
-    this.wheelchairAccessible = obj.wheelchairAccessible;
-    this.tripBikesAllowed = obj.tripBikesAllowed;
-    this.bikesAllowed = obj.bikesAllowed;
-    this.tripLongName = obj.tripLongName;
-    this.directionCode = obj.directionCode;
-    this.primaryTrip = obj.primaryTrip;
-    this.routeType = obj.routeType;
+    this.id = obj.getId();
+    this.route = obj.getRoute();
+    this.serviceId = obj.getServiceId();
+    this.tripShortName = obj.getTripShortName();
+    this.tripHeadsign = obj.getTripHeadsign();
+    this.routeShortName = obj.getRouteShortName();
+    this.directionId = obj.getDirectionId();
+    this.blockId = obj.getBlockId();
+    this.shapeId = obj.getShapeId();
+    this.wheelchairAccessible = obj.getWheelchairAccessible();
+    this.tripBikesAllowed = obj.getTripBikesAllowed();
+    this.bikesAllowed = obj.getBikesAllowed();
+    this.tripLongName = obj.getTripLongName();
+    this.directionCode = obj.getDirectionCode();
+    this.primaryTrip = obj.getPrimaryTrip();
+    this.routeType = obj.getRouteType();
   }
 
   public AgencyAndId getId() {
+    if (proxy != null) {
+      return proxy.getId();
+    }
     return id;
   }
 
   public void setId(AgencyAndId id) {
+    if (proxy != null) {
+      proxy.setId(id);
+      return;
+    }
     this.id = id;
   }
 
   public Route getRoute() {
+    if (proxy != null) {
+      return proxy.getRoute();
+    }
     return route;
   }
 
   public void setRoute(Route route) {
+    if (proxy != null) {
+      proxy.setRoute(route);
+      return;
+    }
     this.route = route;
   }
 
   public AgencyAndId getServiceId() {
+    if (proxy != null) {
+      return proxy.getServiceId();
+    }
     return serviceId;
   }
 
   public void setServiceId(AgencyAndId serviceId) {
+    if (proxy != null) {
+      proxy.setServiceId(serviceId);
+      return;
+    }
     this.serviceId = serviceId;
   }
 
   public String getTripShortName() {
+    if (proxy != null) {
+      return proxy.getTripShortName();
+    }
     return tripShortName;
   }
 
   public void setTripShortName(String tripShortName) {
+    if (proxy != null) {
+      proxy.setTripShortName(tripShortName);
+      return;
+    }
     this.tripShortName = tripShortName;
   }
 
   public String getTripHeadsign() {
+    if (proxy != null) {
+      return proxy.getTripHeadsign();
+    }
     return tripHeadsign;
   }
 
   public void setTripHeadsign(String tripHeadsign) {
+    if (proxy != null) {
+      proxy.setTripHeadsign(tripHeadsign);
+      return;
+    }
     this.tripHeadsign = tripHeadsign;
   }
 
   public String getRouteShortName() {
+    if (proxy != null) {
+      return proxy.getRouteShortName();
+    }
     return routeShortName;
   }
 
   public void setRouteShortName(String routeShortName) {
+    if (proxy != null) {
+      proxy.setRouteShortName(routeShortName);
+      return;
+    }
     this.routeShortName = routeShortName;
   }
 
   public String getDirectionId() {
+    if (proxy != null) {
+      return proxy.getDirectionId();
+    }
     return directionId;
   }
 
   public void setDirectionId(String directionId) {
+    if (proxy != null) {
+      proxy.setDirectionId(directionId);
+      return;
+    }
     this.directionId = directionId;
   }
 
   public String getBlockId() {
+    if (proxy != null) {
+      return proxy.getBlockId();
+    }
     return blockId;
   }
 
   public void setBlockId(String blockId) {
+    if (proxy != null) {
+      proxy.setBlockId(blockId);
+      return;
+    }
     this.blockId = blockId;
   }
 
   public AgencyAndId getShapeId() {
+    if (proxy != null) {
+      return proxy.getShapeId();
+    }
     return shapeId;
   }
 
   public void setShapeId(AgencyAndId shapeId) {
+    if (proxy != null) {
+      proxy.setShapeId(shapeId);
+      return;
+    }
     this.shapeId = shapeId;
   }
 
   public void setWheelchairAccessible(int wheelchairAccessible) {
+    if (proxy != null) {
+      proxy.setWheelchairAccessible(wheelchairAccessible);
+      return;
+    }
     this.wheelchairAccessible = wheelchairAccessible;
   }
 
   public int getWheelchairAccessible() {
+    if (proxy != null) {
+      return proxy.getWheelchairAccessible();
+    }
     return wheelchairAccessible;
   }
 
   @Deprecated
   public void setTripBikesAllowed(int tripBikesAllowed) {
+    if (proxy != null) {
+      proxy.setTripBikesAllowed(tripBikesAllowed);
+      return;
+    }
     this.tripBikesAllowed = tripBikesAllowed;
   }
 
   @Deprecated
   public int getTripBikesAllowed() {
+    if (proxy != null) {
+      return proxy.getTripBikesAllowed();
+    }
     return tripBikesAllowed;
   }
 
@@ -195,6 +277,9 @@ public final class Trip extends IdentityBean<AgencyAndId> {
    * @return 0 = unknown / unspecified, 1 = bikes allowed, 2 = bikes NOT allowed
    */
   public int getBikesAllowed() {
+    if (proxy != null) {
+      return proxy.getBikesAllowed();
+    }
     return bikesAllowed;
   }
 
@@ -203,39 +288,95 @@ public final class Trip extends IdentityBean<AgencyAndId> {
    *          NOT allowed
    */
   public void setBikesAllowed(int bikesAllowed) {
+    if (proxy != null) {
+      proxy.setBikesAllowed(bikesAllowed);
+      return;
+    }
     this.bikesAllowed = bikesAllowed;
   }
 
   public String getTripLongName() {
-	return tripLongName;
+    if (proxy != null) {
+      return proxy.getTripLongName();
+    }
+    return tripLongName;
   }
 
   public void setTripLongName(String tripLongName) {
-	this.tripLongName = tripLongName;
+    if (proxy != null) {
+      proxy.setTripLongName(tripLongName);
+      return;
+    }
+    this.tripLongName = tripLongName;
   }
 
   public String getDirectionCode() {
-	return directionCode;
+    if (proxy != null) {
+      return proxy.getDirectionCode();
+    }
+    return directionCode;
   }
   
   public void setDirectionCode(String directionCode) {
-	this.directionCode = directionCode;
+    if (proxy != null) {
+      proxy.setDirectionCode(directionCode);
+      return;
+    }
+    this.directionCode = directionCode;
   }
   
   public int getPrimaryTrip() {
-	return primaryTrip;
+    if (proxy != null) {
+      return proxy.getPrimaryTrip();
+    }
+    return primaryTrip;
   }
 
   public void setPrimaryTrip(int primaryTrip) {
-	this.primaryTrip = primaryTrip;
+    if (proxy != null) {
+      proxy.setPrimaryTrip(primaryTrip);
+      return;
+    }
+    this.primaryTrip = primaryTrip;
   }
   
   public int getRouteType() {
-	return routeType;
+    if (proxy != null) {
+      return proxy.getRouteType();
+    }
+    return routeType;
   }
 
   public void setRouteType(int routeType) {
-	this.routeType = routeType;
+    if (proxy != null) {
+      proxy.setRouteType(routeType);
+      return;
+    }
+    this.routeType = routeType;
+  }
+
+  /**
+   * When set, all interactions with the trip will be redirected through this
+   * proxy.
+   * 
+   * @param proxy
+   */
+  public void setProxy(TripProxy proxy) {
+    this.proxy = proxy;
+  }
+
+  public TripProxy getProxy() {
+    return proxy;
+  }
+
+  /**
+   * The proxy is transient, so a proxied trip is serialized as a detached copy
+   * of its values.
+   */
+  private Object writeReplace() throws ObjectStreamException {
+    if (proxy != null)
+      return new Trip(this);
+    return this;
   }
 
   public String toString() {
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+/**
+ * @see Trip#setProxy(TripProxy)
+ */
+public interface TripProxy {
+
+  public AgencyAndId getId();
+
+  public void setId(AgencyAndId id);
+
+  public Route getRoute();
+
+  public void setRoute(Route route);
+
+  public AgencyAndId getServiceId();
+
+  public void setServiceId(AgencyAndId serviceId);
+
+  public String getTripShortName();
+
+  public void setTripShortName(String tripShortName);
+
+  public String getTripHeadsign();
+
+  public void setTripHeadsign(String tripHeadsign);
+
+  public String getRouteShortName();
+
+  public void setRouteShortName(String routeShortName);
+
+  public String getDirectionId();
+
+  public void setDirectionId(String directionId);
+
+  public String getBlockId();
+
+  public void setBlockId(String blockId);
+
+  public AgencyAndId getShapeId();
+
+  public void setShapeId(AgencyAndId shapeId);
+
+  public int getWheelchairAccessible();
+
+  public void setWheelchairAccessible(int wheelchairAccessible);
+
+  @Deprecated
+  public int getTripBikesAllowed();
+
+  @Deprecated
+  public void setTripBikesAllowed(int tripBikesAllowed);
+
+  public int getBikesAllowed();
+
+  public void setBikesAllowed(int bikesAllowed);
+
+  public String getTripLongName();
+
+  public void setTripLongName(String tripLongName);
+
+  public String getDirectionCode();
+
+  public void setDirectionCode(String directionCode);
+
+  public int getPrimaryTrip();
+
+  public void setPrimaryTrip(int primaryTrip);
+
+  public int getRouteType();
+
+  public void setRouteType(int routeType);
+}
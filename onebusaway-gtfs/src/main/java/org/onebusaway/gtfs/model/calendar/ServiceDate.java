@@ -17,18 +17,15 @@
 package org.onebusaway.gtfs.model.calendar;
 
 import java.io.Serializable;
-import java.text.DecimalFormat;
-import java.text.NumberFormat;
 import java.text.ParseException;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.onebusaway.gtfs.model.ServiceCalendar;
 import org.onebusaway.gtfs.model.ServiceCalendarDate;
 import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.mappings.GtfsValueCodec;
 
 /**
  * A general representation of a year-month-day tuple not tied to any locale and
@@ -43,12 +40,6 @@ public class ServiceDate implements Serializable, Comparable<ServiceDate> {
 
   private static final long serialVersionUID = 1L;
 
-  private static final Pattern _pattern = Pattern.compile("^(\\d{4})(\\d{2})(\\d{2})$");
-
-  private static final NumberFormat _yearFormat = new DecimalFormat("0000");
-
-  private static final NumberFormat _monthAndDayFormat = new DecimalFormat("00");
-
   private static final TimeZone _utcTimeZone = TimeZone.getTimeZone("UTC");
 
   private final int year;
@@ -102,14 +93,16 @@ public class ServiceDate implements Serializable, Comparable<ServiceDate> {
    */
   public static ServiceDate parseString(String value) throws ParseException {
 
-    Matcher matcher = _pattern.matcher(value);
-
-    if (!matcher.matches())
+    int date;
+    try {
+      date = GtfsValueCodec.parseDate(value);
+    } catch (NumberFormatException ex) {
       throw new ParseException("error parsing date: " + value, 0);
+    }
 
-    int year = Integer.parseInt(matcher.group(1));
-    int month = Integer.parseInt(matcher.group(2));
-    int day = Integer.parseInt(matcher.group(3));
+    int year = date / 10000;
+    int month = (date / 100) % 100;
+    int day = date % 100;
     return new ServiceDate(year, month, day);
   }
 
@@ -176,10 +169,9 @@ public class ServiceDate implements Serializable, Comparable<ServiceDate> {
    * @return a string in "YYYYMMDD" format
    */
   public String getAsString() {
-    String year = _yearFormat.format(this.year);
-    String month = _monthAndDayFormat.format(this.month);
-    String day = _monthAndDayFormat.format(this.day);
-    return year + month + day;
+    StringBuilder b = new StringBuilder(8);
+    GtfsValueCodec.appendDate(b, this.year, this.month, this.day);
+    return b.toString();
   }
 
   /**
@@ -0,0 +1,315 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.onebusaway.csv_entities.TokenizerStrategy;
+
+/**
+ * Splits UTF-8 encoded CSV data held in a {@link ByteBuffer} into rows and
+ * fields directly on the bytes, with the same results as reading the data
+ * line by line through a UTF-8 {@link java.io.Reader} and a
+ * {@link org.onebusaway.csv_entities.CsvTokenizerStrategy} that trims initial
+ * whitespace, as {@link GtfsReader} does.
+ * 
+ * The tokenizer is itself the {@link CsvRow} for the current row. Fields are
+ * kept as byte offsets, and a value is only decoded into a String when asked
+ * for one. Pure ASCII values are additionally available as a reusable
+ * {@link CharSequence} view of the bytes. Since the delimiter and quote
+ * characters are ASCII, they can never be confused with a byte of a multi-byte
+ * UTF-8 sequence. Rows with escaped quotes, or text following a closing
+ * quote, are rare enough that they are decoded and tokenized with the
+ * fallback {@link TokenizerStrategy} instead.
+ */
+class ByteCsvTokenizer implements CsvRow {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final byte DELIMITER = ',';
+
+  private static final byte QUOTE = '"';
+
+  private final ByteBuffer _buffer;
+
+  private final ByteBuffer _reader;
+
+  private final int _limit;
+
+  private final TokenizerStrategy _fallback;
+
+  private final boolean _trimValues;
+
+  private int _position;
+
+  private int[] _starts = new int[16];
+
+  private int[] _ends = new int[16];
+
+  private int _size = 0;
+
+  private List<String> _values = null;
+
+  private byte[] _scratch = new byte[256];
+
+  private final ByteSlice _slice = new ByteSlice();
+
+  public ByteCsvTokenizer(ByteBuffer buffer, TokenizerStrategy fallback,
+      boolean trimValues) {
+    _buffer = buffer;
+    _reader = buffer.duplicate();
+    _position = buffer.position();
+    _limit = buffer.limit();
+    _fallback = fallback;
+    _trimValues = trimValues;
+
+    // Skip the UTF-8 byte order mark, if present
+    if (_limit - _position >= 3 && _buffer.get(_position) == (byte) 0xEF
+        && _buffer.get(_position + 1) == (byte) 0xBB
+        && _buffer.get(_position + 2) == (byte) 0xBF)
+      _position += 3;
+  }
+
+  /**
+   * Advances to the next row, skipping blank lines and a trailing end-of-file
+   * (Ctrl-Z) marker. Rows end at "\n", "\r" or "\r\n".
+   * 
+   * @return false if there are no more rows
+   */
+  public boolean next() {
+    while (_position < _limit) {
+      int start = _position;
+      int end = start;
+      while (end < _limit) {
+        byte b = _buffer.get(end);
+        if (b == '\n' || b == '\r')
+          break;
+        end++;
+      }
+
+      _position = end;
+      if (_position < _limit) {
+        if (_buffer.get(_position) == '\r' && _position + 1 < _limit
+            && _buffer.get(_position + 1) == '\n')
+          _position += 2;
+        else
+          _position++;
+      }
+
+      if (end == start || (end - start == 1 && _buffer.get(start) == 0x1a))
+        continue;
+
+      tokenize(start, end);
+      return true;
+    }
+    return false;
+  }
+
+  /**
+   * @return the offset in the buffer just past the end of the current row
+   */
+  public int getPosition() {
+    return _position;
+  }
+
+  /****
+   * {@link CsvRow} Interface
+   ****/
+
+  @Override
+  public int size() {
+    return _size;
+  }
+
+  @Override
+  public int getLength(int index) {
+    if (_values != null)
+      return _values.get(index).length();
+    int start = _starts[index];
+    int end = _ends[index];
+    if (isAscii(start, end))
+      return end - start;
+    return decode(start, end).length();
+  }
+
+  @Override
+  public String getString(int index) {
+    if (_values != null)
+      return _values.get(index);
+    return decode(_starts[index], _ends[index]);
+  }
+
+  @Override
+  public CharSequence getChars(int index) {
+    if (_values != null)
+      return _values.get(index);
+    int start = _starts[index];
+    int end = _ends[index];
+    if (isAscii(start, end)) {
+      _slice.set(start, end);
+      return _slice;
+    }
+    return decode(start, end);
+  }
+
+  @Override
+  public List<String> getStrings() {
+    if (_values != null)
+      return new ArrayList<String>(_values);
+    List<String> values = new ArrayList<String>(_size);
+    for (int i = 0; i < _size; i++)
+      values.add(decode(_starts[i], _ends[i]));
+    return values;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void tokenize(int start, int end) {
+
+    _values = null;
+    _size = 0;
+
+    int i = start;
+
+    while (true) {
+
+      // Initial whitespace is skipped
+      while (i < end && _buffer.get(i) == ' ')
+        i++;
+
+      int fieldStart;
+      int fieldEnd;
+
+      if (i < end && _buffer.get(i) == QUOTE) {
+        fieldStart = i + 1;
+        fieldEnd = fieldStart;
+        while (fieldEnd < end && _buffer.get(fieldEnd) != QUOTE)
+          fieldEnd++;
+        i = fieldEnd;
+        if (i < end) {
+          // Skip the closing quote, which must end the field
+          i++;
+          if (i < end && _buffer.get(i) != DELIMITER) {
+            tokenizeWithFallback(start, end);
+            return;
+          }
+        }
+      } else {
+        fieldStart = i;
+        while (i < end && _buffer.get(i) != DELIMITER)
+          i++;
+        fieldEnd = i;
+      }
+
+      addField(fieldStart, fieldEnd);
+
+      if (i >= end)
+        break;
+
+      // Skip the delimiter
+      i++;
+    }
+  }
+
+  private void addField(int start, int end) {
+    if (_trimValues) {
+      while (start < end && (_buffer.get(start) & 0xff) <= ' ')
+        start++;
+      while (end > start && (_buffer.get(end - 1) & 0xff) <= ' ')
+        end--;
+    }
+    if (_size == _starts.length) {
+      int[] starts = new int[_size * 2];
+      int[] ends = new int[_size * 2];
+      System.arraycopy(_starts, 0, starts, 0, _size);
+      System.arraycopy(_ends, 0, ends, 0, _size);
+      _starts = starts;
+      _ends = ends;
+    }
+    _starts[_size] = start;
+    _ends[_size] = end;
+    _size++;
+  }
+
+  private void tokenizeWithFallback(int start, int end) {
+    List<String> values = _fallback.parse(decode(start, end));
+    if (_trimValues) {
+      for (int i = 0; i < values.size(); i++)
+        values.set(i, values.get(i).trim());
+    }
+    _values = values;
+    _size = values.size();
+  }
+
+  private boolean isAscii(int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (_buffer.get(i) < 0)
+        return false;
+    }
+    return true;
+  }
+
+  private String decode(int start, int end) {
+    int length = end - start;
+    if (length == 0)
+      return "";
+    if (_scratch.length < length)
+      _scratch = new byte[Math.max(length, _scratch.length * 2)];
+    _reader.position(start);
+    _reader.get(_scratch, 0, length);
+    return new String(_scratch, 0, length, UTF8);
+  }
+
+  /**
+   * A view of a range of ASCII bytes as chars
+   */
+  private class ByteSlice implements CharSequence {
+
+    private int _start;
+
+    private int _end;
+
+    public void set(int start, int end) {
+      _start = start;
+      _end = end;
+    }
+
+    @Override
+    public int length() {
+      return _end - _start;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return (char) _buffer.get(_start + index);
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      return decode(_start + start, _start + end);
+    }
+
+    @Override
+    public String toString() {
+      return decode(_start, _end);
+    }
+  }
+}
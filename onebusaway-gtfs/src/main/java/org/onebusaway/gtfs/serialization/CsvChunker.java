@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits CSV data held in a {@link ByteBuffer} into chunks of whole rows, so
+ * that each chunk can be tokenized on its own. Rows end at a newline, as with
+ * {@link ByteCsvTokenizer}, so each chunk ends just past the first "\n" or
+ * "\r" at or after its nominal size. A "\r\n" pair split between two chunks
+ * leaves a blank line at the start of the second one, which the tokenizer
+ * skips.
+ */
+final class CsvChunker {
+
+  private CsvChunker() {
+
+  }
+
+  /**
+   * @param buffer the data between its position and limit, which are not
+   *          modified
+   * @param chunkSize the nominal size of a chunk in bytes
+   * @return views of consecutive ranges of the buffer, in order, together
+   *         covering the data
+   */
+  public static List<ByteBuffer> split(ByteBuffer buffer, int chunkSize) {
+    if (chunkSize < 1)
+      throw new IllegalArgumentException("chunkSize must be positive");
+    List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+    int limit = buffer.limit();
+    int start = buffer.position();
+    while (start < limit) {
+      int end = (int) Math.min(limit, (long) start + chunkSize);
+      while (end < limit) {
+        byte b = buffer.get(end - 1);
+        if (b == '\n' || b == '\r')
+          break;
+        end++;
+      }
+      ByteBuffer chunk = buffer.duplicate();
+      chunk.limit(end);
+      chunk.position(start);
+      chunks.add(chunk);
+      start = end;
+    }
+    return chunks;
+  }
+}
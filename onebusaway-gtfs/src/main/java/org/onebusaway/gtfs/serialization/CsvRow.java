@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.List;
+
+/**
+ * The values of a single tokenized CSV row. Depending on the source, a value
+ * may be backed by a decoded {@link String} or by a slice of the underlying
+ * bytes, in which case {@link #getChars(int)} gives access to the value
+ * without creating a String for it.
+ */
+interface CsvRow {
+
+  public int size();
+
+  /**
+   * @return the length in chars of the specified value
+   */
+  public int getLength(int index);
+
+  public String getString(int index);
+
+  /**
+   * @return a view of the specified value that is only valid until the row or
+   *         any of its other values are accessed again
+   */
+  public CharSequence getChars(int index);
+
+  public List<String> getStrings();
+}
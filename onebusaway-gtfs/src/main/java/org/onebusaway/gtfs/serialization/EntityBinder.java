@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.csv_entities.CsvEntityContext;
+import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.csv_entities.exceptions.InvalidValueEntityException;
+import org.onebusaway.csv_entities.schema.BeanWrapper;
+import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
+import org.onebusaway.csv_entities.schema.EntityValidator;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.serialization.mappings.StopTimeFieldMappingFactory;
+
+/**
+ * Reads the rows of a GTFS file into entities of a model class with plain
+ * setter calls, instead of csv-entities filling a map of field values for
+ * each row and setting each field through a reflective bean wrapper. Each
+ * subclass binds the columns of the default entity schema of its model class,
+ * interpreting values as the field mappings of that schema do, and passes the
+ * entities to an {@link EntityHandler}.
+ *
+ * Fields added to the entity schema beyond the default ones, such as
+ * extensions, and entity validators are still applied through the schema,
+ * after the columns of the binder have been set.
+ *
+ * @see GtfsEntityBinders
+ */
+abstract class EntityBinder<T> extends PackedEntityReader {
+
+  protected final GtfsReaderContext _context;
+
+  private final EntityHandler _handler;
+
+  private CsvEntityContext _csvContext = null;
+
+  private List<FieldMapping> _customFields = Collections.emptyList();
+
+  private List<EntityValidator> _validators = Collections.emptyList();
+
+  private List<Object> _chunkEntities = null;
+
+  /**
+   * The reference cache, raw id and entity of the reference last resolved for
+   * each column, as consecutive rows often reference the same entity
+   */
+  private final EntityReferenceCache[] _referenceCaches;
+
+  private final String[] _referenceIds;
+
+  private final Object[] _referencedEntities;
+
+  protected EntityBinder(Class<T> entityClass, String[] columnNames,
+      GtfsReaderContext context, EntityHandler handler) {
+    super(entityClass, columnNames);
+    _context = context;
+    _handler = handler;
+    _referenceCaches = new EntityReferenceCache[columnNames.length];
+    _referenceIds = new String[columnNames.length];
+    _referencedEntities = new Object[columnNames.length];
+  }
+
+  /**
+   * @param csvContext the context passed to the custom fields and validators
+   * @param customFields the fields of the entity schema that are not bound by
+   *          the binder
+   * @param validators the validators of the entity schema
+   */
+  public void setCustomFields(CsvEntityContext csvContext,
+      List<FieldMapping> customFields, List<EntityValidator> validators) {
+    _csvContext = csvContext;
+    _customFields = customFields;
+    _validators = validators;
+  }
+
+  @Override
+  public PackedEntityReader newChunkReader() {
+    final List<Object> entities = new ArrayList<Object>();
+    EntityBinder<T> chunkReader = newBinder(new EntityHandler() {
+      public void handleEntity(Object entity) {
+        entities.add(entity);
+      }
+    });
+    chunkReader.setCustomFields(_csvContext, _customFields, _validators);
+    chunkReader._chunkEntities = entities;
+    return chunkReader;
+  }
+
+  @Override
+  public void append(PackedEntityReader chunkReader) {
+    for (Object entity : ((EntityBinder<?>) chunkReader)._chunkEntities)
+      _handler.handleEntity(entity);
+  }
+
+  /****
+   * Protected Methods
+   ****/
+
+  /**
+   * @return a binder of the same type passing its entities to the specified
+   *         handler
+   */
+  protected abstract EntityBinder<T> newBinder(EntityHandler handler);
+
+  /**
+   * @return a new entity with the values of the bound columns of the row
+   */
+  protected abstract T bind(CsvRow row);
+
+  @Override
+  protected void readRow(CsvRow row) {
+    T entity = bind(row);
+    if (!_customFields.isEmpty() || !_validators.isEmpty())
+      applyCustomFields(row, entity);
+    _handler.handleEntity(entity);
+  }
+
+  /**
+   * Reads an id qualified with the specified agency id, as
+   * DefaultAgencyIdFieldMappingFactory does.
+   *
+   * @return the canonical id, or null if the value is missing and optional
+   */
+  protected AgencyAndId getId(CsvRow row, int column, String agencyId,
+      boolean required) {
+    String id = required ? getRequiredValue(row, column)
+        : getValue(row, column);
+    if (id == null)
+      return null;
+    return _context.getCanonicalId(new AgencyAndId(agencyId, id));
+  }
+
+  /**
+   * Resolves a reference to a previously read entity, as
+   * EntityFieldMappingFactory does, through the {@link EntityReferenceCache}
+   * of the entity type. A reference equal to that of the previous row is not
+   * resolved again.
+   *
+   * @return the referenced entity, or null if the value is missing and
+   *         optional
+   */
+  protected <E> E getReference(CsvRow row, int column, Class<E> entityType,
+      boolean required) {
+    String entityId = required ? getRequiredValue(row, column) : getValue(
+        row, column);
+    if (entityId == null)
+      return null;
+    EntityReferenceCache cache = _referenceCaches[column];
+    if (cache == null || !cache.isValid()) {
+      cache = EntityReferenceCache.get(_context, entityType);
+      _referenceCaches[column] = cache;
+    } else if (entityId.equals(_referenceIds[column])) {
+      return entityType.cast(_referencedEntities[column]);
+    }
+    Object entity = cache.resolve(entityId);
+    _referenceIds[column] = entityId;
+    _referencedEntities[column] = entity;
+    return entityType.cast(entity);
+  }
+
+  /**
+   * @return the date, or null if the value is missing and optional
+   * @throws InvalidValueEntityException if the date is malformed
+   */
+  protected ServiceDate getServiceDate(CsvRow row, int column,
+      boolean required) {
+    String value = required ? getRequiredValue(row, column) : getValue(row,
+        column);
+    if (value == null)
+      return null;
+    try {
+      return ServiceDate.parseString(value);
+    } catch (ParseException ex) {
+      throw new InvalidValueEntityException(getEntityClass(),
+          getColumnName(column), value);
+    }
+  }
+
+  /**
+   * @return a time of day in seconds, as StopTimeFieldMappingFactory reads it
+   */
+  protected int getRequiredTime(CsvRow row, int column) {
+    return StopTimeFieldMappingFactory.getStringAsSeconds(getRequiredValue(
+        row, column));
+  }
+
+  protected float getRequiredFloat(CsvRow row, int column) {
+    try {
+      return Float.parseFloat(getRequiredValue(row, column));
+    } catch (NumberFormatException ex) {
+      return 0.0f;
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Applies the custom fields and validators as csv-entities would, from a map
+   * of the values of the row by column name.
+   */
+  private void applyCustomFields(CsvRow row, T entity) {
+    List<String> header = getHeader();
+    Map<String, Object> values = new HashMap<String, Object>();
+    for (int i = 0; i < header.size(); i++)
+      values.put(header.get(i), i < row.size() ? row.getString(i) : "");
+    BeanWrapper wrapper = BeanWrapperFactory.wrap(entity);
+    for (FieldMapping field : _customFields)
+      field.translateFromCSVToObject(_csvContext, values, wrapper);
+    for (EntityValidator validator : _validators)
+      validator.validateEntity(_csvContext, values, wrapper);
+  }
+}
@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.serialization.mappings.EntityReferenceFieldMapping;
+
+/**
+ * Load-order dependencies between the entity types read by {@link GtfsReader},
+ * derived from the {@link EntityReferenceFieldMapping} fields of each entity
+ * schema (routes reference agencies, trips reference routes, stop times
+ * reference trips and stops, and so on).
+ *
+ * Every entity type also depends on {@link Agency}, since the default agency
+ * id used to qualify entity ids is resolved from the loaded agencies. Edges
+ * always point from a type to one listed before it in the entity class list
+ * (a reference to a type that is read later is reversed), so the graph is
+ * acyclic and any schedule that respects it observes the same entity store
+ * contents for each reference as the sequential reader does.
+ */
+class EntityDependencyGraph {
+
+  private final Map<Class<?>, Set<Class<?>>> _dependenciesByType = new HashMap<Class<?>, Set<Class<?>>>();
+
+  private final Map<Class<?>, List<Class<?>>> _dependentsByType = new HashMap<Class<?>, List<Class<?>>>();
+
+  public static EntityDependencyGraph create(List<Class<?>> entityClasses,
+      EntitySchemaFactory schemaFactory) {
+
+    EntityDependencyGraph graph = new EntityDependencyGraph();
+
+    Map<Class<?>, Integer> positions = new HashMap<Class<?>, Integer>();
+    for (Class<?> entityClass : entityClasses) {
+      positions.put(entityClass, positions.size());
+      graph._dependenciesByType.put(entityClass,
+          new LinkedHashSet<Class<?>>());
+      graph._dependentsByType.put(entityClass, new ArrayList<Class<?>>());
+    }
+
+    for (Class<?> entityClass : entityClasses) {
+      graph.addReference(entityClass, Agency.class, positions);
+      EntitySchema schema = schemaFactory.getSchema(entityClass);
+      for (FieldMapping field : schema.getFields()) {
+        if (field instanceof EntityReferenceFieldMapping) {
+          Class<?> referencedType = ((EntityReferenceFieldMapping) field).getReferencedEntityType();
+          graph.addReference(entityClass, referencedType, positions);
+        }
+      }
+    }
+
+    return graph;
+  }
+
+  /**
+   * @param entityType
+   * @return the entity types that must be completely read before the specified
+   *         type can be read
+   */
+  public Set<Class<?>> getDependencies(Class<?> entityType) {
+    return Collections.unmodifiableSet(_dependenciesByType.get(entityType));
+  }
+
+  /**
+   * @param entityType
+   * @return the entity types that directly depend on the specified type
+   */
+  public List<Class<?>> getDependents(Class<?> entityType) {
+    return Collections.unmodifiableList(_dependentsByType.get(entityType));
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void addReference(Class<?> entityType, Class<?> referencedType,
+      Map<Class<?>, Integer> positions) {
+    Integer position = positions.get(entityType);
+    Integer referencedPosition = positions.get(referencedType);
+    if (referencedPosition == null || referencedPosition.equals(position))
+      return;
+    if (referencedPosition < position)
+      addDependency(entityType, referencedType);
+    else
+      addDependency(referencedType, entityType);
+  }
+
+  private void addDependency(Class<?> entityType, Class<?> dependency) {
+    if (_dependenciesByType.get(entityType).add(dependency))
+      _dependentsByType.get(dependency).add(entityType);
+  }
+}
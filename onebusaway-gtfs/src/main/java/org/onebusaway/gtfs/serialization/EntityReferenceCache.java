@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.onebusaway.gtfs.model.AgencyAndId;
+
+/**
+ * Resolves references to entities of a type, as they appear in a GTFS file,
+ * to the referenced entities. A reference is resolved as usual through
+ * {@link GtfsReaderContext#getAgencyForEntity(Class, String)} and
+ * {@link GtfsReaderContext#getEntity(Class, java.io.Serializable)}. Only when
+ * the reader caches entity references (see
+ * {@link GtfsReader#setCacheEntityReferences(boolean)}) does the raw id then
+ * map straight to the entity. The cache is safe to use from several threads
+ * at once.
+ * 
+ * Callers resolving many references, such as the entity field mappings, keep
+ * the last reference they resolved along with the cache, and reuse it for the
+ * same raw id as long as the cache remains {@link #isValid()}. That check
+ * needs no hash lookup, whether or not entities are cached by id.
+ */
+public final class EntityReferenceCache {
+
+  private final GtfsReaderContext _context;
+
+  private final Class<?> _entityType;
+
+  private final ConcurrentMap<String, Object> _entitiesById;
+
+  private volatile boolean _valid;
+
+  EntityReferenceCache(GtfsReaderContext context, Class<?> entityType,
+      boolean cached) {
+    this(context, entityType, cached, cached);
+  }
+
+  /**
+   * @param valid whether the cache starts out valid, which lets callers reuse
+   *          the last reference they resolved
+   * @param cacheEntities whether resolved entities are kept by raw id
+   */
+  EntityReferenceCache(GtfsReaderContext context, Class<?> entityType,
+      boolean valid, boolean cacheEntities) {
+    _context = context;
+    _entityType = entityType;
+    _entitiesById = cacheEntities ? new ConcurrentHashMap<String, Object>()
+        : null;
+    _valid = valid;
+  }
+
+  /**
+   * @return the cache of the context for the entity type, or, if the context
+   *         does not cache references, one that resolves every reference
+   *         through the context and is never valid
+   */
+  public static EntityReferenceCache get(GtfsReaderContext context,
+      Class<?> entityType) {
+    if (context instanceof EntityReferenceResolver)
+      return ((EntityReferenceResolver) context).getEntityReferenceCache(
+          entityType);
+    return new EntityReferenceCache(context, entityType, false);
+  }
+
+  public GtfsReaderContext getContext() {
+    return _context;
+  }
+
+  /**
+   * @return true until the entities of the type may have changed, after which
+   *         references resolved through this cache must be resolved again
+   */
+  public boolean isValid() {
+    return _valid;
+  }
+
+  /**
+   * @param entityId the raw id of the referenced entity
+   * @return the referenced entity, or null if it is not in the entity store
+   * @throws EntityReferenceNotFoundException if no entity of the type with the
+   *           id has been read
+   */
+  public Object resolve(String entityId) {
+    if (_entitiesById != null) {
+      Object entity = _entitiesById.get(entityId);
+      if (entity != null)
+        return entity;
+    }
+    String agencyId = _context.getAgencyForEntity(_entityType, entityId);
+    Object entity = _context.getEntity(_entityType, new AgencyAndId(agencyId,
+        entityId));
+    if (entity != null && _entitiesById != null)
+      _entitiesById.put(entityId, entity);
+    return entity;
+  }
+
+  void invalidate() {
+    _valid = false;
+  }
+}
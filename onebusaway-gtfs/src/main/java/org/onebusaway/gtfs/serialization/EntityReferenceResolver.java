@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+/**
+ * Implemented by a {@link GtfsReaderContext} that caches the resolution of
+ * entity references, such as the {@link GtfsReader} context.
+ * 
+ * @see EntityReferenceCache#get(GtfsReaderContext, Class)
+ */
+public interface EntityReferenceResolver {
+
+  /**
+   * @param entityType the referenced entity type
+   * @return the cache of the references to entities of the type, which is
+   *         invalidated once the entities of the type may change
+   */
+  public EntityReferenceCache getEntityReferenceCache(Class<?> entityType);
+}
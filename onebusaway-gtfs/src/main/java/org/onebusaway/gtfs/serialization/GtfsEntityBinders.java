@@ -0,0 +1,785 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.csv_entities.exceptions.MissingRequiredFieldException;
+import org.onebusaway.csv_entities.schema.AbstractFieldMapping;
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.FareRule;
+import org.onebusaway.gtfs.model.FeedInfo;
+import org.onebusaway.gtfs.model.Frequency;
+import org.onebusaway.gtfs.model.Pathway;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.ServiceCalendar;
+import org.onebusaway.gtfs.model.ServiceCalendarDate;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Transfer;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.mappings.AgencyNotFoundForRouteException;
+
+/**
+ * The {@link EntityBinder} of each GTFS model class read as individual
+ * entities. Stop times and shape points have packed readers of their own, and
+ * are read as entities through the entity schema when they are not packed.
+ */
+final class GtfsEntityBinders {
+
+  private static EntitySchemaFactory _defaultSchemaFactory = null;
+
+  private static final Map<Class<?>, Set<String>> _defaultFieldsByType = new HashMap<Class<?>, Set<String>>();
+
+  private GtfsEntityBinders() {
+
+  }
+
+  /**
+   * @return a binder for the entity type passing its entities to the handler,
+   *         or null if the type has no binder
+   */
+  public static EntityBinder<?> create(Class<?> entityClass,
+      GtfsReaderContext context, EntityHandler handler) {
+    if (entityClass.equals(Agency.class))
+      return new AgencyBinder(context, handler);
+    if (entityClass.equals(Route.class))
+      return new RouteBinder(context, handler);
+    if (entityClass.equals(Stop.class))
+      return new StopBinder(context, handler);
+    if (entityClass.equals(Trip.class))
+      return new TripBinder(context, handler);
+    if (entityClass.equals(ServiceCalendar.class))
+      return new ServiceCalendarBinder(context, handler);
+    if (entityClass.equals(ServiceCalendarDate.class))
+      return new ServiceCalendarDateBinder(context, handler);
+    if (entityClass.equals(Frequency.class))
+      return new FrequencyBinder(context, handler);
+    if (entityClass.equals(Transfer.class))
+      return new TransferBinder(context, handler);
+    if (entityClass.equals(Pathway.class))
+      return new PathwayBinder(context, handler);
+    if (entityClass.equals(FareAttribute.class))
+      return new FareAttributeBinder(context, handler);
+    if (entityClass.equals(FareRule.class))
+      return new FareRuleBinder(context, handler);
+    if (entityClass.equals(FeedInfo.class))
+      return new FeedInfoBinder(context, handler);
+    return null;
+  }
+
+  /**
+   * Compares the entity schema in use with the default schema of its entity
+   * type, which is what the binder of the type implements.
+   *
+   * @return the fields of the schema added to the default ones, which are left
+   *         to the schema, or null if fields of the default schema were
+   *         changed or removed, or the fields have a fixed order, in which
+   *         case the binder can't be used
+   */
+  public static List<FieldMapping> getCustomFields(EntitySchema schema) {
+
+    if (!schema.getFieldsInOrder().isEmpty())
+      return null;
+
+    Set<String> defaultFields = getDefaultFields(schema.getEntityClass());
+    Set<String> boundFields = new HashSet<String>();
+    List<FieldMapping> customFields = new ArrayList<FieldMapping>();
+
+    for (FieldMapping field : schema.getFields()) {
+      String key = getFieldKey(field);
+      if (defaultFields.contains(key))
+        boundFields.add(key);
+      else
+        customFields.add(field);
+    }
+
+    if (!boundFields.equals(defaultFields))
+      return null;
+    return customFields;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static synchronized Set<String> getDefaultFields(
+      Class<?> entityClass) {
+    Set<String> fields = _defaultFieldsByType.get(entityClass);
+    if (fields == null) {
+      if (_defaultSchemaFactory == null)
+        _defaultSchemaFactory = GtfsEntitySchemaFactory.createEntitySchemaFactory();
+      fields = new HashSet<String>();
+      EntitySchema schema = _defaultSchemaFactory.getSchema(entityClass);
+      for (FieldMapping field : schema.getFields())
+        fields.add(getFieldKey(field));
+      _defaultFieldsByType.put(entityClass, fields);
+    }
+    return fields;
+  }
+
+  /**
+   * @return a key identifying how a field is read: its mapping implementation,
+   *         its csv fields and the property it sets
+   */
+  private static String getFieldKey(FieldMapping field) {
+    List<String> csvFieldNames = new ArrayList<String>();
+    field.getCSVFieldNames(csvFieldNames);
+    StringBuilder key = new StringBuilder(field.getClass().getName());
+    key.append(csvFieldNames);
+    if (field instanceof AbstractFieldMapping)
+      key.append(((AbstractFieldMapping) field).getObjFieldName());
+    return key.toString();
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class AgencyBinder extends EntityBinder<Agency> {
+
+    private static final String[] COLUMN_NAMES = {
+        "agency_id", "agency_name", "agency_url", "agency_timezone",
+        "agency_lang", "agency_phone", "agency_fare_url"};
+
+    private static final int AGENCY_ID = 0;
+
+    private static final int AGENCY_NAME = 1;
+
+    private static final int AGENCY_URL = 2;
+
+    private static final int AGENCY_TIMEZONE = 3;
+
+    private static final int AGENCY_LANG = 4;
+
+    private static final int AGENCY_PHONE = 5;
+
+    private static final int AGENCY_FARE_URL = 6;
+
+    public AgencyBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Agency.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Agency> newBinder(EntityHandler handler) {
+      return new AgencyBinder(_context, handler);
+    }
+
+    @Override
+    protected Agency bind(CsvRow row) {
+      Agency agency = new Agency();
+      String id = getValue(row, AGENCY_ID);
+      if (id != null)
+        agency.setId(_context.getTranslatedAgencyId(id));
+      agency.setName(getRequiredValue(row, AGENCY_NAME));
+      agency.setUrl(getRequiredValue(row, AGENCY_URL));
+      agency.setTimezone(getRequiredValue(row, AGENCY_TIMEZONE));
+      agency.setLang(getValue(row, AGENCY_LANG));
+      agency.setPhone(getValue(row, AGENCY_PHONE));
+      agency.setFareUrl(getValue(row, AGENCY_FARE_URL));
+      return agency;
+    }
+  }
+
+  private static class RouteBinder extends EntityBinder<Route> {
+
+    private static final String[] COLUMN_NAMES = {
+        "agency_id", "route_id", "route_short_name", "route_long_name",
+        "route_type", "route_desc", "route_url", "route_color",
+        "route_text_color", "route_bikes_allowed", "bikes_allowed",
+        "competent_authority", "short_name_sortable"};
+
+    private static final int AGENCY_ID = 0;
+
+    private static final int ROUTE_ID = 1;
+
+    private static final int ROUTE_SHORT_NAME = 2;
+
+    private static final int ROUTE_LONG_NAME = 3;
+
+    private static final int ROUTE_TYPE = 4;
+
+    private static final int ROUTE_DESC = 5;
+
+    private static final int ROUTE_URL = 6;
+
+    private static final int ROUTE_COLOR = 7;
+
+    private static final int ROUTE_TEXT_COLOR = 8;
+
+    private static final int ROUTE_BIKES_ALLOWED = 9;
+
+    private static final int BIKES_ALLOWED = 10;
+
+    private static final int COMPETENT_AUTHORITY = 11;
+
+    private static final int SHORT_NAME_SORTABLE = 12;
+
+    public RouteBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Route.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Route> newBinder(EntityHandler handler) {
+      return new RouteBinder(_context, handler);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    protected Route bind(CsvRow row) {
+      Route route = new Route();
+      route.setAgency(getAgency(row, route));
+      route.setId(getId(row, ROUTE_ID, route.getAgency().getId(), true));
+      route.setShortName(getValue(row, ROUTE_SHORT_NAME));
+      route.setLongName(getValue(row, ROUTE_LONG_NAME));
+      route.setType(getRequiredInt(row, ROUTE_TYPE));
+      route.setDesc(getValue(row, ROUTE_DESC));
+      route.setUrl(getValue(row, ROUTE_URL));
+      route.setColor(getValue(row, ROUTE_COLOR));
+      route.setTextColor(getValue(row, ROUTE_TEXT_COLOR));
+      route.setRouteBikesAllowed(getInt(row, ROUTE_BIKES_ALLOWED,
+          route.getRouteBikesAllowed()));
+      route.setBikesAllowed(getInt(row, BIKES_ALLOWED,
+          route.getBikesAllowed()));
+      route.setCompetentAuthority(getValue(row, COMPETENT_AUTHORITY));
+      route.setShortNameSortable(getValue(row, SHORT_NAME_SORTABLE));
+      return route;
+    }
+
+    /**
+     * Resolves the agency of a route as RouteAgencyFieldMappingFactory does:
+     * the agency with the translated agency id, or the only agency of the
+     * feed when the route has no agency id.
+     */
+    private Agency getAgency(CsvRow row, Route route) {
+      String agencyId = getValue(row, AGENCY_ID);
+      List<Agency> agencies = _context.getAgencies();
+      if (agencyId == null) {
+        if (agencies.isEmpty())
+          throw new AgencyNotFoundForRouteException(Route.class, route);
+        if (agencies.size() > 1)
+          throw new MissingRequiredFieldException(Route.class,
+              getColumnName(AGENCY_ID));
+        return agencies.get(0);
+      }
+      agencyId = _context.getTranslatedAgencyId(agencyId);
+      for (Agency agency : agencies) {
+        if (agency.getId().equals(agencyId))
+          return agency;
+      }
+      throw new AgencyNotFoundForRouteException(Route.class, route, agencyId);
+    }
+  }
+
+  private static class StopBinder extends EntityBinder<Stop> {
+
+    private static final String[] COLUMN_NAMES = {
+        "stop_id", "stop_name", "stop_lat", "stop_lon", "stop_code",
+        "stop_desc", "zone_id", "stop_url", "location_type", "parent_station",
+        "wheelchair_boarding", "stop_direction", "stop_timezone",
+        "vehicle_type", "platform_code", "trips_aggregated"};
+
+    private static final int STOP_ID = 0;
+
+    private static final int STOP_NAME = 1;
+
+    private static final int STOP_LAT = 2;
+
+    private static final int STOP_LON = 3;
+
+    private static final int STOP_CODE = 4;
+
+    private static final int STOP_DESC = 5;
+
+    private static final int ZONE_ID = 6;
+
+    private static final int STOP_URL = 7;
+
+    private static final int LOCATION_TYPE = 8;
+
+    private static final int PARENT_STATION = 9;
+
+    private static final int WHEELCHAIR_BOARDING = 10;
+
+    private static final int STOP_DIRECTION = 11;
+
+    private static final int STOP_TIMEZONE = 12;
+
+    private static final int VEHICLE_TYPE = 13;
+
+    private static final int PLATFORM_CODE = 14;
+
+    private static final int TRIPS_AGGREGATED = 15;
+
+    public StopBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Stop.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Stop> newBinder(EntityHandler handler) {
+      return new StopBinder(_context, handler);
+    }
+
+    @Override
+    protected Stop bind(CsvRow row) {
+      Stop stop = new Stop();
+      stop.setId(getId(row, STOP_ID, _context.getDefaultAgencyId(), true));
+      stop.setName(getRequiredValue(row, STOP_NAME));
+      stop.setLat(getRequiredDouble(row, STOP_LAT));
+      stop.setLon(getRequiredDouble(row, STOP_LON));
+      stop.setCode(getValue(row, STOP_CODE));
+      stop.setDesc(getValue(row, STOP_DESC));
+      stop.setZoneId(getValue(row, ZONE_ID));
+      stop.setUrl(getValue(row, STOP_URL));
+      stop.setLocationType(getInt(row, LOCATION_TYPE, stop.getLocationType()));
+      stop.setParentStation(getValue(row, PARENT_STATION));
+      stop.setWheelchairBoarding(getInt(row, WHEELCHAIR_BOARDING,
+          stop.getWheelchairBoarding()));
+      stop.setDirection(getValue(row, STOP_DIRECTION));
+      stop.setTimezone(getValue(row, STOP_TIMEZONE));
+      stop.setVehicleType(getInt(row, VEHICLE_TYPE, stop.getVehicleType()));
+      stop.setPlatformCode(getValue(row, PLATFORM_CODE));
+      stop.setTripsAggregated(getValue(row, TRIPS_AGGREGATED));
+      return stop;
+    }
+  }
+
+  private static class TripBinder extends EntityBinder<Trip> {
+
+    private static final String[] COLUMN_NAMES = {
+        "route_id", "trip_id", "service_id", "trip_short_name",
+        "trip_headsign", "route_short_name", "direction_id", "block_id",
+        "shape_id", "wheelchair_accessible", "trip_bikes_allowed",
+        "bikes_allowed", "trip_long_name", "direction_code", "primary_trip",
+        "route_type"};
+
+    private static final int ROUTE_ID = 0;
+
+    private static final int TRIP_ID = 1;
+
+    private static final int SERVICE_ID = 2;
+
+    private static final int TRIP_SHORT_NAME = 3;
+
+    private static final int TRIP_HEADSIGN = 4;
+
+    private static final int ROUTE_SHORT_NAME = 5;
+
+    private static final int DIRECTION_ID = 6;
+
+    private static final int BLOCK_ID = 7;
+
+    private static final int SHAPE_ID = 8;
+
+    private static final int WHEELCHAIR_ACCESSIBLE = 9;
+
+    private static final int TRIP_BIKES_ALLOWED = 10;
+
+    private static final int BIKES_ALLOWED = 11;
+
+    private static final int TRIP_LONG_NAME = 12;
+
+    private static final int DIRECTION_CODE = 13;
+
+    private static final int PRIMARY_TRIP = 14;
+
+    private static final int ROUTE_TYPE = 15;
+
+    public TripBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Trip.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Trip> newBinder(EntityHandler handler) {
+      return new TripBinder(_context, handler);
+    }
+
+    @SuppressWarnings("deprecation")
+    @Override
+    protected Trip bind(CsvRow row) {
+      Trip trip = new Trip();
+      trip.setRoute(getReference(row, ROUTE_ID, Route.class, true));
+      String routeAgencyId = trip.getRoute().getAgency().getId();
+      trip.setId(getId(row, TRIP_ID, routeAgencyId, true));
+      String agencyId = _context.getDefaultAgencyId();
+      trip.setServiceId(getId(row, SERVICE_ID, agencyId, true));
+      trip.setTripShortName(getValue(row, TRIP_SHORT_NAME));
+      trip.setTripHeadsign(getValue(row, TRIP_HEADSIGN));
+      trip.setRouteShortName(getValue(row, ROUTE_SHORT_NAME));
+      trip.setDirectionId(getValue(row, DIRECTION_ID));
+      trip.setBlockId(getValue(row, BLOCK_ID));
+      trip.setShapeId(getId(row, SHAPE_ID, agencyId, false));
+      trip.setWheelchairAccessible(getInt(row, WHEELCHAIR_ACCESSIBLE,
+          trip.getWheelchairAccessible()));
+      trip.setTripBikesAllowed(getInt(row, TRIP_BIKES_ALLOWED,
+          trip.getTripBikesAllowed()));
+      trip.setBikesAllowed(getInt(row, BIKES_ALLOWED, trip.getBikesAllowed()));
+      trip.setTripLongName(getValue(row, TRIP_LONG_NAME));
+      trip.setDirectionCode(getValue(row, DIRECTION_CODE));
+      trip.setPrimaryTrip(getInt(row, PRIMARY_TRIP, trip.getPrimaryTrip()));
+      trip.setRouteType(getInt(row, ROUTE_TYPE, trip.getRouteType()));
+      return trip;
+    }
+  }
+
+  private static class ServiceCalendarBinder extends
+      EntityBinder<ServiceCalendar> {
+
+    private static final String[] COLUMN_NAMES = {
+        "service_id", "monday", "tuesday", "wednesday", "thursday", "friday",
+        "saturday", "sunday", "start_date", "end_date"};
+
+    private static final int SERVICE_ID = 0;
+
+    private static final int MONDAY = 1;
+
+    private static final int TUESDAY = 2;
+
+    private static final int WEDNESDAY = 3;
+
+    private static final int THURSDAY = 4;
+
+    private static final int FRIDAY = 5;
+
+    private static final int SATURDAY = 6;
+
+    private static final int SUNDAY = 7;
+
+    private static final int START_DATE = 8;
+
+    private static final int END_DATE = 9;
+
+    public ServiceCalendarBinder(GtfsReaderContext context,
+        EntityHandler handler) {
+      super(ServiceCalendar.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<ServiceCalendar> newBinder(EntityHandler handler) {
+      return new ServiceCalendarBinder(_context, handler);
+    }
+
+    @Override
+    protected ServiceCalendar bind(CsvRow row) {
+      ServiceCalendar calendar = new ServiceCalendar();
+      calendar.setServiceId(getId(row, SERVICE_ID,
+          _context.getDefaultAgencyId(), true));
+      calendar.setMonday(getRequiredInt(row, MONDAY));
+      calendar.setTuesday(getRequiredInt(row, TUESDAY));
+      calendar.setWednesday(getRequiredInt(row, WEDNESDAY));
+      calendar.setThursday(getRequiredInt(row, THURSDAY));
+      calendar.setFriday(getRequiredInt(row, FRIDAY));
+      calendar.setSaturday(getRequiredInt(row, SATURDAY));
+      calendar.setSunday(getRequiredInt(row, SUNDAY));
+      calendar.setStartDate(getServiceDate(row, START_DATE, true));
+      calendar.setEndDate(getServiceDate(row, END_DATE, true));
+      return calendar;
+    }
+  }
+
+  private static class ServiceCalendarDateBinder extends
+      EntityBinder<ServiceCalendarDate> {
+
+    private static final String[] COLUMN_NAMES = {
+        "service_id", "date", "exception_type"};
+
+    private static final int SERVICE_ID = 0;
+
+    private static final int DATE = 1;
+
+    private static final int EXCEPTION_TYPE = 2;
+
+    public ServiceCalendarDateBinder(GtfsReaderContext context,
+        EntityHandler handler) {
+      super(ServiceCalendarDate.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<ServiceCalendarDate> newBinder(
+        EntityHandler handler) {
+      return new ServiceCalendarDateBinder(_context, handler);
+    }
+
+    @Override
+    protected ServiceCalendarDate bind(CsvRow row) {
+      ServiceCalendarDate calendarDate = new ServiceCalendarDate();
+      calendarDate.setServiceId(getId(row, SERVICE_ID,
+          _context.getDefaultAgencyId(), true));
+      calendarDate.setDate(getServiceDate(row, DATE, true));
+      calendarDate.setExceptionType(getRequiredInt(row, EXCEPTION_TYPE));
+      return calendarDate;
+    }
+  }
+
+  private static class FrequencyBinder extends EntityBinder<Frequency> {
+
+    private static final String[] COLUMN_NAMES = {
+        "trip_id", "start_time", "end_time", "headway_secs", "exact_times",
+        "label_only"};
+
+    private static final int TRIP_ID = 0;
+
+    private static final int START_TIME = 1;
+
+    private static final int END_TIME = 2;
+
+    private static final int HEADWAY_SECS = 3;
+
+    private static final int EXACT_TIMES = 4;
+
+    private static final int LABEL_ONLY = 5;
+
+    public FrequencyBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Frequency.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Frequency> newBinder(EntityHandler handler) {
+      return new FrequencyBinder(_context, handler);
+    }
+
+    @Override
+    protected Frequency bind(CsvRow row) {
+      Frequency frequency = new Frequency();
+      frequency.setTrip(getReference(row, TRIP_ID, Trip.class, true));
+      frequency.setStartTime(getRequiredTime(row, START_TIME));
+      frequency.setEndTime(getRequiredTime(row, END_TIME));
+      frequency.setHeadwaySecs(getRequiredInt(row, HEADWAY_SECS));
+      frequency.setExactTimes(getInt(row, EXACT_TIMES,
+          frequency.getExactTimes()));
+      frequency.setLabelOnly(getInt(row, LABEL_ONLY, frequency.getLabelOnly()));
+      return frequency;
+    }
+  }
+
+  private static class TransferBinder extends EntityBinder<Transfer> {
+
+    private static final String[] COLUMN_NAMES = {
+        "from_stop_id", "from_route_id", "from_trip_id", "to_stop_id",
+        "to_route_id", "to_trip_id", "transfer_type", "min_transfer_time"};
+
+    private static final int FROM_STOP_ID = 0;
+
+    private static final int FROM_ROUTE_ID = 1;
+
+    private static final int FROM_TRIP_ID = 2;
+
+    private static final int TO_STOP_ID = 3;
+
+    private static final int TO_ROUTE_ID = 4;
+
+    private static final int TO_TRIP_ID = 5;
+
+    private static final int TRANSFER_TYPE = 6;
+
+    private static final int MIN_TRANSFER_TIME = 7;
+
+    public TransferBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Transfer.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Transfer> newBinder(EntityHandler handler) {
+      return new TransferBinder(_context, handler);
+    }
+
+    @Override
+    protected Transfer bind(CsvRow row) {
+      Transfer transfer = new Transfer();
+      transfer.setFromStop(getReference(row, FROM_STOP_ID, Stop.class, true));
+      transfer.setFromRoute(getReference(row, FROM_ROUTE_ID, Route.class,
+          false));
+      transfer.setFromTrip(getReference(row, FROM_TRIP_ID, Trip.class, false));
+      transfer.setToStop(getReference(row, TO_STOP_ID, Stop.class, true));
+      transfer.setToRoute(getReference(row, TO_ROUTE_ID, Route.class, false));
+      transfer.setToTrip(getReference(row, TO_TRIP_ID, Trip.class, false));
+      transfer.setTransferType(getRequiredInt(row, TRANSFER_TYPE));
+      transfer.setMinTransferTime(getInt(row, MIN_TRANSFER_TIME,
+          transfer.getMinTransferTime()));
+      return transfer;
+    }
+  }
+
+  private static class PathwayBinder extends EntityBinder<Pathway> {
+
+    private static final String[] COLUMN_NAMES = {
+        "pathway_id", "from_stop_id", "to_stop_id", "traversal_time",
+        "wheelchair_traversal_time"};
+
+    private static final int PATHWAY_ID = 0;
+
+    private static final int FROM_STOP_ID = 1;
+
+    private static final int TO_STOP_ID = 2;
+
+    private static final int TRAVERSAL_TIME = 3;
+
+    private static final int WHEELCHAIR_TRAVERSAL_TIME = 4;
+
+    public PathwayBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(Pathway.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<Pathway> newBinder(EntityHandler handler) {
+      return new PathwayBinder(_context, handler);
+    }
+
+    @Override
+    protected Pathway bind(CsvRow row) {
+      Pathway pathway = new Pathway();
+      pathway.setId(getId(row, PATHWAY_ID, _context.getDefaultAgencyId(),
+          true));
+      pathway.setFromStop(getReference(row, FROM_STOP_ID, Stop.class, true));
+      pathway.setToStop(getReference(row, TO_STOP_ID, Stop.class, true));
+      pathway.setTraversalTime(getRequiredInt(row, TRAVERSAL_TIME));
+      pathway.setWheelchairTraversalTime(getInt(row,
+          WHEELCHAIR_TRAVERSAL_TIME, pathway.getWheelchairTraversalTime()));
+      return pathway;
+    }
+  }
+
+  private static class FareAttributeBinder extends EntityBinder<FareAttribute> {
+
+    private static final String[] COLUMN_NAMES = {
+        "fare_id", "price", "currency_type", "payment_method", "transfers",
+        "transfer_duration", "journey_duration"};
+
+    private static final int FARE_ID = 0;
+
+    private static final int PRICE = 1;
+
+    private static final int CURRENCY_TYPE = 2;
+
+    private static final int PAYMENT_METHOD = 3;
+
+    private static final int TRANSFERS = 4;
+
+    private static final int TRANSFER_DURATION = 5;
+
+    private static final int JOURNEY_DURATION = 6;
+
+    public FareAttributeBinder(GtfsReaderContext context,
+        EntityHandler handler) {
+      super(FareAttribute.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<FareAttribute> newBinder(EntityHandler handler) {
+      return new FareAttributeBinder(_context, handler);
+    }
+
+    @Override
+    protected FareAttribute bind(CsvRow row) {
+      FareAttribute fare = new FareAttribute();
+      fare.setId(getId(row, FARE_ID, _context.getDefaultAgencyId(), true));
+      fare.setPrice(getRequiredFloat(row, PRICE));
+      fare.setCurrencyType(getRequiredValue(row, CURRENCY_TYPE));
+      fare.setPaymentMethod(getRequiredInt(row, PAYMENT_METHOD));
+      fare.setTransfers(getInt(row, TRANSFERS, fare.getTransfers()));
+      fare.setTransferDuration(getInt(row, TRANSFER_DURATION,
+          fare.getTransferDuration()));
+      fare.setJourneyDuration(getInt(row, JOURNEY_DURATION,
+          fare.getJourneyDuration()));
+      return fare;
+    }
+  }
+
+  private static class FareRuleBinder extends EntityBinder<FareRule> {
+
+    private static final String[] COLUMN_NAMES = {
+        "fare_id", "route_id", "origin_id", "destination_id", "contains_id"};
+
+    private static final int FARE_ID = 0;
+
+    private static final int ROUTE_ID = 1;
+
+    private static final int ORIGIN_ID = 2;
+
+    private static final int DESTINATION_ID = 3;
+
+    private static final int CONTAINS_ID = 4;
+
+    public FareRuleBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(FareRule.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<FareRule> newBinder(EntityHandler handler) {
+      return new FareRuleBinder(_context, handler);
+    }
+
+    @Override
+    protected FareRule bind(CsvRow row) {
+      FareRule rule = new FareRule();
+      rule.setFare(getReference(row, FARE_ID, FareAttribute.class, true));
+      rule.setRoute(getReference(row, ROUTE_ID, Route.class, false));
+      rule.setOriginId(getValue(row, ORIGIN_ID));
+      rule.setDestinationId(getValue(row, DESTINATION_ID));
+      rule.setContainsId(getValue(row, CONTAINS_ID));
+      return rule;
+    }
+  }
+
+  private static class FeedInfoBinder extends EntityBinder<FeedInfo> {
+
+    private static final String[] COLUMN_NAMES = {
+        "feed_publisher_name", "feed_publisher_url", "feed_lang",
+        "feed_start_date", "feed_end_date", "feed_version"};
+
+    private static final int FEED_PUBLISHER_NAME = 0;
+
+    private static final int FEED_PUBLISHER_URL = 1;
+
+    private static final int FEED_LANG = 2;
+
+    private static final int FEED_START_DATE = 3;
+
+    private static final int FEED_END_DATE = 4;
+
+    private static final int FEED_VERSION = 5;
+
+    public FeedInfoBinder(GtfsReaderContext context, EntityHandler handler) {
+      super(FeedInfo.class, COLUMN_NAMES, context, handler);
+    }
+
+    @Override
+    protected EntityBinder<FeedInfo> newBinder(EntityHandler handler) {
+      return new FeedInfoBinder(_context, handler);
+    }
+
+    @Override
+    protected FeedInfo bind(CsvRow row) {
+      FeedInfo feedInfo = new FeedInfo();
+      feedInfo.setPublisherName(getRequiredValue(row, FEED_PUBLISHER_NAME));
+      feedInfo.setPublisherUrl(getRequiredValue(row, FEED_PUBLISHER_URL));
+      feedInfo.setLang(getRequiredValue(row, FEED_LANG));
+      feedInfo.setStartDate(getServiceDate(row, FEED_START_DATE, false));
+      feedInfo.setEndDate(getServiceDate(row, FEED_END_DATE, false));
+      feedInfo.setVersion(getValue(row, FEED_VERSION));
+      return feedInfo;
+    }
+  }
+}
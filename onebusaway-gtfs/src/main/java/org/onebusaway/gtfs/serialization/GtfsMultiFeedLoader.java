@@ -0,0 +1,330 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads a number of GTFS feeds concurrently, each into its own
+ * {@link GtfsRelationalDaoImpl} with its own {@link GtfsReader}. At most
+ * {@link #setThreadCount(int)} feeds are read at a time, unless an executor is
+ * supplied with {@link #setExecutor(ExecutorService)}.
+ *
+ * A feed that fails to load does not affect the others: its
+ * {@link FeedResult} holds the failure instead of a DAO, and the remaining
+ * feeds are loaded as usual.
+ *
+ * The readers and DAOs are created, their input location is opened and they
+ * are passed to the {@link FeedConfigurer} on the calling thread before any
+ * feed is read. The bean introspection cache of the csv entities library,
+ * which is static and not thread-safe, is then populated for the entity types
+ * of every reader, so that the concurrent reads only ever look it up.
+ */
+public class GtfsMultiFeedLoader {
+
+  private static Logger _log = LoggerFactory.getLogger(GtfsMultiFeedLoader.class);
+
+  private int _threadCount = Runtime.getRuntime().availableProcessors();
+
+  private ExecutorService _executor = null;
+
+  private FeedConfigurer _feedConfigurer = null;
+
+  private boolean _collectStats = false;
+
+  /**
+   * @param threadCount the maximum number of feeds read at a time, when no
+   *          executor is set. Defaults to the number of available processors.
+   */
+  public void setThreadCount(int threadCount) {
+    if (threadCount < 1)
+      throw new IllegalArgumentException("threadCount must be positive");
+    _threadCount = threadCount;
+  }
+
+  /**
+   * @param executor the executor feeds are read on. If not set, a fixed thread
+   *          pool of {@link #setThreadCount(int)} threads is created and shut
+   *          down for each call to {@link #load(List)}.
+   */
+  public void setExecutor(ExecutorService executor) {
+    _executor = executor;
+  }
+
+  /**
+   * @param feedConfigurer customizes the reader and DAO of each feed
+   */
+  public void setFeedConfigurer(FeedConfigurer feedConfigurer) {
+    _feedConfigurer = feedConfigurer;
+  }
+
+  /**
+   * @param collectStats when true, the load statistics of each file are
+   *          collected and available from {@link FeedResult#getStats()}
+   */
+  public void setCollectStats(boolean collectStats) {
+    _collectStats = collectStats;
+  }
+
+  /**
+   * Loads the feeds and waits for all of them to complete.
+   *
+   * @param paths GTFS directories or zip files
+   * @return the result of each feed, in the order of the paths
+   * @throws InterruptedException if interrupted while waiting for the feeds,
+   *           in which case the reads still in progress are cancelled
+   */
+  public Results load(List<File> paths) throws InterruptedException {
+
+    long start = System.nanoTime();
+
+    List<FeedTask> tasks = new ArrayList<FeedTask>();
+    Set<Class<?>> entityClasses = new LinkedHashSet<Class<?>>();
+    for (File path : paths) {
+      FeedTask task = new FeedTask(path);
+      tasks.add(task);
+      entityClasses.addAll(task._reader.getEntityClasses());
+    }
+    GtfsReader.warmBeanWrapperCache(entityClasses);
+
+    ExecutorService executor = _executor;
+    if (executor == null)
+      executor = Executors.newFixedThreadPool(Math.max(1,
+          Math.min(_threadCount, paths.size())));
+
+    List<FeedResult> results = new ArrayList<FeedResult>();
+    List<Future<FeedResult>> futures = new ArrayList<Future<FeedResult>>();
+    try {
+      for (FeedTask task : tasks)
+        futures.add(executor.submit(task));
+
+      for (int i = 0; i < tasks.size(); i++) {
+        try {
+          results.add(futures.get(i).get());
+        } catch (ExecutionException ex) {
+          // Errors are not caught by the task itself
+          results.add(tasks.get(i).failed(ex.getCause()));
+        }
+      }
+    } finally {
+      if (results.size() < tasks.size()) {
+        for (Future<FeedResult> future : futures)
+          future.cancel(true);
+      }
+      if (executor != _executor)
+        executor.shutdown();
+    }
+
+    return new Results(results, System.nanoTime() - start);
+  }
+
+  /**
+   * Customizes the reader and DAO used for a feed, for instance to set a
+   * default agency id or to pack stop times.
+   */
+  public interface FeedConfigurer {
+    public void configure(File path, GtfsReader reader,
+        GtfsRelationalDaoImpl dao) throws Exception;
+  }
+
+  /**
+   * The outcome of loading a single feed.
+   */
+  public static class FeedResult {
+
+    private final File _path;
+
+    private final GtfsRelationalDaoImpl _dao;
+
+    private final Throwable _failure;
+
+    private final long _elapsedNanos;
+
+    private final List<GtfsReaderFileStats> _stats;
+
+    private FeedResult(File path, GtfsRelationalDaoImpl dao, Throwable failure,
+        long elapsedNanos, List<GtfsReaderFileStats> stats) {
+      _path = path;
+      _dao = dao;
+      _failure = failure;
+      _elapsedNanos = elapsedNanos;
+      _stats = stats;
+    }
+
+    public File getPath() {
+      return _path;
+    }
+
+    public boolean isSuccess() {
+      return _failure == null;
+    }
+
+    /**
+     * @return the loaded feed, or null if loading failed
+     */
+    public GtfsRelationalDaoImpl getDao() {
+      return _dao;
+    }
+
+    /**
+     * @return the reason loading failed, or null if it succeeded
+     */
+    public Throwable getFailure() {
+      return _failure;
+    }
+
+    public long getElapsedNanos() {
+      return _elapsedNanos;
+    }
+
+    /**
+     * @return the load statistics of each file of the feed, which are empty
+     *         unless {@link GtfsMultiFeedLoader#setCollectStats(boolean)} is
+     *         enabled
+     */
+    public List<GtfsReaderFileStats> getStats() {
+      return _stats;
+    }
+  }
+
+  /**
+   * The results of all feeds, with aggregate timing.
+   */
+  public static class Results {
+
+    private final List<FeedResult> _feedResults;
+
+    private final long _elapsedNanos;
+
+    private Results(List<FeedResult> feedResults, long elapsedNanos) {
+      _feedResults = Collections.unmodifiableList(feedResults);
+      _elapsedNanos = elapsedNanos;
+    }
+
+    /**
+     * @return the result of each feed, in the order the feeds were given
+     */
+    public List<FeedResult> getFeedResults() {
+      return _feedResults;
+    }
+
+    public List<FeedResult> getFailures() {
+      List<FeedResult> failures = new ArrayList<FeedResult>();
+      for (FeedResult result : _feedResults) {
+        if (!result.isSuccess())
+          failures.add(result);
+      }
+      return failures;
+    }
+
+    /**
+     * @return the wall clock time taken to load all feeds
+     */
+    public long getElapsedNanos() {
+      return _elapsedNanos;
+    }
+
+    /**
+     * @return the sum of the times taken to load each feed, which exceeds
+     *         {@link #getElapsedNanos()} by the degree of concurrency achieved
+     */
+    public long getTotalFeedNanos() {
+      long total = 0;
+      for (FeedResult result : _feedResults)
+        total += result.getElapsedNanos();
+      return total;
+    }
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private class FeedTask implements Callable<FeedResult> {
+
+    private final File _path;
+
+    private final GtfsReader _reader = new GtfsReader();
+
+    private final GtfsRelationalDaoImpl _dao = new GtfsRelationalDaoImpl();
+
+    private final GtfsReaderStatsCollector _stats = new GtfsReaderStatsCollector();
+
+    private Throwable _configurationFailure = null;
+
+    private long _start;
+
+    public FeedTask(File path) {
+      _path = path;
+      _reader.setEntityStore(_dao);
+      if (_collectStats)
+        _reader.addListener(_stats);
+      try {
+        _reader.setInputLocation(path);
+        if (_feedConfigurer != null)
+          _feedConfigurer.configure(path, _reader, _dao);
+      } catch (Exception ex) {
+        _configurationFailure = ex;
+      }
+    }
+
+    @Override
+    public FeedResult call() {
+      _start = System.nanoTime();
+      if (_configurationFailure != null)
+        return failed(_configurationFailure);
+      try {
+        _log.info("loading feed: " + _path);
+        _reader.run();
+      } catch (Exception ex) {
+        return failed(ex);
+      } finally {
+        close();
+      }
+      return new FeedResult(_path, _dao, null, System.nanoTime() - _start,
+          _stats.getStats());
+    }
+
+    public FeedResult failed(Throwable failure) {
+      close();
+      _log.warn("error loading feed: " + _path, failure);
+      long elapsed = _start != 0 ? System.nanoTime() - _start : 0;
+      return new FeedResult(_path, null, failure, elapsed, _stats.getStats());
+    }
+
+    private void close() {
+      try {
+        _reader.close();
+      } catch (Exception ex) {
+        _log.warn("error closing feed: " + _path, ex);
+      }
+    }
+  }
+}
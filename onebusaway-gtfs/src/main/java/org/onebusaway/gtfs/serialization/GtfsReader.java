@@ -16,19 +16,55 @@
  */
 package org.onebusaway.gtfs.serialization;
 
+import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 
 import org.onebusaway.csv_entities.CsvEntityContext;
 import org.onebusaway.csv_entities.CsvEntityReader;
 import org.onebusaway.csv_entities.CsvInputSource;
 import org.onebusaway.csv_entities.CsvTokenizerStrategy;
 import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.csv_entities.FileCsvInputSource;
+import org.onebusaway.csv_entities.IndividualCsvEntityReader;
+import org.onebusaway.csv_entities.TokenizerStrategy;
+import org.onebusaway.csv_entities.ZipFileCsvInputSource;
+import org.onebusaway.csv_entities.exceptions.CsvEntityIOException;
+import org.onebusaway.csv_entities.exceptions.MissingRequiredEntityException;
+import org.onebusaway.csv_entities.schema.AbstractFieldMapping;
+import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
 import org.onebusaway.csv_entities.schema.DefaultEntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.impl.AgencyAndIdTable;
+import org.onebusaway.gtfs.impl.GenericDaoImpl;
+import org.onebusaway.gtfs.impl.GenericMutableDaoWrapper;
 import org.onebusaway.gtfs.impl.GtfsDaoImpl;
 import org.onebusaway.gtfs.model.Agency;
 import org.onebusaway.gtfs.model.AgencyAndId;
@@ -46,6 +82,7 @@ import org.onebusaway.gtfs.model.Stop;
 import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Transfer;
 import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.mappings.EntityReferenceFieldMapping;
 import org.onebusaway.gtfs.services.GenericMutableDao;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -54,6 +91,14 @@ public class GtfsReader extends CsvEntityReader {
 
   private final Logger _log = LoggerFactory.getLogger(GtfsReader.class);
 
+  /**
+   * Files parsed in chunks are split into a few chunks per thread, so that
+   * threads finishing early can pick up the remaining chunks
+   */
+  private static final int CHUNKS_PER_THREAD = 4;
+
+  private static final int MIN_CHUNK_SIZE = 1024 * 1024;
+
   public static final String KEY_CONTEXT = GtfsReader.class.getName()
       + ".context";
 
@@ -65,7 +110,7 @@ public class GtfsReader extends CsvEntityReader {
 
   private List<Agency> _agencies = new ArrayList<Agency>();
 
-  private Map<Class<?>, Map<String, String>> _agencyIdsByEntityClassAndId = new HashMap<Class<?>, Map<String, String>>();
+  private Map<Class<?>, Map<String, String>> _agencyIdsByEntityClassAndId = new ConcurrentHashMap<Class<?>, Map<String, String>>();
 
   private String _defaultAgencyId;
 
@@ -73,6 +118,56 @@ public class GtfsReader extends CsvEntityReader {
 
   private boolean _overwriteDuplicates = false;
 
+  private Set<Class<?>> _streamingEntityClasses = new HashSet<Class<?>>();
+
+  private Set<Class<?>> _lazyEntityClasses = new HashSet<Class<?>>();
+
+  private File _inputLocation = null;
+
+  private boolean _internStrings = false;
+
+  private boolean _parallelLoading = false;
+
+  private ExecutorService _executor = null;
+
+  private TokenizerStrategy _tokenizerStrategy = new CsvTokenizerStrategy();
+
+  private boolean _trimValues = false;
+
+  private boolean _customEntityHandlers = false;
+
+  private boolean _canonicalizeIds = false;
+
+  private Map<Class<?>, List<RawColumnFilter>> _rawColumnFiltersByType = new HashMap<Class<?>, List<RawColumnFilter>>();
+
+  private Map<Class<?>, Set<String>> _droppedIdsByType = new ConcurrentHashMap<Class<?>, Set<String>>();
+
+  private AgencyAndIdTable _idTable = new AgencyAndIdTable();
+
+  private List<GtfsReaderListener> _listeners = new ArrayList<GtfsReaderListener>();
+
+  private int _progressInterval = 100000;
+
+  private final ThreadLocal<LoadStatsRecorder> _loadStats = new ThreadLocal<LoadStatsRecorder>();
+
+  private boolean _presizeEntityStore = false;
+
+  private boolean _compactEntityStore = false;
+
+  private final Map<String, Long> _resourceSizes = new ConcurrentHashMap<String, Long>();
+
+  private boolean _chunkedParsing = false;
+
+  private int _chunkedParsingThreadCount = Runtime.getRuntime().availableProcessors();
+
+  private long _chunkedParsingMinSize = 16 * 1024 * 1024;
+
+  private boolean _entityBinders = false;
+
+  private boolean _cacheEntityReferences = false;
+
+  private final ConcurrentMap<Class<?>, EntityReferenceCache> _entityReferenceCaches = new ConcurrentHashMap<Class<?>, EntityReferenceCache>();
+
   public GtfsReader() {
 
     _entityClasses.add(Agency.class);
@@ -142,6 +237,7 @@ public class GtfsReader extends CsvEntityReader {
 
   public void setEntityStore(GenericMutableDao entityStore) {
     _entityStore = entityStore;
+    clearEntityReferenceCaches();
   }
 
   public List<Class<?>> getEntityClasses() {
@@ -156,6 +252,333 @@ public class GtfsReader extends CsvEntityReader {
     _overwriteDuplicates = overwriteDuplicates;
   }
 
+  /**
+   * Entities of a streaming entity type are passed to the registered
+   * {@link EntityHandler} instances as they are read, but are never saved to
+   * the entity store, so reading them takes constant memory no matter how
+   * many rows the file has. This is useful for one-pass consumers of large
+   * files such as stop_times.txt. Streamed entities are not assigned generated
+   * ids, and since they can't be looked up afterwards, no other entity type
+   * can reference a streaming type: stop times can be streamed, but the trips
+   * and stops they reference must still be stored.
+   * 
+   * @param entityClass
+   */
+  public void addStreamingEntityClass(Class<?> entityClass) {
+    _streamingEntityClasses.add(entityClass);
+  }
+
+  public Set<Class<?>> getStreamingEntityClasses() {
+    return Collections.unmodifiableSet(_streamingEntityClasses);
+  }
+
+  /**
+   * When enabled, every {@link AgencyAndId} read from the feed is replaced by a
+   * canonical instance, so that equal ids (the service id of thousands of
+   * trips, say) share one object. The canonical instances come from
+   * {@link GenericDaoImpl#getIdTable()} when the entity store is a
+   * {@link GenericDaoImpl}, so ids of the same feed read by several readers are
+   * shared too. Canonical ids must not be modified in place. Disabled by
+   * default, since the table keeps an entry for every distinct id for as long
+   * as the entity store, which only pays off on feeds with many repeated ids.
+   * 
+   * @param canonicalizeIds
+   */
+  public void setCanonicalizeIds(boolean canonicalizeIds) {
+    _canonicalizeIds = canonicalizeIds;
+  }
+
+  /**
+   * The entities of a lazy entity type are not read by {@link #run()}: the
+   * file is only read, once, the first time the entity store is asked for
+   * entities of the type. This saves the time and memory needed for files that
+   * a consumer never looks at, such as shapes.txt or transfers.txt.
+   * 
+   * Lazy loading requires an entity store derived from {@link GenericDaoImpl},
+   * and a type that no eagerly read type references: a lazy type that is
+   * referenced by an eagerly read type, or a lazy type with any other entity
+   * store, is read up front as usual. The reader and its registered
+   * {@link EntityHandler} instances are used again for the deferred read. When
+   * the feed was given with {@link #setInputLocation(File)}, the deferred read
+   * opens the feed again, so the reader may be closed in the meantime;
+   * otherwise, the input source must be left open.
+   * 
+   * @param entityClass
+   */
+  public void addLazyEntityClass(Class<?> entityClass) {
+    _lazyEntityClasses.add(entityClass);
+  }
+
+  public Set<Class<?>> getLazyEntityClasses() {
+    return Collections.unmodifiableSet(_lazyEntityClasses);
+  }
+
+  /**
+   * Drops the rows of the entity type's file whose raw value for the specified
+   * column is rejected by the predicate, before an entity is created for them.
+   * Examples are keeping the routes of some agencies with
+   * <code>(Route.class, "agency_id", RawColumnPredicates.in(...))</code>, or
+   * the calendar_dates.txt rows of a service window with
+   * <code>(ServiceCalendarDate.class, "date", RawColumnPredicates.dateBetween(...))</code>.
+   * 
+   * Dropped rows cascade to the files read after them: a row whose reference
+   * column (the route_id of a trip, the trip_id of a stop time or frequency,
+   * and so on) holds the id of a dropped row is dropped as well, so dropping
+   * routes also drops their trips and the stop times of those trips. There is
+   * no cascade through files read before the filtered one, such as
+   * shapes.txt, or through service ids, which are not entity references.
+   * 
+   * Note that the default agency id is that of the first agency that is kept.
+   * 
+   * @param entityClass
+   * @param csvFieldName
+   * @param predicate
+   */
+  public void addRawColumnFilter(Class<?> entityClass, String csvFieldName,
+      RawColumnPredicate predicate) {
+    List<RawColumnFilter> filters = _rawColumnFiltersByType.get(entityClass);
+    if (filters == null) {
+      filters = new ArrayList<RawColumnFilter>();
+      _rawColumnFiltersByType.put(entityClass, filters);
+    }
+    filters.add(new RawColumnFilter(csvFieldName, predicate));
+  }
+
+  /**
+   * When enabled, the number of rows of each entity file is estimated before
+   * it is read, and the entity store is sized for them up front, which avoids
+   * the repeated growth of its maps and packed arrays and the peak memory of
+   * copying them. Rows are counted exactly when the file is read from a
+   * {@link MappedCsvInputSource} buffer, and estimated from a sample of the
+   * file and its size otherwise, when the size is known: for a
+   * {@link MappedCsvInputSource} or a feed given with
+   * {@link #setInputLocation(File)}. This requires an entity store derived
+   * from {@link GenericDaoImpl}.
+   * 
+   * Disabled by default on purpose: an estimate comes from the first rows of
+   * the file, and overshoots when those rows are shorter than the rest. The
+   * maps of the entity store keep the capacity they were sized for until
+   * {@link GenericDaoImpl#compact()}, which only runs when
+   * {@link #setCompactEntityStore(boolean)} is enabled, so a caller that does
+   * not compact could end up holding more heap than without presizing. Enable
+   * both together.
+   * 
+   * @param presizeEntityStore
+   * @see GenericDaoImpl#ensureCapacity(Class, int)
+   */
+  public void setPresizeEntityStore(boolean presizeEntityStore) {
+    _presizeEntityStore = presizeEntityStore;
+  }
+
+  public boolean isPresizeEntityStore() {
+    return _presizeEntityStore;
+  }
+
+  /**
+   * When enabled, {@link #run()} compacts an entity store derived from
+   * {@link GenericDaoImpl} once all entities have been read, trimming its
+   * storage to the entities read and sharing equal strings between them.
+   * 
+   * @param compactEntityStore
+   * @see GenericDaoImpl#compact()
+   */
+  public void setCompactEntityStore(boolean compactEntityStore) {
+    _compactEntityStore = compactEntityStore;
+  }
+
+  /**
+   * Registers a listener that receives the load statistics of each entity
+   * file read: rows, bytes, parse, reference resolution and store times, and
+   * heap growth. Statistics are only gathered while a listener is registered.
+   * 
+   * @param listener
+   * @see GtfsReaderStatsCollector
+   */
+  public void addListener(GtfsReaderListener listener) {
+    _listeners.add(listener);
+  }
+
+  public void removeListener(GtfsReaderListener listener) {
+    _listeners.remove(listener);
+  }
+
+  public int getProgressInterval() {
+    return _progressInterval;
+  }
+
+  /**
+   * @param progressInterval the number of rows between calls to
+   *          {@link GtfsReaderListener#handleProgress(GtfsReaderFileStats)},
+   *          or zero for no progress calls. The default is 100000.
+   */
+  public void setProgressInterval(int progressInterval) {
+    _progressInterval = progressInterval;
+  }
+
+  @Override
+  public void setInputLocation(File path) throws IOException {
+    super.setInputLocation(path);
+    _inputLocation = path;
+  }
+
+  @Override
+  public void setInputSource(CsvInputSource source) {
+    super.setInputSource(source);
+    _inputLocation = null;
+  }
+
+  @Override
+  public void setInternStrings(boolean internStrings) {
+    super.setInternStrings(internStrings);
+    _internStrings = internStrings;
+  }
+
+  @Override
+  public void setTokenizerStrategy(TokenizerStrategy tokenizerStrategy) {
+    super.setTokenizerStrategy(tokenizerStrategy);
+    _tokenizerStrategy = tokenizerStrategy;
+  }
+
+  @Override
+  public void setTrimValues(boolean trimValues) {
+    super.setTrimValues(trimValues);
+    _trimValues = trimValues;
+  }
+
+  @Override
+  public void addEntityHandler(EntityHandler handler) {
+    super.addEntityHandler(handler);
+    if (!(handler instanceof EntityHandlerImpl))
+      _customEntityHandlers = true;
+  }
+
+  /**
+   * When enabled, {@link #run(CsvInputSource)} reads entity files that do not
+   * depend on each other (e.g. stops.txt, shapes.txt and calendar.txt)
+   * concurrently, while still reading each file only after the files it
+   * references have been completely read. The resulting entities, including
+   * generated ids, are identical to those of a sequential read.
+   * 
+   * The entity store must tolerate concurrent saves of entities of different
+   * types. {@link GenericDaoImpl} and its subclasses do; any other store is
+   * accessed through a synchronized wrapper for the duration of the read.
+   * Registered {@link EntityHandler} instances are called from the reading
+   * threads, one entity type per thread at a time.
+   * 
+   * @param parallelLoading
+   */
+  public void setParallelLoading(boolean parallelLoading) {
+    _parallelLoading = parallelLoading;
+  }
+
+  public boolean isParallelLoading() {
+    return _parallelLoading;
+  }
+
+  /**
+   * @param executor the executor used to read entity files in parallel mode.
+   *          If not set, a fixed thread pool sized to the number of available
+   *          processors is created and shut down for each run.
+   */
+  public void setExecutor(ExecutorService executor) {
+    _executor = executor;
+  }
+
+  /**
+   * When enabled, an entity file of at least
+   * {@link #setChunkedParsingMinSize(long)} bytes, typically stop_times.txt, is
+   * split into chunks of whole rows that are tokenized and turned into
+   * entities, or packed rows, on
+   * {@link #setChunkedParsingThreadCount(int)} threads. The chunks are then
+   * added to the entity store one at a time in the order of the file, so
+   * packed arrays, generated ids and the calls to registered
+   * {@link EntityHandler} instances are the same as with a sequential read.
+   * 
+   * A file is split in place when it can be mapped from a
+   * {@link MappedCsvInputSource}. Otherwise, when its size is known, it is
+   * first read into memory in full, inflating it if it is a compressed zip
+   * entry. Chunked parsing requires the default tokenizer, no string
+   * interning and a file with a header row. {@link RawColumnPredicate}
+   * instances of a chunked file are called concurrently, and warnings about
+   * rows with an unexpected number of fields give line numbers relative to
+   * the chunk.
+   * 
+   * @param chunkedParsing
+   */
+  public void setChunkedParsing(boolean chunkedParsing) {
+    _chunkedParsing = chunkedParsing;
+  }
+
+  public boolean isChunkedParsing() {
+    return _chunkedParsing;
+  }
+
+  /**
+   * @param threadCount the number of threads a chunked file is parsed on.
+   *          Defaults to the number of available processors.
+   */
+  public void setChunkedParsingThreadCount(int threadCount) {
+    if (threadCount < 1)
+      throw new IllegalArgumentException("threadCount must be positive");
+    _chunkedParsingThreadCount = threadCount;
+  }
+
+  /**
+   * @param minSize the size in bytes from which a file is parsed in chunks.
+   *          Defaults to 16MB.
+   */
+  public void setChunkedParsingMinSize(long minSize) {
+    _chunkedParsingMinSize = minSize;
+  }
+
+  /**
+   * When enabled, entities other than stop times and shape points are read
+   * with a binder that sets the fields of each entity directly from the
+   * columns of its row, rather than through the reflective field mappings of
+   * the entity schema. Entities are read the same either way. Fields and
+   * validators added to the schema of a type are still applied through the
+   * schema; a type whose default fields were replaced or removed, or whose
+   * fields have a fixed order, is read through its schema. Binders are not
+   * used when strings are interned.
+   * 
+   * Disabled by default on purpose: the binders are written by hand after the
+   * {@code @CsvField} mappings of the model classes, which remain the
+   * definition of how a file is read. A field later added to a model class, or
+   * a mapping changed, is read through the schema right away but is silently
+   * missed by its binder until the binder is updated too, so the binders are
+   * left to callers that read the stock model and want the speed.
+   * 
+   * @param entityBinders
+   */
+  public void setEntityBinders(boolean entityBinders) {
+    _entityBinders = entityBinders;
+  }
+
+  public boolean isEntityBinders() {
+    return _entityBinders;
+  }
+
+  /**
+   * When enabled, the raw id of each entity reference read from a file, such
+   * as the stop id of a stop time, is mapped to the resolved entity for the
+   * rest of the run, so that a repeated reference skips the agency lookup and
+   * the entity store query. The map holds an entry for every distinct
+   * referenced entity, and load times did not improve measurably with it, so
+   * it is disabled by default. Consecutive rows that reference the same
+   * entity are resolved once either way by the entity field mappings, the
+   * entity binders and the packed stop time reader.
+   * 
+   * @param cacheEntityReferences
+   */
+  public void setCacheEntityReferences(boolean cacheEntityReferences) {
+    _cacheEntityReferences = cacheEntityReferences;
+    clearEntityReferenceCaches();
+  }
+
+  public boolean isCacheEntityReferences() {
+    return _cacheEntityReferences;
+  }
+
   public void run() throws IOException {
     run(getInputSource());
   }
@@ -164,22 +587,180 @@ public class GtfsReader extends CsvEntityReader {
 
     List<Class<?>> classes = getEntityClasses();
 
+    _droppedIdsByType.clear();
+    clearEntityReferenceCaches();
+
+    _resourceSizes.clear();
+    if ((_presizeEntityStore || _chunkedParsing) && _inputLocation != null
+        && source == getInputSource())
+      readResourceSizes(_inputLocation);
+
     _entityStore.open();
 
-    for (Class<?> entityClass : classes) {
-      _log.info("reading entities: " + entityClass.getName());
+    if (!_lazyEntityClasses.isEmpty())
+      classes = deferLazyEntityClasses(source, classes);
+
+    if (_parallelLoading && _internStrings) {
+      _log.warn("string interning is not supported for parallel loading, "
+          + "reading entities sequentially");
+    }
+
+    if (_parallelLoading && !_internStrings) {
+      runInParallel(source, classes);
+    } else {
+      for (Class<?> entityClass : classes) {
+        _log.info("reading entities: " + entityClass.getName());
 
-      readEntities(entityClass, source);
-      _entityStore.flush();
+        readEntities(entityClass, source);
+        _entityStore.flush();
+      }
     }
 
     _entityStore.close();
+    clearEntityReferenceCaches();
+
+    if (_compactEntityStore && _entityStore instanceof GenericDaoImpl)
+      ((GenericDaoImpl) _entityStore).compact();
+  }
+
+  /**
+   * When the source is a {@link MappedCsvInputSource} and the file can be
+   * mapped, its rows are tokenized directly on the mapped bytes. This is the
+   * case for files in a directory and for zip entries stored without
+   * compression, as long as the default tokenizer is in use and strings are
+   * not interned. Otherwise, the file is read through a Reader as usual.
+   */
+  @Override
+  public void readEntities(Class<?> entityClass, CsvInputSource source)
+      throws IOException {
+
+    EntityReferenceCache cache = _entityReferenceCaches.remove(entityClass);
+    if (cache != null)
+      cache.invalidate();
+
+    if (_listeners.isEmpty()) {
+      readEntitiesFromSource(entityClass, source);
+      return;
+    }
+
+    String filename = getEntitySchemaFactory().getSchema(entityClass).getFilename();
+    if (!source.hasResource(filename)) {
+      readEntitiesFromSource(entityClass, source);
+      return;
+    }
+
+    /**
+     * A lazy entity type can be loaded while another file is read on the same
+     * thread, so the statistics of the outer file are restored afterwards.
+     */
+    LoadStatsRecorder outer = _loadStats.get();
+    LoadStatsRecorder recorder = new LoadStatsRecorder(new GtfsReaderFileStats(
+        entityClass, filename), new ArrayList<GtfsReaderListener>(_listeners),
+        _progressInterval);
+    _loadStats.set(recorder);
+    try {
+      recorder.start();
+      readEntitiesFromSource(entityClass, source);
+      recorder.finish();
+    } finally {
+      if (outer != null)
+        _loadStats.set(outer);
+      else
+        _loadStats.remove();
+    }
+  }
+
+  /**
+   * Opens the entity file from the specified source. The base implementation
+   * always opens it from the reader's own input source, which would defeat
+   * lazy loading from a reopened feed.
+   */
+  @Override
+  public InputStream openInputStreamForEntityClass(CsvInputSource source,
+      Class<?> entityClass) throws IOException {
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    String name = schema.getFilename();
+    if (!source.hasResource(name)) {
+      if (schema.isRequired())
+        throw new MissingRequiredEntityException(entityClass, name);
+      return null;
+    }
+    InputStream in = source.getResource(name);
+    LoadStatsRecorder recorder = getLoadStats();
+    if (recorder != null)
+      in = recorder.countBytes(in);
+    return in;
+  }
+
+  /**
+   * When the entity store is a {@link GtfsDaoImpl} with packed stop times or
+   * shape points, stop_times.txt and shapes.txt are parsed straight into the
+   * packed arrays without creating a {@link StopTime} or {@link ShapePoint}
+   * instance per row. The packed path is only taken when nothing could observe
+   * the difference: no other {@link EntityHandler} is registered, the entity
+   * type is not streamed, strings are not interned and the entity schema has
+   * not been customized. Other entity types are read with an
+   * {@link EntityBinder} unless {@link #setEntityBinders(boolean)} is
+   * disabled. Otherwise, entities are read as usual.
+   */
+  @Override
+  public void readEntities(Class<?> entityClass, Reader reader)
+      throws IOException, CsvEntityIOException {
+
+    PackedEntityReader packedReader = createPackedEntityReader(entityClass);
+    if (packedReader == null) {
+      super.readEntities(entityClass, reader);
+      return;
+    }
+
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    packedReader.setTrimValues(_trimValues);
+
+    BufferedReader lineReader = new BufferedReader(reader);
+
+    // Skip the byte order mark, if present
+    lineReader.mark(1);
+    if (lineReader.read() != '\uFEFF')
+      lineReader.reset();
+
+    String line = null;
+    int lineNumber = 1;
+
+    try {
+      while ((line = lineReader.readLine()) != null) {
+        // Skip blank lines and a trailing end-of-file (Ctrl-Z) marker
+        if (line.length() == 0
+            || (line.length() == 1 && line.charAt(0) == '\032'))
+          continue;
+        packedReader.handleLine(_tokenizerStrategy.parse(line));
+        lineNumber++;
+      }
+    } catch (Exception ex) {
+      throw new CsvEntityIOException(entityClass, schema.getFilename(),
+          lineNumber, ex);
+    } finally {
+      try {
+        lineReader.close();
+      } catch (IOException ex) {
+
+      }
+    }
   }
 
   /****
    * Protected Methods
    ****/
 
+  @Override
+  protected IndividualCsvEntityReader createIndividualCsvEntityReader(
+      CsvEntityContext context, EntitySchema schema, EntityHandler handler) {
+    RowFilter rowFilter = createRowFilter(schema.getEntityClass());
+    LoadStatsRecorder recorder = getLoadStats();
+    if (rowFilter == null && recorder == null)
+      return super.createIndividualCsvEntityReader(context, schema, handler);
+    return new RowEntityReader(context, schema, handler, rowFilter, recorder);
+  }
+
   protected DefaultEntitySchemaFactory createEntitySchemaFactory() {
     return GtfsEntitySchemaFactory.createEntitySchemaFactory();
   }
@@ -212,10 +793,806 @@ public class GtfsReader extends CsvEntityReader {
     throw new EntityReferenceNotFoundException(entityType, entityId);
   }
 
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Registers an {@link GenericDaoImpl.EntityLoader} with the entity store for
+   * each lazy entity type that can be deferred.
+   * 
+   * @return the entity types to read now
+   */
+  private List<Class<?>> deferLazyEntityClasses(CsvInputSource source,
+      List<Class<?>> classes) {
+
+    if (!(_entityStore instanceof GenericDaoImpl)) {
+      _log.warn("lazy loading requires an entity store derived from "
+          + GenericDaoImpl.class.getName() + ", reading all entities now");
+      return classes;
+    }
+
+    Set<Class<?>> deferred = new LinkedHashSet<Class<?>>();
+    for (Class<?> entityClass : classes) {
+      if (_lazyEntityClasses.contains(entityClass)
+          && !_streamingEntityClasses.contains(entityClass))
+        deferred.add(entityClass);
+    }
+
+    /**
+     * A deferred type must not be needed to read any type that is read now.
+     * Reading a type that is no longer deferred can in turn require others.
+     */
+    EntityDependencyGraph graph = EntityDependencyGraph.create(classes,
+        getEntitySchemaFactory());
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (Class<?> entityClass : classes) {
+        if (deferred.contains(entityClass))
+          continue;
+        for (Class<?> dependency : graph.getDependencies(entityClass)) {
+          if (deferred.remove(dependency)) {
+            _log.warn("entity type " + dependency.getName()
+                + " is required by " + entityClass.getName()
+                + ", reading it now");
+            changed = true;
+          }
+        }
+      }
+    }
+
+    File inputLocation = source == getInputSource() ? _inputLocation : null;
+    GenericDaoImpl dao = (GenericDaoImpl) _entityStore;
+    List<Class<?>> remaining = new ArrayList<Class<?>>();
+    for (Class<?> entityClass : classes) {
+      if (deferred.contains(entityClass)) {
+        dao.setEntityLoader(entityClass, new LazyEntityLoader(source,
+            inputLocation));
+      } else {
+        remaining.add(entityClass);
+      }
+    }
+    return remaining;
+  }
+
+  private void runInParallel(CsvInputSource source, List<Class<?>> classes)
+      throws IOException {
+
+    /**
+     * Resolving the dependency graph populates the schema cache for every
+     * entity type, and wrapping an instance of each type populates the bean
+     * introspection cache, so that neither of those (unsynchronized) caches is
+     * modified by the worker threads.
+     */
+    EntityDependencyGraph graph = EntityDependencyGraph.create(classes,
+        getEntitySchemaFactory());
+    warmBeanWrapperCache(classes);
+
+    GenericMutableDao entityStore = _entityStore;
+    if (!(entityStore instanceof GenericDaoImpl))
+      _entityStore = new SynchronizedEntityStore(entityStore);
+
+    ExecutorService executor = _executor;
+    if (executor == null)
+      executor = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+
+    try {
+      CompletionService<Class<?>> completionService = new ExecutorCompletionService<Class<?>>(
+          executor);
+      Map<Class<?>, Integer> remainingDependencies = new HashMap<Class<?>, Integer>();
+      int pending = 0;
+
+      for (Class<?> entityClass : classes) {
+        int count = graph.getDependencies(entityClass).size();
+        remainingDependencies.put(entityClass, count);
+        if (count == 0) {
+          completionService.submit(new ReadEntitiesTask(entityClass, source));
+          pending++;
+        }
+      }
+
+      Throwable failure = null;
+
+      while (pending > 0) {
+        Future<Class<?>> future = completionService.take();
+        pending--;
+        Class<?> completed;
+        try {
+          completed = future.get();
+        } catch (ExecutionException ex) {
+          if (failure == null)
+            failure = ex.getCause();
+          continue;
+        }
+        // Once a read fails, we only wait for the reads still in progress
+        if (failure != null)
+          continue;
+        _entityStore.flush();
+        for (Class<?> dependent : graph.getDependents(completed)) {
+          int count = remainingDependencies.get(dependent) - 1;
+          remainingDependencies.put(dependent, count);
+          if (count == 0) {
+            completionService.submit(new ReadEntitiesTask(dependent, source));
+            pending++;
+          }
+        }
+      }
+
+      if (failure instanceof IOException)
+        throw (IOException) failure;
+      if (failure instanceof RuntimeException)
+        throw (RuntimeException) failure;
+      if (failure instanceof Error)
+        throw (Error) failure;
+      if (failure != null)
+        throw new IllegalStateException(failure);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while reading entities");
+    } finally {
+      _entityStore = entityStore;
+      if (executor != _executor)
+        executor.shutdown();
+    }
+  }
+
+  private void readEntitiesFromSource(Class<?> entityClass,
+      CsvInputSource source) throws IOException {
+
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    boolean tokenizeBytes = !_internStrings
+        && _tokenizerStrategy.getClass() == CsvTokenizerStrategy.class;
+    boolean chunked = tokenizeBytes && _chunkedParsing
+        && _chunkedParsingThreadCount > 1
+        && schema.getFieldsInOrder().isEmpty();
+
+    ByteBuffer buffer = null;
+    if (source instanceof MappedCsvInputSource && tokenizeBytes)
+      buffer = ((MappedCsvInputSource) source).getMappedResource(schema.getFilename());
+    if (buffer == null && chunked)
+      buffer = readResourceForChunkedParsing(source, schema.getFilename());
+
+    if (_presizeEntityStore)
+      presizeEntityStore(entityClass, schema.getFilename(), source, buffer);
+
+    if (buffer != null) {
+      if (chunked && buffer.remaining() >= _chunkedParsingMinSize)
+        readEntitiesInChunks(entityClass, schema, buffer);
+      else
+        readEntities(entityClass, schema, buffer);
+      return;
+    }
+
+    super.readEntities(entityClass, source);
+  }
+
+  private void presizeEntityStore(Class<?> entityClass, String filename,
+      CsvInputSource source, ByteBuffer buffer) throws IOException {
+
+    if (!(_entityStore instanceof GenericDaoImpl)
+        || _streamingEntityClasses.contains(entityClass))
+      return;
+
+    int rows;
+    if (buffer != null) {
+      rows = RowCountEstimator.countRows(buffer);
+    } else {
+      long size = getResourceSize(source, filename);
+      if (size < 0 || !source.hasResource(filename))
+        return;
+      rows = RowCountEstimator.estimateRows(source.getResource(filename), size);
+    }
+
+    if (rows > 0)
+      ((GenericDaoImpl) _entityStore).ensureCapacity(entityClass, rows);
+  }
+
+  /**
+   * @return the uncompressed size of the resource in bytes, or -1 if unknown
+   */
+  private long getResourceSize(CsvInputSource source, String name) {
+    if (source instanceof MappedCsvInputSource)
+      return ((MappedCsvInputSource) source).getResourceSize(name);
+    Long size = _resourceSizes.get(name);
+    return size != null ? size : -1;
+  }
+
+  /**
+   * @return the contents of the resource read into memory, or null if the
+   *         resource is smaller than the chunked parsing threshold, too large
+   *         for a single buffer or of unknown size
+   */
+  private ByteBuffer readResourceForChunkedParsing(CsvInputSource source,
+      String name) throws IOException {
+
+    long size = getResourceSize(source, name);
+    if (size < _chunkedParsingMinSize || size > Integer.MAX_VALUE - 8
+        || !source.hasResource(name))
+      return null;
+
+    byte[] data = new byte[(int) size];
+    int length = 0;
+    InputStream in = source.getResource(name);
+    try {
+      int n;
+      while (length < data.length
+          && (n = in.read(data, length, data.length - length)) != -1)
+        length += n;
+      // The file is read as usual if it turns out larger than its size
+      if (in.read() != -1)
+        return null;
+    } finally {
+      in.close();
+    }
+    return ByteBuffer.wrap(data, 0, length);
+  }
+
+  private void readResourceSizes(File path) throws IOException {
+    if (path.isDirectory()) {
+      File[] files = path.listFiles();
+      if (files != null) {
+        for (File file : files) {
+          if (file.isFile())
+            _resourceSizes.put(file.getName(), file.length());
+        }
+      }
+      return;
+    }
+    ZipFile zipFile = new ZipFile(path);
+    try {
+      Enumeration<? extends ZipEntry> entries = zipFile.entries();
+      while (entries.hasMoreElements()) {
+        ZipEntry entry = entries.nextElement();
+        if (entry.getSize() >= 0)
+          _resourceSizes.put(entry.getName(), entry.getSize());
+      }
+    } finally {
+      zipFile.close();
+    }
+  }
+
+  private void readEntities(Class<?> entityClass, EntitySchema schema,
+      ByteBuffer buffer) throws IOException {
+
+    PackedEntityReader packedReader = createPackedEntityReader(entityClass);
+    IndividualCsvEntityReader entityReader = null;
+    if (packedReader == null) {
+      entityReader = createIndividualCsvEntityReader(getContext(), schema,
+          new EntityHandler() {
+            public void handleEntity(Object entity) {
+              injectEntity(entity);
+            }
+          });
+      entityReader.setTrimValues(_trimValues);
+    }
+
+    LoadStatsRecorder recorder = getLoadStats();
+    if (recorder != null)
+      recorder.addBytesRead(buffer.remaining());
+
+    ByteCsvTokenizer tokenizer = new ByteCsvTokenizer(buffer,
+        _tokenizerStrategy, _trimValues);
+    int lineNumber = 1;
+
+    try {
+      while (tokenizer.next()) {
+        if (packedReader != null)
+          packedReader.handleRow(tokenizer);
+        else
+          entityReader.handleLine(tokenizer.getStrings());
+        lineNumber++;
+      }
+    } catch (Exception ex) {
+      throw new CsvEntityIOException(entityClass, schema.getFilename(),
+          lineNumber, ex);
+    }
+  }
+
+  /**
+   * Reads the rows of a large file in chunks on a thread pool of its own, so
+   * that chunked parsing can't starve the pool of a parallel read. Each chunk
+   * is read into entities, or packed rows, of its own, which are then added
+   * to the entity store in the order of the file on the calling thread. The
+   * chunks ahead of the next one to be added are only held in memory until it
+   * is their turn.
+   */
+  private void readEntitiesInChunks(Class<?> entityClass, EntitySchema schema,
+      ByteBuffer buffer) throws IOException {
+
+    LoadStatsRecorder recorder = getLoadStats();
+    if (recorder != null)
+      recorder.addBytesRead(buffer.remaining());
+
+    ByteCsvTokenizer tokenizer = new ByteCsvTokenizer(buffer,
+        _tokenizerStrategy, _trimValues);
+    if (!tokenizer.next())
+      return;
+    List<String> header = tokenizer.getStrings();
+    ByteBuffer rows = buffer.duplicate();
+    rows.position(tokenizer.getPosition());
+
+    int chunkCount = _chunkedParsingThreadCount * CHUNKS_PER_THREAD;
+    int minChunkSize = (int) Math.min(MIN_CHUNK_SIZE, _chunkedParsingMinSize);
+    int chunkSize = Math.max(Math.max(1, minChunkSize), rows.remaining()
+        / chunkCount + 1);
+    List<ByteBuffer> chunks = CsvChunker.split(rows, chunkSize);
+
+    PackedEntityReader packedReader = newPackedEntityReader(entityClass);
+    RowFilter rowFilter = createRowFilter(entityClass);
+    warmBeanWrapperCache(Collections.<Class<?>> singletonList(entityClass));
+
+    ExecutorService executor = Executors.newFixedThreadPool(Math.min(
+        _chunkedParsingThreadCount, chunks.size()));
+    List<Future<ParsedChunk>> futures = new ArrayList<Future<ParsedChunk>>();
+    int lineNumber = 1;
+
+    try {
+      for (ByteBuffer chunk : chunks) {
+        futures.add(executor.submit(new ParseChunkTask(entityClass, schema,
+            header, chunk, packedReader, rowFilter, recorder != null)));
+      }
+      for (int i = 0; i < futures.size(); i++) {
+        ParsedChunk chunk = getParsedChunk(futures.get(i));
+        futures.set(i, null);
+        if (chunk.failure != null) {
+          throw new CsvEntityIOException(entityClass, schema.getFilename(),
+              lineNumber + chunk.rowCount + 1, chunk.failure);
+        }
+        if (packedReader != null) {
+          packedReader.append(chunk.packedReader);
+        } else {
+          for (Object entity : chunk.entities)
+            injectEntity(entity);
+        }
+        if (recorder != null) {
+          GtfsReaderFileStats stats = chunk.stats;
+          recorder.handleRows(stats.getRowCount(), stats.getDroppedRowCount());
+        }
+        lineNumber += chunk.rowCount;
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private ParsedChunk getParsedChunk(Future<ParsedChunk> future)
+      throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("interrupted while reading entities");
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof Error)
+        throw (Error) cause;
+      throw new IllegalStateException(cause);
+    }
+  }
+
+  private PackedEntityReader createPackedEntityReader(Class<?> entityClass) {
+    PackedEntityReader packedReader = newPackedEntityReader(entityClass);
+    if (packedReader != null) {
+      packedReader.setRowFilter(createRowFilter(entityClass));
+      packedReader.setLoadStats(getLoadStats());
+    }
+    return packedReader;
+  }
+
+  private PackedEntityReader newPackedEntityReader(Class<?> entityClass) {
+
+    if (_internStrings)
+      return null;
+
+    if (_entityStore instanceof GtfsDaoImpl && !_customEntityHandlers
+        && !_streamingEntityClasses.contains(entityClass)) {
+
+      GtfsDaoImpl dao = (GtfsDaoImpl) _entityStore;
+
+      if (entityClass.equals(StopTime.class) && dao.isPackStopTimes()
+          && hasDefaultSchema(entityClass, PackedStopTimeReader.COLUMN_NAMES)) {
+        dao.unpackStopTimePatterns();
+        return new PackedStopTimeReader(_context, dao.getStopTimeArray());
+      }
+
+      if (entityClass.equals(ShapePoint.class) && dao.isPackShapePoints()
+          && hasDefaultSchema(entityClass, PackedShapePointReader.COLUMN_NAMES))
+        return new PackedShapePointReader(_context, dao.getShapePointArray());
+    }
+
+    if (_entityBinders)
+      return newEntityBinder(entityClass);
+    return null;
+  }
+
+  /**
+   * @return a binder reading entities of the type into
+   *         {@link #injectEntity(Object)}, as the entity schema would, or null
+   *         if the type has no binder or its schema was customized beyond
+   *         added fields and validators
+   */
+  private EntityBinder<?> newEntityBinder(Class<?> entityClass) {
+
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    List<FieldMapping> customFields = GtfsEntityBinders.getCustomFields(schema);
+    if (customFields == null)
+      return null;
+
+    EntityBinder<?> binder = GtfsEntityBinders.create(entityClass, _context,
+        new EntityHandler() {
+          public void handleEntity(Object entity) {
+            injectEntity(entity);
+          }
+        });
+    if (binder != null)
+      binder.setCustomFields(getContext(), customFields,
+          schema.getValidators());
+    return binder;
+  }
+
+  /**
+   * @return a filter applying the raw column filters of the entity type and
+   *         dropping rows that reference dropped entities, or null if no row
+   *         of the type can be dropped
+   */
+  private RowFilter createRowFilter(Class<?> entityClass) {
+
+    if (_rawColumnFiltersByType.isEmpty())
+      return null;
+
+    RowFilter rowFilter = new RowFilter();
+    List<RawColumnFilter> filters = _rawColumnFiltersByType.get(entityClass);
+    if (filters != null) {
+      for (RawColumnFilter filter : filters)
+        rowFilter.addPredicate(filter.columnName, filter.predicate);
+    }
+
+    String idColumnName = null;
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    for (FieldMapping field : schema.getFields()) {
+      if (field instanceof EntityReferenceFieldMapping) {
+        Class<?> referencedType = ((EntityReferenceFieldMapping) field).getReferencedEntityType();
+        Set<String> droppedIds = _droppedIdsByType.get(referencedType);
+        if (droppedIds != null && !droppedIds.isEmpty()) {
+          List<String> columnNames = new ArrayList<String>();
+          field.getCSVFieldNames(columnNames);
+          for (String columnName : columnNames)
+            rowFilter.addReference(columnName, droppedIds);
+        }
+      } else if (field instanceof AbstractFieldMapping
+          && "id".equals(((AbstractFieldMapping) field).getObjFieldName())) {
+        idColumnName = ((AbstractFieldMapping) field).getCsvFieldName();
+      }
+    }
+
+    if (rowFilter.isEmpty())
+      return null;
+
+    if (idColumnName != null) {
+      // Chunks of the file may record dropped ids concurrently
+      Set<String> droppedIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+      _droppedIdsByType.put(entityClass, droppedIds);
+      rowFilter.setIdColumn(idColumnName, droppedIds);
+    }
+    return rowFilter;
+  }
+
+  /**
+   * @return true if the schema of the entity type reads exactly the specified
+   *         csv fields, with no fixed field order or entity validators
+   */
+  private boolean hasDefaultSchema(Class<?> entityClass, String[] columnNames) {
+    EntitySchema schema = getEntitySchemaFactory().getSchema(entityClass);
+    if (!schema.getFieldsInOrder().isEmpty()
+        || !schema.getValidators().isEmpty())
+      return false;
+    Set<String> csvFieldNames = new HashSet<String>();
+    for (FieldMapping field : schema.getFields())
+      field.getCSVFieldNames(csvFieldNames);
+    return csvFieldNames.equals(new HashSet<String>(Arrays.asList(columnNames)));
+  }
+
+  /**
+   * @return the statistics of the entity file read on the current thread, or
+   *         null if no listener is registered
+   */
+  private LoadStatsRecorder getLoadStats() {
+    if (_listeners.isEmpty())
+      return null;
+    return _loadStats.get();
+  }
+
+  /**
+   * Invalidates the resolved entity references, which are only kept while
+   * entities are read, as the entity store may change in between.
+   */
+  private void clearEntityReferenceCaches() {
+    for (EntityReferenceCache cache : _entityReferenceCaches.values())
+      cache.invalidate();
+    _entityReferenceCaches.clear();
+  }
+
+  /**
+   * Populates the bean introspection cache of the csv entities library, a
+   * static and unsynchronized map, for the specified entity types, so that
+   * threads reading entities of those types only look it up. Populating the
+   * cache is serialized, as several readers may warm it at once.
+   */
+  static synchronized void warmBeanWrapperCache(Iterable<Class<?>> classes) {
+    BeanWrapperFactory.wrap("");
+    BeanWrapperFactory.wrap(new AgencyAndId());
+    for (Class<?> entityClass : classes) {
+      try {
+        BeanWrapperFactory.wrap(entityClass.newInstance());
+      } catch (Exception ex) {
+        // the worker reading the entity type will report the problem
+      }
+    }
+  }
+
   /****
    * Private Internal Classes
    ****/
 
+  private class ReadEntitiesTask implements Callable<Class<?>> {
+
+    private final Class<?> _entityClass;
+
+    private final CsvInputSource _source;
+
+    public ReadEntitiesTask(Class<?> entityClass, CsvInputSource source) {
+      _entityClass = entityClass;
+      _source = source;
+    }
+
+    @Override
+    public Class<?> call() throws IOException {
+      _log.info("reading entities: " + _entityClass.getName());
+      readEntities(_entityClass, _source);
+      return _entityClass;
+    }
+  }
+
+  /**
+   * Reads a chunk of rows of a file, preceded by the header row of the file,
+   * into entities or packed rows of its own.
+   */
+  private class ParseChunkTask implements Callable<ParsedChunk> {
+
+    private final Class<?> _entityClass;
+
+    private final EntitySchema _schema;
+
+    private final List<String> _header;
+
+    private final ByteBuffer _buffer;
+
+    private final PackedEntityReader _packedReader;
+
+    private final RowFilter _rowFilter;
+
+    private final boolean _collectStats;
+
+    public ParseChunkTask(Class<?> entityClass, EntitySchema schema,
+        List<String> header, ByteBuffer buffer,
+        PackedEntityReader packedReader, RowFilter rowFilter,
+        boolean collectStats) {
+      _entityClass = entityClass;
+      _schema = schema;
+      _header = header;
+      _buffer = buffer;
+      _packedReader = packedReader;
+      _rowFilter = rowFilter;
+      _collectStats = collectStats;
+    }
+
+    @Override
+    public ParsedChunk call() {
+
+      final ParsedChunk chunk = new ParsedChunk();
+      RowFilter rowFilter = _rowFilter != null ? _rowFilter.copy() : null;
+      LoadStatsRecorder recorder = null;
+      if (_collectStats) {
+        chunk.stats = new GtfsReaderFileStats(_entityClass,
+            _schema.getFilename());
+        recorder = new LoadStatsRecorder(chunk.stats,
+            Collections.<GtfsReaderListener> emptyList(), 0);
+      }
+
+      IndividualCsvEntityReader entityReader = null;
+      if (_packedReader != null) {
+        chunk.packedReader = _packedReader.newChunkReader();
+        chunk.packedReader.setTrimValues(_trimValues);
+        chunk.packedReader.setRowFilter(rowFilter);
+        chunk.packedReader.setLoadStats(recorder);
+      } else {
+        chunk.entities = new ArrayList<Object>();
+        entityReader = new RowEntityReader(getContext(), _schema,
+            new EntityHandler() {
+              public void handleEntity(Object entity) {
+                chunk.entities.add(entity);
+              }
+            }, rowFilter, recorder);
+        entityReader.setTrimValues(_trimValues);
+      }
+
+      ByteCsvTokenizer tokenizer = new ByteCsvTokenizer(_buffer,
+          _tokenizerStrategy, _trimValues);
+
+      try {
+        if (chunk.packedReader != null)
+          chunk.packedReader.handleLine(new ArrayList<String>(_header));
+        else
+          entityReader.handleLine(new ArrayList<String>(_header));
+        while (tokenizer.next()) {
+          if (Thread.currentThread().isInterrupted())
+            break;
+          if (chunk.packedReader != null)
+            chunk.packedReader.handleRow(tokenizer);
+          else
+            entityReader.handleLine(tokenizer.getStrings());
+          chunk.rowCount++;
+        }
+      } catch (Exception ex) {
+        chunk.failure = ex;
+      }
+      return chunk;
+    }
+  }
+
+  private static class ParsedChunk {
+
+    private PackedEntityReader packedReader;
+
+    private List<Object> entities;
+
+    private GtfsReaderFileStats stats;
+
+    /**
+     * The number of rows read, or read before the failure
+     */
+    private int rowCount = 0;
+
+    private Exception failure;
+  }
+
+  private static class RawColumnFilter {
+
+    public final String columnName;
+
+    public final RawColumnPredicate predicate;
+
+    public RawColumnFilter(String columnName, RawColumnPredicate predicate) {
+      this.columnName = columnName;
+      this.predicate = predicate;
+    }
+  }
+
+  /**
+   * Drops rows rejected by a {@link RowFilter}, if any, before they are turned
+   * into entities, and counts the rows of the file for its load statistics.
+   */
+  private static class RowEntityReader extends IndividualCsvEntityReader {
+
+    private final RowFilter _rowFilter;
+
+    private final LoadStatsRecorder _recorder;
+
+    private final StringListRow _row = new StringListRow();
+
+    private boolean _readHeader;
+
+    private boolean _trimValues = false;
+
+    public RowEntityReader(CsvEntityContext context, EntitySchema schema,
+        EntityHandler handler, RowFilter rowFilter, LoadStatsRecorder recorder) {
+      super(context, schema, handler);
+      _rowFilter = rowFilter;
+      _recorder = recorder;
+      List<String> fieldsInOrder = schema.getFieldsInOrder();
+      _readHeader = fieldsInOrder.isEmpty();
+      if (!_readHeader && _rowFilter != null) {
+        _row.setValues(fieldsInOrder);
+        _rowFilter.readHeader(_row);
+      }
+    }
+
+    @Override
+    public void setTrimValues(boolean trimValues) {
+      super.setTrimValues(trimValues);
+      _trimValues = trimValues;
+    }
+
+    @Override
+    public void handleLine(List<String> line) throws Exception {
+      if (!line.isEmpty()) {
+        if (_readHeader) {
+          if (_rowFilter != null)
+            _rowFilter.readHeader(trim(line));
+          _readHeader = false;
+        } else {
+          boolean dropped = _rowFilter != null
+              && !_rowFilter.accept(trim(line));
+          if (_recorder != null)
+            _recorder.handleRow(dropped);
+          if (dropped)
+            return;
+        }
+      }
+      super.handleLine(line);
+    }
+
+    private CsvRow trim(List<String> line) {
+      if (_trimValues) {
+        for (int i = 0; i < line.size(); i++)
+          line.set(i, line.get(i).trim());
+      }
+      _row.setValues(line);
+      return _row;
+    }
+  }
+
+  private class LazyEntityLoader implements GenericDaoImpl.EntityLoader {
+
+    private final CsvInputSource _source;
+
+    private final File _inputLocation;
+
+    public LazyEntityLoader(CsvInputSource source, File inputLocation) {
+      _source = source;
+      _inputLocation = inputLocation;
+    }
+
+    @Override
+    public void loadEntities(Class<?> entityType) {
+      try {
+        if (_inputLocation == null) {
+          readEntities(entityType, _source);
+          return;
+        }
+        CsvInputSource source = openInputLocation();
+        try {
+          readEntities(entityType, source);
+        } finally {
+          source.close();
+        }
+      } catch (IOException ex) {
+        throw new IllegalStateException("error loading entities of type "
+            + entityType.getName() + " from " + _inputLocation, ex);
+      }
+    }
+
+    private CsvInputSource openInputLocation() throws IOException {
+      if (_inputLocation.isDirectory())
+        return new FileCsvInputSource(_inputLocation);
+      return new ZipFileCsvInputSource(new ZipFile(_inputLocation));
+    }
+  }
+
+  private static class SynchronizedEntityStore extends
+      GenericMutableDaoWrapper {
+
+    public SynchronizedEntityStore(GenericMutableDao source) {
+      super(source);
+    }
+
+    @Override
+    public synchronized void saveEntity(Object entity) {
+      super.saveEntity(entity);
+    }
+
+    @Override
+    public synchronized <T> T getEntityForId(Class<T> type, Serializable id) {
+      return super.getEntityForId(type, id);
+    }
+
+    @Override
+    public synchronized void flush() {
+      super.flush();
+    }
+  }
+
   private class EntityHandlerImpl implements EntityHandler {
 
     public void handleEntity(Object entity) {
@@ -252,8 +1629,16 @@ public class GtfsReader extends CsvEntityReader {
         registerAgencyId(FareAttribute.class, fare.getId());
       }
 
-      if (entity instanceof IdentityBean<?>) {
-        _entityStore.saveEntity(entity);
+      if (entity instanceof IdentityBean<?>
+          && !_streamingEntityClasses.contains(entity.getClass())) {
+        LoadStatsRecorder recorder = getLoadStats();
+        if (recorder == null) {
+          _entityStore.saveEntity(entity);
+        } else {
+          long start = System.nanoTime();
+          _entityStore.saveEntity(entity);
+          recorder.addStoreNanos(System.nanoTime() - start);
+        }
       }
 
     }
@@ -275,10 +1660,19 @@ public class GtfsReader extends CsvEntityReader {
     }
   }
 
-  private class GtfsReaderContextImpl implements GtfsReaderContext {
+  private class GtfsReaderContextImpl implements GtfsReaderContext,
+      EntityReferenceResolver {
 
     public Object getEntity(Class<?> entityClass, Serializable id) {
-      return GtfsReader.this.getEntity(entityClass, id);
+      LoadStatsRecorder recorder = getLoadStats();
+      if (recorder == null)
+        return GtfsReader.this.getEntity(entityClass, id);
+      long start = System.nanoTime();
+      try {
+        return GtfsReader.this.getEntity(entityClass, id);
+      } finally {
+        recorder.addReferenceResolutionNanos(System.nanoTime() - start);
+      }
     }
 
     public String getDefaultAgencyId() {
@@ -290,11 +1684,40 @@ public class GtfsReader extends CsvEntityReader {
     }
 
     public String getAgencyForEntity(Class<?> entityType, String entityId) {
-      return GtfsReader.this.getAgencyForEntity(entityType, entityId);
+      LoadStatsRecorder recorder = getLoadStats();
+      if (recorder == null)
+        return GtfsReader.this.getAgencyForEntity(entityType, entityId);
+      long start = System.nanoTime();
+      try {
+        return GtfsReader.this.getAgencyForEntity(entityType, entityId);
+      } finally {
+        recorder.addReferenceResolutionNanos(System.nanoTime() - start);
+      }
     }
 
     public String getTranslatedAgencyId(String agencyId) {
       return GtfsReader.this.getTranslatedAgencyId(agencyId);
     }
+
+    public EntityReferenceCache getEntityReferenceCache(Class<?> entityType) {
+      EntityReferenceCache cache = _entityReferenceCaches.get(entityType);
+      if (cache == null) {
+        cache = new EntityReferenceCache(this, entityType, true,
+            _cacheEntityReferences);
+        EntityReferenceCache existing = _entityReferenceCaches.putIfAbsent(
+            entityType, cache);
+        if (existing != null)
+          cache = existing;
+      }
+      return cache;
+    }
+
+    public AgencyAndId getCanonicalId(AgencyAndId id) {
+      if (!_canonicalizeIds)
+        return id;
+      if (_entityStore instanceof GenericDaoImpl)
+        return ((GenericDaoImpl) _entityStore).getIdTable().intern(id);
+      return _idTable.intern(id);
+    }
   }
 }
@@ -16,6 +16,7 @@
 package org.onebusaway.gtfs.serialization;
 
 import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
 
 import java.io.Serializable;
 import java.util.List;
@@ -31,4 +32,11 @@ public interface GtfsReaderContext {
   public Object getEntity(Class<?> entityClass, Serializable id);
 
   public String getAgencyForEntity(Class<?> entityType, String entityId);
+
+  /**
+   * @param id a newly read id
+   * @return the shared instance equal to the id, or the id itself if ids are
+   *         not being canonicalized
+   */
+  public AgencyAndId getCanonicalId(AgencyAndId id);
 }
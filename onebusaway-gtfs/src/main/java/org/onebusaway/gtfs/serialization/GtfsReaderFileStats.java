@@ -0,0 +1,160 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+/**
+ * Load statistics of one entity file read by a {@link GtfsReader}, as reported
+ * to a {@link GtfsReaderListener}.
+ *
+ * The elapsed time of the file is split into the time spent resolving entity
+ * references (looking up the trip and stop of a stop time, say), the time
+ * spent saving entities to the entity store, and the remaining parse time,
+ * which covers reading and tokenizing the file and converting field values.
+ * When the file is read into packed storage, there is no separate save and the
+ * store time is zero.
+ *
+ * The heap delta is the difference in used heap between the start of the file
+ * and the last update. It is not measured around a garbage collection, so it
+ * is only indicative of the memory retained by large files, and in parallel
+ * mode it includes the allocations of the files read at the same time.
+ */
+public final class GtfsReaderFileStats {
+
+  private final Class<?> _entityClass;
+
+  private final String _filename;
+
+  private long _rowCount = 0;
+
+  private long _droppedRowCount = 0;
+
+  private long _bytesRead = 0;
+
+  private long _elapsedNanos = 0;
+
+  private long _referenceResolutionNanos = 0;
+
+  private long _storeNanos = 0;
+
+  private long _heapDelta = 0;
+
+  GtfsReaderFileStats(Class<?> entityClass, String filename) {
+    _entityClass = entityClass;
+    _filename = filename;
+  }
+
+  public Class<?> getEntityClass() {
+    return _entityClass;
+  }
+
+  public String getFilename() {
+    return _filename;
+  }
+
+  /**
+   * @return the number of data rows parsed, including dropped rows
+   */
+  public long getRowCount() {
+    return _rowCount;
+  }
+
+  /**
+   * @return the number of rows dropped by raw column filters
+   * @see GtfsReader#addRawColumnFilter(Class, String, RawColumnPredicate)
+   */
+  public long getDroppedRowCount() {
+    return _droppedRowCount;
+  }
+
+  /**
+   * @return the number of bytes read from the file, which is its size when the
+   *         file is mapped or has been read completely
+   */
+  public long getBytesRead() {
+    return _bytesRead;
+  }
+
+  public long getElapsedNanos() {
+    return _elapsedNanos;
+  }
+
+  public long getParseNanos() {
+    return Math.max(0, _elapsedNanos - _referenceResolutionNanos - _storeNanos);
+  }
+
+  public long getReferenceResolutionNanos() {
+    return _referenceResolutionNanos;
+  }
+
+  public long getStoreNanos() {
+    return _storeNanos;
+  }
+
+  public double getRowsPerSecond() {
+    if (_elapsedNanos == 0)
+      return 0;
+    return _rowCount * 1e9 / _elapsedNanos;
+  }
+
+  /**
+   * @return the change in used heap, in bytes, since the file was started
+   */
+  public long getHeapDelta() {
+    return _heapDelta;
+  }
+
+  @Override
+  public String toString() {
+    return _filename + ": rows=" + _rowCount + " dropped=" + _droppedRowCount
+        + " bytes=" + _bytesRead + " elapsed=" + (_elapsedNanos / 1000000)
+        + "ms parse=" + (getParseNanos() / 1000000) + "ms references="
+        + (_referenceResolutionNanos / 1000000) + "ms store="
+        + (_storeNanos / 1000000) + "ms rowsPerSecond="
+        + Math.round(getRowsPerSecond()) + " heapDelta=" + _heapDelta;
+  }
+
+  /****
+   * Package Methods
+   ****/
+
+  void addRow(boolean dropped) {
+    _rowCount++;
+    if (dropped)
+      _droppedRowCount++;
+  }
+
+  void addRows(long rows, long droppedRows) {
+    _rowCount += rows;
+    _droppedRowCount += droppedRows;
+  }
+
+  void addBytesRead(long bytes) {
+    _bytesRead += bytes;
+  }
+
+  void addReferenceResolutionNanos(long nanos) {
+    _referenceResolutionNanos += nanos;
+  }
+
+  void addStoreNanos(long nanos) {
+    _storeNanos += nanos;
+  }
+
+  void update(long elapsedNanos, long heapDelta) {
+    _elapsedNanos = elapsedNanos;
+    _heapDelta = heapDelta;
+  }
+}
@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+/**
+ * Receives load statistics for each entity file read by a {@link GtfsReader},
+ * for instance to export them to a monitoring system. Callbacks are made from
+ * the thread reading the file, which in parallel mode is one of several
+ * threads, so implementations shared between files must be thread-safe.
+ *
+ * The statistics passed to each callback are those of the file so far, and
+ * keep changing until {@link #finishReadingEntities(GtfsReaderFileStats)} is
+ * called for the file.
+ *
+ * @see GtfsReader#addListener(GtfsReaderListener)
+ * @see GtfsReaderStatsCollector
+ */
+public interface GtfsReaderListener {
+
+  /**
+   * Called before the first row of an entity file is read. Files that are
+   * missing from the feed are not reported.
+   */
+  public void startReadingEntities(GtfsReaderFileStats stats);
+
+  /**
+   * Called each time another {@link GtfsReader#getProgressInterval()} rows of
+   * an entity file have been read.
+   */
+  public void handleProgress(GtfsReaderFileStats stats);
+
+  /**
+   * Called once all the rows of an entity file have been read and stored.
+   */
+  public void finishReadingEntities(GtfsReaderFileStats stats);
+}
@@ -0,0 +1,118 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link GtfsReaderListener} that collects the statistics of every entity
+ * file read, logs the progress of large files, and prints a summary table of
+ * the load, as done by the command line tools.
+ */
+public class GtfsReaderStatsCollector implements GtfsReaderListener {
+
+  private static Logger _log = LoggerFactory.getLogger(GtfsReaderStatsCollector.class);
+
+  private static final String ROW_FORMAT = "%-24s %10s %8s %10s %9s %9s %9s %9s %10s %9s%n";
+
+  private final List<GtfsReaderFileStats> _stats = new ArrayList<GtfsReaderFileStats>();
+
+  /**
+   * @return the statistics of the files read so far, in the order they were
+   *         finished
+   */
+  public synchronized List<GtfsReaderFileStats> getStats() {
+    return new ArrayList<GtfsReaderFileStats>(_stats);
+  }
+
+  public synchronized void clear() {
+    _stats.clear();
+  }
+
+  /**
+   * Prints a table with a line per file read and a line of totals. Times are
+   * in milliseconds and sizes in kilobytes.
+   */
+  public void printSummary(PrintStream out) {
+
+    List<GtfsReaderFileStats> stats = getStats();
+
+    out.printf(ROW_FORMAT, "file", "rows", "dropped", "kb", "parse",
+        "refs", "store", "total", "rows/s", "heap kb");
+
+    long rows = 0, dropped = 0, bytes = 0, heap = 0;
+    long parse = 0, references = 0, store = 0, elapsed = 0;
+
+    for (GtfsReaderFileStats fileStats : stats) {
+      printRow(out, fileStats.getFilename(), fileStats.getRowCount(),
+          fileStats.getDroppedRowCount(), fileStats.getBytesRead(),
+          fileStats.getParseNanos(), fileStats.getReferenceResolutionNanos(),
+          fileStats.getStoreNanos(), fileStats.getElapsedNanos(),
+          fileStats.getHeapDelta());
+      rows += fileStats.getRowCount();
+      dropped += fileStats.getDroppedRowCount();
+      bytes += fileStats.getBytesRead();
+      parse += fileStats.getParseNanos();
+      references += fileStats.getReferenceResolutionNanos();
+      store += fileStats.getStoreNanos();
+      elapsed += fileStats.getElapsedNanos();
+      heap += fileStats.getHeapDelta();
+    }
+
+    printRow(out, "total", rows, dropped, bytes, parse, references, store,
+        elapsed, heap);
+  }
+
+  /****
+   * {@link GtfsReaderListener} Interface
+   ****/
+
+  @Override
+  public void startReadingEntities(GtfsReaderFileStats stats) {
+
+  }
+
+  @Override
+  public void handleProgress(GtfsReaderFileStats stats) {
+    _log.info("reading " + stats.getFilename() + ": rows="
+        + stats.getRowCount() + " rowsPerSecond="
+        + Math.round(stats.getRowsPerSecond()));
+  }
+
+  @Override
+  public synchronized void finishReadingEntities(GtfsReaderFileStats stats) {
+    _stats.add(stats);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void printRow(PrintStream out, String filename, long rows,
+      long dropped, long bytes, long parseNanos, long referenceNanos,
+      long storeNanos, long elapsedNanos, long heapDelta) {
+    long rowsPerSecond = elapsedNanos > 0
+        ? Math.round(rows * 1e9 / elapsedNanos) : 0;
+    out.printf(ROW_FORMAT, filename, rows, dropped, bytes / 1024,
+        parseNanos / 1000000, referenceNanos / 1000000, storeNanos / 1000000,
+        elapsedNanos / 1000000, rowsPerSecond, heapDelta / 1024);
+  }
+}
@@ -0,0 +1,411 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.onebusaway.gtfs.impl.GtfsDaoImpl;
+import org.onebusaway.gtfs.impl.ShapePointArray;
+import org.onebusaway.gtfs.impl.StopTimeArray;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.GenericMutableDao;
+
+/**
+ * Restores the entities written by {@link GtfsSnapshotWriter} into an entity
+ * store. The stop time and shape point columns are read from memory-mapped
+ * regions of the snapshot with bulk array reads, and go straight into the
+ * packed arrays of a {@link GtfsDaoImpl} that has packing enabled.
+ * 
+ * A typical startup sequence:
+ * 
+ * <pre>
+ * String feedHash = GtfsSnapshotReader.computeFeedHash(feedPath);
+ * GtfsSnapshotReader snapshotReader = new GtfsSnapshotReader();
+ * snapshotReader.setInputLocation(snapshotPath);
+ * snapshotReader.setFeedHash(feedHash);
+ * snapshotReader.setEntityStore(dao);
+ * if (snapshotReader.isSnapshotCurrent()) {
+ *   snapshotReader.run();
+ * } else {
+ *   // read the feed with a GtfsReader into dao, then:
+ *   GtfsSnapshotWriter snapshotWriter = new GtfsSnapshotWriter();
+ *   snapshotWriter.setOutputLocation(snapshotPath);
+ *   snapshotWriter.setFeedHash(feedHash);
+ *   snapshotWriter.run(dao);
+ * }
+ * </pre>
+ */
+public class GtfsSnapshotReader {
+
+  private File _inputLocation;
+
+  private String _feedHash = null;
+
+  private GenericMutableDao _entityStore = new GtfsDaoImpl();
+
+  public void setInputLocation(File inputLocation) {
+    _inputLocation = inputLocation;
+  }
+
+  /**
+   * @param feedHash the expected feed hash of the snapshot, or null to accept
+   *          a snapshot of any feed
+   */
+  public void setFeedHash(String feedHash) {
+    _feedHash = feedHash;
+  }
+
+  public GenericMutableDao getEntityStore() {
+    return _entityStore;
+  }
+
+  public void setEntityStore(GenericMutableDao entityStore) {
+    _entityStore = entityStore;
+  }
+
+  /**
+   * @return true if the input location is a snapshot of the current format
+   *         version, created from the feed with the expected hash
+   */
+  public boolean isSnapshotCurrent() throws IOException {
+    if (!_inputLocation.isFile())
+      return false;
+    RandomAccessFile file = new RandomAccessFile(_inputLocation, "r");
+    try {
+      return readHeader(file) == null;
+    } finally {
+      file.close();
+    }
+  }
+
+  public void run() throws IOException {
+
+    RandomAccessFile file = new RandomAccessFile(_inputLocation, "r");
+    try {
+      String problem = readHeader(file);
+      if (problem != null)
+        throw new IOException("snapshot " + _inputLocation + " is not current: "
+            + problem);
+
+      _entityStore.open();
+
+      long entitiesLength = file.readLong();
+      long entitiesEnd = file.getFilePointer() + entitiesLength;
+      ObjectInputStream objects = new ObjectInputStream(
+          new BufferedInputStream(Channels.newInputStream(file.getChannel())));
+      List<Trip> trips;
+      List<Stop> stops;
+      List<String> strings;
+      List<AgencyAndId> shapeIds;
+      try {
+        int entityClassCount = objects.readInt();
+        for (int i = 0; i < entityClassCount; i++) {
+          objects.readObject();
+          List<?> entities = (List<?>) objects.readObject();
+          for (Object entity : entities)
+            _entityStore.saveEntity(entity);
+        }
+        trips = readList(objects);
+        stops = readList(objects);
+        strings = readList(objects);
+        shapeIds = readList(objects);
+      } catch (ClassNotFoundException ex) {
+        throw new IOException("unknown class in snapshot " + _inputLocation,
+            ex);
+      }
+
+      FileChannel channel = file.getChannel();
+      long position = readStopTimes(channel, entitiesEnd, trips, stops,
+          strings);
+      readShapePoints(channel, position, shapeIds);
+
+      _entityStore.flush();
+      _entityStore.close();
+    } finally {
+      file.close();
+    }
+  }
+
+  /**
+   * Computes a hash of the contents of a feed, used to key snapshots to the
+   * feed they were created from. For a feed directory, the names and contents
+   * of the files in the directory are hashed.
+   * 
+   * @param feedLocation a feed zip file or directory
+   * @return the hex encoded SHA-1 hash of the feed
+   */
+  public static String computeFeedHash(File feedLocation) throws IOException {
+    MessageDigest digest;
+    try {
+      digest = MessageDigest.getInstance("SHA-1");
+    } catch (NoSuchAlgorithmException ex) {
+      throw new IllegalStateException(ex);
+    }
+    byte[] buffer = new byte[64 * 1024];
+    if (feedLocation.isDirectory()) {
+      File[] files = feedLocation.listFiles();
+      Arrays.sort(files);
+      for (File file : files) {
+        if (!file.isFile())
+          continue;
+        digest.update(file.getName().getBytes("UTF-8"));
+        digest.update((byte) 0);
+        updateDigest(digest, file, buffer);
+      }
+    } else {
+      updateDigest(digest, feedLocation, buffer);
+    }
+    StringBuilder b = new StringBuilder();
+    for (byte value : digest.digest()) {
+      b.append(Character.forDigit((value >> 4) & 0xf, 16));
+      b.append(Character.forDigit(value & 0xf, 16));
+    }
+    return b.toString();
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * @return a description of why the snapshot can't be used, or null if it
+   *         can
+   */
+  private String readHeader(RandomAccessFile file) throws IOException {
+    byte[] magic = new byte[GtfsSnapshotWriter.MAGIC.length];
+    if (file.length() < magic.length + 4)
+      return "not a snapshot";
+    file.readFully(magic);
+    if (!Arrays.equals(magic, GtfsSnapshotWriter.MAGIC))
+      return "not a snapshot";
+    int version = file.readInt();
+    if (version != GtfsSnapshotWriter.VERSION)
+      return "format version " + version + " (expected "
+          + GtfsSnapshotWriter.VERSION + ")";
+    String feedHash = file.readUTF();
+    if (_feedHash != null && !_feedHash.equals(feedHash))
+      return "feed hash " + feedHash + " (expected " + _feedHash + ")";
+    return null;
+  }
+
+  private long readStopTimes(FileChannel channel, long position,
+      List<Trip> trips, List<Stop> stops, List<String> strings)
+      throws IOException {
+
+    ColumnReader columns = new ColumnReader(channel, position);
+    int size = columns.getSize();
+    int[] ids = columns.readInts();
+    int[] tripIndices = columns.readInts();
+    int[] stopIndices = columns.readInts();
+    int[] arrivalTimes = columns.readInts();
+    int[] departureTimes = columns.readInts();
+    int[] timepoints = columns.readInts();
+    int[] stopSequences = columns.readInts();
+    int[] stopHeadsignIndices = columns.readInts();
+    int[] routeShortNameIndices = columns.readInts();
+    int[] pickupTypes = columns.readInts();
+    int[] dropOffTypes = columns.readInts();
+    double[] shapeDistTraveled = columns.readDoubles();
+
+    if (_entityStore instanceof GtfsDaoImpl
+        && ((GtfsDaoImpl) _entityStore).isPackStopTimes()) {
+      GtfsDaoImpl dao = (GtfsDaoImpl) _entityStore;
+      dao.unpackStopTimePatterns();
+      StopTimeArray stopTimes = dao.getStopTimeArray();
+      stopTimes.ensureCapacity(stopTimes.size() + size);
+      for (int i = 0; i < size; i++) {
+        stopTimes.add(get(trips, tripIndices[i]), get(stops, stopIndices[i]),
+            arrivalTimes[i], departureTimes[i], timepoints[i],
+            stopSequences[i], get(strings, stopHeadsignIndices[i]),
+            get(strings, routeShortNameIndices[i]), pickupTypes[i],
+            dropOffTypes[i], shapeDistTraveled[i]);
+      }
+    } else {
+      boolean keepIds = !isRowIndices(ids);
+      for (int i = 0; i < size; i++) {
+        StopTime stopTime = new StopTime();
+        if (keepIds && ids[i] != GtfsSnapshotWriter.NO_ID)
+          stopTime.setId(ids[i]);
+        stopTime.setTrip(get(trips, tripIndices[i]));
+        stopTime.setStop(get(stops, stopIndices[i]));
+        stopTime.setArrivalTime(arrivalTimes[i]);
+        stopTime.setDepartureTime(departureTimes[i]);
+        stopTime.setTimepoint(timepoints[i]);
+        stopTime.setStopSequence(stopSequences[i]);
+        stopTime.setStopHeadsign(get(strings, stopHeadsignIndices[i]));
+        stopTime.setRouteShortName(get(strings, routeShortNameIndices[i]));
+        stopTime.setPickupType(pickupTypes[i]);
+        stopTime.setDropOffType(dropOffTypes[i]);
+        stopTime.setShapeDistTraveled(shapeDistTraveled[i]);
+        _entityStore.saveEntity(stopTime);
+      }
+    }
+
+    return columns.getEnd();
+  }
+
+  private long readShapePoints(FileChannel channel, long position,
+      List<AgencyAndId> shapeIds) throws IOException {
+
+    ColumnReader columns = new ColumnReader(channel, position);
+    int size = columns.getSize();
+    int[] ids = columns.readInts();
+    int[] shapeIdIndices = columns.readInts();
+    int[] sequences = columns.readInts();
+    double[] lats = columns.readDoubles();
+    double[] lons = columns.readDoubles();
+    double[] distTraveled = columns.readDoubles();
+
+    if (_entityStore instanceof GtfsDaoImpl
+        && ((GtfsDaoImpl) _entityStore).isPackShapePoints()) {
+      ShapePointArray shapePoints = ((GtfsDaoImpl) _entityStore).getShapePointArray();
+      shapePoints.ensureCapacity(shapePoints.size() + size);
+      for (int i = 0; i < size; i++) {
+        shapePoints.add(get(shapeIds, shapeIdIndices[i]), sequences[i],
+            lats[i], lons[i], distTraveled[i]);
+      }
+    } else {
+      boolean keepIds = !isRowIndices(ids);
+      for (int i = 0; i < size; i++) {
+        ShapePoint shapePoint = new ShapePoint();
+        if (keepIds && ids[i] != GtfsSnapshotWriter.NO_ID)
+          shapePoint.setId(ids[i]);
+        shapePoint.setShapeId(get(shapeIds, shapeIdIndices[i]));
+        shapePoint.setSequence(sequences[i]);
+        shapePoint.setLat(lats[i]);
+        shapePoint.setLon(lons[i]);
+        shapePoint.setDistTraveled(distTraveled[i]);
+        _entityStore.saveEntity(shapePoint);
+      }
+    }
+
+    return columns.getEnd();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> List<T> readList(ObjectInputStream in)
+      throws IOException, ClassNotFoundException {
+    return (List<T>) in.readObject();
+  }
+
+  /**
+   * Packed entities are written with their row indices as ids. An id of zero
+   * would be replaced by a generated id that collides with the next row, so
+   * the ids of such a column are generated anew instead.
+   */
+  private static boolean isRowIndices(int[] ids) {
+    for (int id : ids) {
+      if (id == 0)
+        return true;
+    }
+    return false;
+  }
+
+  private static <T> T get(List<T> values, int index) {
+    return index == -1 ? null : values.get(index);
+  }
+
+  private static void updateDigest(MessageDigest digest, File file,
+      byte[] buffer) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      int n;
+      while ((n = in.read(buffer)) != -1)
+        digest.update(buffer, 0, n);
+    } finally {
+      in.close();
+    }
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * Reads a length-prefixed section of columns, mapping each column
+   * separately so that no single mapping approaches the 2GB limit.
+   */
+  private static class ColumnReader {
+
+    private final FileChannel _channel;
+
+    private final long _end;
+
+    private final int _size;
+
+    private long _position;
+
+    public ColumnReader(FileChannel channel, long position) throws IOException {
+      _channel = channel;
+      ByteBuffer header = ByteBuffer.allocate(12);
+      while (header.hasRemaining()) {
+        if (channel.read(header, position + header.position()) == -1)
+          throw new IOException("truncated snapshot");
+      }
+      header.flip();
+      _end = position + 8 + header.getLong();
+      _size = header.getInt();
+      _position = position + 12;
+    }
+
+    public int getSize() {
+      return _size;
+    }
+
+    public long getEnd() {
+      return _end;
+    }
+
+    public int[] readInts() throws IOException {
+      int[] values = new int[_size];
+      map(4L * _size).asIntBuffer().get(values);
+      return values;
+    }
+
+    public double[] readDoubles() throws IOException {
+      double[] values = new double[_size];
+      map(8L * _size).asDoubleBuffer().get(values);
+      return values;
+    }
+
+    private MappedByteBuffer map(long length) throws IOException {
+      if (_position + length > _end)
+        throw new IOException("truncated snapshot");
+      MappedByteBuffer buffer = _channel.map(FileChannel.MapMode.READ_ONLY,
+          _position, length);
+      _position += length;
+      return buffer;
+    }
+  }
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.onebusaway.gtfs.impl.GenericDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.GtfsDao;
+
+/**
+ * Writes the contents of a {@link GtfsDao} to a binary snapshot file, which
+ * {@link GtfsSnapshotReader} restores much faster than the feed itself can be
+ * parsed.
+ * 
+ * A snapshot starts with a magic number, a format version and the hash of the
+ * feed it was created from (see
+ * {@link GtfsSnapshotReader#computeFeedHash(File)}), so that a stale snapshot
+ * can be detected and discarded. It is followed by three sections, each
+ * prefixed with its length in bytes:
+ * 
+ * <ol>
+ * <li>the entities of every type other than {@link StopTime} and
+ * {@link ShapePoint}, serialized as one Java object graph, along with the
+ * trips, stops, strings and shape ids referenced by the stop times and shape
+ * points</li>
+ * <li>the stop times, as one column of big-endian values per field, with
+ * object fields stored as indices into the tables of the first section</li>
+ * <li>the shape points, in the same column layout</li>
+ * </ol>
+ * 
+ * Stop times and shape points without an id are stored with {@link #NO_ID},
+ * and are given a generated id when the snapshot is read. Packed stop times
+ * and shape points are stored with their row indices as ids, which start at
+ * zero, so these are all given generated ids when the snapshot is read into
+ * unpacked entities.
+ * 
+ * The snapshot is written to a temporary file which then replaces the output
+ * file, so an interrupted write never leaves a truncated snapshot behind.
+ */
+public class GtfsSnapshotWriter {
+
+  static final byte[] MAGIC = {'G', 'T', 'F', 'S', 'S', 'N', 'A', 'P'};
+
+  static final int VERSION = 1;
+
+  /**
+   * The id stored for stop times and shape points without an id
+   */
+  static final int NO_ID = Integer.MIN_VALUE;
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+
+  private File _outputLocation;
+
+  private String _feedHash = "";
+
+  public void setOutputLocation(File outputLocation) {
+    _outputLocation = outputLocation;
+  }
+
+  /**
+   * @param feedHash the hash of the feed the snapshot is created from
+   */
+  public void setFeedHash(String feedHash) {
+    _feedHash = feedHash;
+  }
+
+  public void run(GtfsDao dao) throws IOException {
+
+    StopTimeColumns stopTimes = new StopTimeColumns(dao.getAllStopTimes());
+    ShapePointColumns shapePoints = new ShapePointColumns(
+        dao.getAllShapePoints());
+
+    File tmpFile = new File(_outputLocation.getPath() + ".tmp");
+    FileOutputStream fileOut = new FileOutputStream(tmpFile);
+    FileChannel channel = fileOut.getChannel();
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+        fileOut, BUFFER_SIZE));
+    try {
+      out.write(MAGIC);
+      out.writeInt(VERSION);
+      out.writeUTF(_feedHash);
+
+      // The entities are streamed to the file, and the length of their section
+      // is filled in once it is known
+      out.writeLong(0);
+      out.flush();
+      long entitiesStart = channel.position();
+      ObjectOutputStream objects = new ObjectOutputStream(
+          new NonClosingOutputStream(out));
+      List<Class<?>> entityClasses = getEntityClasses(dao);
+      objects.writeInt(entityClasses.size());
+      for (Class<?> entityClass : entityClasses) {
+        objects.writeObject(entityClass);
+        objects.writeObject(new ArrayList<Object>(
+            dao.getAllEntitiesForType(entityClass)));
+      }
+      stopTimes.writeTables(objects);
+      shapePoints.writeTables(objects);
+      objects.close();
+      out.flush();
+      long entitiesLength = channel.position() - entitiesStart;
+      ByteBuffer length = ByteBuffer.allocate(8);
+      length.putLong(entitiesLength).flip();
+      while (length.hasRemaining())
+        channel.write(length, entitiesStart - 8 + length.position());
+
+      stopTimes.writeColumns(out);
+      shapePoints.writeColumns(out);
+    } finally {
+      out.close();
+    }
+
+    if (_outputLocation.exists() && !_outputLocation.delete())
+      throw new IOException("could not replace " + _outputLocation);
+    if (!tmpFile.renameTo(_outputLocation))
+      throw new IOException("could not rename " + tmpFile + " to "
+          + _outputLocation);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private List<Class<?>> getEntityClasses(GtfsDao dao) {
+    Set<Class<?>> entityClasses = new LinkedHashSet<Class<?>>(
+        GtfsEntitySchemaFactory.getEntityClasses());
+    if (dao instanceof GenericDaoImpl)
+      entityClasses.addAll(((GenericDaoImpl) dao).getEntityClasses());
+    entityClasses.remove(StopTime.class);
+    entityClasses.remove(ShapePoint.class);
+    return new ArrayList<Class<?>>(entityClasses);
+  }
+
+  private static int getId(Integer id) {
+    return id == null ? NO_ID : id;
+  }
+
+  private static void writeInts(DataOutputStream out, int[] values)
+      throws IOException {
+    byte[] chunk = new byte[BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    for (int offset = 0; offset < values.length;) {
+      int length = Math.min(values.length - offset, BUFFER_SIZE / 4);
+      buffer.clear();
+      buffer.asIntBuffer().put(values, offset, length);
+      out.write(chunk, 0, length * 4);
+      offset += length;
+    }
+  }
+
+  private static void writeDoubles(DataOutputStream out, double[] values)
+      throws IOException {
+    byte[] chunk = new byte[BUFFER_SIZE];
+    ByteBuffer buffer = ByteBuffer.wrap(chunk);
+    for (int offset = 0; offset < values.length;) {
+      int length = Math.min(values.length - offset, BUFFER_SIZE / 8);
+      buffer.clear();
+      buffer.asDoubleBuffer().put(values, offset, length);
+      out.write(chunk, 0, length * 8);
+      offset += length;
+    }
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * Leaves the underlying stream open when closed, so that the object stream
+   * of the entity section can be closed before the sections that follow it.
+   */
+  private static class NonClosingOutputStream extends FilterOutputStream {
+
+    public NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+    }
+  }
+
+  /**
+   * Assigns each distinct value a position in a table, in first-seen order.
+   * Null values are stored as -1.
+   */
+  private static class ValueTable<T> {
+
+    private final Map<T, Integer> _indices = new HashMap<T, Integer>();
+
+    private final List<T> _values = new ArrayList<T>();
+
+    public int getIndex(T value) {
+      if (value == null)
+        return -1;
+      Integer index = _indices.get(value);
+      if (index == null) {
+        index = _values.size();
+        _indices.put(value, index);
+        _values.add(value);
+      }
+      return index;
+    }
+
+    public ArrayList<T> getValues() {
+      return new ArrayList<T>(_values);
+    }
+  }
+
+  private static class StopTimeColumns {
+
+    private final int _size;
+
+    private final ValueTable<Trip> _trips = new ValueTable<Trip>();
+
+    private final ValueTable<Stop> _stops = new ValueTable<Stop>();
+
+    private final ValueTable<String> _strings = new ValueTable<String>();
+
+    private final int[] _ids;
+
+    private final int[] _tripIndices;
+
+    private final int[] _stopIndices;
+
+    private final int[] _arrivalTimes;
+
+    private final int[] _departureTimes;
+
+    private final int[] _timepoints;
+
+    private final int[] _stopSequences;
+
+    private final int[] _stopHeadsignIndices;
+
+    private final int[] _routeShortNameIndices;
+
+    private final int[] _pickupTypes;
+
+    private final int[] _dropOffTypes;
+
+    private final double[] _shapeDistTraveled;
+
+    public StopTimeColumns(Collection<StopTime> stopTimes) {
+      _size = stopTimes.size();
+      _ids = new int[_size];
+      _tripIndices = new int[_size];
+      _stopIndices = new int[_size];
+      _arrivalTimes = new int[_size];
+      _departureTimes = new int[_size];
+      _timepoints = new int[_size];
+      _stopSequences = new int[_size];
+      _stopHeadsignIndices = new int[_size];
+      _routeShortNameIndices = new int[_size];
+      _pickupTypes = new int[_size];
+      _dropOffTypes = new int[_size];
+      _shapeDistTraveled = new double[_size];
+      int i = 0;
+      for (StopTime stopTime : stopTimes) {
+        _ids[i] = getId(stopTime.getId());
+        _tripIndices[i] = _trips.getIndex(stopTime.getTrip());
+        _stopIndices[i] = _stops.getIndex(stopTime.getStop());
+        _arrivalTimes[i] = stopTime.getArrivalTime();
+        _departureTimes[i] = stopTime.getDepartureTime();
+        _timepoints[i] = stopTime.getTimepoint();
+        _stopSequences[i] = stopTime.getStopSequence();
+        _stopHeadsignIndices[i] = _strings.getIndex(stopTime.getStopHeadsign());
+        _routeShortNameIndices[i] = _strings.getIndex(stopTime.getRouteShortName());
+        _pickupTypes[i] = stopTime.getPickupType();
+        _dropOffTypes[i] = stopTime.getDropOffType();
+        _shapeDistTraveled[i] = stopTime.getShapeDistTraveled();
+        i++;
+      }
+    }
+
+    public void writeTables(ObjectOutputStream out) throws IOException {
+      out.writeObject(_trips.getValues());
+      out.writeObject(_stops.getValues());
+      out.writeObject(_strings.getValues());
+    }
+
+    public void writeColumns(DataOutputStream out) throws IOException {
+      out.writeLong(4 + _size * (11L * 4 + 8));
+      out.writeInt(_size);
+      writeInts(out, _ids);
+      writeInts(out, _tripIndices);
+      writeInts(out, _stopIndices);
+      writeInts(out, _arrivalTimes);
+      writeInts(out, _departureTimes);
+      writeInts(out, _timepoints);
+      writeInts(out, _stopSequences);
+      writeInts(out, _stopHeadsignIndices);
+      writeInts(out, _routeShortNameIndices);
+      writeInts(out, _pickupTypes);
+      writeInts(out, _dropOffTypes);
+      writeDoubles(out, _shapeDistTraveled);
+    }
+  }
+
+  private static class ShapePointColumns {
+
+    private final int _size;
+
+    private final ValueTable<AgencyAndId> _shapeIds = new ValueTable<AgencyAndId>();
+
+    private final int[] _ids;
+
+    private final int[] _shapeIdIndices;
+
+    private final int[] _sequences;
+
+    private final double[] _lats;
+
+    private final double[] _lons;
+
+    private final double[] _distTraveled;
+
+    public ShapePointColumns(Collection<ShapePoint> shapePoints) {
+      _size = shapePoints.size();
+      _ids = new int[_size];
+      _shapeIdIndices = new int[_size];
+      _sequences = new int[_size];
+      _lats = new double[_size];
+      _lons = new double[_size];
+      _distTraveled = new double[_size];
+      int i = 0;
+      for (ShapePoint shapePoint : shapePoints) {
+        _ids[i] = getId(shapePoint.getId());
+        _shapeIdIndices[i] = _shapeIds.getIndex(shapePoint.getShapeId());
+        _sequences[i] = shapePoint.getSequence();
+        _lats[i] = shapePoint.getLat();
+        _lons[i] = shapePoint.getLon();
+        _distTraveled[i] = shapePoint.getDistTraveled();
+        i++;
+      }
+    }
+
+    public void writeTables(ObjectOutputStream out) throws IOException {
+      out.writeObject(_shapeIds.getValues());
+    }
+
+    public void writeColumns(DataOutputStream out) throws IOException {
+      out.writeLong(4 + _size * (3L * 4 + 3 * 8));
+      out.writeInt(_size);
+      writeInts(out, _ids);
+      writeInts(out, _shapeIdIndices);
+      writeInts(out, _sequences);
+      writeDoubles(out, _lats);
+      writeDoubles(out, _lons);
+      writeDoubles(out, _distTraveled);
+    }
+  }
+}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+
+/**
+ * Records the {@link GtfsReaderFileStats} of the entity file being read on the
+ * current thread and reports them to the {@link GtfsReaderListener} instances
+ * of the reader.
+ */
+class LoadStatsRecorder {
+
+  private final GtfsReaderFileStats _stats;
+
+  private final List<GtfsReaderListener> _listeners;
+
+  private final int _progressInterval;
+
+  private final long _startNanos;
+
+  private final long _startHeap;
+
+  private long _rowsUntilProgress;
+
+  public LoadStatsRecorder(GtfsReaderFileStats stats,
+      List<GtfsReaderListener> listeners, int progressInterval) {
+    _stats = stats;
+    _listeners = listeners;
+    _progressInterval = progressInterval;
+    _rowsUntilProgress = progressInterval;
+    _startHeap = getUsedHeap();
+    _startNanos = System.nanoTime();
+  }
+
+  public GtfsReaderFileStats getStats() {
+    return _stats;
+  }
+
+  public void start() {
+    for (GtfsReaderListener listener : _listeners)
+      listener.startReadingEntities(_stats);
+  }
+
+  /**
+   * @param dropped true if the row was dropped by a row filter
+   */
+  public void handleRow(boolean dropped) {
+    _stats.addRow(dropped);
+    if (_progressInterval > 0 && --_rowsUntilProgress == 0) {
+      _rowsUntilProgress = _progressInterval;
+      update();
+      for (GtfsReaderListener listener : _listeners)
+        listener.handleProgress(_stats);
+    }
+  }
+
+  /**
+   * Counts rows read elsewhere, such as the rows of a chunk of the file read
+   * on another thread.
+   * 
+   * @param rows the number of rows, including the dropped rows
+   * @param droppedRows the number of rows dropped by a row filter
+   */
+  public void handleRows(long rows, long droppedRows) {
+    _stats.addRows(rows, droppedRows);
+    if (_progressInterval > 0) {
+      _rowsUntilProgress -= rows;
+      if (_rowsUntilProgress <= 0) {
+        _rowsUntilProgress = _progressInterval
+            + _rowsUntilProgress % _progressInterval;
+        update();
+        for (GtfsReaderListener listener : _listeners)
+          listener.handleProgress(_stats);
+      }
+    }
+  }
+
+  public void addBytesRead(long bytes) {
+    _stats.addBytesRead(bytes);
+  }
+
+  public void addReferenceResolutionNanos(long nanos) {
+    _stats.addReferenceResolutionNanos(nanos);
+  }
+
+  public void addStoreNanos(long nanos) {
+    _stats.addStoreNanos(nanos);
+  }
+
+  public void finish() {
+    update();
+    for (GtfsReaderListener listener : _listeners)
+      listener.finishReadingEntities(_stats);
+  }
+
+  /**
+   * @return a stream that counts the bytes read from the specified stream
+   */
+  public InputStream countBytes(InputStream in) {
+    return new CountingInputStream(in);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void update() {
+    _stats.update(System.nanoTime() - _startNanos, getUsedHeap() - _startHeap);
+  }
+
+  private static long getUsedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private class CountingInputStream extends FilterInputStream {
+
+    public CountingInputStream(InputStream in) {
+      super(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+      int b = super.read();
+      if (b != -1)
+        _stats.addBytesRead(1);
+      return b;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      int n = super.read(b, off, len);
+      if (n > 0)
+        _stats.addBytesRead(n);
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = super.skip(n);
+      _stats.addBytesRead(skipped);
+      return skipped;
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import org.onebusaway.csv_entities.CsvInputSource;
+
+/**
+ * A {@link CsvInputSource} for a GTFS directory or zip file that maps files
+ * into memory with {@link FileChannel#map(MapMode, long, long)}. Files in a
+ * directory, and zip entries stored without compression, are available as a
+ * mapped {@link ByteBuffer} through {@link #getMappedResource(String)}, which
+ * {@link GtfsReader} tokenizes directly on the bytes instead of decoding them
+ * through a Reader. Compressed zip entries, and files too large to be mapped
+ * as a single buffer (2GB and up), are read as a regular stream.
+ * 
+ * Mapped buffers remain valid after {@link #close()}; their memory is released
+ * once they are garbage collected.
+ */
+public class MappedCsvInputSource implements CsvInputSource {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  private static final int LOCAL_HEADER_SIGNATURE = 0x04034b50;
+
+  private static final int CENTRAL_HEADER_SIGNATURE = 0x02014b50;
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+
+  private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+
+  private static final long UNSIGNED_INT_MASK = 0xffffffffL;
+
+  private final File _path;
+
+  private ZipFile _zipFile = null;
+
+  private RandomAccessFile _zipData = null;
+
+  private final Map<String, StoredEntry> _storedEntries = new HashMap<String, StoredEntry>();
+
+  /**
+   * @param path a GTFS directory or zip file
+   * @throws IOException
+   */
+  public MappedCsvInputSource(File path) throws IOException {
+    _path = path;
+    if (!path.isDirectory()) {
+      _zipFile = new ZipFile(path);
+      _zipData = new RandomAccessFile(path, "r");
+      readStoredEntries();
+    }
+  }
+
+  /**
+   * @param name
+   * @return a read-only buffer mapping the contents of the named resource, or
+   *         null if the resource does not exist or can't be mapped
+   * @throws IOException
+   */
+  public ByteBuffer getMappedResource(String name) throws IOException {
+
+    if (_zipFile != null) {
+      StoredEntry entry = _storedEntries.get(name);
+      if (entry == null)
+        return null;
+      return _zipData.getChannel().map(MapMode.READ_ONLY, entry.offset,
+          entry.size);
+    }
+
+    File file = new File(_path, name);
+    if (!file.isFile() || file.length() > Integer.MAX_VALUE)
+      return null;
+
+    RandomAccessFile data = new RandomAccessFile(file, "r");
+    try {
+      return data.getChannel().map(MapMode.READ_ONLY, 0, data.length());
+    } finally {
+      data.close();
+    }
+  }
+
+  /**
+   * @param name
+   * @return the uncompressed size of the named resource in bytes, or -1 if the
+   *         resource does not exist or its size is unknown
+   */
+  public long getResourceSize(String name) {
+    if (_zipFile != null) {
+      ZipEntry entry = _zipFile.getEntry(name);
+      return entry != null ? entry.getSize() : -1;
+    }
+    File file = new File(_path, name);
+    return file.isFile() ? file.length() : -1;
+  }
+
+  /****
+   * {@link CsvInputSource} Interface
+   ****/
+
+  @Override
+  public boolean hasResource(String name) throws IOException {
+    if (_zipFile != null)
+      return _zipFile.getEntry(name) != null;
+    return new File(_path, name).exists();
+  }
+
+  @Override
+  public InputStream getResource(String name) throws IOException {
+    ByteBuffer buffer = getMappedResource(name);
+    if (buffer != null)
+      return new ByteBufferInputStream(buffer);
+    if (_zipFile != null) {
+      ZipEntry entry = _zipFile.getEntry(name);
+      return _zipFile.getInputStream(entry);
+    }
+    return new FileInputStream(new File(_path, name));
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (_zipFile != null) {
+      _zipFile.close();
+      _zipData.close();
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * {@link ZipFile} does not expose where the data of an entry starts, so we
+   * read the zip central directory ourselves to find the data offsets of the
+   * entries that are stored without compression. Anything unexpected, such as
+   * a zip64 archive, just leaves the affected entries to be read as streams.
+   */
+  private void readStoredEntries() throws IOException {
+
+    FileChannel channel = _zipData.getChannel();
+    long fileSize = channel.size();
+
+    // The end of central directory record is followed by a comment of at
+    // most 0xFFFF bytes
+    int tailSize = (int) Math.min(fileSize, END_OF_CENTRAL_DIRECTORY_SIZE
+        + 0xFFFF);
+    ByteBuffer tail = read(channel, fileSize - tailSize, tailSize);
+
+    int end = -1;
+    for (int i = tailSize - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+      if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+        end = i;
+        break;
+      }
+    }
+    if (end == -1)
+      return;
+
+    long directorySize = tail.getInt(end + 12) & UNSIGNED_INT_MASK;
+    long directoryOffset = tail.getInt(end + 16) & UNSIGNED_INT_MASK;
+    if (directoryOffset + directorySize > fileSize)
+      return;
+
+    ByteBuffer directory = channel.map(MapMode.READ_ONLY, directoryOffset,
+        directorySize).order(ByteOrder.LITTLE_ENDIAN);
+
+    int p = 0;
+    while (p + 46 <= directorySize
+        && directory.getInt(p) == CENTRAL_HEADER_SIGNATURE) {
+
+      int flags = directory.getShort(p + 8) & 0xffff;
+      int method = directory.getShort(p + 10) & 0xffff;
+      long compressedSize = directory.getInt(p + 20) & UNSIGNED_INT_MASK;
+      long size = directory.getInt(p + 24) & UNSIGNED_INT_MASK;
+      int nameLength = directory.getShort(p + 28) & 0xffff;
+      int extraLength = directory.getShort(p + 30) & 0xffff;
+      int commentLength = directory.getShort(p + 32) & 0xffff;
+      long localHeaderOffset = directory.getInt(p + 42) & UNSIGNED_INT_MASK;
+
+      byte[] nameBytes = new byte[nameLength];
+      directory.position(p + 46);
+      directory.get(nameBytes);
+      String name = new String(nameBytes, UTF8);
+
+      boolean encrypted = (flags & 1) != 0;
+      if (method == ZipEntry.STORED && !encrypted && compressedSize == size
+          && size < Integer.MAX_VALUE && localHeaderOffset + 30 <= fileSize) {
+        ByteBuffer local = read(channel, localHeaderOffset, 30);
+        if (local.getInt(0) == LOCAL_HEADER_SIGNATURE) {
+          long offset = localHeaderOffset + 30
+              + (local.getShort(26) & 0xffff) + (local.getShort(28) & 0xffff);
+          if (offset + size <= fileSize)
+            _storedEntries.put(name, new StoredEntry(offset, size));
+        }
+      }
+
+      p += 46 + nameLength + extraLength + commentLength;
+    }
+  }
+
+  private static ByteBuffer read(FileChannel channel, long position, int size)
+      throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate(size).order(
+        ByteOrder.LITTLE_ENDIAN);
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0)
+        throw new IOException("unexpected end of zip file");
+    }
+    buffer.flip();
+    return buffer;
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class StoredEntry {
+
+    private final long offset;
+
+    private final long size;
+
+    public StoredEntry(long offset, long size) {
+      this.offset = offset;
+      this.size = size;
+    }
+  }
+
+  private static class ByteBufferInputStream extends InputStream {
+
+    private final ByteBuffer _buffer;
+
+    public ByteBufferInputStream(ByteBuffer buffer) {
+      _buffer = buffer;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!_buffer.hasRemaining())
+        return -1;
+      return _buffer.get() & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0)
+        return 0;
+      if (!_buffer.hasRemaining())
+        return -1;
+      len = Math.min(len, _buffer.remaining());
+      _buffer.get(b, off, len);
+      return len;
+    }
+
+    @Override
+    public int available() throws IOException {
+      return _buffer.remaining();
+    }
+  }
+}
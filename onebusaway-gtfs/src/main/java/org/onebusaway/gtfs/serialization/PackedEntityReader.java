@@ -0,0 +1,284 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.onebusaway.csv_entities.exceptions.MissingRequiredFieldException;
+import org.onebusaway.gtfs.serialization.mappings.GtfsValueCodec;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads the rows of a GTFS file without a map of field values per row, either
+ * straight into packed, column-oriented storage without creating an
+ * intermediate entity instance, or into entities through an
+ * {@link EntityBinder}. The position of each known column is resolved once from the header
+ * row, and subclasses read the values of each row by column id. Numeric values
+ * are parsed from the {@link CsvRow} value views, so rows tokenized from bytes
+ * don't need a String per value.
+ * 
+ * Values are interpreted as the default entity schema would: a value that is
+ * empty or missing from the header is treated as absent, a missing required
+ * value throws {@link MissingRequiredFieldException}, and a malformed number
+ * falls back to zero, as with the default bean conversion.
+ */
+abstract class PackedEntityReader {
+
+  private static Logger _log = LoggerFactory.getLogger(PackedEntityReader.class);
+
+  private final Class<?> _entityClass;
+
+  private final String[] _columnNames;
+
+  private int[] _columnIndices = null;
+
+  private List<String> _header = null;
+
+  private int _fieldCount;
+
+  private int _line = 1;
+
+  private boolean _trimValues = false;
+
+  private final StringListRow _stringListRow = new StringListRow();
+
+  private RowFilter _rowFilter = null;
+
+  private LoadStatsRecorder _loadStats = null;
+
+  /**
+   * @param entityClass the entity type the file would otherwise be read as
+   * @param columnNames the csv field names read by the subclass, indexed by
+   *          column id
+   */
+  protected PackedEntityReader(Class<?> entityClass, String[] columnNames) {
+    _entityClass = entityClass;
+    _columnNames = columnNames;
+  }
+
+  /**
+   * @param trimValues whether the values passed to
+   *          {@link #handleLine(List)} should be trimmed
+   */
+  public void setTrimValues(boolean trimValues) {
+    _trimValues = trimValues;
+  }
+
+  /**
+   * @param rowFilter drops rows before they are read, or null to read every
+   *          row
+   */
+  public void setRowFilter(RowFilter rowFilter) {
+    _rowFilter = rowFilter;
+  }
+
+  /**
+   * @param loadStats counts the rows read, or null
+   */
+  public void setLoadStats(LoadStatsRecorder loadStats) {
+    _loadStats = loadStats;
+  }
+
+  public void handleLine(List<String> line) {
+
+    if (_trimValues) {
+      for (int i = 0; i < line.size(); i++)
+        line.set(i, line.get(i).trim());
+    }
+
+    _stringListRow.setValues(line);
+    handleRow(_stringListRow);
+  }
+
+  public void handleRow(CsvRow row) {
+
+    if (row.size() == 0)
+      return;
+
+    if (_columnIndices == null) {
+      readHeader(row);
+      if (_rowFilter != null)
+        _rowFilter.readHeader(row);
+    } else {
+      boolean dropped = _rowFilter != null && !_rowFilter.accept(row);
+      if (_loadStats != null)
+        _loadStats.handleRow(dropped);
+      if (!dropped) {
+        if (row.size() != _fieldCount) {
+          _log.warn("expected and actual number of csv fields differ: type="
+              + _entityClass.getName() + " line # " + _line + " expected="
+              + _fieldCount + " actual=" + row.size());
+        }
+        readRow(row);
+      }
+    }
+
+    _line++;
+  }
+
+  /**
+   * @return a reader of the same file into storage of its own, for reading a
+   *         chunk of the file on another thread. Its rows are added to the
+   *         storage of this reader with {@link #append(PackedEntityReader)}.
+   */
+  public abstract PackedEntityReader newChunkReader();
+
+  /**
+   * Adds the rows read by a reader returned by {@link #newChunkReader()} to
+   * the storage of this reader.
+   */
+  public abstract void append(PackedEntityReader chunkReader);
+
+  /****
+   * Protected Methods
+   ****/
+
+  protected abstract void readRow(CsvRow row);
+
+  protected Class<?> getEntityClass() {
+    return _entityClass;
+  }
+
+  protected int getColumnCount() {
+    return _columnNames.length;
+  }
+
+  protected String getColumnName(int column) {
+    return _columnNames[column];
+  }
+
+  /**
+   * @return the column names of the header row of the file
+   */
+  protected List<String> getHeader() {
+    return _header;
+  }
+
+  /**
+   * @return the value of the specified column, or null if the column is
+   *         missing from the file or the value is empty
+   */
+  protected String getValue(CsvRow row, int column) {
+    int index = getIndex(row, column);
+    if (index < 0)
+      return null;
+    return row.getString(index);
+  }
+
+  protected String getRequiredValue(CsvRow row, int column) {
+    String value = getValue(row, column);
+    if (value == null)
+      throw missing(column);
+    return value;
+  }
+
+  /**
+   * @return a view of the value of the specified column, valid until the next
+   *         value of the row is accessed, or null if the column is missing
+   *         from the file or the value is empty
+   */
+  protected CharSequence getChars(CsvRow row, int column) {
+    int index = getIndex(row, column);
+    if (index < 0)
+      return null;
+    return row.getChars(index);
+  }
+
+  protected CharSequence getRequiredChars(CsvRow row, int column) {
+    CharSequence value = getChars(row, column);
+    if (value == null)
+      throw missing(column);
+    return value;
+  }
+
+  protected int getInt(CsvRow row, int column, int defaultValue) {
+    CharSequence value = getChars(row, column);
+    if (value == null)
+      return defaultValue;
+    return parseInt(value);
+  }
+
+  protected int getRequiredInt(CsvRow row, int column) {
+    return parseInt(getRequiredChars(row, column));
+  }
+
+  protected double getDouble(CsvRow row, int column, double defaultValue) {
+    CharSequence value = getChars(row, column);
+    if (value == null)
+      return defaultValue;
+    return parseDouble(value);
+  }
+
+  protected double getRequiredDouble(CsvRow row, int column) {
+    return parseDouble(getRequiredChars(row, column));
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void readHeader(CsvRow row) {
+    Map<String, Integer> indicesByName = new HashMap<String, Integer>();
+    _header = new ArrayList<String>(row.size());
+    for (int i = 0; i < row.size(); i++) {
+      String name = row.getString(i);
+      indicesByName.put(name, i);
+      _header.add(name);
+    }
+    _columnIndices = new int[_columnNames.length];
+    for (int i = 0; i < _columnNames.length; i++) {
+      Integer index = indicesByName.get(_columnNames[i]);
+      _columnIndices[i] = index != null ? index : -1;
+    }
+    _fieldCount = row.size();
+  }
+
+  /**
+   * @return the index of the specified column in the row, or -1 if the column
+   *         is missing from the file or the value is empty
+   */
+  private int getIndex(CsvRow row, int column) {
+    int index = _columnIndices[column];
+    if (index < 0 || index >= row.size() || row.getLength(index) == 0)
+      return -1;
+    return index;
+  }
+
+  private MissingRequiredFieldException missing(int column) {
+    return new MissingRequiredFieldException(_entityClass,
+        _columnNames[column]);
+  }
+
+  private static int parseInt(CharSequence value) {
+    try {
+      return GtfsValueCodec.parseInt(value);
+    } catch (NumberFormatException ex) {
+      return 0;
+    }
+  }
+
+  private static double parseDouble(CharSequence value) {
+    try {
+      return GtfsValueCodec.parseDouble(value);
+    } catch (NumberFormatException ex) {
+      return 0.0;
+    }
+  }
+}
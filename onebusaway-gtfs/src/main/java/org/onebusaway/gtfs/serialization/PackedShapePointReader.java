@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import org.onebusaway.gtfs.impl.ShapePointArray;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+
+/**
+ * Reads shapes.txt directly into a {@link ShapePointArray}.
+ */
+class PackedShapePointReader extends PackedEntityReader {
+
+  static final String[] COLUMN_NAMES = {
+      "shape_id", "shape_pt_sequence", "shape_pt_lat", "shape_pt_lon",
+      "shape_dist_traveled"};
+
+  private static final int SHAPE_ID = 0;
+
+  private static final int SHAPE_PT_SEQUENCE = 1;
+
+  private static final int SHAPE_PT_LAT = 2;
+
+  private static final int SHAPE_PT_LON = 3;
+
+  private static final int SHAPE_DIST_TRAVELED = 4;
+
+  private final GtfsReaderContext _context;
+
+  private final ShapePointArray _shapePoints;
+
+  private AgencyAndId _shapeId = null;
+
+  public PackedShapePointReader(GtfsReaderContext context,
+      ShapePointArray shapePoints) {
+    super(ShapePoint.class, COLUMN_NAMES);
+    _context = context;
+    _shapePoints = shapePoints;
+  }
+
+  @Override
+  public PackedEntityReader newChunkReader() {
+    return new PackedShapePointReader(_context, new ShapePointArray());
+  }
+
+  @Override
+  public void append(PackedEntityReader chunkReader) {
+    _shapePoints.append(((PackedShapePointReader) chunkReader)._shapePoints);
+  }
+
+  @Override
+  protected void readRow(CsvRow row) {
+    AgencyAndId shapeId = getShapeId(getRequiredChars(row, SHAPE_ID));
+    int sequence = getRequiredInt(row, SHAPE_PT_SEQUENCE);
+    double lat = getRequiredDouble(row, SHAPE_PT_LAT);
+    double lon = getRequiredDouble(row, SHAPE_PT_LON);
+    double distTraveled = getDouble(row, SHAPE_DIST_TRAVELED,
+        ShapePoint.MISSING_VALUE);
+    _shapePoints.add(shapeId, sequence, lat, lon, distTraveled);
+  }
+
+  /**
+   * The points of a shape are almost always listed together, so consecutive
+   * rows share a single id instance, canonicalized through the reader context.
+   */
+  private AgencyAndId getShapeId(CharSequence id) {
+    String agencyId = _context.getDefaultAgencyId();
+    if (_shapeId == null || !_shapeId.getId().contentEquals(id)
+        || !_shapeId.getAgencyId().equals(agencyId))
+      _shapeId = _context.getCanonicalId(new AgencyAndId(agencyId,
+          id.toString()));
+    return _shapeId;
+  }
+}
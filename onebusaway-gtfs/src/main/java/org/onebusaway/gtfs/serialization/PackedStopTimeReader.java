@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import org.onebusaway.gtfs.impl.StopTimeArray;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.mappings.GtfsValueCodec;
+import org.onebusaway.gtfs.serialization.mappings.InvalidStopTimeException;
+
+/**
+ * Reads stop_times.txt directly into a {@link StopTimeArray}.
+ */
+class PackedStopTimeReader extends PackedEntityReader {
+
+  static final String[] COLUMN_NAMES = {
+      "trip_id", "stop_id", "arrival_time", "departure_time", "timepoint",
+      "stop_sequence", "stop_headsign", "route_short_name", "pickup_type",
+      "drop_off_type", "shape_dist_traveled"};
+
+  private static final int TRIP_ID = 0;
+
+  private static final int STOP_ID = 1;
+
+  private static final int ARRIVAL_TIME = 2;
+
+  private static final int DEPARTURE_TIME = 3;
+
+  private static final int TIMEPOINT = 4;
+
+  private static final int STOP_SEQUENCE = 5;
+
+  private static final int STOP_HEADSIGN = 6;
+
+  private static final int ROUTE_SHORT_NAME = 7;
+
+  private static final int PICKUP_TYPE = 8;
+
+  private static final int DROP_OFF_TYPE = 9;
+
+  private static final int SHAPE_DIST_TRAVELED = 10;
+
+  private final GtfsReaderContext _context;
+
+  private final StopTimeArray _stopTimes;
+
+  private String _tripId = null;
+
+  private Trip _trip = null;
+
+  private EntityReferenceCache _stops = null;
+
+  public PackedStopTimeReader(GtfsReaderContext context,
+      StopTimeArray stopTimes) {
+    super(StopTime.class, COLUMN_NAMES);
+    _context = context;
+    _stopTimes = stopTimes;
+  }
+
+  @Override
+  public PackedEntityReader newChunkReader() {
+    StopTimeArray stopTimes = new StopTimeArray();
+    stopTimes.setTripArray(_stopTimes.getTripArray());
+    return new PackedStopTimeReader(_context, stopTimes);
+  }
+
+  @Override
+  public void append(PackedEntityReader chunkReader) {
+    _stopTimes.append(((PackedStopTimeReader) chunkReader)._stopTimes);
+  }
+
+  @Override
+  protected void readRow(CsvRow row) {
+    Trip trip = getTrip(getRequiredChars(row, TRIP_ID));
+    Stop stop = getStop(getRequiredValue(row, STOP_ID));
+    int arrivalTime = getTime(row, ARRIVAL_TIME);
+    int departureTime = getTime(row, DEPARTURE_TIME);
+    int timepoint = getInt(row, TIMEPOINT, 0);
+    int stopSequence = getRequiredInt(row, STOP_SEQUENCE);
+    String stopHeadsign = getValue(row, STOP_HEADSIGN);
+    String routeShortName = getValue(row, ROUTE_SHORT_NAME);
+    int pickupType = getInt(row, PICKUP_TYPE, 0);
+    int dropOffType = getInt(row, DROP_OFF_TYPE, 0);
+    double shapeDistTraveled = getDouble(row, SHAPE_DIST_TRAVELED,
+        StopTime.MISSING_VALUE);
+    _stopTimes.add(trip, stop, arrivalTime, departureTime, timepoint,
+        stopSequence, stopHeadsign, routeShortName, pickupType, dropOffType,
+        shapeDistTraveled);
+  }
+
+  /**
+   * The stop times of a trip are almost always listed together, so the trip
+   * of the previous row is reused without creating a String for the id.
+   */
+  private Trip getTrip(CharSequence tripId) {
+    if (_tripId == null || !_tripId.contentEquals(tripId)) {
+      _tripId = tripId.toString();
+      _trip = (Trip) EntityReferenceCache.get(_context, Trip.class).resolve(
+          _tripId);
+    }
+    return _trip;
+  }
+
+  private Stop getStop(String stopId) {
+    if (_stops == null)
+      _stops = EntityReferenceCache.get(_context, Stop.class);
+    return (Stop) _stops.resolve(stopId);
+  }
+
+  private int getTime(CsvRow row, int column) {
+    CharSequence value = getChars(row, column);
+    if (value == null)
+      return StopTime.MISSING_VALUE;
+    try {
+      return GtfsValueCodec.parseTime(value);
+    } catch (NumberFormatException ex) {
+      throw new InvalidStopTimeException(value.toString());
+    }
+  }
+}
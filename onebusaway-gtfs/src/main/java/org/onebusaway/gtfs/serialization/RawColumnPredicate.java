@@ -0,0 +1,33 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+/**
+ * Decides whether a row of a GTFS file is read, from the raw value of one of
+ * its columns, before any entity is created for the row.
+ * 
+ * @see GtfsReader#addRawColumnFilter(Class, String, RawColumnPredicate)
+ * @see RawColumnPredicates
+ */
+public interface RawColumnPredicate {
+
+  /**
+   * @param value the value of the column in the row, or an empty string if the
+   *          value is empty or the column is missing from the file
+   * @return true if the row should be read
+   */
+  public boolean accept(String value);
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.onebusaway.gtfs.model.calendar.ServiceDate;
+import org.onebusaway.gtfs.serialization.mappings.GtfsValueCodec;
+
+/**
+ * Common {@link RawColumnPredicate} implementations. The numeric and date
+ * predicates accept empty and malformed values, so that those are reported
+ * by the regular field mappings as usual.
+ */
+public final class RawColumnPredicates {
+
+  private RawColumnPredicates() {
+
+  }
+
+  /**
+   * @return a predicate accepting the specified values only
+   */
+  public static RawColumnPredicate in(String... values) {
+    return in(Arrays.asList(values));
+  }
+
+  /**
+   * @return a predicate accepting the specified values only
+   */
+  public static RawColumnPredicate in(Collection<String> values) {
+    final Set<String> set = new HashSet<String>(values);
+    return new RawColumnPredicate() {
+      public boolean accept(String value) {
+        return set.contains(value);
+      }
+    };
+  }
+
+  /**
+   * @return a predicate accepting integer values equal to one of the specified
+   *         values, such as a set of route types
+   */
+  public static RawColumnPredicate intIn(final int... values) {
+    return new RawColumnPredicate() {
+      public boolean accept(String value) {
+        if (value.length() == 0)
+          return true;
+        int v;
+        try {
+          v = GtfsValueCodec.parseInt(value);
+        } catch (NumberFormatException ex) {
+          return true;
+        }
+        for (int candidate : values) {
+          if (v == candidate)
+            return true;
+        }
+        return false;
+      }
+    };
+  }
+
+  /**
+   * @return a predicate accepting GTFS dates on or after the specified date,
+   *         such as calendar.txt end dates for a service window
+   */
+  public static RawColumnPredicate dateOnOrAfter(ServiceDate from) {
+    return dateBetween(from, null);
+  }
+
+  /**
+   * @return a predicate accepting GTFS dates on or before the specified date,
+   *         such as calendar.txt start dates for a service window
+   */
+  public static RawColumnPredicate dateOnOrBefore(ServiceDate to) {
+    return dateBetween(null, to);
+  }
+
+  /**
+   * @param from the first accepted date, or null for no lower bound
+   * @param to the last accepted date, or null for no upper bound
+   * @return a predicate accepting GTFS dates within the specified range, such
+   *         as calendar_dates.txt dates for a service window
+   */
+  public static RawColumnPredicate dateBetween(ServiceDate from, ServiceDate to) {
+    final int min = from != null ? getDateValue(from) : Integer.MIN_VALUE;
+    final int max = to != null ? getDateValue(to) : Integer.MAX_VALUE;
+    return new RawColumnPredicate() {
+      public boolean accept(String value) {
+        if (value.length() == 0)
+          return true;
+        int date;
+        try {
+          date = GtfsValueCodec.parseDate(value);
+        } catch (NumberFormatException ex) {
+          return true;
+        }
+        return min <= date && date <= max;
+      }
+    };
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * @return the date as a yyyymmdd integer, as returned by
+   *         {@link GtfsValueCodec#parseDate(CharSequence)}
+   */
+  private static int getDateValue(ServiceDate date) {
+    return (date.getYear() * 100 + date.getMonth()) * 100 + date.getDay();
+  }
+}
@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * Estimates the number of data rows of an entity file before it is read, so
+ * that the entity store can be sized up front instead of growing as rows are
+ * added. Rows are counted as newlines, so quoted values spanning several lines
+ * make for an overestimate, which is harmless.
+ */
+final class RowCountEstimator {
+
+  /**
+   * The number of bytes sampled from the start of a file whose rows can't be
+   * counted exactly
+   */
+  static final int SAMPLE_SIZE = 64 * 1024;
+
+  private RowCountEstimator() {
+
+  }
+
+  /**
+   * @param buffer the contents of the file, which are not modified
+   * @return the number of data rows of the file, not counting the header
+   */
+  public static int countRows(ByteBuffer buffer) {
+    int lines = 0;
+    int limit = buffer.limit();
+    for (int i = buffer.position(); i < limit; i++) {
+      if (buffer.get(i) == '\n')
+        lines++;
+    }
+    if (limit > buffer.position() && buffer.get(limit - 1) != '\n')
+      lines++;
+    return Math.max(0, lines - 1);
+  }
+
+  /**
+   * Counts the lines in a sample from the start of the file and extrapolates
+   * the count to the size of the file. Files no larger than the sample are
+   * counted exactly.
+   *
+   * @param in the contents of the file, which is closed
+   * @param size the size of the file in bytes
+   * @return the estimated number of data rows of the file, not counting the
+   *         header
+   * @throws IOException
+   */
+  public static int estimateRows(InputStream in, long size) throws IOException {
+    byte[] buffer = new byte[SAMPLE_SIZE];
+    int length = 0;
+    try {
+      int n;
+      while (length < buffer.length
+          && (n = in.read(buffer, length, buffer.length - length)) != -1)
+        length += n;
+    } finally {
+      in.close();
+    }
+
+    int rows = countRows(ByteBuffer.wrap(buffer, 0, length));
+    if (length < buffer.length || size <= length)
+      return rows;
+
+    // The header is a line of the sample, but is only read once
+    long estimate = (rows + 1) * size / length - 1;
+    return (int) Math.min(Integer.MAX_VALUE - 8, estimate);
+  }
+}
@@ -0,0 +1,185 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Drops the rows of a single GTFS file that are rejected by a
+ * {@link RawColumnPredicate}, or that reference an entity whose row was itself
+ * dropped, before an entity is created for them. When the file's entity type
+ * has an id column, the ids of the dropped rows are recorded so that the rows
+ * of later files that reference them can be dropped in turn.
+ * 
+ * Column positions are resolved from the header row, which must be passed to
+ * {@link #readHeader(CsvRow)} before any other row.
+ */
+class RowFilter {
+
+  private final List<PredicateColumn> _predicates = new ArrayList<PredicateColumn>();
+
+  private final List<ReferenceColumn> _references = new ArrayList<ReferenceColumn>();
+
+  private String _idColumnName = null;
+
+  private Set<String> _droppedIds = null;
+
+  private int _idIndex = -1;
+
+  public void addPredicate(String columnName, RawColumnPredicate predicate) {
+    _predicates.add(new PredicateColumn(columnName, predicate));
+  }
+
+  /**
+   * @param columnName a column holding the id of another entity
+   * @param droppedIds the ids of the dropped entities of that type
+   */
+  public void addReference(String columnName, Set<String> droppedIds) {
+    _references.add(new ReferenceColumn(columnName, droppedIds));
+  }
+
+  /**
+   * @param columnName the id column of the file's entity type
+   * @param droppedIds collects the ids of the dropped rows
+   */
+  public void setIdColumn(String columnName, Set<String> droppedIds) {
+    _idColumnName = columnName;
+    _droppedIds = droppedIds;
+  }
+
+  /**
+   * @return a filter with the same predicates and references, recording the
+   *         ids of its dropped rows in the same set, for reading part of the
+   *         same file on another thread. The header must be passed to
+   *         {@link #readHeader(CsvRow)} of the copy as well.
+   */
+  public RowFilter copy() {
+    RowFilter copy = new RowFilter();
+    for (PredicateColumn column : _predicates)
+      copy.addPredicate(column.name, column.predicate);
+    for (ReferenceColumn column : _references)
+      copy.addReference(column.name, column._droppedIds);
+    copy.setIdColumn(_idColumnName, _droppedIds);
+    return copy;
+  }
+
+  public boolean isEmpty() {
+    return _predicates.isEmpty() && _references.isEmpty();
+  }
+
+  public void readHeader(CsvRow header) {
+    Map<String, Integer> indicesByName = new HashMap<String, Integer>();
+    for (int i = 0; i < header.size(); i++)
+      indicesByName.put(header.getString(i), i);
+    for (PredicateColumn column : _predicates)
+      column.index = getIndex(indicesByName, column.name);
+    for (ReferenceColumn column : _references)
+      column.index = getIndex(indicesByName, column.name);
+    if (_idColumnName != null)
+      _idIndex = getIndex(indicesByName, _idColumnName);
+  }
+
+  /**
+   * @return true if the row should be read
+   */
+  public boolean accept(CsvRow row) {
+    if (isAccepted(row))
+      return true;
+    if (_idIndex >= 0 && _idIndex < row.size() && row.getLength(_idIndex) > 0)
+      _droppedIds.add(row.getString(_idIndex));
+    return false;
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private boolean isAccepted(CsvRow row) {
+    for (PredicateColumn column : _predicates) {
+      int index = column.index;
+      String value = index >= 0 && index < row.size() ? row.getString(index)
+          : "";
+      if (!column.predicate.accept(value))
+        return false;
+    }
+    for (ReferenceColumn column : _references) {
+      int index = column.index;
+      if (index < 0 || index >= row.size() || row.getLength(index) == 0)
+        continue;
+      if (column.isDropped(row.getChars(index)))
+        return false;
+    }
+    return true;
+  }
+
+  private static int getIndex(Map<String, Integer> indicesByName, String name) {
+    Integer index = indicesByName.get(name);
+    return index != null ? index : -1;
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class PredicateColumn {
+
+    public final String name;
+
+    public final RawColumnPredicate predicate;
+
+    public int index = -1;
+
+    public PredicateColumn(String name, RawColumnPredicate predicate) {
+      this.name = name;
+      this.predicate = predicate;
+    }
+  }
+
+  /**
+   * Rows referencing the same entity usually come in runs (the stop times of
+   * a trip, say), so the last lookup is remembered to avoid creating a String
+   * for the lookup of every row.
+   */
+  private static class ReferenceColumn {
+
+    public final String name;
+
+    private final Set<String> _droppedIds;
+
+    public int index = -1;
+
+    private String _lastId = null;
+
+    private boolean _lastDropped = false;
+
+    public ReferenceColumn(String name, Set<String> droppedIds) {
+      this.name = name;
+      _droppedIds = droppedIds;
+    }
+
+    public boolean isDropped(CharSequence id) {
+      if (_lastId == null || !_lastId.contentEquals(id)) {
+        _lastId = id.toString();
+        _lastDropped = _droppedIds.contains(_lastId);
+      }
+      return _lastDropped;
+    }
+  }
+}
@@ -0,0 +1,55 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import java.util.List;
+
+/**
+ * A {@link CsvRow} view of a list of String values.
+ */
+class StringListRow implements CsvRow {
+
+  private List<String> _values;
+
+  public void setValues(List<String> values) {
+    _values = values;
+  }
+
+  @Override
+  public int size() {
+    return _values.size();
+  }
+
+  @Override
+  public int getLength(int index) {
+    return _values.get(index).length();
+  }
+
+  @Override
+  public String getString(int index) {
+    return _values.get(index);
+  }
+
+  @Override
+  public CharSequence getChars(int index) {
+    return _values.get(index);
+  }
+
+  @Override
+  public List<String> getStrings() {
+    return _values;
+  }
+}
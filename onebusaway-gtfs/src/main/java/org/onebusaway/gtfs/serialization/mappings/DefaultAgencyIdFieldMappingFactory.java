@@ -107,19 +107,20 @@ public class DefaultAgencyIdFieldMappingFactory implements FieldMappingFactory {
       if (isMissingAndOptional(csvValues))
         return;
 
-      String agencyId = resolveAgencyId(context, object);
+      GtfsReaderContext ctx = (GtfsReaderContext) context.get(GtfsReader.KEY_CONTEXT);
+      String agencyId = resolveAgencyId(ctx, object);
 
       String id = (String) csvValues.get(_csvFieldName);
       AgencyAndId agencyAndId = new AgencyAndId(agencyId, id);
+      if (ctx != null)
+        agencyAndId = ctx.getCanonicalId(agencyAndId);
       object.setPropertyValue(_objFieldName, agencyAndId);
     }
 
-    private String resolveAgencyId(CsvEntityContext context, BeanWrapper object) {
+    private String resolveAgencyId(GtfsReaderContext ctx, BeanWrapper object) {
 
-      if (_agencyIdPath == null) {
-        GtfsReaderContext ctx = (GtfsReaderContext) context.get(GtfsReader.KEY_CONTEXT);
+      if (_agencyIdPath == null)
         return ctx.getDefaultAgencyId();
-      }
 
       for (String property : _agencyIdPath.split("\\.")) {
         Object value = object.getPropertyValue(property);
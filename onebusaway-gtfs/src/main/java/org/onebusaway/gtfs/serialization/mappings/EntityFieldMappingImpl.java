@@ -26,6 +26,7 @@ import org.onebusaway.csv_entities.schema.BeanWrapper;
 import org.onebusaway.csv_entities.schema.FieldMapping;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.serialization.EntityReferenceCache;
 import org.onebusaway.gtfs.serialization.GtfsReader;
 import org.onebusaway.gtfs.serialization.GtfsReaderContext;
 
@@ -40,10 +41,18 @@ import org.onebusaway.gtfs.serialization.GtfsReaderContext;
  * @see GtfsReaderContext#getEntity(Class, java.io.Serializable)
  */
 class EntityFieldMappingImpl extends AbstractFieldMapping implements
-    ConverterFactory {
+    ConverterFactory, EntityReferenceFieldMapping {
 
   private Class<?> _objFieldType;
 
+  /**
+   * The reference resolved last, reused while consecutive rows reference the
+   * same entity, as the stop times of a trip do, without any hash lookup. The
+   * mapping may be used from several threads at once, so the reference is
+   * replaced as a whole.
+   */
+  private volatile ResolvedReference _lastReference = null;
+
   public EntityFieldMappingImpl(Class<?> entityType, String csvFieldName,
       String objFieldName, Class<?> objFieldType, boolean required) {
     super(entityType, csvFieldName, objFieldName, required);
@@ -56,10 +65,9 @@ class EntityFieldMappingImpl extends AbstractFieldMapping implements
     if (isMissingAndOptional(csvValues))
       return;
 
-    Converter converter = create(context);
-    String entityId = (String) csvValues.get(_csvFieldName);
-    Object entity = converter.convert(_objFieldType, entityId);
-    object.setPropertyValue(_objFieldName, entity);
+    GtfsReaderContext ctx = (GtfsReaderContext) context.get(GtfsReader.KEY_CONTEXT);
+    String entityId = csvValues.get(_csvFieldName).toString();
+    object.setPropertyValue(_objFieldName, resolve(ctx, entityId));
   }
 
   @SuppressWarnings("unchecked")
@@ -76,6 +84,15 @@ class EntityFieldMappingImpl extends AbstractFieldMapping implements
     csvValues.put(_csvFieldName, id.getId());
   }
 
+  /****
+   * {@link EntityReferenceFieldMapping}
+   ****/
+
+  @Override
+  public Class<?> getReferencedEntityType() {
+    return _objFieldType;
+  }
+
   /****
    * {@link ConverterFactory}
    ****/
@@ -86,6 +103,52 @@ class EntityFieldMappingImpl extends AbstractFieldMapping implements
     return new ConverterImpl(ctx);
   }
 
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * The cache of the last reference is kept along with it, so that it is only
+   * looked up again once it has been invalidated or another reader's context
+   * is in use. When the reader does not cache entities by id, a reference
+   * that differs from the last one is resolved through the context as usual.
+   */
+  private Object resolve(GtfsReaderContext context, String entityId) {
+    ResolvedReference last = _lastReference;
+    EntityReferenceCache cache;
+    if (last != null && last.cache.getContext() == context
+        && last.cache.isValid()) {
+      if (last.entityId.equals(entityId))
+        return last.entity;
+      cache = last.cache;
+    } else {
+      cache = EntityReferenceCache.get(context, _objFieldType);
+    }
+    Object entity = cache.resolve(entityId);
+    _lastReference = new ResolvedReference(cache, entityId, entity);
+    return entity;
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class ResolvedReference {
+
+    private final EntityReferenceCache cache;
+
+    private final String entityId;
+
+    private final Object entity;
+
+    public ResolvedReference(EntityReferenceCache cache, String entityId,
+        Object entity) {
+      this.cache = cache;
+      this.entityId = entityId;
+      this.entity = entity;
+    }
+  }
+
   private class ConverterImpl implements Converter {
 
     private GtfsReaderContext _context;
@@ -100,10 +163,7 @@ class EntityFieldMappingImpl extends AbstractFieldMapping implements
         if (value instanceof String)
           return (String) value;
       } else if (type == _objFieldType) {
-        String entityId = value.toString();
-        String agencyId = _context.getAgencyForEntity(_objFieldType, entityId);
-        AgencyAndId id = new AgencyAndId(agencyId, entityId);
-        return _context.getEntity(_objFieldType, id);
+        return resolve(_context, value.toString());
       }
       throw new ConversionException("Could not convert " + value + " of type "
           + value.getClass() + " to " + type);
@@ -0,0 +1,32 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization.mappings;
+
+import org.onebusaway.csv_entities.schema.FieldMapping;
+
+/**
+ * Some {@link FieldMapping} classes resolve a CSV value to a reference to
+ * another GTFS entity that must already have been loaded. Those mappings
+ * implement this interface so that readers can determine the load-order
+ * dependencies between entity types.
+ */
+public interface EntityReferenceFieldMapping {
+
+  /**
+   * @return the entity type that the mapped field refers to
+   */
+  public Class<?> getReferencedEntityType();
+}
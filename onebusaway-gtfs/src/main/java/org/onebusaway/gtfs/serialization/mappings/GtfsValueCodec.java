@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization.mappings;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Parses and formats the primitive values found in GTFS files: HH:MM:SS times,
+ * YYYYMMDD dates, integers and decimal numbers such as coordinates. Values are
+ * parsed from any range of a {@link CharSequence} and formatted into a
+ * {@link StringBuilder}, without regular expressions, java.text formats or
+ * intermediate objects, so that the methods are cheap enough for the per-row
+ * read and write paths and safe to call from multiple threads.
+ * 
+ * Malformed values are reported with a {@link NumberFormatException}; callers
+ * translate it into the exception appropriate for their field.
+ */
+public final class GtfsValueCodec {
+
+  private static final double[] POWERS_OF_TEN = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12,
+      1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+  /**
+   * Decimal values with a mantissa below this limit are exactly representable
+   * as a double
+   */
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /**
+   * Scaled decimal values below this limit carry less than 1e-6 of rounding
+   * error, so rounding ties can be detected reliably
+   */
+  private static final double MAX_FAST_SCALED_DECIMAL = 1L << 31;
+
+  private GtfsValueCodec() {
+
+  }
+
+  /**
+   * Parses a time of the form "H:MM:SS", where the hours field has one or
+   * more digits and an optional leading minus sign. Hours past midnight
+   * (e.g. "25:30:00") and negative hours are allowed. The result is
+   * seconds + 60 * (minutes + 60 * hours), so that "-01:01:00" is -3540.
+   */
+  public static int parseTime(CharSequence value) {
+    return parseTime(value, 0, value.length());
+  }
+
+  public static int parseTime(CharSequence value, int start, int end) {
+
+    int secondsStart = end - 2;
+    int minutesStart = end - 5;
+    if (minutesStart - 2 < start || value.charAt(minutesStart - 1) != ':'
+        || value.charAt(secondsStart - 1) != ':')
+      throw invalid(value, start, end);
+
+    int hours = parseInt(value, start, minutesStart - 1);
+    int minutes = parseDigits(value, minutesStart, secondsStart - 1);
+    int seconds = parseDigits(value, secondsStart, end);
+
+    return seconds + 60 * (minutes + 60 * hours);
+  }
+
+  /**
+   * Formats a time as "HH:MM:SS", with at least two hour digits. A negative
+   * time is written as a negative hour field and positive minutes and seconds,
+   * the inverse of {@link #parseTime(CharSequence)}.
+   */
+  public static String formatTime(int time) {
+    StringBuilder b = new StringBuilder(8);
+    appendTime(b, time);
+    return b.toString();
+  }
+
+  public static void appendTime(StringBuilder b, int time) {
+    int seconds = positiveMod(time, 60);
+    int hourAndMinutes = (time - seconds) / 60;
+    int minutes = positiveMod(hourAndMinutes, 60);
+    int hours = (hourAndMinutes - minutes) / 60;
+    appendPadded(b, hours, 2);
+    b.append(':');
+    appendPadded(b, minutes, 2);
+    b.append(':');
+    appendPadded(b, seconds, 2);
+  }
+
+  /**
+   * Parses a date of the form "YYYYMMDD".
+   * 
+   * @return the date packed as year * 10000 + month * 100 + day
+   */
+  public static int parseDate(CharSequence value) {
+    return parseDate(value, 0, value.length());
+  }
+
+  public static int parseDate(CharSequence value, int start, int end) {
+    if (end - start != 8)
+      throw invalid(value, start, end);
+    return parseDigits(value, start, end);
+  }
+
+  public static void appendDate(StringBuilder b, int year, int month, int day) {
+    appendPadded(b, year, 4);
+    appendPadded(b, month, 2);
+    appendPadded(b, day, 2);
+  }
+
+  /**
+   * Parses a decimal integer with an optional leading minus sign, with the
+   * same results as {@link Integer#parseInt(String)}.
+   */
+  public static int parseInt(CharSequence value) {
+    return parseInt(value, 0, value.length());
+  }
+
+  public static int parseInt(CharSequence value, int start, int end) {
+
+    if (start >= end)
+      throw invalid(value, start, end);
+
+    int i = start;
+    boolean negative = value.charAt(i) == '-';
+    if (negative) {
+      i++;
+      if (i == end)
+        throw invalid(value, start, end);
+    }
+
+    // Accumulate negatively, since |Integer.MIN_VALUE| > Integer.MAX_VALUE
+    int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+    int multiplyLimit = limit / 10;
+    int result = 0;
+    for (; i < end; i++) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9 || result < multiplyLimit)
+        throw invalid(value, start, end);
+      result *= 10;
+      if (result < limit + digit)
+        throw invalid(value, start, end);
+      result -= digit;
+    }
+    return negative ? result : -result;
+  }
+
+  /**
+   * Parses a decimal number with the same results as
+   * {@link Double#parseDouble(String)}. Plain decimal values with up to 15
+   * significant digits, which covers all coordinates and distances, are
+   * converted exactly without allocation; anything else (exponents, very long
+   * mantissas, surrounding whitespace, "NaN" and so on) is delegated to
+   * {@link Double#parseDouble(String)}.
+   */
+  public static double parseDouble(CharSequence value) {
+    return parseDouble(value, 0, value.length());
+  }
+
+  public static double parseDouble(CharSequence value, int start, int end) {
+
+    int i = start;
+    boolean negative = false;
+    if (i < end) {
+      char c = value.charAt(i);
+      if (c == '-' || c == '+') {
+        negative = c == '-';
+        i++;
+      }
+    }
+
+    long mantissa = 0;
+    int digits = 0;
+    int fractionDigits = 0;
+    boolean point = false;
+
+    for (; i < end; i++) {
+      char c = value.charAt(i);
+      if (c >= '0' && c <= '9') {
+        mantissa = mantissa * 10 + (c - '0');
+        digits++;
+        if (point)
+          fractionDigits++;
+        if (mantissa >= MAX_EXACT_MANTISSA)
+          return parseDoubleSlow(value, start, end);
+      } else if (c == '.' && !point) {
+        point = true;
+      } else {
+        return parseDoubleSlow(value, start, end);
+      }
+    }
+
+    if (digits == 0 || fractionDigits >= POWERS_OF_TEN.length)
+      return parseDoubleSlow(value, start, end);
+
+    /**
+     * Both the mantissa and the power of ten are exact doubles, so a single
+     * division yields the correctly rounded result
+     */
+    double result = mantissa / POWERS_OF_TEN[fractionDigits];
+    return negative ? -result : result;
+  }
+
+  /**
+   * Formats a decimal number with a fixed number of fraction digits, rounding
+   * half-even, with the same results as a {@link java.text.DecimalFormat} with
+   * pattern "0.000000" (for six digits) and "." as decimal separator.
+   */
+  public static String formatDecimal(double value, int fractionDigits) {
+    StringBuilder b = new StringBuilder(12);
+    appendDecimal(b, value, fractionDigits);
+    return b.toString();
+  }
+
+  public static void appendDecimal(StringBuilder b, double value,
+      int fractionDigits) {
+
+    if (Double.isNaN(value) || Double.isInfinite(value)
+        || fractionDigits >= POWERS_OF_TEN.length) {
+      appendDecimalSlow(b, value, fractionDigits);
+      return;
+    }
+
+    boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+    double scaled = Math.abs(value) * POWERS_OF_TEN[fractionDigits];
+    double rounded = Math.rint(scaled);
+
+    /**
+     * The scaled value is itself rounded, which can only matter when the exact
+     * value is very close to a rounding tie. Those rare cases, and values too
+     * large to detect them, take the exact path.
+     */
+    double fraction = scaled - Math.floor(scaled);
+    if (scaled >= MAX_FAST_SCALED_DECIMAL || Math.abs(fraction - 0.5) < 1e-6) {
+      appendDecimalSlow(b, value, fractionDigits);
+      return;
+    }
+
+    long units = (long) rounded;
+    long divisor = (long) POWERS_OF_TEN[fractionDigits];
+
+    if (negative)
+      b.append('-');
+    b.append(units / divisor);
+    if (fractionDigits > 0) {
+      b.append('.');
+      long fractionUnits = units % divisor;
+      for (long d = divisor / 10; d > 0; d /= 10) {
+        b.append((char) ('0' + fractionUnits / d));
+        fractionUnits %= d;
+      }
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Parses a non-empty run of digits with no sign
+   */
+  private static int parseDigits(CharSequence value, int start, int end) {
+    if (start >= end)
+      throw invalid(value, start, end);
+    int result = 0;
+    for (int i = start; i < end; i++) {
+      int digit = value.charAt(i) - '0';
+      if (digit < 0 || digit > 9)
+        throw invalid(value, start, end);
+      result = result * 10 + digit;
+    }
+    return result;
+  }
+
+  private static double parseDoubleSlow(CharSequence value, int start, int end) {
+    return Double.parseDouble(value.subSequence(start, end).toString());
+  }
+
+  private static void appendDecimalSlow(StringBuilder b, double value,
+      int fractionDigits) {
+    if (Double.isNaN(value)) {
+      b.append("\uFFFD");
+    } else if (Double.isInfinite(value)) {
+      b.append(value < 0 ? "-\u221E" : "\u221E");
+    } else {
+      boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+      BigDecimal decimal = new BigDecimal(Math.abs(value)).setScale(
+          fractionDigits, RoundingMode.HALF_EVEN);
+      if (negative)
+        b.append('-');
+      b.append(decimal.toPlainString());
+    }
+  }
+
+  private static void appendPadded(StringBuilder b, int value, int width) {
+    long v = value;
+    if (v < 0) {
+      b.append('-');
+      v = -v;
+    }
+    for (long limit = 10; width > 1; width--, limit *= 10) {
+      if (v < limit)
+        b.append('0');
+    }
+    b.append(v);
+  }
+
+  private static final int positiveMod(int value, int modulo) {
+    int m = value % modulo;
+    if (m < 0) {
+      m += modulo;
+    }
+    return m;
+  }
+
+  private static NumberFormatException invalid(CharSequence value, int start,
+      int end) {
+    return new NumberFormatException("invalid value: \""
+        + value.subSequence(start, end) + "\"");
+  }
+}
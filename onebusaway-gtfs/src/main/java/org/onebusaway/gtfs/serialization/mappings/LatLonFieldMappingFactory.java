@@ -15,16 +15,65 @@
  */
 package org.onebusaway.gtfs.serialization.mappings;
 
-import java.util.Locale;
+import java.util.Map;
 
-import org.onebusaway.csv_entities.schema.DecimalFieldMappingFactory;
+import org.onebusaway.csv_entities.CsvEntityContext;
+import org.onebusaway.csv_entities.schema.AbstractFieldMapping;
+import org.onebusaway.csv_entities.schema.BeanWrapper;
+import org.onebusaway.csv_entities.schema.EntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.csv_entities.schema.FieldMappingFactory;
+
+public class LatLonFieldMappingFactory implements FieldMappingFactory {
+
+  private static final int FRACTION_DIGITS = 6;
+
+  public FieldMapping createFieldMapping(EntitySchemaFactory schemaFactory,
+      Class<?> entityType, String csvFieldName, String objFieldName,
+      Class<?> objFieldType, boolean required) {
+    return new LatLonFieldMapping(entityType, csvFieldName, objFieldName,
+        required);
+  }
+
+  private static class LatLonFieldMapping extends AbstractFieldMapping {
+
+    public LatLonFieldMapping(Class<?> entityType, String csvFieldName,
+        String objFieldName, boolean required) {
+      super(entityType, csvFieldName, objFieldName, required);
+    }
+
+    @Override
+    public void translateFromCSVToObject(CsvEntityContext context,
+        Map<String, Object> csvValues, BeanWrapper object) {
+
+      if (isMissingAndOptional(csvValues))
+        return;
+
+      String value = csvValues.get(_csvFieldName).toString();
+      double coordinate;
+      try {
+        coordinate = GtfsValueCodec.parseDouble(value);
+      } catch (NumberFormatException ex) {
+        // As with the default bean conversion, a malformed value reads as zero
+        coordinate = 0.0;
+      }
+      object.setPropertyValue(_objFieldName, coordinate);
+    }
 
-public class LatLonFieldMappingFactory extends DecimalFieldMappingFactory {
-  public LatLonFieldMappingFactory() {
     /**
-     * We override the default locale to en_US so that we always use "." as the
-     * decimal separator, even in locales that default to using "," insteaad.
+     * Coordinates are always written with six fraction digits and "." as the
+     * decimal separator, no matter what the default locale is.
      */
-    super("0.000000", Locale.US);
+    @Override
+    public void translateFromObjectToCSV(CsvEntityContext context,
+        BeanWrapper object, Map<String, Object> csvValues) {
+
+      if (isMissingAndOptional(object))
+        return;
+
+      Number value = (Number) object.getPropertyValue(_objFieldName);
+      csvValues.put(_csvFieldName,
+          GtfsValueCodec.formatDecimal(value.doubleValue(), FRACTION_DIGITS));
+    }
   }
 }
@@ -48,7 +48,8 @@ public class RouteAgencyFieldMappingFactory implements FieldMappingFactory {
         Agency.class, required);
   }
 
-  private class RouteAgencyFieldMapping extends AbstractFieldMapping {
+  private class RouteAgencyFieldMapping extends AbstractFieldMapping implements
+      EntityReferenceFieldMapping {
 
     public RouteAgencyFieldMapping(Class<?> entityType, String csvFieldName,
         String objFieldName, Class<?> objFieldType, boolean required) {
@@ -100,5 +101,10 @@ public class RouteAgencyFieldMappingFactory implements FieldMappingFactory {
       csvValues.put(_csvFieldName, agency.getId());
     }
 
+    @Override
+    public Class<?> getReferencedEntityType() {
+      return Agency.class;
+    }
+
   }
 }
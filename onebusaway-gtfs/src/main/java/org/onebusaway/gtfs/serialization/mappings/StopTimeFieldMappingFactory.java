@@ -16,10 +16,7 @@
  */
 package org.onebusaway.gtfs.serialization.mappings;
 
-import java.text.DecimalFormat;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import org.apache.commons.beanutils.ConversionException;
 import org.apache.commons.beanutils.Converter;
@@ -32,10 +29,6 @@ import org.onebusaway.csv_entities.schema.FieldMappingFactory;
 
 public class StopTimeFieldMappingFactory implements FieldMappingFactory {
 
-  private static DecimalFormat _format = new DecimalFormat("00");
-
-  private static Pattern _pattern = Pattern.compile("^(-{0,1}\\d+):(\\d{2}):(\\d{2})$");
-
   public FieldMapping createFieldMapping(EntitySchemaFactory schemaFactory,
       Class<?> entityType, String csvFieldName, String objFieldName,
       Class<?> objFieldType, boolean required) {
@@ -44,38 +37,12 @@ public class StopTimeFieldMappingFactory implements FieldMappingFactory {
   }
 
   public static String getSecondsAsString(int t) {
-    int seconds = positiveMod(t, 60);
-    int hourAndMinutes = (t - seconds) / 60;
-    int minutes = positiveMod(hourAndMinutes, 60);
-    int hours = (hourAndMinutes - minutes) / 60;
-
-    StringBuilder b = new StringBuilder();
-    b.append(_format.format(hours));
-    b.append(":");
-    b.append(_format.format(minutes));
-    b.append(":");
-    b.append(_format.format(seconds));
-    return b.toString();
-  }
-
-  private static final int positiveMod(int value, int modulo) {
-    int m = value % modulo;
-    if (m < 0) {
-      m += modulo;
-    }
-    return m;
+    return GtfsValueCodec.formatTime(t);
   }
 
   public static int getStringAsSeconds(String value) {
-    Matcher m = _pattern.matcher(value);
-    if (!m.matches())
-      throw new InvalidStopTimeException(value);
     try {
-      int hours = Integer.parseInt(m.group(1));
-      int minutes = Integer.parseInt(m.group(2));
-      int seconds = Integer.parseInt(m.group(3));
-
-      return seconds + 60 * (minutes + 60 * hours);
+      return GtfsValueCodec.parseTime(value);
     } catch (NumberFormatException ex) {
       throw new InvalidStopTimeException(value);
     }
@@ -0,0 +1,129 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+
+public class AgencyAndIdTableTest {
+
+  @Test
+  public void testIntern() {
+
+    AgencyAndIdTable table = new AgencyAndIdTable();
+
+    AgencyAndId a = new AgencyAndId("1", "a");
+    assertSame(a, table.intern(a));
+    assertSame(a, table.intern(new AgencyAndId("1", "a")));
+    assertSame(a, table.intern("1", "a"));
+    assertEquals(1, table.size());
+
+    AgencyAndId b = table.intern(new AgencyAndId(new String("1"), "b"));
+    assertSame(a.getAgencyId(), b.getAgencyId());
+    assertEquals(2, table.size());
+
+    assertNull(table.intern(null));
+    AgencyAndId empty = new AgencyAndId();
+    assertSame(empty, table.intern(empty));
+    assertEquals(2, table.size());
+
+    table.clear();
+    assertEquals(0, table.size());
+    AgencyAndId c = new AgencyAndId("1", "a");
+    assertSame(c, table.intern(c));
+  }
+
+  @Test
+  public void testSurrogateKeys() {
+
+    AgencyAndIdTable table = new AgencyAndIdTable();
+
+    AgencyAndId a = new AgencyAndId("1", "a");
+    AgencyAndId b = new AgencyAndId("1", "b");
+
+    assertEquals(0, table.getSurrogateKeyCount(Stop.class));
+    assertEquals(-1, table.getSurrogateKey(Stop.class, a));
+
+    assertEquals(0, table.getOrAssignSurrogateKey(Stop.class, a));
+    assertEquals(1, table.getOrAssignSurrogateKey(Stop.class, b));
+    assertEquals(0, table.getOrAssignSurrogateKey(Stop.class,
+        new AgencyAndId("1", "a")));
+    assertEquals(0, table.getOrAssignSurrogateKey(Route.class, b));
+
+    assertEquals(2, table.getSurrogateKeyCount(Stop.class));
+    assertEquals(1, table.getSurrogateKeyCount(Route.class));
+    assertEquals(1, table.getSurrogateKey(Stop.class, b));
+    assertSame(a, table.getIdForSurrogateKey(Stop.class, 0));
+    assertSame(b, table.getIdForSurrogateKey(Route.class, 0));
+  }
+
+  @Test
+  public void testGenericDao() {
+
+    GenericDaoImpl dao = new GenericDaoImpl();
+    dao.setCanonicalizeIds(true);
+
+    Stop stopA = new Stop();
+    stopA.setId(new AgencyAndId("1", "a"));
+    dao.saveEntity(stopA);
+
+    Stop stopB = new Stop();
+    stopB.setId(new AgencyAndId("1", "b"));
+    dao.saveEntity(stopB);
+
+    AgencyAndIdTable table = dao.getIdTable();
+    assertSame(stopA.getId(), table.intern(new AgencyAndId("1", "a")));
+    assertEquals(0, table.getSurrogateKeyCount(Stop.class));
+
+    Route route = new Route();
+    route.setId(new AgencyAndId("1", "a"));
+    dao.saveEntity(route);
+    assertSame(stopA.getId(), route.getId());
+    assertEquals(0, table.getSurrogateKeyCount(Route.class));
+  }
+
+  @Test
+  public void testPackedDao() {
+
+    GtfsDaoImpl dao = new GtfsDaoImpl();
+    dao.setPackStops(true);
+
+    Stop stopA = new Stop();
+    stopA.setId(new AgencyAndId("1", "a"));
+    dao.saveEntity(stopA);
+
+    Stop stopB = new Stop();
+    stopB.setId(new AgencyAndId("1", "b"));
+    dao.saveEntity(stopB);
+
+    AgencyAndIdTable table = dao.getIdTable();
+    assertEquals(1, table.getSurrogateKey(Stop.class, stopB.getId()));
+    assertSame(stopB.getId(), table.getIdForSurrogateKey(Stop.class, 1));
+
+    // Clearing the packed stops releases their keys
+    dao.clearAllEntitiesForType(Stop.class);
+    assertEquals(0, table.getSurrogateKeyCount(Stop.class));
+    dao.saveEntity(stopB);
+    assertEquals(0, table.getSurrogateKey(Stop.class, stopB.getId()));
+    assertEquals("b", dao.getStopForId(stopB.getId()).getId().getId());
+  }
+}
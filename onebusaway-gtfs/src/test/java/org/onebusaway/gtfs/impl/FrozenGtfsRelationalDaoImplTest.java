@@ -0,0 +1,240 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.MockGtfs;
+
+public class FrozenGtfsRelationalDaoImplTest {
+
+  @Test
+  public void testBart() throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    assertFrozen(dao, dao.freeze());
+  }
+
+  @Test
+  public void testBartPacked() throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    assertFrozen(dao, dao.freeze());
+  }
+
+  @Test
+  public void testStopTimePatterns() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putAgencies(1);
+    gtfs.putStops(3);
+    gtfs.putRoutes(1);
+    gtfs.putTrips(2, "r0", "sid0");
+    gtfs.putLines("stop_times.txt",
+        "trip_id,stop_id,stop_sequence,arrival_time,departure_time",
+        "t1,s2,2,10:10:00,10:10:00", "t0,s0,0,09:00:00,09:00:00",
+        "t1,s0,0,10:00:00,10:00:00", "t0,s1,1,09:05:00,09:05:00",
+        "t1,s1,1,10:05:00,10:05:00", "t0,s2,2,09:10:00,09:10:00");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackStopTimePatterns(true);
+    GtfsTestData.readGtfs(dao, gtfs.getPath(), "a0");
+    assertNotNull(dao.getStopTimePatternArray());
+    assertFrozen(dao, dao.freeze());
+
+    // Stop times grouped again after a removal skip the removed row
+    Trip trip = dao.getTripForId(gtfs.id("t1"));
+    dao.removeEntity(dao.getStopTimesForTrip(trip).get(1));
+    dao.close();
+    assertNotNull(dao.getStopTimePatternArray());
+    FrozenGtfsRelationalDaoImpl frozen = dao.freeze();
+    assertFrozen(dao, frozen);
+    assertEquals(2, frozen.getStopTimesForTrip(trip).size());
+    for (StopTime stopTime : frozen.getStopTimesForTrip(trip))
+      assertEquals(trip, stopTime.getTrip());
+  }
+
+  @Test
+  public void testTestAgency() throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getTestAgencyGtfs(), "agency");
+    FrozenGtfsRelationalDaoImpl frozen = dao.freeze();
+    assertFrozen(dao, frozen);
+
+    Stop station = frozen.getStopForId(new AgencyAndId("agency", "station"));
+    assertEquals(dao.getStopsForStation(station),
+        frozen.getStopsForStation(station));
+    assertEquals(0, frozen.getStopsForStation(null).size());
+    assertEquals(0, frozen.getTripsForBlockId(null).size());
+  }
+
+  @Test
+  public void testUnmodifiable() throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    FrozenGtfsRelationalDaoImpl frozen = dao.freeze();
+
+    Trip trip = frozen.getTripForId(new AgencyAndId("BART", "15PB1"));
+    List<StopTime> stopTimes = frozen.getStopTimesForTrip(trip);
+    try {
+      stopTimes.remove(0);
+      fail();
+    } catch (UnsupportedOperationException ex) {
+
+    }
+    try {
+      frozen.getAllTrips().clear();
+      fail();
+    } catch (UnsupportedOperationException ex) {
+
+    }
+    try {
+      frozen.getAllShapeIds().add(new AgencyAndId("BART", "shape"));
+      fail();
+    } catch (UnsupportedOperationException ex) {
+
+    }
+    assertEquals(12, frozen.getStopTimesForTrip(trip).size());
+  }
+
+  @Test
+  public void testConcurrentReaders() throws Exception {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    final FrozenGtfsRelationalDaoImpl frozen = dao.freeze();
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(new Callable<Integer>() {
+          public Integer call() {
+            int count = 0;
+            for (Trip trip : frozen.getAllTrips())
+              count += frozen.getStopTimesForTrip(trip).size();
+            return count;
+          }
+        }));
+      }
+      int expected = frozen.getAllStopTimes().size();
+      for (Future<Integer> future : futures)
+        assertEquals(expected, future.get().intValue());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void assertFrozen(GtfsRelationalDaoImpl dao,
+      FrozenGtfsRelationalDaoImpl frozen) {
+
+    assertEquals(dao.getAllAgencies().size(), frozen.getAllAgencies().size());
+    assertEquals(dao.getAllStops().size(), frozen.getAllStops().size());
+    assertEquals(dao.getAllRoutes().size(), frozen.getAllRoutes().size());
+    assertEquals(dao.getAllTrips().size(), frozen.getAllTrips().size());
+    assertEquals(dao.getAllStopTimes().size(), frozen.getAllStopTimes().size());
+    assertEquals(dao.getAllShapePoints().size(),
+        frozen.getAllShapePoints().size());
+    assertEquals(dao.getAllCalendars().size(), frozen.getAllCalendars().size());
+    assertEquals(dao.getAllCalendarDates().size(),
+        frozen.getAllCalendarDates().size());
+    assertEquals(dao.getAllFareRules().size(), frozen.getAllFareRules().size());
+    assertEquals(dao.getAllShapeIds(), frozen.getAllShapeIds());
+    assertEquals(dao.getAllServiceIds(), frozen.getAllServiceIds());
+
+    for (Agency agency : dao.getAllAgencies()) {
+      assertSame(agency, frozen.getAgencyForId(agency.getId()));
+      assertEquals(dao.getRoutesForAgency(agency),
+          frozen.getRoutesForAgency(agency));
+    }
+    for (Stop stop : dao.getAllStops()) {
+      assertSame(stop, frozen.getStopForId(stop.getId()));
+      assertEquals(dao.getStopTimesForStop(stop),
+          frozen.getStopTimesForStop(stop));
+      assertEquals(dao.getStopsForStation(stop),
+          frozen.getStopsForStation(stop));
+    }
+    for (Trip trip : dao.getAllTrips()) {
+      assertSame(trip, frozen.getTripForId(trip.getId()));
+      assertEquals(dao.getStopTimesForTrip(trip),
+          frozen.getStopTimesForTrip(trip));
+      assertEquals(dao.getFrequenciesForTrip(trip),
+          frozen.getFrequenciesForTrip(trip));
+      assertEquals(dao.getTripsForRoute(trip.getRoute()),
+          frozen.getTripsForRoute(trip.getRoute()));
+      assertEquals(dao.getTripsForServiceId(trip.getServiceId()),
+          frozen.getTripsForServiceId(trip.getServiceId()));
+      assertEquals(dao.getTripsForShapeId(trip.getShapeId()),
+          frozen.getTripsForShapeId(trip.getShapeId()));
+      assertEquals(
+          dao.getTripAgencyIdsReferencingServiceId(trip.getServiceId()),
+          frozen.getTripAgencyIdsReferencingServiceId(trip.getServiceId()));
+      if (trip.getBlockId() != null) {
+        AgencyAndId blockId = new AgencyAndId(trip.getId().getAgencyId(),
+            trip.getBlockId());
+        assertEquals(dao.getTripsForBlockId(blockId),
+            frozen.getTripsForBlockId(blockId));
+      }
+    }
+    for (AgencyAndId shapeId : dao.getAllShapeIds()) {
+      List<ShapePoint> shapePoints = frozen.getShapePointsForShapeId(shapeId);
+      assertEquals(dao.getShapePointsForShapeId(shapeId), shapePoints);
+      for (ShapePoint shapePoint : shapePoints)
+        assertEquals(shapePoint,
+            frozen.getShapePointForId(shapePoint.getId()));
+    }
+    for (AgencyAndId serviceId : dao.getAllServiceIds()) {
+      assertSame(dao.getCalendarForServiceId(serviceId),
+          frozen.getCalendarForServiceId(serviceId));
+      assertEquals(dao.getCalendarDatesForServiceId(serviceId),
+          frozen.getCalendarDatesForServiceId(serviceId));
+    }
+    for (FareAttribute fare : dao.getAllFareAttributes())
+      assertEquals(dao.getFareRulesForFareAttribute(fare),
+          frozen.getFareRulesForFareAttribute(fare));
+    for (StopTime stopTime : dao.getAllStopTimes())
+      assertEquals(stopTime, frozen.getStopTimeForId(stopTime.getId()));
+
+    assertNull(frozen.getTripForId(new AgencyAndId("none", "none")));
+  }
+}
@@ -16,8 +16,12 @@
 package org.onebusaway.gtfs.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import java.util.Collection;
 
@@ -62,4 +66,67 @@ public class GenericDaoImplTest {
     assertEquals(1, entities.size());
     assertSame(stopB, entities.iterator().next());
   }
+
+  @Test
+  public void testEntityLoader() {
+
+    final GenericDaoImpl impl = new GenericDaoImpl();
+    final int[] calls = {0};
+
+    impl.setEntityLoader(Stop.class, new GenericDaoImpl.EntityLoader() {
+      public void loadEntities(Class<?> entityType) {
+        calls[0]++;
+        Stop stop = new Stop();
+        stop.setId(new AgencyAndId("1", "stop" + calls[0]));
+        impl.saveEntity(stop);
+        if (calls[0] == 1)
+          throw new IllegalStateException();
+      }
+    });
+    assertTrue(impl.isPendingEntityLoad(Stop.class));
+
+    try {
+      impl.getAllEntitiesForType(Stop.class);
+      fail();
+    } catch (IllegalStateException ex) {
+
+    }
+    assertTrue(impl.isPendingEntityLoad(Stop.class));
+    assertEquals(1, calls[0]);
+
+    Collection<Stop> stops = impl.getAllEntitiesForType(Stop.class);
+    assertEquals(1, stops.size());
+    assertEquals("stop2", stops.iterator().next().getId().getId());
+    assertFalse(impl.isPendingEntityLoad(Stop.class));
+
+    impl.getEntityForId(Stop.class, new AgencyAndId("1", "stop2"));
+    assertEquals(2, calls[0]);
+  }
+
+  @Test
+  public void testCompact() {
+
+    GenericDaoImpl impl = new GenericDaoImpl();
+    impl.ensureCapacity(Stop.class, 100);
+    assertTrue(impl.getEntityClasses().contains(Stop.class));
+
+    for (int i = 0; i < 2; i++) {
+      Stop stop = new Stop();
+      stop.setId(new AgencyAndId("1", "stop" + i));
+      stop.setName(new String("Main St"));
+      impl.saveEntity(stop);
+    }
+
+    Stop stopA = impl.getEntityForId(Stop.class, new AgencyAndId("1", "stop0"));
+    Stop stopB = impl.getEntityForId(Stop.class, new AgencyAndId("1", "stop1"));
+    assertNotSame(stopA.getName(), stopB.getName());
+
+    impl.compact();
+
+    assertSame(stopA, impl.getEntityForId(Stop.class, new AgencyAndId("1",
+        "stop0")));
+    assertEquals(2, impl.getAllEntitiesForType(Stop.class).size());
+    assertEquals("Main St", stopA.getName());
+    assertSame(stopA.getName(), stopB.getName());
+  }
 }
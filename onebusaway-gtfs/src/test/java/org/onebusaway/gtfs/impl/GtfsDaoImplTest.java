@@ -16,6 +16,11 @@
 package org.onebusaway.gtfs.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
 import org.onebusaway.gtfs.GtfsTestData;
 import org.onebusaway.gtfs.model.Agency;
@@ -37,6 +42,9 @@ import org.junit.Test;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 public class GtfsDaoImplTest {
 
@@ -129,4 +137,253 @@ public class GtfsDaoImplTest {
     Trip trip = dao.getTripForId(new AgencyAndId("BART","15PB1"));
     assertEquals(new AgencyAndId("BART","WKDY"),trip.getServiceId());
   }
+
+  @Test
+  public void testBartPacked() throws IOException {
+
+    GtfsDaoImpl expected = new GtfsDaoImpl();
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsDaoImpl dao = new GtfsDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackRoutes(true);
+    dao.setPackStopTimes(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    assertEquals(1620, dao.getTripArray().size());
+    assertEquals(46, dao.getStopArray().size());
+    assertEquals(11, dao.getRouteArray().size());
+
+    for (Trip trip : expected.getAllTrips()) {
+      Trip packed = dao.getTripForId(trip.getId());
+      assertEquals(trip.getId(), packed.getId());
+      assertEquals(trip.getRoute(), packed.getRoute());
+      assertEquals(trip.getServiceId(), packed.getServiceId());
+      assertEquals(trip.getTripHeadsign(), packed.getTripHeadsign());
+      assertEquals(trip.getDirectionId(), packed.getDirectionId());
+      assertEquals(trip.getBlockId(), packed.getBlockId());
+      assertEquals(trip.getShapeId(), packed.getShapeId());
+    }
+    for (Stop stop : expected.getAllStops()) {
+      Stop packed = dao.getStopForId(stop.getId());
+      assertEquals(stop.getName(), packed.getName());
+      assertEquals(stop.getLat(), packed.getLat(), 0.0);
+      assertEquals(stop.getLon(), packed.getLon(), 0.0);
+      assertEquals(stop.getZoneId(), packed.getZoneId());
+      assertEquals(stop.getUrl(), packed.getUrl());
+      assertEquals(stop.getLocationType(), packed.getLocationType());
+      assertEquals(stop.isVehicleTypeSet(), packed.isVehicleTypeSet());
+    }
+    for (Route route : expected.getAllRoutes()) {
+      Route packed = dao.getRouteForId(route.getId());
+      assertEquals(route.getAgency(), packed.getAgency());
+      assertEquals(route.getShortName(), packed.getShortName());
+      assertEquals(route.getLongName(), packed.getLongName());
+      assertEquals(route.getType(), packed.getType());
+      assertEquals(route.getColor(), packed.getColor());
+    }
+
+    Iterator<StopTime> it = expected.getAllStopTimes().iterator();
+    for (StopTime stopTime : dao.getAllStopTimes()) {
+      StopTime expectedStopTime = it.next();
+      assertEquals(expectedStopTime.getTrip(), stopTime.getTrip());
+      assertEquals(expectedStopTime.getStop(), stopTime.getStop());
+      assertSame(dao.getTripForId(stopTime.getTrip().getId()),
+          stopTime.getTrip());
+    }
+
+    // Packed rows are returned as the same instance each time
+    Trip first = dao.getAllTrips().iterator().next();
+    assertSame(first, dao.getTripForId(first.getId()));
+    assertSame(first, dao.getTripArray().get(0));
+    Stop stop = dao.getAllStops().iterator().next();
+    assertSame(stop, dao.getStopForId(stop.getId()));
+    Route route = dao.getAllRoutes().iterator().next();
+    assertSame(route, dao.getRouteForId(route.getId()));
+
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    trip.setTripHeadsign("Fremont");
+    trip.setShapeId(null);
+    Trip copy = new Trip(trip);
+    assertEquals("Fremont", copy.getTripHeadsign());
+    assertNull(copy.getShapeId());
+    assertEquals("Fremont", dao.getTripForId(trip.getId()).getTripHeadsign());
+
+    dao.saveOrUpdateEntity(trip);
+    assertEquals(1620, dao.getAllTrips().size());
+    assertNull(dao.getTripForId(new AgencyAndId("BART", "none")));
+  }
+
+  @Test
+  public void testRemovePacked() throws IOException {
+
+    GtfsDaoImpl dao = new GtfsDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackRoutes(true);
+    dao.setPackStopTimes(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    AgencyAndId tripId = new AgencyAndId("BART", "15PB1");
+    Trip trip = dao.getTripForId(tripId);
+    StopTime stopTime = null;
+    for (StopTime candidate : dao.getAllStopTimes()) {
+      if (candidate.getTrip().getId().equals(tripId)) {
+        stopTime = candidate;
+        break;
+      }
+    }
+
+    dao.removeEntity(trip);
+    assertNull(dao.getTripForId(tripId));
+    assertEquals(1619, dao.getAllTrips().size());
+    assertEquals(1620, dao.getTripArray().getRowCount());
+    for (Trip other : dao.getAllTrips())
+      assertFalse(tripId.equals(other.getId()));
+    assertEquals(-1, dao.getTripArray().getRow(trip));
+
+    // Stop times keep referring to the removed trip, as with unpacked trips
+    assertEquals(tripId, stopTime.getTrip().getId());
+    assertEquals(new AgencyAndId("BART", "WKDY"),
+        stopTime.getTrip().getServiceId());
+
+    Stop stop = dao.getStopForId(new AgencyAndId("BART", "DBRK"));
+    dao.removeEntity(stop);
+    assertNull(dao.getStopForId(stop.getId()));
+    assertEquals(45, dao.getAllStops().size());
+
+    Route route = dao.getRouteForId(new AgencyAndId("BART", "01"));
+    dao.removeEntity(route);
+    assertNull(dao.getRouteForId(route.getId()));
+    assertEquals(10, dao.getAllRoutes().size());
+
+    // Rows of other trips are unchanged, and the removed trip can be saved
+    // again
+    Trip other = dao.getAllTrips().iterator().next();
+    int row = dao.getTripArray().getRow(other);
+    dao.close();
+    assertEquals(row, dao.getTripArray().getRow(other));
+    Trip saved = new Trip();
+    saved.setId(tripId);
+    dao.saveEntity(saved);
+    assertEquals(tripId, dao.getTripForId(tripId).getId());
+    assertEquals(1620, dao.getAllTrips().size());
+  }
+
+  @Test
+  public void testPackedEntitiesById() throws IOException {
+
+    GtfsDaoImpl dao = new GtfsDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackStopTimes(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    Map<AgencyAndId, Trip> trips = dao.getEntitiesByIdForEntityType(
+        AgencyAndId.class, Trip.class);
+    assertEquals(1620, trips.size());
+    AgencyAndId tripId = new AgencyAndId("BART", "15PB1");
+    Trip trip = trips.get(tripId);
+    assertSame(dao.getTripForId(tripId), trip);
+    assertTrue(trips.containsKey(tripId));
+    assertNull(trips.get("15PB1"));
+    int count = 0;
+    for (Map.Entry<AgencyAndId, Trip> entry : trips.entrySet()) {
+      assertEquals(entry.getKey(), entry.getValue().getId());
+      count++;
+    }
+    assertEquals(1620, count);
+
+    try {
+      trips.put(tripId, trip);
+      fail();
+    } catch (UnsupportedOperationException ex) {
+
+    }
+
+    // The view reflects later changes
+    dao.removeEntity(trip);
+    assertEquals(1619, trips.size());
+    assertFalse(trips.containsKey(tripId));
+
+    Map<Integer, StopTime> stopTimes = dao.getEntitiesByIdForEntityType(
+        Integer.class, StopTime.class);
+    assertEquals(33270, stopTimes.size());
+    StopTime stopTime = stopTimes.get(0);
+    assertEquals(Integer.valueOf(0), stopTime.getId());
+  }
+
+  @Test
+  public void testPackedDuplicateIds() {
+
+    GtfsDaoImpl dao = new GtfsDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackRoutes(true);
+
+    // As with unpacked entities, the entity saved last with an id replaces
+    // the one saved before
+    AgencyAndId id = new AgencyAndId("a", "1");
+    for (String name : new String[] {"first", "second"}) {
+      Route route = new Route();
+      route.setId(id);
+      route.setShortName(name);
+      dao.saveEntity(route);
+      Stop stop = new Stop();
+      stop.setId(id);
+      stop.setName(name);
+      dao.saveEntity(stop);
+      Trip trip = new Trip();
+      trip.setId(id);
+      trip.setTripShortName(name);
+      dao.saveEntity(trip);
+    }
+
+    assertEquals(1, dao.getAllRoutes().size());
+    assertEquals("second", dao.getAllRoutes().iterator().next().getShortName());
+    assertEquals("second", dao.getRouteForId(id).getShortName());
+    assertEquals(1, dao.getAllStops().size());
+    assertEquals("second", dao.getStopForId(id).getName());
+    assertEquals(1, dao.getAllTrips().size());
+    assertEquals("second", dao.getTripForId(id).getTripShortName());
+
+    dao.removeEntity(dao.getTripForId(id));
+    assertEquals(0, dao.getAllTrips().size());
+    assertNull(dao.getTripForId(id));
+  }
+
+  @Test
+  public void testPackedArraysIndexOutOfBounds() {
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("a", "t0"));
+    TripArray trips = new TripArray();
+    trips.add(trip);
+    assertIndexOutOfBounds(trips, 1);
+    assertIndexOutOfBounds(trips, -1);
+    assertIndexOutOfBounds(new StopArray(), 0);
+    assertIndexOutOfBounds(new RouteArray(), 0);
+
+    StopTime stopTime = new StopTime();
+    stopTime.setTrip(trip);
+    StopTimeArray stopTimes = new StopTimeArray();
+    stopTimes.add(stopTime);
+    assertIndexOutOfBounds(stopTimes, 1);
+    assertIndexOutOfBounds(stopTimes.getRows(0, 1), 1);
+    assertIndexOutOfBounds(stopTimes.subList(0, 1), 1);
+    StopTimePatternArray patterns = new StopTimePatternArray(stopTimes, null);
+    assertIndexOutOfBounds(patterns, 1);
+    assertIndexOutOfBounds(patterns, -1);
+    assertIndexOutOfBounds(patterns.subList(0, 1), 1);
+    assertIndexOutOfBounds(new ShapePointArray(), 0);
+  }
+
+  private static void assertIndexOutOfBounds(List<?> list, int index) {
+    try {
+      list.get(index);
+      fail();
+    } catch (IndexOutOfBoundsException ex) {
+
+    }
+  }
 }
@@ -17,10 +17,21 @@
 package org.onebusaway.gtfs.impl;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.junit.Test;
 import org.onebusaway.gtfs.GtfsTestData;
@@ -156,6 +167,170 @@ public class GtfsRelationalDaoImplTest {
 	  assertEquals(sts.size(), 2);
   }
 
+  @Test
+  public void testIncrementalUpdates() throws IOException {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+    assertEquals(12, stopTimes.size());
+    AgencyAndId serviceId = trip.getServiceId();
+    int tripsForServiceId = dao.getTripsForServiceId(serviceId).size();
+
+    // Removing entities while iterating over a relation
+    for (StopTime stopTime : stopTimes) {
+      if (stopTime.getStopSequence() % 2 == 0)
+        dao.removeEntity(stopTime);
+    }
+    assertEquals(12, stopTimes.size());
+    assertEquals(6, dao.getStopTimesForTrip(trip).size());
+
+    StopTime first = dao.getStopTimesForTrip(trip).get(0);
+    StopTime added = new StopTime();
+    added.setTrip(trip);
+    added.setStop(first.getStop());
+    added.setStopSequence(first.getStopSequence() + 1);
+    dao.saveEntity(added);
+    assertSame(added, dao.getStopTimesForTrip(trip).get(1));
+    assertTrue(dao.getStopTimesForStop(first.getStop()).contains(added));
+
+    // Changing the order of an entity
+    added.setStopSequence(1000);
+    dao.updateEntity(added);
+    List<StopTime> updated = dao.getStopTimesForTrip(trip);
+    assertSame(added, updated.get(updated.size() - 1));
+
+    // Changing the key of an entity
+    AgencyAndId newServiceId = new AgencyAndId("BART", "newServiceId");
+    trip.setServiceId(newServiceId);
+    dao.updateEntity(trip);
+    assertEquals(tripsForServiceId - 1,
+        dao.getTripsForServiceId(serviceId).size());
+    assertEquals(Arrays.asList(trip), dao.getTripsForServiceId(newServiceId));
+
+    dao.removeEntity(trip);
+    assertTrue(dao.getTripsForServiceId(newServiceId).isEmpty());
+
+    List<StopTime> expected = dao.getStopTimesForTrip(trip);
+    dao.clearAllCaches();
+    assertEquals(expected, dao.getStopTimesForTrip(trip));
+  }
+
+  @Test
+  public void testUpdateKeysInPlace() throws IOException {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    // Renaming a service id while iterating over its relations, as the
+    // service id transform and the calendar merge do
+    AgencyAndId serviceId = new AgencyAndId("BART", "WKDY");
+    AgencyAndId newServiceId = new AgencyAndId("BART", "WEEKDAY");
+    ServiceCalendar calendar = dao.getCalendarForServiceId(serviceId);
+    calendar.setServiceId(newServiceId);
+    dao.updateEntity(calendar);
+    List<ServiceCalendarDate> calendarDates = dao.getCalendarDatesForServiceId(serviceId);
+    for (ServiceCalendarDate calendarDate : calendarDates) {
+      calendarDate.setServiceId(newServiceId);
+      dao.updateEntity(calendarDate);
+    }
+    List<Trip> trips = dao.getTripsForServiceId(serviceId);
+    int tripCount = trips.size();
+    assertTrue(tripCount > 1);
+    for (Trip trip : trips) {
+      trip.setServiceId(newServiceId);
+      dao.updateEntity(trip);
+    }
+    assertEquals(tripCount, trips.size());
+
+    assertTrue(dao.getTripsForServiceId(serviceId).isEmpty());
+    assertEquals(new HashSet<Trip>(trips), new HashSet<Trip>(
+        dao.getTripsForServiceId(newServiceId)));
+    assertNull(dao.getCalendarForServiceId(serviceId));
+    assertSame(calendar, dao.getCalendarForServiceId(newServiceId));
+    assertEquals(7, dao.getCalendarDatesForServiceId(newServiceId).size());
+    assertTrue(dao.getAllServiceIds().contains(newServiceId));
+    assertFalse(dao.getAllServiceIds().contains(serviceId));
+
+    // Changing the id of an entity the relations are keyed by
+    Route route = dao.getRouteForId(new AgencyAndId("BART", "01"));
+    List<Trip> routeTrips = dao.getTripsForRoute(route);
+    assertTrue(routeTrips.size() > 1);
+    route.setId(new AgencyAndId("BART", "renamed"));
+    dao.updateEntity(route);
+    assertEquals(routeTrips, dao.getTripsForRoute(route));
+
+    // The updated relations are those of relations built from scratch
+    List<Trip> updatedTrips = dao.getTripsForServiceId(newServiceId);
+    Set<AgencyAndId> serviceIds = new HashSet<AgencyAndId>(
+        dao.getAllServiceIds());
+    dao.clearAllCaches();
+    assertEquals(new HashSet<Trip>(updatedTrips), new HashSet<Trip>(
+        dao.getTripsForServiceId(newServiceId)));
+    assertTrue(dao.getTripsForServiceId(serviceId).isEmpty());
+    assertEquals(serviceIds, new HashSet<AgencyAndId>(dao.getAllServiceIds()));
+    assertEquals(routeTrips, dao.getTripsForRoute(route));
+  }
+
+  @Test
+  public void testWarmUp() throws Exception {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    dao.warmUp();
+
+    for (Trip trip : dao.getAllTrips()) {
+      Trip expectedTrip = expected.getTripForId(trip.getId());
+      assertEquals(expected.getStopTimesForTrip(expectedTrip).size(),
+          dao.getStopTimesForTrip(trip).size());
+      assertEquals(expected.getFrequenciesForTrip(expectedTrip).size(),
+          dao.getFrequenciesForTrip(trip).size());
+    }
+    for (Stop stop : dao.getAllStops()) {
+      Stop expectedStop = expected.getStopForId(stop.getId());
+      assertEquals(expected.getStopTimesForStop(expectedStop).size(),
+          dao.getStopTimesForStop(stop).size());
+    }
+    assertEquals(expected.getAllShapeIds().size(), dao.getAllShapeIds().size());
+    assertEquals(expected.getAllServiceIds().size(),
+        dao.getAllServiceIds().size());
+
+    dao.clearAllCaches();
+    dao.warmUp();
+    assertEquals(expected.getAllShapeIds().size(), dao.getAllShapeIds().size());
+  }
+
+  @Test
+  public void testConcurrentFirstQueries() throws Exception {
+
+    final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+    final Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<List<StopTime>>> futures = new ArrayList<Future<List<StopTime>>>();
+      for (int i = 0; i < 8; i++) {
+        futures.add(executor.submit(new Callable<List<StopTime>>() {
+          public List<StopTime> call() {
+            return dao.getStopTimesForTrip(trip);
+          }
+        }));
+      }
+      List<StopTime> stopTimes = futures.get(0).get();
+      assertEquals(12, stopTimes.size());
+      for (Future<List<StopTime>> future : futures)
+        assertEquals(stopTimes, future.get());
+    } finally {
+      executor.shutdown();
+    }
+  }
+
   @Test
   public void testTestAgency() throws IOException {
     String agencyId = "agency";
@@ -164,4 +339,237 @@ public class GtfsRelationalDaoImplTest {
     List<Trip> trips = dao.getTripsForBlockId(new AgencyAndId(agencyId, "block.1"));
     assertEquals(2, trips.size());
   }
+
+  @Test
+  public void testBartPackedTrips() throws IOException {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackRoutes(true);
+    dao.setPackStopTimes(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    for (Trip trip : expected.getAllTrips()) {
+      Trip packed = dao.getTripForId(trip.getId());
+      assertEquals(toString(expected.getStopTimesForTrip(trip)),
+          toString(dao.getStopTimesForTrip(packed)));
+      assertEquals(
+          new HashSet<Trip>(expected.getTripsForRoute(trip.getRoute())),
+          new HashSet<Trip>(dao.getTripsForRoute(packed.getRoute())));
+      assertEquals(
+          new HashSet<Trip>(expected.getTripsForServiceId(trip.getServiceId())),
+          new HashSet<Trip>(dao.getTripsForServiceId(packed.getServiceId())));
+    }
+    for (Stop stop : expected.getAllStops())
+      assertEquals(toString(expected.getStopTimesForStop(stop)),
+          toString(dao.getStopTimesForStop(dao.getStopForId(stop.getId()))));
+
+    // Changing the key of a packed trip
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    AgencyAndId newServiceId = new AgencyAndId("BART", "newServiceId");
+    trip.setServiceId(newServiceId);
+    dao.updateEntity(trip);
+    assertEquals(Arrays.asList(trip), dao.getTripsForServiceId(newServiceId));
+  }
+
+  @Test
+  public void testPackedStopTimeSlices() throws IOException {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    // The stop times of a trip are its contiguous rows
+    for (Trip trip : dao.getAllTrips()) {
+      List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+      assertEquals(toString(expected.getStopTimesForTrip(trip)),
+          toString(stopTimes));
+      int first = stopTimes.get(0).getId();
+      for (int i = 0; i < stopTimes.size(); i++)
+        assertEquals(first + i, stopTimes.get(i).getId().intValue());
+    }
+
+    StopTimeArray array = dao.getStopTimeArray();
+    int i = 0;
+    for (StopTime stopTime : array) {
+      assertSame(stopTime.getTrip(), array.getTrip(i));
+      assertSame(stopTime.getStop(), array.getStop(i));
+      assertEquals(stopTime.getArrivalTime(), array.getArrivalTime(i));
+      assertEquals(stopTime.getDepartureTime(), array.getDepartureTime(i));
+      assertEquals(stopTime.getStopSequence(), array.getStopSequence(i));
+      assertEquals(stopTime.getStopHeadsign(), array.getStopHeadsign(i));
+      i++;
+    }
+  }
+
+  @Test
+  public void testPackedRemoval() throws IOException {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    Trip otherTrip = dao.getTripForId(new AgencyAndId("BART", "15PB1SAT"));
+    List<String> otherStopTimes = toString(dao.getStopTimesForTrip(otherTrip));
+    List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+    StopTime removed = stopTimes.get(3);
+    StopTime next = stopTimes.get(4);
+    String nextValue = next.toString();
+    int nextId = next.getId();
+
+    // Removed rows leave the ids of the other rows as they are
+    dao.removeEntity(removed);
+    assertNull(dao.getStopTimeForId(removed.getId()));
+    assertEquals(33269, dao.getAllStopTimes().size());
+    assertEquals(1, dao.getStopTimeArray().getRemovedCount());
+    assertEquals(11, dao.getStopTimesForTrip(trip).size());
+    assertEquals(otherStopTimes,
+        toString(dao.getStopTimesForTrip(otherTrip)));
+    assertEquals(nextValue, dao.getStopTimeForId(nextId).toString());
+    next.setStopHeadsign("headsign");
+    dao.saveOrUpdateEntity(next);
+    assertEquals(33269, dao.getAllStopTimes().size());
+    assertEquals("headsign", dao.getStopTimeForId(nextId).getStopHeadsign());
+
+    AgencyAndId shapeId = new AgencyAndId("BART", "airbart-dn.csv");
+    ShapePoint shapePoint = dao.getShapePointsForShapeId(shapeId).get(0);
+    int shapePointCount = dao.getAllShapePoints().size();
+    dao.removeEntity(shapePoint);
+    assertNull(dao.getShapePointForId(shapePoint.getId()));
+    assertEquals(49, dao.getShapePointsForShapeId(shapeId).size());
+    assertEquals(shapePointCount - 1, dao.getAllShapePoints().size());
+
+    // Closing the dao keeps the removed rows, so stop times stay valid
+    dao.close();
+    assertEquals(1, dao.getStopTimeArray().getRemovedCount());
+    assertEquals(1, dao.getShapePointArray().getRemovedCount());
+    assertEquals(nextId, next.getId().intValue());
+    assertEquals("headsign", next.getStopHeadsign());
+    assertEquals(next.toString(), dao.getStopTimeForId(nextId).toString());
+    assertNull(dao.getStopTimeForId(removed.getId()));
+
+    // Compacting the dao drops the removed rows, which numbers the rows again
+    dao.compact();
+    assertEquals(0, dao.getStopTimeArray().getRemovedCount());
+    assertEquals(33269, dao.getStopTimeArray().getRowCount());
+    assertEquals(0, dao.getShapePointArray().getRemovedCount());
+    assertEquals(shapePointCount - 1, dao.getShapePointArray().getRowCount());
+    stopTimes = dao.getStopTimesForTrip(trip);
+    assertEquals(11, stopTimes.size());
+    assertEquals("headsign", stopTimes.get(3).getStopHeadsign());
+    assertEquals(otherStopTimes,
+        toString(dao.getStopTimesForTrip(otherTrip)));
+    assertEquals(49, dao.getShapePointsForShapeId(shapeId).size());
+    int id = 0;
+    for (StopTime stopTime : dao.getAllStopTimes())
+      assertEquals(id++, stopTime.getId().intValue());
+  }
+
+  @Test
+  public void testPackedRemovalOfUnstoredEntities() {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("1", "trip"));
+    dao.saveEntity(trip);
+    for (int i = 0; i < 3; i++) {
+      StopTime stopTime = new StopTime();
+      stopTime.setTrip(trip);
+      stopTime.setStopSequence(i);
+      dao.saveEntity(stopTime);
+    }
+    ShapePoint shapePoint = new ShapePoint();
+    shapePoint.setShapeId(new AgencyAndId("1", "shape"));
+    dao.saveEntity(shapePoint);
+    assertEquals(3, dao.getStopTimesForTrip(trip).size());
+
+    // Stop times and shape points with the id of a stored row, which were not
+    // returned by the dao, are not stored
+    StopTime stored = dao.getStopTimeForId(0);
+    dao.removeEntity(new StopTime(stored));
+    StopTime other = new StopTime();
+    other.setId(1);
+    other.setTrip(trip);
+    other.setStopSequence(1);
+    dao.removeEntity(other);
+    dao.removeEntity(new StopTime());
+    assertEquals(0, dao.getStopTimeArray().getRemovedCount());
+    assertEquals(3, dao.getAllStopTimes().size());
+    assertEquals(3, dao.getStopTimesForTrip(trip).size());
+    assertEquals(1, dao.getStopTimeForId(1).getStopSequence());
+    dao.removeEntity(new ShapePoint(dao.getShapePointForId(0)));
+    assertEquals(1, dao.getAllShapePoints().size());
+
+    dao.removeEntity(stored);
+    assertNull(dao.getStopTimeForId(0));
+    assertEquals(2, dao.getStopTimesForTrip(trip).size());
+
+    // Stop times of patterns are still removed once the first removal converts
+    // the patterns back to rows
+    dao.setPackStopTimePatterns(true);
+    dao.close();
+    assertEquals(2, dao.getStopTimePatternArray().size());
+    List<StopTime> stopTimes = new ArrayList<StopTime>(
+        dao.getStopTimesForTrip(trip));
+    for (StopTime stopTime : stopTimes)
+      dao.removeEntity(stopTime);
+    assertEquals(0, dao.getAllStopTimes().size());
+    assertEquals(0, dao.getStopTimesForTrip(trip).size());
+  }
+
+  @Test
+  public void testPackedStopTimesOutOfOrder() {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+
+    Trip tripA = new Trip();
+    tripA.setId(new AgencyAndId("1", "tripA"));
+    Trip tripB = new Trip();
+    tripB.setId(new AgencyAndId("1", "tripB"));
+    dao.saveEntity(tripA);
+    dao.saveEntity(tripB);
+    int[] sequences = {2, 1, 1, 3};
+    Trip[] trips = {tripA, tripA, tripB, tripA};
+    for (int i = 0; i < sequences.length; i++) {
+      StopTime stopTime = new StopTime();
+      stopTime.setTrip(trips[i]);
+      stopTime.setStopSequence(sequences[i]);
+      dao.saveEntity(stopTime);
+    }
+
+    List<StopTime> stopTimes = dao.getStopTimesForTrip(tripA);
+    assertEquals(3, stopTimes.size());
+    assertEquals(1, stopTimes.get(0).getStopSequence());
+    assertEquals(2, stopTimes.get(1).getStopSequence());
+    assertEquals(3, stopTimes.get(2).getStopSequence());
+    assertEquals(1, dao.getStopTimesForTrip(tripB).size());
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  /**
+   * Packed stop times are numbered by row rather than by generated id, so
+   * stop times are compared by their {@link StopTime#toString()} instead.
+   */
+  private static List<String> toString(List<StopTime> stopTimes) {
+    List<String> values = new ArrayList<String>();
+    for (StopTime stopTime : stopTimes)
+      values.add(stopTime.toString());
+    return values;
+  }
 }
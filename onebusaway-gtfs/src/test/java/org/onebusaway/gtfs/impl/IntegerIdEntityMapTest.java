@@ -0,0 +1,227 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.model.StopTime;
+
+public class IntegerIdEntityMapTest {
+
+  @Test
+  public void testDenseIds() {
+
+    IntegerIdEntityMap map = new IntegerIdEntityMap(2);
+    for (int i = 1; i <= 100; i++)
+      assertNull(map.put(i, "entity" + i));
+
+    assertEquals(100, map.size());
+    assertEquals("entity1", map.get(1));
+    assertEquals("entity100", map.get(100));
+    assertNull(map.get(0));
+    assertNull(map.get(101));
+    assertNull(map.get("1"));
+    assertEquals("entity1", map.put(1, "replaced"));
+    assertEquals(100, map.size());
+
+    assertEquals("entity50", map.remove(50));
+    assertNull(map.remove(50));
+    assertFalse(map.containsKey(50));
+    assertEquals(99, map.size());
+
+    List<Object> values = new ArrayList<Object>(map.values());
+    assertEquals(99, values.size());
+    assertEquals("replaced", values.get(0));
+    assertEquals("entity51", values.get(49));
+    assertEquals(99, map.entrySet().size());
+
+    map.trimToSize();
+    assertEquals("entity100", map.get(100));
+    map.put(101, "entity101");
+    assertEquals(100, map.size());
+  }
+
+  @Test
+  public void testSparseIds() {
+
+    IntegerIdEntityMap map = new IntegerIdEntityMap();
+    map.put(1, "a");
+    map.put(-5, "b");
+    map.put(1000000, "c");
+    assertEquals(3, map.size());
+    assertEquals("b", map.get(-5));
+    assertEquals("c", map.get(1000000));
+    assertEquals(Arrays.<Object> asList("a", "b", "c"),
+        new ArrayList<Object>(map.values()));
+
+    assertEquals("c", map.remove(1000000));
+    assertNull(map.get(1000000));
+    assertEquals(2, map.size());
+  }
+
+  @Test
+  public void testNullAndNonIntegerKeys() {
+
+    IntegerIdEntityMap map = new IntegerIdEntityMap();
+    map.put(1, "a");
+    assertNull(map.put(null, "b"));
+    assertNull(map.put("2", "c"));
+    assertEquals(3, map.size());
+    assertEquals("b", map.get(null));
+    assertEquals("c", map.get("2"));
+    assertNull(map.get(2));
+    assertTrue(map.containsKey(null));
+    assertEquals(Arrays.<Object> asList("a", "b", "c").size(),
+        new ArrayList<Object>(map.values()).size());
+
+    // Growing the array leaves the other keys in the overflow map
+    for (int i = 2; i <= 100; i++)
+      map.put(i, "entity" + i);
+    assertEquals("b", map.get(null));
+    assertEquals("c", map.get("2"));
+    assertEquals("entity2", map.get(2));
+
+    assertEquals("b", map.remove(null));
+    assertNull(map.get(null));
+    assertEquals("c", map.remove("2"));
+    assertEquals(100, map.size());
+  }
+
+  @Test
+  public void testGenericDaoImplWithoutGeneratedIds() {
+
+    GenericDaoImpl dao = new GenericDaoImpl();
+    dao.setGenerateIds(false);
+    BoxedIdEntity entity = new BoxedIdEntity();
+    dao.saveEntity(entity);
+    assertNull(entity.getId());
+    assertSame(entity, dao.getEntityForId(BoxedIdEntity.class, null));
+    assertEquals(1, dao.getAllEntitiesForType(BoxedIdEntity.class).size());
+
+    dao.removeEntity(entity);
+    assertEquals(0, dao.getAllEntitiesForType(BoxedIdEntity.class).size());
+  }
+
+  @Test
+  public void testRemoveWhileIterating() {
+
+    IntegerIdEntityMap map = new IntegerIdEntityMap();
+    for (int i = 1; i <= 10; i++)
+      map.put(i, i);
+
+    for (Iterator<Object> it = map.values().iterator(); it.hasNext();) {
+      Integer value = (Integer) it.next();
+      if (value % 2 == 0)
+        it.remove();
+    }
+    assertEquals(Arrays.<Object> asList(1, 3, 5, 7, 9),
+        new ArrayList<Object>(map.values()));
+
+    int count = 0;
+    for (Object value : map.values()) {
+      map.remove(value);
+      map.remove(((Integer) value) + 2);
+      count++;
+    }
+    assertEquals(3, count);
+    assertTrue(map.isEmpty());
+  }
+
+  @Test
+  public void testSetEntryValues() {
+
+    IntegerIdEntityMap map = new IntegerIdEntityMap();
+    map.put(1, "a");
+    map.put(2, "b");
+    map.put(null, "c");
+    map.put(-1, "d");
+
+    // As with a HashMap, setting the value of an entry sets it in the map
+    for (Map.Entry<Object, Object> entry : map.entrySet())
+      assertEquals(entry.getValue(), entry.setValue(entry.getValue() + "2"));
+    assertEquals("a2", map.get(1));
+    assertEquals("b2", map.get(2));
+    assertEquals("c2", map.get(null));
+    assertEquals("d2", map.get(-1));
+    assertEquals(4, map.size());
+
+    // An entry removed from the map is not put back
+    Map.Entry<Object, Object> entry = map.entrySet().iterator().next();
+    map.remove(entry.getKey());
+    entry.setValue("removed");
+    assertFalse(map.containsKey(entry.getKey()));
+    assertEquals(3, map.size());
+  }
+
+  @Test
+  public void testGenericDaoImpl() {
+
+    GenericDaoImpl dao = new GenericDaoImpl();
+    dao.ensureCapacity(StopTime.class, 10);
+    for (int i = 0; i < 10; i++)
+      dao.saveEntity(new StopTime());
+
+    StopTime stopTime = dao.getEntityForId(StopTime.class, 10);
+    assertEquals(10, stopTime.getId().intValue());
+    assertSame(stopTime,
+        dao.getEntitiesByIdForEntityType(Integer.class, StopTime.class).get(10));
+
+    dao.removeEntity(stopTime);
+    assertNull(dao.getEntityForId(StopTime.class, 10));
+    assertEquals(9, dao.getAllEntitiesForType(StopTime.class).size());
+
+    dao.compact();
+    assertEquals(9, dao.getAllEntitiesForType(StopTime.class).size());
+    dao.saveEntity(new StopTime());
+    assertEquals(10, dao.getAllEntitiesForType(StopTime.class).size());
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * An entity whose {@link Integer} id may be left null
+   */
+  private static class BoxedIdEntity extends IdentityBean<Integer> {
+
+    private static final long serialVersionUID = 1L;
+
+    private Integer id;
+
+    @Override
+    public Integer getId() {
+      return id;
+    }
+
+    @Override
+    public void setId(Integer id) {
+      this.id = id;
+    }
+  }
+}
@@ -0,0 +1,164 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class OffHeapStopTimeArrayTest {
+
+  @Test
+  public void testSegments() {
+
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("agency", "trip"));
+    Stop stop = new Stop();
+    stop.setId(new AgencyAndId("agency", "stop"));
+
+    OffHeapStopTimeArray stopTimes = new OffHeapStopTimeArray();
+    int n = 100000;
+    for (int i = 0; i < n; i++) {
+      stopTimes.add(trip, i % 2 == 0 ? stop : null, i, i + 30,
+          StopTime.MISSING_VALUE, i, i % 3 == 0 ? "headsign" : null, null, 1,
+          0, i * 0.5);
+    }
+    assertEquals(n, stopTimes.size());
+
+    StopTime stopTime = stopTimes.get(69999);
+    assertEquals(69999, stopTime.getId().intValue());
+    assertSame(trip, stopTime.getTrip());
+    assertNull(stopTime.getStop());
+    assertEquals(69999, stopTime.getArrivalTime());
+    assertEquals(70029, stopTime.getDepartureTime());
+    assertEquals(69999, stopTime.getStopSequence());
+    assertEquals("headsign", stopTime.getStopHeadsign());
+    assertNull(stopTime.getRouteShortName());
+    assertEquals(1, stopTime.getPickupType());
+    assertEquals(69999 * 0.5, stopTime.getShapeDistTraveled(), 0.0);
+
+    stopTime.setStop(stop);
+    stopTime.setStopHeadsign("other");
+    stopTime.clearArrivalTime();
+    assertSame(stop, stopTimes.get(69999).getStop());
+    assertEquals("other", stopTimes.get(69999).getStopHeadsign());
+    assertFalse(stopTimes.get(69999).isArrivalTimeSet());
+
+    int count = 0;
+    for (Iterator<StopTime> it = stopTimes.iterator(); it.hasNext(); it.next())
+      count++;
+    assertEquals(n, count);
+
+    stopTimes.clear();
+    assertTrue(stopTimes.isEmpty());
+  }
+
+  @Test
+  public void testRemoval() {
+
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("agency", "trip"));
+
+    OffHeapStopTimeArray stopTimes = new OffHeapStopTimeArray();
+    for (int i = 0; i < 10; i++) {
+      stopTimes.add(trip, null, i, i, StopTime.MISSING_VALUE, i,
+          "headsign" + i, null, 0, 0, StopTime.MISSING_VALUE);
+    }
+    StopTime removed = stopTimes.get(2);
+    assertTrue(stopTimes.removeRow(2));
+    assertFalse(stopTimes.removeRow(2));
+    for (Iterator<StopTime> it = stopTimes.iterator(); it.hasNext();) {
+      if (it.next().getStopSequence() == 7)
+        it.remove();
+    }
+    assertEquals(8, stopTimes.size());
+    assertEquals(10, stopTimes.getRowCount());
+    assertEquals(-1, stopTimes.getRow(removed));
+    assertNull(stopTimes.getForId(7));
+    assertEquals(8, stopTimes.getForId(8).getStopSequence());
+    assertEquals(3, stopTimes.get(2).getStopSequence());
+    assertEquals(8, stopTimes.get(6).getStopSequence());
+
+    stopTimes.compact();
+    assertEquals(8, stopTimes.getRowCount());
+    assertEquals(0, stopTimes.getRemovedCount());
+    int[] sequences = {0, 1, 3, 4, 5, 6, 8, 9};
+    for (int i = 0; i < sequences.length; i++) {
+      StopTime stopTime = stopTimes.get(i);
+      assertEquals(i, stopTime.getId().intValue());
+      assertEquals(sequences[i], stopTime.getStopSequence());
+      assertEquals("headsign" + sequences[i], stopTime.getStopHeadsign());
+      assertSame(trip, stopTime.getTrip());
+    }
+  }
+
+  @Test
+  public void testBart() throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setStopTimeArray(new OffHeapStopTimeArray());
+    assertBart(dao);
+  }
+
+  @Test
+  public void testBartMapped() throws IOException {
+    File file = File.createTempFile("stop_times-", ".bin");
+    file.deleteOnExit();
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStopTimes(true);
+    dao.setStopTimeArray(new OffHeapStopTimeArray(file));
+    assertBart(dao);
+    assertTrue(file.length() > 0);
+    assertSame(dao.getTripArray(), dao.getStopTimeArray().getTripArray());
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private void assertBart(GtfsRelationalDaoImpl dao) throws IOException {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    expected.setPackStopTimes(true);
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    assertTrue(dao.getAllStopTimes() instanceof OffHeapStopTimeArray);
+    assertEquals(33270, dao.getAllStopTimes().size());
+
+    Iterator<StopTime> it = expected.getAllStopTimes().iterator();
+    for (StopTime stopTime : dao.getAllStopTimes())
+      assertEquals(it.next().toString(), stopTime.toString());
+
+    for (Trip trip : expected.getAllTrips())
+      assertEquals(expected.getStopTimesForTrip(trip),
+          dao.getStopTimesForTrip(dao.getTripForId(trip.getId())));
+  }
+}
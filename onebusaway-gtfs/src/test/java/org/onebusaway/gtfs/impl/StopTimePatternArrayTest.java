@@ -0,0 +1,234 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.impl;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.model.Trip;
+
+public class StopTimePatternArrayTest {
+
+  @Test
+  public void testPatterns() {
+
+    Stop stopA = stop("a");
+    Stop stopB = stop("b");
+    Trip tripA = trip("tripA");
+    Trip tripB = trip("tripB");
+    Trip tripC = trip("tripC");
+
+    List<StopTime> stopTimes = new ArrayList<StopTime>();
+    stopTimes.add(stopTime(tripA, stopB, 2, 8 * 3600 + 600));
+    stopTimes.add(stopTime(tripB, stopA, 1, 9 * 3600));
+    stopTimes.add(stopTime(tripA, stopA, 1, 8 * 3600));
+    stopTimes.add(stopTime(tripB, stopB, 2, 9 * 3600 + 600));
+    stopTimes.add(stopTime(tripC, stopA, 1, 10 * 3600));
+    stopTimes.add(stopTime(tripC, stopB, 2, 10 * 3600 + 900));
+    StopTime untimed = stopTime(tripC, stopA, 3, StopTime.MISSING_VALUE);
+    stopTimes.add(untimed);
+
+    StopTimePatternArray array = new StopTimePatternArray(stopTimes, null);
+    assertEquals(7, array.size());
+    assertEquals(2, array.getPatternCount());
+
+    StopTime first = array.get(0);
+    assertEquals(tripA, first.getTrip());
+    assertSame(stopA, first.getStop());
+    assertEquals(8 * 3600, first.getArrivalTime());
+    assertEquals(0, first.getId().intValue());
+    assertEquals(8 * 3600 + 600, array.get(1).getDepartureTime());
+    assertEquals(tripB, array.get(2).getTrip());
+    assertEquals(9 * 3600 + 600, array.get(3).getArrivalTime());
+    assertEquals(10 * 3600 + 900, array.get(5).getArrivalTime());
+    assertFalse(array.get(6).isArrivalTimeSet());
+    assertEquals(StopTime.MISSING_VALUE, array.get(6).getArrivalTime());
+
+    List<String> expected = new ArrayList<String>();
+    for (int i = 0; i < array.size(); i++)
+      expected.add(array.get(i).toString());
+    List<String> actual = new ArrayList<String>();
+    for (StopTime stopTime : array)
+      actual.add(stopTime.toString());
+    assertEquals(expected, actual);
+
+    // Modifying the stop time of a trip leaves the other trips of its pattern
+    StopTime stopTime = array.get(3);
+    stopTime.setArrivalTime(9 * 3600 + 700);
+    assertEquals(3, array.getPatternCount());
+    assertEquals(9 * 3600 + 700, array.get(3).getArrivalTime());
+    assertEquals(8 * 3600 + 600, array.get(1).getArrivalTime());
+    stopTime.setStopHeadsign("headsign");
+    assertEquals(3, array.getPatternCount());
+    assertEquals(null, array.get(1).getStopHeadsign());
+
+    stopTime.setTrip(tripB);
+    try {
+      stopTime.setTrip(tripA);
+      fail();
+    } catch (UnsupportedOperationException ex) {
+
+    }
+  }
+
+  @Test
+  public void testBart() throws IOException {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackStopTimePatterns(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    assertTrue(dao.getAllStopTimes() instanceof StopTimePatternArray);
+    StopTimePatternArray array = (StopTimePatternArray) dao.getAllStopTimes();
+    assertEquals(33270, array.size());
+    assertTrue(array.getPatternCount() < dao.getAllTrips().size() / 4);
+
+    for (Trip trip : expected.getAllTrips())
+      assertEquals(toString(expected.getStopTimesForTrip(trip)),
+          toString(dao.getStopTimesForTrip(dao.getTripForId(trip.getId()))));
+
+    // Saving a stop time stores the stop times as rows again
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    StopTime stopTime = stopTime(trip, dao.getAllStops().iterator().next(),
+        100, 23 * 3600);
+    dao.saveEntity(stopTime);
+    assertTrue(dao.getAllStopTimes() instanceof StopTimeArray);
+    assertEquals(33271, dao.getAllStopTimes().size());
+    assertEquals(13, dao.getStopTimesForTrip(trip).size());
+
+    dao.close();
+    assertTrue(dao.getAllStopTimes() instanceof StopTimePatternArray);
+    assertEquals(13, dao.getStopTimesForTrip(trip).size());
+  }
+
+  @Test
+  public void testIdsAfterClose() throws IOException {
+
+    GtfsRelationalDaoImpl expected = new GtfsRelationalDaoImpl();
+    expected.setPackStopTimes(true);
+    GtfsTestData.readGtfs(expected, GtfsTestData.getBartGtfs(), "BART");
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackStopTimePatterns(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    // Stop times keep the ids they were saved with when grouped into patterns
+    assertNotNull(dao.getStopTimePatternArray());
+    assertEquals(0, dao.getStopTimeArray().size());
+    assertIds(expected, dao);
+
+    // and when converted back to rows
+    dao.unpackStopTimePatterns();
+    assertNull(dao.getStopTimePatternArray());
+    assertEquals(33270, dao.getStopTimeArray().size());
+    assertIds(expected, dao);
+    for (StopTime stopTime : dao.getAllStopTimes())
+      assertEquals(stopTime.getId().intValue(),
+          dao.getStopTimeArray().getRow(stopTime));
+
+    dao.close();
+    assertNotNull(dao.getStopTimePatternArray());
+    assertIds(expected, dao);
+  }
+
+  @Test
+  public void testPackedTrips() throws IOException {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackTrips(true);
+    dao.setPackStopTimes(true);
+    dao.setPackStopTimePatterns(true);
+    GtfsTestData.readGtfs(dao, GtfsTestData.getBartGtfs(), "BART");
+
+    Trip trip = dao.getTripForId(new AgencyAndId("BART", "15PB1"));
+    List<StopTime> stopTimes = dao.getStopTimesForTrip(trip);
+    assertEquals(12, stopTimes.size());
+    for (StopTime stopTime : stopTimes)
+      assertEquals(trip, stopTime.getTrip());
+    assertEquals(dao.getTripArray(),
+        ((StopTimePatternArray) dao.getAllStopTimes()).getTripArray());
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static Stop stop(String id) {
+    Stop stop = new Stop();
+    stop.setId(new AgencyAndId("agency", id));
+    return stop;
+  }
+
+  private static Trip trip(String id) {
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("agency", id));
+    return trip;
+  }
+
+  private static StopTime stopTime(Trip trip, Stop stop, int stopSequence,
+      int time) {
+    StopTime stopTime = new StopTime();
+    stopTime.setTrip(trip);
+    stopTime.setStop(stop);
+    stopTime.setStopSequence(stopSequence);
+    stopTime.setArrivalTime(time);
+    stopTime.setDepartureTime(time);
+    return stopTime;
+  }
+
+  private static void assertIds(GtfsRelationalDaoImpl expected,
+      GtfsRelationalDaoImpl dao) {
+    assertEquals(expected.getAllStopTimes().size(),
+        dao.getAllStopTimes().size());
+    for (StopTime stopTime : dao.getAllStopTimes()) {
+      int id = stopTime.getId();
+      assertEquals(expected.getStopTimeForId(id).toString(),
+          stopTime.toString());
+      assertEquals(stopTime.toString(), dao.getStopTimeForId(id).toString());
+    }
+  }
+
+  /**
+   * Stop times stored as patterns are ordered by trip rather than by id, so
+   * lists of stop times are compared by their {@link StopTime#toString()}
+   * instead.
+   */
+  private static List<String> toString(List<StopTime> stopTimes) {
+    List<String> values = new ArrayList<String>();
+    for (StopTime stopTime : stopTimes)
+      values.add(stopTime.toString());
+    return values;
+  }
+}
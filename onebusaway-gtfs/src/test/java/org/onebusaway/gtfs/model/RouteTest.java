@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.RouteArray;
+
+public class RouteTest {
+
+  @Test
+  public void testProxy() {
+    Route backing = new Route();
+    Route route = new Route();
+    route.setProxy(delegateTo(backing));
+
+    setValues(route);
+    assertValues(backing);
+    assertValues(route);
+
+    backing.setLongName("Other");
+    assertEquals("Other", route.getLongName());
+  }
+
+  @Test
+  public void testPackedProxy() {
+    RouteArray routes = new RouteArray();
+    routes.add(createRoute("r0"));
+    Route route = routes.get(0);
+    assertNotNull(route.getProxy());
+
+    setValues(route);
+    assertSame(route, routes.getForId(new AgencyAndId("a", "r0")));
+    assertValues(route);
+
+    Route copy = new Route(route);
+    assertNull(copy.getProxy());
+    assertValues(copy);
+  }
+
+  @Test
+  public void testEqualsAndHashCode() {
+    RouteArray routes = new RouteArray();
+    routes.add(createRoute("r0"));
+    Route packed = routes.get(0);
+    Route route = createRoute("r0");
+    Route other = createRoute("r1");
+
+    assertEquals(route, packed);
+    assertEquals(packed, route);
+    assertEquals(route.hashCode(), packed.hashCode());
+    assertFalse(packed.equals(other));
+    assertFalse(other.equals(packed));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Route route = createRoute("r0");
+    setValues(route);
+    Route copy = roundTrip(route);
+    assertEquals(route, copy);
+    assertValues(copy);
+
+    RouteArray routes = new RouteArray();
+    routes.add(createRoute("r0"));
+    Route packed = routes.get(0);
+    setValues(packed);
+    copy = roundTrip(packed);
+    assertNull(copy.getProxy());
+    assertEquals(packed, copy);
+    assertValues(copy);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static Route createRoute(String id) {
+    Route route = new Route();
+    route.setId(new AgencyAndId("a", id));
+    return route;
+  }
+
+  private static void setValues(Route route) {
+    Agency agency = new Agency();
+    agency.setId("a");
+    route.setId(new AgencyAndId("a", "r0"));
+    route.setAgency(agency);
+    route.setShortName("10");
+    route.setLongName("The Ten");
+    route.setType(3);
+    route.setDesc("desc");
+    route.setUrl("http://route/");
+    route.setColor("ff0000");
+    route.setTextColor("ffffff");
+    route.setRouteBikesAllowed(2);
+    route.setBikesAllowed(1);
+    route.setCompetentAuthority("authority");
+    route.setShortNameSortable("010");
+  }
+
+  private static void assertValues(Route route) {
+    assertEquals(new AgencyAndId("a", "r0"), route.getId());
+    assertEquals("a", route.getAgency().getId());
+    assertEquals("10", route.getShortName());
+    assertEquals("The Ten", route.getLongName());
+    assertEquals(3, route.getType());
+    assertEquals("desc", route.getDesc());
+    assertEquals("http://route/", route.getUrl());
+    assertEquals("ff0000", route.getColor());
+    assertEquals("ffffff", route.getTextColor());
+    assertEquals(2, route.getRouteBikesAllowed());
+    assertEquals(1, route.getBikesAllowed());
+    assertEquals("authority", route.getCompetentAuthority());
+    assertEquals("010", route.getShortNameSortable());
+  }
+
+  /**
+   * @return a proxy calling the method of the same name on the route
+   */
+  private static RouteProxy delegateTo(final Route route) {
+    return (RouteProxy) Proxy.newProxyInstance(RouteProxy.class.getClassLoader(),
+        new Class<?>[] {RouteProxy.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args)
+              throws Throwable {
+            return Route.class.getMethod(method.getName(),
+                method.getParameterTypes()).invoke(route, args);
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T value) throws IOException,
+      ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+        bytes.toByteArray()));
+    return (T) in.readObject();
+  }
+}
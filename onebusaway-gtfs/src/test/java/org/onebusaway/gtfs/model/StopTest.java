@@ -0,0 +1,179 @@
+/**
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.StopArray;
+
+public class StopTest {
+
+  @Test
+  public void testProxy() {
+    Stop backing = new Stop();
+    Stop stop = new Stop();
+    stop.setProxy(delegateTo(backing));
+
+    setValues(stop);
+    assertValues(backing);
+    assertValues(stop);
+
+    backing.setName("Other");
+    assertEquals("Other", stop.getName());
+    stop.clearVehicleType();
+    assertFalse(backing.isVehicleTypeSet());
+  }
+
+  @Test
+  public void testPackedProxy() {
+    StopArray stops = new StopArray();
+    stops.add(createStop("s0"));
+    Stop stop = stops.get(0);
+    assertNotNull(stop.getProxy());
+
+    setValues(stop);
+    assertSame(stop, stops.getForId(new AgencyAndId("a", "s0")));
+    assertValues(stop);
+
+    Stop copy = new Stop(stop);
+    assertNull(copy.getProxy());
+    assertValues(copy);
+  }
+
+  @Test
+  public void testEqualsAndHashCode() {
+    StopArray stops = new StopArray();
+    stops.add(createStop("s0"));
+    Stop packed = stops.get(0);
+    Stop stop = createStop("s0");
+    Stop other = createStop("s1");
+
+    assertEquals(stop, packed);
+    assertEquals(packed, stop);
+    assertEquals(stop.hashCode(), packed.hashCode());
+    assertFalse(packed.equals(other));
+    assertFalse(other.equals(packed));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Stop stop = createStop("s0");
+    setValues(stop);
+    Stop copy = roundTrip(stop);
+    assertEquals(stop, copy);
+    assertValues(copy);
+
+    StopArray stops = new StopArray();
+    stops.add(createStop("s0"));
+    Stop packed = stops.get(0);
+    setValues(packed);
+    copy = roundTrip(packed);
+    assertNull(copy.getProxy());
+    assertEquals(packed, copy);
+    assertValues(copy);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static Stop createStop(String id) {
+    Stop stop = new Stop();
+    stop.setId(new AgencyAndId("a", id));
+    return stop;
+  }
+
+  private static void setValues(Stop stop) {
+    stop.setId(new AgencyAndId("a", "s0"));
+    stop.setCode("code");
+    stop.setName("name");
+    stop.setDesc("desc");
+    stop.setLat(47.5);
+    stop.setLon(-122.5);
+    stop.setZoneId("zone");
+    stop.setUrl("http://stop/");
+    stop.setLocationType(1);
+    stop.setParentStation("parent");
+    stop.setWheelchairBoarding(2);
+    stop.setDirection("N");
+    stop.setTimezone("America/Los_Angeles");
+    stop.setVehicleType(3);
+    stop.setPlatformCode("A");
+    stop.setTripsAggregated("aggregated");
+  }
+
+  private static void assertValues(Stop stop) {
+    assertEquals(new AgencyAndId("a", "s0"), stop.getId());
+    assertEquals("code", stop.getCode());
+    assertEquals("name", stop.getName());
+    assertEquals("desc", stop.getDesc());
+    assertEquals(47.5, stop.getLat(), 0.0);
+    assertEquals(-122.5, stop.getLon(), 0.0);
+    assertEquals("zone", stop.getZoneId());
+    assertEquals("http://stop/", stop.getUrl());
+    assertEquals(1, stop.getLocationType());
+    assertEquals("parent", stop.getParentStation());
+    assertEquals(2, stop.getWheelchairBoarding());
+    assertEquals("N", stop.getDirection());
+    assertEquals("America/Los_Angeles", stop.getTimezone());
+    assertEquals(3, stop.getVehicleType());
+    assertTrue(stop.isVehicleTypeSet());
+    assertEquals("A", stop.getPlatformCode());
+    assertEquals("aggregated", stop.getTripsAggregated());
+  }
+
+  /**
+   * @return a proxy calling the method of the same name on the stop
+   */
+  private static StopProxy delegateTo(final Stop stop) {
+    return (StopProxy) Proxy.newProxyInstance(StopProxy.class.getClassLoader(),
+        new Class<?>[] {StopProxy.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args)
+              throws Throwable {
+            return Stop.class.getMethod(method.getName(),
+                method.getParameterTypes()).invoke(stop, args);
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T value) throws IOException,
+      ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+        bytes.toByteArray()));
+    return (T) in.readObject();
+  }
+}
@@ -0,0 +1,177 @@
+/**
+ * Copyright (C) 2011 Google Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.model;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.TripArray;
+
+public class TripTest {
+
+  @Test
+  public void testProxy() {
+    Trip backing = new Trip();
+    Trip trip = new Trip();
+    trip.setProxy(delegateTo(backing));
+
+    setValues(trip);
+    assertValues(backing);
+    assertValues(trip);
+
+    backing.setTripHeadsign("Other");
+    assertEquals("Other", trip.getTripHeadsign());
+  }
+
+  @Test
+  public void testPackedProxy() {
+    TripArray trips = new TripArray();
+    trips.add(createTrip("t0"));
+    Trip trip = trips.get(0);
+    assertNotNull(trip.getProxy());
+
+    setValues(trip);
+    assertSame(trip, trips.getForId(new AgencyAndId("a", "t0")));
+    assertValues(trip);
+
+    Trip copy = new Trip(trip);
+    assertNull(copy.getProxy());
+    assertValues(copy);
+  }
+
+  @Test
+  public void testEqualsAndHashCode() {
+    TripArray trips = new TripArray();
+    trips.add(createTrip("t0"));
+    Trip packed = trips.get(0);
+    Trip trip = createTrip("t0");
+    Trip other = createTrip("t1");
+
+    assertEquals(trip, packed);
+    assertEquals(packed, trip);
+    assertEquals(trip.hashCode(), packed.hashCode());
+    assertFalse(packed.equals(other));
+    assertFalse(other.equals(packed));
+  }
+
+  @Test
+  public void testSerialization() throws Exception {
+    Trip trip = createTrip("t0");
+    setValues(trip);
+    Trip copy = roundTrip(trip);
+    assertEquals(trip, copy);
+    assertValues(copy);
+
+    TripArray trips = new TripArray();
+    trips.add(createTrip("t0"));
+    Trip packed = trips.get(0);
+    setValues(packed);
+    copy = roundTrip(packed);
+    assertNull(copy.getProxy());
+    assertEquals(packed, copy);
+    assertValues(copy);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private static Trip createTrip(String id) {
+    Trip trip = new Trip();
+    trip.setId(new AgencyAndId("a", id));
+    return trip;
+  }
+
+  private static void setValues(Trip trip) {
+    Route route = new Route();
+    route.setId(new AgencyAndId("a", "r0"));
+    trip.setId(new AgencyAndId("a", "t0"));
+    trip.setRoute(route);
+    trip.setServiceId(new AgencyAndId("a", "sid"));
+    trip.setTripShortName("short");
+    trip.setTripHeadsign("headsign");
+    trip.setRouteShortName("10");
+    trip.setDirectionId("1");
+    trip.setBlockId("block");
+    trip.setShapeId(new AgencyAndId("a", "shape"));
+    trip.setWheelchairAccessible(1);
+    trip.setTripBikesAllowed(2);
+    trip.setBikesAllowed(1);
+    trip.setTripLongName("long");
+    trip.setDirectionCode("N");
+    trip.setPrimaryTrip(1);
+    trip.setRouteType(3);
+  }
+
+  private static void assertValues(Trip trip) {
+    assertEquals(new AgencyAndId("a", "t0"), trip.getId());
+    assertEquals(new AgencyAndId("a", "r0"), trip.getRoute().getId());
+    assertEquals(new AgencyAndId("a", "sid"), trip.getServiceId());
+    assertEquals("short", trip.getTripShortName());
+    assertEquals("headsign", trip.getTripHeadsign());
+    assertEquals("10", trip.getRouteShortName());
+    assertEquals("1", trip.getDirectionId());
+    assertEquals("block", trip.getBlockId());
+    assertEquals(new AgencyAndId("a", "shape"), trip.getShapeId());
+    assertEquals(1, trip.getWheelchairAccessible());
+    assertEquals(2, trip.getTripBikesAllowed());
+    assertEquals(1, trip.getBikesAllowed());
+    assertEquals("long", trip.getTripLongName());
+    assertEquals("N", trip.getDirectionCode());
+    assertEquals(1, trip.getPrimaryTrip());
+    assertEquals(3, trip.getRouteType());
+  }
+
+  /**
+   * @return a proxy calling the method of the same name on the trip
+   */
+  private static TripProxy delegateTo(final Trip trip) {
+    return (TripProxy) Proxy.newProxyInstance(TripProxy.class.getClassLoader(),
+        new Class<?>[] {TripProxy.class}, new InvocationHandler() {
+          @Override
+          public Object invoke(Object proxy, Method method, Object[] args)
+              throws Throwable {
+            return Trip.class.getMethod(method.getName(),
+                method.getParameterTypes()).invoke(trip, args);
+          }
+        });
+  }
+
+  @SuppressWarnings("unchecked")
+  private static <T> T roundTrip(T value) throws IOException,
+      ClassNotFoundException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    ObjectOutputStream out = new ObjectOutputStream(bytes);
+    out.writeObject(value);
+    out.close();
+    ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(
+        bytes.toByteArray()));
+    return (T) in.readObject();
+  }
+}
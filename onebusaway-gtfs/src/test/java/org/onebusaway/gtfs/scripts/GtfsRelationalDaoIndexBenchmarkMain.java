@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.scripts;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.FareAttribute;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+
+/**
+ * Measures the time {@link GtfsRelationalDaoImpl} takes to build each of its
+ * relational indexes, which happens on the first query of the relation after
+ * a feed is loaded, and to build all of them at once with
+ * {@link GtfsRelationalDaoImpl#warmUp()}. The indexes are cleared and rebuilt
+ * for every round.
+ * 
+ * Usage: [gtfs_path] [packed] (defaults to the BART test feed, with stop times
+ * and shape points not packed)
+ * 
+ * Like {@link GtfsValueCodecBenchmarkMain}, this is a plain main rather than a
+ * JMH benchmark.
+ */
+public class GtfsRelationalDaoIndexBenchmarkMain {
+
+  private static final int WARM_UP_ROUNDS = 5;
+
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws IOException {
+
+    File feed = args.length > 0 ? new File(args[0])
+        : GtfsTestData.getBartGtfs();
+    boolean packed = args.length > 1 && Boolean.parseBoolean(args[1]);
+
+    final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(packed);
+    dao.setPackShapePoints(packed);
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(feed);
+    reader.setEntityStore(dao);
+    reader.run();
+
+    final Trip trip = first(dao.getAllTrips());
+    final Stop stop = first(dao.getAllStops());
+    final Route route = first(dao.getAllRoutes());
+    final FareAttribute fare = first(dao.getAllFareAttributes());
+    final AgencyAndId id = new AgencyAndId("", "");
+
+    run(dao, "stopTimesByTrip", new Case() {
+      public void run() {
+        dao.getStopTimesForTrip(trip);
+      }
+    });
+    run(dao, "stopTimesByStop", new Case() {
+      public void run() {
+        dao.getStopTimesForStop(stop);
+      }
+    });
+    run(dao, "tripsByRoute", new Case() {
+      public void run() {
+        dao.getTripsForRoute(route);
+      }
+    });
+    run(dao, "tripsByServiceId", new Case() {
+      public void run() {
+        dao.getTripsForServiceId(id);
+      }
+    });
+    run(dao, "tripsByShapeId", new Case() {
+      public void run() {
+        dao.getTripsForShapeId(id);
+      }
+    });
+    run(dao, "shapePointsByShapeId", new Case() {
+      public void run() {
+        dao.getShapePointsForShapeId(id);
+      }
+    });
+    run(dao, "calendarsByServiceId", new Case() {
+      public void run() {
+        dao.getCalendarForServiceId(id);
+        dao.getCalendarDatesForServiceId(id);
+      }
+    });
+    run(dao, "frequenciesByTrip", new Case() {
+      public void run() {
+        dao.getFrequenciesForTrip(trip);
+      }
+    });
+    run(dao, "fareRulesByFareAttribute", new Case() {
+      public void run() {
+        dao.getFareRulesForFareAttribute(fare);
+      }
+    });
+    run(dao, "warmUp", new Case() {
+      public void run() {
+        try {
+          dao.warmUp();
+        } catch (InterruptedException ex) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+  }
+
+  private static <T> T first(Iterable<T> values) {
+    for (T value : values)
+      return value;
+    return null;
+  }
+
+  private static void run(GtfsRelationalDaoImpl dao, String name, Case c) {
+    for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+      dao.clearAllCaches();
+      c.run();
+    }
+    long elapsed = 0;
+    for (int i = 0; i < ROUNDS; i++) {
+      dao.clearAllCaches();
+      long start = System.nanoTime();
+      c.run();
+      elapsed += System.nanoTime() - start;
+    }
+    System.out.println(name + ": " + (elapsed / (ROUNDS * 1000L))
+        + " us/build");
+  }
+
+  private interface Case {
+    public void run();
+  }
+}
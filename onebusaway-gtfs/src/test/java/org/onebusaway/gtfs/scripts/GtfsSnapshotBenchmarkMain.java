@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.scripts;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.serialization.GtfsSnapshotReader;
+import org.onebusaway.gtfs.serialization.GtfsSnapshotWriter;
+
+/**
+ * Compares the time to load a feed from CSV with {@link GtfsReader} against
+ * the time to restore it from a snapshot with {@link GtfsSnapshotReader}, both
+ * into a {@link GtfsRelationalDaoImpl} with packed stop times and shape points.
+ * 
+ * Usage: [gtfs_path] (defaults to the BART test feed)
+ * 
+ * A plain main with warm-up rounds rather than a JMH benchmark, for the same
+ * reasons as {@link GtfsValueCodecBenchmarkMain}.
+ */
+public class GtfsSnapshotBenchmarkMain {
+
+  private static final int WARM_UP_ROUNDS = 5;
+
+  private static final int ROUNDS = 10;
+
+  public static void main(String[] args) throws IOException {
+
+    final File feed = args.length > 0 ? new File(args[0])
+        : GtfsTestData.getBartGtfs();
+    final File snapshot = File.createTempFile("GtfsSnapshotBenchmark-", ".bin");
+    snapshot.deleteOnExit();
+
+    long start = System.nanoTime();
+    final String feedHash = GtfsSnapshotReader.computeFeedHash(feed);
+    System.out.println("feed hash: "
+        + ((System.nanoTime() - start) / 1000000) + " ms");
+
+    GtfsSnapshotWriter writer = new GtfsSnapshotWriter();
+    writer.setOutputLocation(snapshot);
+    writer.setFeedHash(feedHash);
+    writer.run(readFeed(feed));
+    System.out.println("snapshot size: " + snapshot.length() + " bytes");
+
+    run("csv", new Case() {
+      public void run() throws IOException {
+        readFeed(feed);
+      }
+    });
+    run("snapshot", new Case() {
+      public void run() throws IOException {
+        GtfsSnapshotReader reader = new GtfsSnapshotReader();
+        reader.setInputLocation(snapshot);
+        reader.setFeedHash(feedHash);
+        reader.setEntityStore(createDao());
+        reader.run();
+      }
+    });
+  }
+
+  private static GtfsRelationalDaoImpl readFeed(File feed) throws IOException {
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(feed);
+    GtfsRelationalDaoImpl dao = createDao();
+    reader.setEntityStore(dao);
+    reader.run();
+    return dao;
+  }
+
+  private static GtfsRelationalDaoImpl createDao() {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+    return dao;
+  }
+
+  private static void run(String name, Case c) throws IOException {
+    for (int i = 0; i < WARM_UP_ROUNDS; i++)
+      c.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++)
+      c.run();
+    long millisPerRound = (System.nanoTime() - start) / (ROUNDS * 1000000L);
+    System.out.println(name + ": " + millisPerRound + " ms/load");
+  }
+
+  private interface Case {
+    public void run() throws IOException;
+  }
+}
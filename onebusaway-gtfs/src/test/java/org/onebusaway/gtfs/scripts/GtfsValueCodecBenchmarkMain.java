@@ -0,0 +1,169 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.scripts;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.onebusaway.gtfs.serialization.mappings.GtfsValueCodec;
+
+/**
+ * Compares {@link GtfsValueCodec} against the regular expression and
+ * java.text based parsing and formatting it replaced. Each case is run for a
+ * number of warm-up rounds before timing, and the reported figure is the
+ * average over the measured rounds.
+ * 
+ * This is a plain main rather than a JMH benchmark, as the build has no JMH
+ * dependency and the other scripts of this package are mains too. The warm-up
+ * rounds let the JIT compile each case before it is timed, and every result is
+ * added to {@code _sink}, which is printed, so that no case can be eliminated
+ * as dead code. It does not fork a JVM per case, so run it with a fixed heap
+ * and compare the figures of a single run rather than across runs.
+ */
+public class GtfsValueCodecBenchmarkMain {
+
+  private static final int VALUES = 100000;
+
+  private static final int WARM_UP_ROUNDS = 20;
+
+  private static final int ROUNDS = 20;
+
+  private static final Pattern TIME_PATTERN = Pattern.compile("^(-{0,1}\\d+):(\\d{2}):(\\d{2})$");
+
+  private static final Pattern DATE_PATTERN = Pattern.compile("^(\\d{4})(\\d{2})(\\d{2})$");
+
+  private static long _sink = 0;
+
+  public static void main(String[] args) {
+
+    Random random = new Random(42);
+    final String[] times = new String[VALUES];
+    final String[] dates = new String[VALUES];
+    final String[] coordinates = new String[VALUES];
+    final int[] seconds = new int[VALUES];
+    final double[] values = new double[VALUES];
+    for (int i = 0; i < VALUES; i++) {
+      seconds[i] = random.nextInt(30 * 60 * 60);
+      times[i] = GtfsValueCodec.formatTime(seconds[i]);
+      dates[i] = Integer.toString(20120101 + random.nextInt(1200));
+      values[i] = (random.nextDouble() - 0.5) * 360;
+      coordinates[i] = GtfsValueCodec.formatDecimal(values[i], 6);
+    }
+
+    run("parse time: regex", new Case() {
+      public void run() {
+        for (String time : times) {
+          Matcher m = TIME_PATTERN.matcher(time);
+          m.matches();
+          int hours = Integer.parseInt(m.group(1));
+          int minutes = Integer.parseInt(m.group(2));
+          _sink += Integer.parseInt(m.group(3)) + 60 * (minutes + 60 * hours);
+        }
+      }
+    });
+    run("parse time: codec", new Case() {
+      public void run() {
+        for (String time : times)
+          _sink += GtfsValueCodec.parseTime(time);
+      }
+    });
+
+    final DecimalFormat twoDigits = new DecimalFormat("00");
+    run("format time: DecimalFormat", new Case() {
+      public void run() {
+        for (int t : seconds) {
+          int s = t % 60;
+          int m = (t / 60) % 60;
+          int h = t / 3600;
+          String value = twoDigits.format(h) + ":" + twoDigits.format(m)
+              + ":" + twoDigits.format(s);
+          _sink += value.length();
+        }
+      }
+    });
+    run("format time: codec", new Case() {
+      public void run() {
+        for (int t : seconds)
+          _sink += GtfsValueCodec.formatTime(t).length();
+      }
+    });
+
+    run("parse date: regex", new Case() {
+      public void run() {
+        for (String date : dates) {
+          Matcher m = DATE_PATTERN.matcher(date);
+          m.matches();
+          _sink += Integer.parseInt(m.group(1)) + Integer.parseInt(m.group(2))
+              + Integer.parseInt(m.group(3));
+        }
+      }
+    });
+    run("parse date: codec", new Case() {
+      public void run() {
+        for (String date : dates)
+          _sink += GtfsValueCodec.parseDate(date);
+      }
+    });
+
+    run("parse coordinate: Double.parseDouble", new Case() {
+      public void run() {
+        for (String coordinate : coordinates)
+          _sink += (long) Double.parseDouble(coordinate);
+      }
+    });
+    run("parse coordinate: codec", new Case() {
+      public void run() {
+        for (String coordinate : coordinates)
+          _sink += (long) GtfsValueCodec.parseDouble(coordinate);
+      }
+    });
+
+    final DecimalFormat coordinateFormat = new DecimalFormat("0.000000",
+        new DecimalFormatSymbols(Locale.US));
+    run("format coordinate: DecimalFormat", new Case() {
+      public void run() {
+        for (double value : values)
+          _sink += coordinateFormat.format(value).length();
+      }
+    });
+    run("format coordinate: codec", new Case() {
+      public void run() {
+        for (double value : values)
+          _sink += GtfsValueCodec.formatDecimal(value, 6).length();
+      }
+    });
+
+    System.out.println("sink=" + _sink);
+  }
+
+  private static void run(String name, Case c) {
+    for (int i = 0; i < WARM_UP_ROUNDS; i++)
+      c.run();
+    long start = System.nanoTime();
+    for (int i = 0; i < ROUNDS; i++)
+      c.run();
+    long nanosPerValue = (System.nanoTime() - start) / ((long) ROUNDS * VALUES);
+    System.out.println(name + ": " + nanosPerValue + " ns/value");
+  }
+
+  private interface Case {
+    public void run();
+  }
+}
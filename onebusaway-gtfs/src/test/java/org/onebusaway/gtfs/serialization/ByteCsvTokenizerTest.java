@@ -0,0 +1,134 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.csv_entities.CsvTokenizerStrategy;
+
+public class ByteCsvTokenizerTest {
+
+  @Test
+  public void testMatchesReaderTokenization() throws IOException {
+    String[] inputs = {
+        "a,b,c\n1,2,3\n",
+        "a,b,c\r\n1,2,3\r\n",
+        "a,b,c\r1,2,3",
+        "\n\na,b\n\n1,2\n\u001a",
+        "\uFEFFstop_id,stop_name\n1,Stop",
+        "a,b\n \"x, y\" , z \n",
+        "a,b\n\"x \"\"quoted\"\"\",y\n",
+        "a,b\n\"x\"y,z\n",
+        "a,b\n\"unterminated, value\n",
+        "a,b,\n,,\n",
+        "a\n   \n",
+        "a,b\n\tx\t, y\" z\n",
+        "name,value\nCaf\u00e9,\u65e5\u672c\n\"\u00e9,\u00e8\",\u00fc\n"};
+
+    for (String input : inputs) {
+      for (boolean trimValues : new boolean[] {true, false}) {
+        List<List<String>> expected = readWithReader(input, trimValues);
+        List<List<String>> actual = readWithTokenizer(input, trimValues);
+        assertEquals(input, expected, actual);
+      }
+    }
+  }
+
+  @Test
+  public void testValueViews() {
+    ByteCsvTokenizer tokenizer = createTokenizer(
+        "id,name,time\n 42 ,Caf\u00e9,08:30:00\n", true);
+
+    assertTrue(tokenizer.next());
+    assertTrue(tokenizer.next());
+    assertEquals(3, tokenizer.size());
+
+    assertEquals(2, tokenizer.getLength(0));
+    assertEquals("42", tokenizer.getChars(0).toString());
+    assertEquals(4, tokenizer.getLength(1));
+    assertEquals("Caf\u00e9", tokenizer.getChars(1).toString());
+    CharSequence time = tokenizer.getChars(2);
+    assertEquals(8, time.length());
+    assertEquals('8', time.charAt(1));
+    assertEquals("30", time.subSequence(3, 5));
+
+    assertFalse(tokenizer.next());
+  }
+
+  private List<List<String>> readWithReader(String input, boolean trimValues)
+      throws IOException {
+    CsvTokenizerStrategy tokenizerStrategy = new CsvTokenizerStrategy();
+    tokenizerStrategy.getCsvParser().setTrimInitialWhitespace(true);
+    BufferedReader reader = new BufferedReader(new InputStreamReader(
+        new ByteArrayInputStream(input.getBytes("UTF-8")), "UTF-8"));
+    List<List<String>> rows = new ArrayList<List<String>>();
+    String line = null;
+    boolean first = true;
+    while ((line = reader.readLine()) != null) {
+      if (first && line.startsWith("\uFEFF"))
+        line = line.substring(1);
+      first = false;
+      if (line.length() == 0 || line.equals("\u001a"))
+        continue;
+      List<String> values = tokenizerStrategy.parse(line);
+      if (trimValues) {
+        for (int i = 0; i < values.size(); i++)
+          values.set(i, values.get(i).trim());
+      }
+      rows.add(values);
+    }
+    return rows;
+  }
+
+  private List<List<String>> readWithTokenizer(String input, boolean trimValues)
+      throws IOException {
+    ByteCsvTokenizer tokenizer = createTokenizer(input, trimValues);
+    List<List<String>> rows = new ArrayList<List<String>>();
+    while (tokenizer.next()) {
+      List<String> values = new ArrayList<String>();
+      for (int i = 0; i < tokenizer.size(); i++) {
+        assertEquals(tokenizer.getString(i), tokenizer.getChars(i).toString());
+        assertEquals(tokenizer.getString(i).length(), tokenizer.getLength(i));
+        values.add(tokenizer.getString(i));
+      }
+      assertEquals(values, tokenizer.getStrings());
+      rows.add(values);
+    }
+    return rows;
+  }
+
+  private ByteCsvTokenizer createTokenizer(String input, boolean trimValues) {
+    try {
+      CsvTokenizerStrategy fallback = new CsvTokenizerStrategy();
+      fallback.getCsvParser().setTrimInitialWhitespace(true);
+      return new ByteCsvTokenizer(ByteBuffer.wrap(input.getBytes("UTF-8")),
+          fallback, trimValues);
+    } catch (IOException ex) {
+      throw new IllegalStateException(ex);
+    }
+  }
+}
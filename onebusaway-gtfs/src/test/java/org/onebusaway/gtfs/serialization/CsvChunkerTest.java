@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.junit.Test;
+
+public class CsvChunkerTest {
+
+  private static final Charset UTF8 = Charset.forName("UTF-8");
+
+  @Test
+  public void testSplit() {
+    byte[] data = "h\na,b\nccc,d\r\ne\n\nf".getBytes(UTF8);
+    ByteBuffer buffer = ByteBuffer.wrap(data);
+    buffer.position(2);
+
+    List<ByteBuffer> chunks = CsvChunker.split(buffer, 3);
+    assertEquals(4, chunks.size());
+    assertEquals("a,b\n", toString(chunks.get(0)));
+    assertEquals("ccc,d\r", toString(chunks.get(1)));
+    assertEquals("\ne\n", toString(chunks.get(2)));
+    assertEquals("\nf", toString(chunks.get(3)));
+
+    // The buffer is left as is
+    assertEquals(2, buffer.position());
+
+    chunks = CsvChunker.split(buffer, 1000);
+    assertEquals(1, chunks.size());
+    assertEquals("a,b\nccc,d\r\ne\n\nf", toString(chunks.get(0)));
+  }
+
+  @Test
+  public void testSplitEmpty() {
+    assertEquals(0, CsvChunker.split(ByteBuffer.allocate(0), 10).size());
+  }
+
+  private static String toString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.remaining()];
+    buffer.duplicate().get(bytes);
+    return new String(bytes, UTF8);
+  }
+}
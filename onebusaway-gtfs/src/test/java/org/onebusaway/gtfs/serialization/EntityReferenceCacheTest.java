@@ -0,0 +1,151 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.services.MockGtfs;
+
+public class EntityReferenceCacheTest {
+
+  @Test
+  public void testResolve() {
+    CountingContext context = new CountingContext();
+    EntityReferenceCache cache = new EntityReferenceCache(context,
+        Stop.class, true);
+    assertTrue(cache.isValid());
+
+    Stop stop = (Stop) cache.resolve("s0");
+    assertEquals(new AgencyAndId("a", "s0"), stop.getId());
+    assertSame(stop, cache.resolve("s0"));
+    assertEquals(1, context.lookups);
+
+    cache.resolve("s1");
+    assertEquals(2, context.lookups);
+
+    cache.invalidate();
+    assertFalse(cache.isValid());
+  }
+
+  @Test
+  public void testContextWithoutCache() {
+    CountingContext context = new CountingContext();
+    EntityReferenceCache cache = EntityReferenceCache.get(context, Stop.class);
+    assertFalse(cache.isValid());
+    cache.resolve("s0");
+    cache.resolve("s0");
+    assertEquals(2, context.lookups);
+  }
+
+  @Test
+  public void testReaderCaches() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putDefaultStopTimes();
+
+    GtfsReader reader = new GtfsReader();
+    assertFalse(reader.isCacheEntityReferences());
+    reader.setCacheEntityReferences(true);
+    reader.setInputLocation(gtfs.getPath());
+    GtfsReaderContext context = reader.getGtfsReaderContext();
+
+    EntityReferenceCache cache = EntityReferenceCache.get(context, Stop.class);
+    assertTrue(cache.isValid());
+    assertSame(cache, EntityReferenceCache.get(context, Stop.class));
+    reader.setEntityStore(new GtfsRelationalDaoImpl());
+    assertFalse(cache.isValid());
+    assertNotSame(cache, EntityReferenceCache.get(context, Stop.class));
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(dao);
+    reader.run();
+
+    assertEquals(2, dao.getAllStopTimes().size());
+    for (StopTime stopTime : dao.getAllStopTimes()) {
+      Stop stop = stopTime.getStop();
+      assertSame(dao.getStopForId(stop.getId()), stop);
+      assertSame(dao.getTripForId(stopTime.getTrip().getId()),
+          stopTime.getTrip());
+    }
+  }
+
+  @Test
+  public void testReaderWithoutCache() {
+    CountingContext counting = new CountingContext();
+    EntityReferenceCache cache = new EntityReferenceCache(counting,
+        Stop.class, true, false);
+    assertTrue(cache.isValid());
+    cache.resolve("s0");
+    cache.resolve("s0");
+    assertEquals(2, counting.lookups);
+
+    GtfsReader reader = new GtfsReader();
+    GtfsReaderContext context = reader.getGtfsReaderContext();
+    cache = EntityReferenceCache.get(context, Stop.class);
+    assertTrue(cache.isValid());
+    reader.setCacheEntityReferences(true);
+    assertFalse(cache.isValid());
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class CountingContext implements GtfsReaderContext {
+
+    private int lookups = 0;
+
+    public String getDefaultAgencyId() {
+      return "a";
+    }
+
+    public String getTranslatedAgencyId(String agencyId) {
+      return agencyId;
+    }
+
+    public List<Agency> getAgencies() {
+      return null;
+    }
+
+    public Object getEntity(Class<?> entityClass, Serializable id) {
+      lookups++;
+      Stop stop = new Stop();
+      stop.setId((AgencyAndId) id);
+      return stop;
+    }
+
+    public String getAgencyForEntity(Class<?> entityType, String entityId) {
+      return "a";
+    }
+
+    public AgencyAndId getCanonicalId(AgencyAndId id) {
+      return id;
+    }
+  }
+}
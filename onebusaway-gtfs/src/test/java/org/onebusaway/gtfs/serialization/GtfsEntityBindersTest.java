@@ -0,0 +1,333 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.csv_entities.CsvEntityContext;
+import org.onebusaway.csv_entities.EntityHandler;
+import org.onebusaway.csv_entities.schema.AbstractEntityValidator;
+import org.onebusaway.csv_entities.schema.AbstractFieldMapping;
+import org.onebusaway.csv_entities.schema.BeanWrapper;
+import org.onebusaway.csv_entities.schema.DefaultEntitySchemaFactory;
+import org.onebusaway.csv_entities.schema.EntitySchema;
+import org.onebusaway.csv_entities.schema.FieldMapping;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.IdentityBean;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.services.GtfsDao;
+import org.onebusaway.gtfs.services.MockGtfs;
+
+public class GtfsEntityBindersTest {
+
+  private File _tmpDirectory;
+
+  @Before
+  public void setup() throws IOException {
+    _tmpDirectory = File.createTempFile("GtfsEntityBindersTest-", "-tmp");
+    if (_tmpDirectory.exists())
+      deleteFileRecursively(_tmpDirectory);
+    _tmpDirectory.mkdirs();
+  }
+
+  @After
+  public void teardown() {
+    deleteFileRecursively(_tmpDirectory);
+  }
+
+  @Test
+  public void testBindersMatchDefaultSchemas() {
+    DefaultEntitySchemaFactory schemaFactory = GtfsEntitySchemaFactory.createEntitySchemaFactory();
+    for (Class<?> entityClass : new GtfsReader().getEntityClasses()) {
+      EntityBinder<?> binder = GtfsEntityBinders.create(entityClass, null,
+          null);
+      if (entityClass.equals(StopTime.class)
+          || entityClass.equals(ShapePoint.class)) {
+        assertNull(binder);
+        continue;
+      }
+      assertNotNull(entityClass.getName(), binder);
+
+      EntitySchema schema = schemaFactory.getSchema(entityClass);
+      Set<String> csvFieldNames = new HashSet<String>();
+      for (FieldMapping field : schema.getFields())
+        field.getCSVFieldNames(csvFieldNames);
+      Set<String> columnNames = new HashSet<String>();
+      for (int i = 0; i < binder.getColumnCount(); i++)
+        columnNames.add(binder.getColumnName(i));
+      assertEquals(entityClass.getName(), csvFieldNames, columnNames);
+
+      assertEquals(0, GtfsEntityBinders.getCustomFields(schema).size());
+    }
+  }
+
+  @Test
+  public void testSameEntitiesAsSchema() throws IOException {
+    List<File> feeds = Arrays.asList(GtfsTestData.getBartGtfs(),
+        GtfsTestData.getCaltrainGtfs(), GtfsTestData.getIslandGtfs(),
+        GtfsTestData.getTestAgencyGtfs());
+    for (File feed : feeds) {
+      GtfsRelationalDaoImpl expected = readFeed(feed, false);
+      GtfsRelationalDaoImpl actual = readFeed(feed, true);
+      assertSameFeed(expected, actual);
+      assertSameEntities(expected, actual);
+    }
+  }
+
+  @Test
+  public void testDisabledByDefault() {
+    assertFalse(new GtfsReader().isEntityBinders());
+  }
+
+  @Test
+  public void testCustomFieldsAndValidators() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putAgencies(1);
+    gtfs.putLines("stops.txt", "stop_id,stop_name,stop_lat,stop_lon,stop_extra",
+        "S1,Stop 1,47.0,-122.0,extra 1", "S2,Stop 2,47.1,-122.1,");
+
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("a0");
+    reader.setEntityClasses(Arrays.<Class<?>> asList(Agency.class, Stop.class));
+    EntitySchema schema = reader.getEntitySchemaFactory().getSchema(
+        Stop.class);
+    schema.addField(new ExtraFieldMapping());
+    final List<Object> validated = new ArrayList<Object>();
+    schema.addValidator(new AbstractEntityValidator() {
+      public void validateEntity(CsvEntityContext context,
+          Map<String, Object> csvValues, BeanWrapper object) {
+        validated.add(object.getWrappedInstance(Stop.class));
+      }
+
+      public void validateCSV(CsvEntityContext context, BeanWrapper object,
+          Map<String, Object> csvValues) {
+
+      }
+    });
+    assertEquals(1, GtfsEntityBinders.getCustomFields(schema).size());
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(dao);
+    reader.setInputLocation(gtfs.getPath());
+    reader.run();
+
+    Stop stop = dao.getStopForId(new AgencyAndId("a0", "S1"));
+    assertEquals("Stop 1", stop.getName());
+    assertEquals(47.0, stop.getLat(), 0.0);
+    assertEquals("extra 1", stop.getDesc());
+    assertEquals("", dao.getStopForId(new AgencyAndId("a0", "S2")).getDesc());
+    assertEquals(2, validated.size());
+  }
+
+  @Test
+  public void testReplacedFieldFallsBackToSchema() {
+    EntitySchema schema = new EntitySchema(
+        GtfsEntitySchemaFactory.createEntitySchemaFactory().getSchema(
+            Stop.class));
+    List<FieldMapping> fields = new ArrayList<FieldMapping>(
+        schema.getFields());
+    schema.getFields().clear();
+    for (FieldMapping field : fields) {
+      if (field instanceof AbstractFieldMapping
+          && ((AbstractFieldMapping) field).getCsvFieldName().equals(
+              "stop_desc"))
+        continue;
+      schema.addField(field);
+    }
+    assertNull(GtfsEntityBinders.getCustomFields(schema));
+
+    schema.setFieldsInOrder(Arrays.asList("stop_id"));
+    assertNull(GtfsEntityBinders.getCustomFields(schema));
+  }
+
+  @Test
+  public void testBinderWithoutEntityStore() throws IOException {
+    final List<Object> entities = new ArrayList<Object>();
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(GtfsTestData.getTestAgencyGtfs());
+    reader.addEntityHandler(new EntityHandler() {
+      public void handleEntity(Object entity) {
+        if (entity instanceof Stop)
+          entities.add(entity);
+      }
+    });
+    reader.run();
+    assertTrue(entities.size() > 0);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private GtfsRelationalDaoImpl readFeed(File feed, boolean entityBinders)
+      throws IOException {
+    GtfsReader reader = new GtfsReader();
+    reader.setEntityBinders(entityBinders);
+    reader.setInputLocation(feed);
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setGenerateIds(true);
+    reader.setEntityStore(dao);
+    reader.run();
+    return dao;
+  }
+
+  /**
+   * Compares every field of every entity read with binders to the entity with
+   * the same id read through the schema. Referenced entities are compared by
+   * id.
+   */
+  private void assertSameEntities(GtfsRelationalDaoImpl expected,
+      GtfsRelationalDaoImpl actual) throws IOException {
+    int count = 0;
+    for (Class<?> entityClass : new GtfsReader().getEntityClasses()) {
+      Collection<?> entities = expected.getAllEntitiesForType(entityClass);
+      assertEquals(entityClass.getName(), entities.size(),
+          actual.getAllEntitiesForType(entityClass).size());
+      for (Object entity : entities) {
+        Serializable id = ((IdentityBean<?>) entity).getId();
+        Object other = actual.getEntityForId(entityClass, id);
+        assertNotNull(entityClass.getName() + " " + id, other);
+        for (Field field : entityClass.getDeclaredFields()) {
+          int modifiers = field.getModifiers();
+          if (Modifier.isStatic(modifiers) || Modifier.isTransient(modifiers))
+            continue;
+          field.setAccessible(true);
+          try {
+            assertEquals(entityClass.getName() + " " + id + " "
+                + field.getName(), field.get(entity), field.get(other));
+          } catch (IllegalAccessException ex) {
+            throw new IllegalStateException(ex);
+          }
+        }
+        count++;
+      }
+    }
+    assertTrue(count > 0);
+  }
+
+  /**
+   * Compares two feeds by writing both out as CSV.
+   */
+  private void assertSameFeed(GtfsDao expected, GtfsDao actual)
+      throws IOException {
+    File expectedDirectory = writeFeed(expected, "expected");
+    File actualDirectory = writeFeed(actual, "actual");
+    String[] names = expectedDirectory.list();
+    Arrays.sort(names);
+    String[] actualNames = actualDirectory.list();
+    Arrays.sort(actualNames);
+    assertEquals(Arrays.asList(names), Arrays.asList(actualNames));
+    for (String name : names) {
+      assertEquals(name, readFile(new File(expectedDirectory, name)),
+          readFile(new File(actualDirectory, name)));
+    }
+    deleteFileRecursively(expectedDirectory);
+    deleteFileRecursively(actualDirectory);
+  }
+
+  private File writeFeed(GtfsDao dao, String name) throws IOException {
+    File directory = new File(_tmpDirectory, name);
+    GtfsWriter writer = new GtfsWriter();
+    writer.setOutputLocation(directory);
+    writer.run(dao);
+    return directory;
+  }
+
+  private String readFile(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] bytes = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < bytes.length) {
+        int n = in.read(bytes, offset, bytes.length - offset);
+        if (n == -1)
+          break;
+        offset += n;
+      }
+      return new String(bytes, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  private void deleteFileRecursively(File file) {
+
+    if (!file.exists())
+      return;
+
+    if (file.isDirectory()) {
+      File[] files = file.listFiles();
+      if (files != null) {
+        for (File child : files)
+          deleteFileRecursively(child);
+      }
+    }
+
+    file.delete();
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  /**
+   * Reads the optional stop_extra column into the description of a stop
+   */
+  private static class ExtraFieldMapping extends AbstractFieldMapping {
+
+    public ExtraFieldMapping() {
+      super(Stop.class, "stop_extra", "desc", false);
+    }
+
+    public void translateFromCSVToObject(CsvEntityContext context,
+        Map<String, Object> csvValues, BeanWrapper object) {
+      Object value = csvValues.get(_csvFieldName);
+      object.setPropertyValue(_objFieldName, value);
+    }
+
+    public void translateFromObjectToCSV(CsvEntityContext context,
+        BeanWrapper object, Map<String, Object> csvValues) {
+
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.services.GtfsRelationalDao;
+import org.onebusaway.gtfs.services.MockGtfs;
+
+public class GtfsMultiFeedLoaderTest {
+
+  @Test
+  public void testLoad() throws IOException, InterruptedException {
+
+    // A feed whose stop times reference a missing trip fails to load
+    MockGtfs broken = MockGtfs.create();
+    broken.putMinimal();
+    broken.putLines("stop_times.txt",
+        "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+        "T-missing,08:00:00,08:00:00,S1,0");
+
+    List<File> paths = Arrays.asList(GtfsTestData.getBartGtfs(),
+        broken.getPath(), GtfsTestData.getCaltrainGtfs(),
+        GtfsTestData.getIslandGtfs());
+
+    GtfsMultiFeedLoader loader = new GtfsMultiFeedLoader();
+    loader.setThreadCount(2);
+    loader.setCollectStats(true);
+    loader.setFeedConfigurer(new GtfsMultiFeedLoader.FeedConfigurer() {
+      public void configure(File path, GtfsReader reader,
+          GtfsRelationalDaoImpl dao) {
+        dao.setPackStopTimes(true);
+      }
+    });
+    GtfsMultiFeedLoader.Results results = loader.load(paths);
+
+    List<GtfsMultiFeedLoader.FeedResult> feedResults = results.getFeedResults();
+    assertEquals(4, feedResults.size());
+    assertEquals(1, results.getFailures().size());
+
+    for (int i = 0; i < paths.size(); i++) {
+      GtfsMultiFeedLoader.FeedResult result = feedResults.get(i);
+      assertEquals(paths.get(i), result.getPath());
+      if (i == 1) {
+        assertFalse(result.isSuccess());
+        assertNull(result.getDao());
+        assertNotNull(result.getFailure());
+        continue;
+      }
+      assertTrue(result.isSuccess());
+      assertFalse(result.getStats().isEmpty());
+
+      GtfsRelationalDao expected = read(paths.get(i));
+      GtfsRelationalDao actual = result.getDao();
+      assertEquals(expected.getAllRoutes().size(), actual.getAllRoutes().size());
+      assertEquals(expected.getAllTrips().size(), actual.getAllTrips().size());
+      assertEquals(expected.getAllStopTimes().size(),
+          actual.getAllStopTimes().size());
+    }
+
+    assertTrue(results.getElapsedNanos() > 0);
+    assertTrue(results.getTotalFeedNanos() > 0);
+  }
+
+  private GtfsRelationalDao read(File path) throws IOException {
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(path);
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(dao);
+    reader.run();
+    return dao;
+  }
+}
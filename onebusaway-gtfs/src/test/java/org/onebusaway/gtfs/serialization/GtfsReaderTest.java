@@ -25,16 +25,25 @@ import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.StringReader;
 import java.text.ParseException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
 
 import org.junit.Test;
+import org.onebusaway.csv_entities.EntityHandler;
 import org.onebusaway.csv_entities.exceptions.CsvEntityIOException;
 import org.onebusaway.csv_entities.exceptions.InvalidValueEntityException;
 import org.onebusaway.csv_entities.exceptions.MissingRequiredFieldException;
@@ -574,6 +583,48 @@ public class GtfsReaderTest {
     }
   }
 
+  @Test
+  public void testCanonicalIds() throws IOException {
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(GtfsTestData.getBartGtfs());
+    reader.setEntityStore(dao);
+    reader.setCanonicalizeIds(true);
+    reader.run();
+
+    for (Trip trip : dao.getAllTrips()) {
+      assertSame(trip.getServiceId(),
+          dao.getIdTable().intern(trip.getServiceId()));
+      if (trip.getShapeId() != null)
+        assertSame(trip.getShapeId(),
+            dao.getIdTable().intern(trip.getShapeId()));
+    }
+    for (ServiceCalendarDate date : dao.getAllCalendarDates())
+      assertSame(date.getServiceId(),
+          dao.getIdTable().intern(date.getServiceId()));
+    for (ShapePoint point : dao.getAllShapePoints())
+      assertSame(point.getShapeId(), dao.getIdTable().intern(point.getShapeId()));
+
+    assertEquals(0, dao.getIdTable().getSurrogateKeyCount(Trip.class));
+
+    dao = new GtfsRelationalDaoImpl();
+    reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(GtfsTestData.getBartGtfs());
+    reader.setEntityStore(dao);
+    reader.run();
+
+    List<Trip> trips = new ArrayList<Trip>(dao.getAllTrips());
+    assertTrue(trips.size() > 1);
+    AgencyAndId serviceId = trips.get(0).getServiceId();
+    for (Trip trip : trips.subList(1, trips.size())) {
+      if (trip.getServiceId().equals(serviceId))
+        assertNotSame(serviceId, trip.getServiceId());
+    }
+  }
+
   @Test
   public void testTestAgency() throws IOException {
 
@@ -882,6 +933,492 @@ public class GtfsReaderTest {
     assertEquals("Ten, Ten", route.getLongName());
   }
 
+  @Test
+  public void testParallelLoading() throws IOException {
+
+    File resourcePath = GtfsTestData.getBartGtfs();
+    GtfsDao sequential = processFeed(resourcePath, "BART", false);
+
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(resourcePath);
+    reader.setParallelLoading(true);
+    GtfsRelationalDaoImpl parallel = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(parallel);
+    reader.run();
+
+    assertEquals(sequential.getAllAgencies().size(),
+        parallel.getAllAgencies().size());
+    assertEquals(sequential.getAllRoutes().size(),
+        parallel.getAllRoutes().size());
+    assertEquals(sequential.getAllCalendars().size(),
+        parallel.getAllCalendars().size());
+    assertEquals(sequential.getAllCalendarDates().size(),
+        parallel.getAllCalendarDates().size());
+    assertEquals(sequential.getAllFareRules().size(),
+        parallel.getAllFareRules().size());
+    assertEquals(sequential.getAllTransfers().size(),
+        parallel.getAllTransfers().size());
+
+    assertEquals(sequential.getAllTrips().size(), parallel.getAllTrips().size());
+    for (Trip trip : sequential.getAllTrips()) {
+      Trip other = parallel.getTripForId(trip.getId());
+      assertEquals(trip.getRoute().getId(), other.getRoute().getId());
+      assertEquals(trip.getServiceId(), other.getServiceId());
+    }
+
+    assertEquals(sequential.getAllStopTimes().size(),
+        parallel.getAllStopTimes().size());
+    for (StopTime stopTime : sequential.getAllStopTimes()) {
+      StopTime other = parallel.getStopTimeForId(stopTime.getId());
+      assertEquals(stopTime.getTrip().getId(), other.getTrip().getId());
+      assertEquals(stopTime.getStop().getId(), other.getStop().getId());
+      assertEquals(stopTime.getStopSequence(), other.getStopSequence());
+      assertEquals(stopTime.getArrivalTime(), other.getArrivalTime());
+      assertEquals(stopTime.getDepartureTime(), other.getDepartureTime());
+    }
+
+    assertEquals(sequential.getAllShapePoints().size(),
+        parallel.getAllShapePoints().size());
+    for (ShapePoint shapePoint : sequential.getAllShapePoints()) {
+      ShapePoint other = parallel.getShapePointForId(shapePoint.getId());
+      assertEquals(shapePoint.getShapeId(), other.getShapeId());
+      assertEquals(shapePoint.getSequence(), other.getSequence());
+    }
+  }
+
+  @Test
+  public void testParallelLoadingWithMissingReference() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putDefaultAgencies();
+    gtfs.putLines("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+        "S1,Stop,47.0,-122.0");
+    gtfs.putLines("routes.txt", "route_id,route_short_name,route_type", "R1,10,3");
+    gtfs.putLines("trips.txt", "route_id,service_id,trip_id", "R1,WEEK,T1");
+    gtfs.putLines("stop_times.txt",
+        "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+        "T1,09:00:00,09:00:00,S2,0");
+
+    GtfsReader reader = new GtfsReader();
+    reader.setParallelLoading(true);
+    try {
+      gtfs.read(reader);
+      fail();
+    } catch (CsvEntityIOException ex) {
+      assertTrue(ex.getCause() instanceof EntityReferenceNotFoundException);
+    }
+  }
+
+  @Test
+  public void testStreamingStopTimes() throws IOException {
+
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(GtfsTestData.getBartGtfs());
+    reader.addStreamingEntityClass(StopTime.class);
+
+    final List<StopTime> stopTimes = new ArrayList<StopTime>();
+    reader.addEntityHandler(new EntityHandler() {
+      @Override
+      public void handleEntity(Object bean) {
+        if (bean instanceof StopTime)
+          stopTimes.add((StopTime) bean);
+      }
+    });
+
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(dao);
+    reader.run();
+
+    assertEquals(0, dao.getAllStopTimes().size());
+    assertEquals(1620, dao.getAllTrips().size());
+
+    assertEquals(33270, stopTimes.size());
+    StopTime stopTime = stopTimes.get(0);
+    assertSame(dao.getTripForId(stopTime.getTrip().getId()),
+        stopTime.getTrip());
+    assertSame(dao.getStopForId(stopTime.getStop().getId()),
+        stopTime.getStop());
+  }
+
+  @Test
+  public void testPackedStopTimesAndShapePoints() throws IOException {
+
+    File resourcePath = GtfsTestData.getBartGtfs();
+    GtfsDao unpacked = processFeed(resourcePath, "BART", false);
+
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(resourcePath);
+    GtfsRelationalDaoImpl packed = new GtfsRelationalDaoImpl();
+    packed.setPackStopTimes(true);
+    packed.setPackShapePoints(true);
+    reader.setEntityStore(packed);
+    reader.run();
+
+    // Generated ids start at one, while packed ids are row indices
+    List<StopTime> stopTimes = new ArrayList<StopTime>(
+        packed.getAllStopTimes());
+    assertEquals(unpacked.getAllStopTimes().size(), stopTimes.size());
+    for (int i = 0; i < stopTimes.size(); i++) {
+      StopTime expected = unpacked.getStopTimeForId(i + 1);
+      StopTime actual = stopTimes.get(i);
+      assertSame(packed.getTripForId(expected.getTrip().getId()),
+          actual.getTrip());
+      assertSame(packed.getStopForId(expected.getStop().getId()),
+          actual.getStop());
+      assertEquals(expected.getArrivalTime(), actual.getArrivalTime());
+      assertEquals(expected.getDepartureTime(), actual.getDepartureTime());
+      assertEquals(expected.getTimepoint(), actual.getTimepoint());
+      assertEquals(expected.getStopSequence(), actual.getStopSequence());
+      assertEquals(expected.getStopHeadsign(), actual.getStopHeadsign());
+      assertEquals(expected.getRouteShortName(), actual.getRouteShortName());
+      assertEquals(expected.getPickupType(), actual.getPickupType());
+      assertEquals(expected.getDropOffType(), actual.getDropOffType());
+      assertEquals(expected.getShapeDistTraveled(),
+          actual.getShapeDistTraveled(), 0.0);
+    }
+
+    List<ShapePoint> shapePoints = new ArrayList<ShapePoint>(
+        packed.getAllShapePoints());
+    assertEquals(unpacked.getAllShapePoints().size(), shapePoints.size());
+    for (int i = 0; i < shapePoints.size(); i++) {
+      ShapePoint expected = unpacked.getShapePointForId(i + 1);
+      ShapePoint actual = shapePoints.get(i);
+      assertEquals(expected.getShapeId(), actual.getShapeId());
+      assertEquals(expected.getSequence(), actual.getSequence());
+      assertEquals(expected.getLat(), actual.getLat(), 0.0);
+      assertEquals(expected.getLon(), actual.getLon(), 0.0);
+      assertEquals(expected.getDistTraveled(), actual.getDistTraveled(), 0.0);
+    }
+  }
+
+  @Test
+  public void testPackedStopTimesWithMissingRequiredField() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putDefaultStops();
+    gtfs.putDefaultTrips();
+    gtfs.putLines("stop_times.txt",
+        "trip_id,arrival_time,departure_time,stop_id,stop_sequence",
+        "T10-0,08:00:00,08:00:00,100,0", "T10-0,08:05:00,08:05:00,200,");
+
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(gtfs.getPath());
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    reader.setEntityStore(dao);
+    try {
+      reader.run();
+      fail();
+    } catch (CsvEntityIOException ex) {
+      assertTrue(ex.getCause() instanceof MissingRequiredFieldException);
+    }
+  }
+
+  @Test
+  public void testPresizeEntityStore() throws IOException {
+
+    File resourcePath = GtfsTestData.getBartGtfs();
+    GtfsDao expected = processFeed(resourcePath, "BART", false);
+    assertFalse(new GtfsReader().isPresizeEntityStore());
+
+    GtfsReader reader = newReader("BART");
+    reader.setInputLocation(resourcePath);
+    reader.setPresizeEntityStore(true);
+    GtfsRelationalDaoImpl presized = new GtfsRelationalDaoImpl();
+    presized.setGenerateIds(true);
+    reader.setEntityStore(presized);
+    reader.run();
+
+    assertEquals(expected.getAllStops().size(), presized.getAllStops().size());
+    assertEquals(expected.getAllTrips().size(), presized.getAllTrips().size());
+    assertEquals(expected.getAllStopTimes().size(),
+        presized.getAllStopTimes().size());
+    assertEquals(expected.getAllShapePoints().size(),
+        presized.getAllShapePoints().size());
+    for (Trip trip : expected.getAllTrips()) {
+      Trip actual = presized.getTripForId(trip.getId());
+      assertEquals(trip.getRoute().getId(), actual.getRoute().getId());
+      assertEquals(trip.getServiceId(), actual.getServiceId());
+    }
+  }
+
+  @Test
+  public void testChunkedParsing() throws IOException {
+
+    File resourcePath = GtfsTestData.getBartGtfs();
+    GtfsDao sequential = processFeed(resourcePath, "BART", false);
+
+    for (int i = 0; i < 3; i++) {
+      GtfsReader reader = new GtfsReader();
+      reader.setDefaultAgencyId("BART");
+      // The zip entries are compressed, so the mapped source has to inflate
+      // the files as well
+      if (i == 2)
+        reader.setInputSource(new MappedCsvInputSource(resourcePath));
+      else
+        reader.setInputLocation(resourcePath);
+      reader.setChunkedParsing(true);
+      reader.setChunkedParsingThreadCount(4);
+      reader.setChunkedParsingMinSize(1);
+      GtfsRelationalDaoImpl chunked = new GtfsRelationalDaoImpl();
+      chunked.setGenerateIds(true);
+      chunked.setPackStopTimes(i > 0);
+      chunked.setPackShapePoints(i > 0);
+      reader.setEntityStore(chunked);
+      reader.run();
+
+      assertEquals(sequential.getAllTrips().size(), chunked.getAllTrips().size());
+
+      // Generated ids start at one, while packed ids are row indices
+      List<StopTime> stopTimes = new ArrayList<StopTime>(
+          chunked.getAllStopTimes());
+      assertEquals(sequential.getAllStopTimes().size(), stopTimes.size());
+      for (int j = 0; j < stopTimes.size(); j++) {
+        StopTime expected = sequential.getStopTimeForId(j + 1);
+        StopTime actual = i > 0 ? stopTimes.get(j)
+            : chunked.getStopTimeForId(j + 1);
+        assertEquals(expected.getTrip().getId(), actual.getTrip().getId());
+        assertEquals(expected.getStop().getId(), actual.getStop().getId());
+        assertEquals(expected.getStopSequence(), actual.getStopSequence());
+        assertEquals(expected.getArrivalTime(), actual.getArrivalTime());
+        assertEquals(expected.getDepartureTime(), actual.getDepartureTime());
+      }
+
+      List<ShapePoint> shapePoints = new ArrayList<ShapePoint>(
+          chunked.getAllShapePoints());
+      assertEquals(sequential.getAllShapePoints().size(), shapePoints.size());
+      for (int j = 0; j < shapePoints.size(); j++) {
+        ShapePoint expected = sequential.getShapePointForId(j + 1);
+        ShapePoint actual = i > 0 ? shapePoints.get(j)
+            : chunked.getShapePointForId(j + 1);
+        assertEquals(expected.getShapeId(), actual.getShapeId());
+        assertEquals(expected.getSequence(), actual.getSequence());
+      }
+    }
+  }
+
+  @Test
+  public void testChunkedParsingWithInvalidRow() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putDefaultStops();
+    gtfs.putDefaultTrips();
+    String[] lines = new String[2001];
+    lines[0] = "trip_id,arrival_time,departure_time,stop_id,stop_sequence";
+    for (int i = 1; i < lines.length; i++)
+      lines[i] = "T10-0,08:00:00,08:00:00,100," + i;
+    lines[1500] = "T10-0,08:00:00,08:00:00,100,";
+    gtfs.putLines("stop_times.txt", lines);
+
+    for (boolean pack : new boolean[] {false, true}) {
+      GtfsReader reader = new GtfsReader();
+      reader.setInputLocation(gtfs.getPath());
+      reader.setChunkedParsing(true);
+      reader.setChunkedParsingThreadCount(4);
+      reader.setChunkedParsingMinSize(1);
+      GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+      dao.setPackStopTimes(pack);
+      reader.setEntityStore(dao);
+      try {
+        reader.run();
+        fail();
+      } catch (CsvEntityIOException ex) {
+        assertTrue(ex.getCause() instanceof MissingRequiredFieldException);
+        assertEquals(1501, ex.getLineNumber());
+      }
+    }
+  }
+
+  @Test
+  public void testLazyEntityClasses() throws Exception {
+
+    File resourcePath = GtfsTestData.getBartGtfs();
+    GtfsDao eager = processFeed(resourcePath, "BART", false);
+
+    GtfsReader reader = new GtfsReader();
+    reader.setDefaultAgencyId("BART");
+    reader.setInputLocation(resourcePath);
+    reader.addLazyEntityClass(ShapePoint.class);
+    reader.addLazyEntityClass(Transfer.class);
+    reader.addLazyEntityClass(Trip.class);
+
+    final AtomicInteger shapePointsRead = new AtomicInteger();
+    reader.addEntityHandler(new EntityHandler() {
+      @Override
+      public void handleEntity(Object bean) {
+        if (bean instanceof ShapePoint)
+          shapePointsRead.incrementAndGet();
+      }
+    });
+
+    final GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    reader.setEntityStore(dao);
+    reader.run();
+    reader.close();
+
+    // Trips are referenced by stop times, so they can't be deferred
+    assertFalse(dao.isPendingEntityLoad(Trip.class));
+    assertTrue(dao.isPendingEntityLoad(ShapePoint.class));
+    assertTrue(dao.isPendingEntityLoad(Transfer.class));
+    assertEquals(0, shapePointsRead.get());
+
+    List<Thread> threads = new ArrayList<Thread>();
+    final List<Integer> sizes = Collections.synchronizedList(new ArrayList<Integer>());
+    for (int i = 0; i < 4; i++) {
+      threads.add(new Thread() {
+        public void run() {
+          sizes.add(dao.getAllShapePoints().size());
+        }
+      });
+    }
+    for (Thread thread : threads)
+      thread.start();
+    for (Thread thread : threads)
+      thread.join();
+
+    int expected = eager.getAllShapePoints().size();
+    assertTrue(expected > 0);
+    assertEquals(Collections.nCopies(4, expected), sizes);
+    assertEquals(expected, shapePointsRead.get());
+    assertFalse(dao.isPendingEntityLoad(ShapePoint.class));
+    assertTrue(dao.isPendingEntityLoad(Transfer.class));
+
+    assertEquals(eager.getAllTransfers().size(), dao.getAllTransfers().size());
+    assertFalse(dao.isPendingEntityLoad(Transfer.class));
+  }
+
+  @Test
+  public void testRawColumnFilters() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putLines("agency.txt",
+        "agency_id,agency_name,agency_url,agency_timezone",
+        "a1,Metro,http://metro.gov/,America/Los_Angeles",
+        "a2,Other,http://other.gov/,America/Los_Angeles");
+    gtfs.putLines("routes.txt",
+        "route_id,agency_id,route_short_name,route_long_name,route_type",
+        "r1,a1,1,One,3", "r2,a2,2,Two,3", "r3,a1,3,Three,0");
+    gtfs.putLines("stops.txt", "stop_id,stop_name,stop_lat,stop_lon",
+        "s0,Stop 0,47.65,-122.30", "s1,Stop 1,47.66,-122.30");
+    gtfs.putLines("calendar_dates.txt", "service_id,date,exception_type",
+        "sid0,20120101,1", "sid0,20120102,1", "sid0,20120301,1");
+    gtfs.putTrips(3, "r1,r2,r3", "sid0");
+    gtfs.putStopTimes("t0,t1,t2", "s0,s1");
+    gtfs.putLines("frequencies.txt",
+        "trip_id,start_time,end_time,headway_secs", "t0,08:00:00,09:00:00,600",
+        "t1,08:00:00,09:00:00,600");
+
+    for (boolean pack : new boolean[] {false, true}) {
+      GtfsReader reader = new GtfsReader();
+      reader.addRawColumnFilter(Agency.class, "agency_id",
+          RawColumnPredicates.in("a1"));
+      reader.addRawColumnFilter(Route.class, "route_type",
+          RawColumnPredicates.intIn(3));
+      reader.addRawColumnFilter(ServiceCalendarDate.class, "date",
+          RawColumnPredicates.dateBetween(new ServiceDate(2012, 1, 1),
+              new ServiceDate(2012, 1, 31)));
+      reader.setInputLocation(gtfs.getPath());
+      GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+      dao.setPackStopTimes(pack);
+      reader.setEntityStore(dao);
+      reader.run();
+
+      assertEquals(1, dao.getAllAgencies().size());
+      assertEquals(1, dao.getAllRoutes().size());
+      assertEquals(2, dao.getAllStops().size());
+      assertEquals(2, dao.getAllCalendarDates().size());
+      assertEquals(1, dao.getAllTrips().size());
+      Trip trip = dao.getTripForId(new AgencyAndId("a1", "t0"));
+      assertNotNull(trip);
+      assertEquals(2, dao.getAllStopTimes().size());
+      for (StopTime stopTime : dao.getAllStopTimes())
+        assertSame(trip, stopTime.getTrip());
+      assertEquals(1, dao.getAllFrequencies().size());
+    }
+  }
+
+  @Test
+  public void testListener() throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putAgencies(1);
+    gtfs.putLines("routes.txt",
+        "route_id,agency_id,route_short_name,route_long_name,route_type",
+        "r1,a0,1,One,3", "r2,a0,2,Two,0");
+    gtfs.putStops(2);
+    gtfs.putCalendars(1);
+    gtfs.putTrips(3, "r1,r1,r2", "sid0");
+    gtfs.putStopTimes("t0,t1,t2", "s0,s1");
+
+    for (boolean pack : new boolean[] {false, true}) {
+      final List<String> events = new ArrayList<String>();
+      GtfsReaderStatsCollector collector = new GtfsReaderStatsCollector();
+
+      GtfsReader reader = new GtfsReader();
+      reader.addRawColumnFilter(Route.class, "route_type",
+          RawColumnPredicates.intIn(3));
+      reader.setProgressInterval(4);
+      reader.addListener(collector);
+      reader.addListener(new GtfsReaderListener() {
+        public void startReadingEntities(GtfsReaderFileStats stats) {
+          events.add("start " + stats.getFilename());
+        }
+
+        public void handleProgress(GtfsReaderFileStats stats) {
+          events.add("progress " + stats.getFilename() + " "
+              + stats.getRowCount());
+        }
+
+        public void finishReadingEntities(GtfsReaderFileStats stats) {
+          events.add("finish " + stats.getFilename());
+        }
+      });
+      reader.setInputLocation(gtfs.getPath());
+      GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+      dao.setPackStopTimes(pack);
+      reader.setEntityStore(dao);
+      reader.run();
+
+      // Files missing from the feed are not reported
+      assertEquals(Arrays.asList("start agency.txt", "finish agency.txt",
+          "start routes.txt", "finish routes.txt", "start stops.txt",
+          "finish stops.txt", "start trips.txt", "finish trips.txt",
+          "start stop_times.txt", "progress stop_times.txt 4",
+          "finish stop_times.txt", "start calendar.txt",
+          "finish calendar.txt"), events);
+
+      Map<String, GtfsReaderFileStats> statsByFilename = new HashMap<String, GtfsReaderFileStats>();
+      for (GtfsReaderFileStats stats : collector.getStats())
+        statsByFilename.put(stats.getFilename(), stats);
+      assertEquals(6, statsByFilename.size());
+
+      GtfsReaderFileStats routes = statsByFilename.get("routes.txt");
+      assertEquals(Route.class, routes.getEntityClass());
+      assertEquals(2, routes.getRowCount());
+      assertEquals(1, routes.getDroppedRowCount());
+      assertTrue(routes.getStoreNanos() > 0);
+
+      GtfsReaderFileStats stopTimes = statsByFilename.get("stop_times.txt");
+      assertEquals(6, stopTimes.getRowCount());
+      assertEquals(2, stopTimes.getDroppedRowCount());
+      ZipFile zip = new ZipFile(gtfs.getPath());
+      assertEquals(zip.getEntry("stop_times.txt").getSize(),
+          stopTimes.getBytesRead());
+      zip.close();
+      assertTrue(stopTimes.getReferenceResolutionNanos() > 0);
+      assertEquals(pack, stopTimes.getStoreNanos() == 0);
+      assertTrue(stopTimes.getElapsedNanos() >= stopTimes.getParseNanos()
+          + stopTimes.getReferenceResolutionNanos()
+          + stopTimes.getStoreNanos());
+      assertTrue(stopTimes.getRowsPerSecond() > 0);
+
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      collector.printSummary(new PrintStream(out, true));
+      String[] lines = out.toString().split("\n");
+      assertEquals(8, lines.length);
+      assertTrue(lines[5].startsWith("stop_times.txt"));
+      assertTrue(lines[7].startsWith("total"));
+    }
+  }
+
   /****
    * Private Methods
    ****/
@@ -0,0 +1,385 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.ShapePointProxy;
+import org.onebusaway.gtfs.model.Trip;
+import org.onebusaway.gtfs.services.GtfsDao;
+
+public class GtfsSnapshotTest {
+
+  private File _tmpDirectory;
+
+  @Before
+  public void setup() throws IOException {
+    _tmpDirectory = File.createTempFile("GtfsSnapshotTest-", "-tmp");
+    if (_tmpDirectory.exists())
+      deleteFileRecursively(_tmpDirectory);
+    _tmpDirectory.mkdirs();
+  }
+
+  @After
+  public void teardown() {
+    deleteFileRecursively(_tmpDirectory);
+  }
+
+  @Test
+  public void testRoundTrip() throws IOException {
+    File feed = GtfsTestData.getCaltrainGtfs();
+    GtfsRelationalDaoImpl dao = readFeed(feed, true);
+    File snapshot = writeSnapshot(dao, feed);
+
+    GtfsRelationalDaoImpl restored = new GtfsRelationalDaoImpl();
+    restored.setPackStopTimes(true);
+    restored.setPackShapePoints(true);
+    readSnapshot(snapshot, restored);
+
+    assertSameFeed(dao, restored);
+
+    for (Trip trip : dao.getAllTrips()) {
+      Trip other = restored.getTripForId(trip.getId());
+      assertEquals(dao.getStopTimesForTrip(trip).size(),
+          restored.getStopTimesForTrip(other).size());
+    }
+    for (AgencyAndId shapeId : dao.getAllShapeIds()) {
+      assertEquals(dao.getShapePointsForShapeId(shapeId).size(),
+          restored.getShapePointsForShapeId(shapeId).size());
+    }
+
+    // Row indices of the packed entities are not kept as ids
+    restored = new GtfsRelationalDaoImpl();
+    readSnapshot(snapshot, restored);
+    assertSameFeed(dao, restored);
+    assertEquals(dao.getStopTimeForId(0).getStopSequence(),
+        restored.getStopTimeForId(1).getStopSequence());
+  }
+
+  @Test
+  public void testRoundTripUnpacked() throws IOException {
+    File feed = GtfsTestData.getIslandGtfs();
+    GtfsRelationalDaoImpl dao = readFeed(feed, false);
+    File snapshot = writeSnapshot(dao, feed);
+
+    GtfsRelationalDaoImpl restored = new GtfsRelationalDaoImpl();
+    readSnapshot(snapshot, restored);
+    assertSameFeed(dao, restored);
+
+    restored = new GtfsRelationalDaoImpl();
+    restored.setPackStopTimes(true);
+    restored.setPackShapePoints(true);
+    readSnapshot(snapshot, restored);
+    assertSameFeed(dao, restored);
+  }
+
+  @Test
+  public void testRoundTripPackedEntities() throws IOException {
+    File feed = GtfsTestData.getCaltrainGtfs();
+    GtfsRelationalDaoImpl expected = readFeed(feed, true);
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(true);
+    dao.setPackShapePoints(true);
+    dao.setPackTrips(true);
+    dao.setPackStops(true);
+    dao.setPackRoutes(true);
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(feed);
+    reader.setEntityStore(dao);
+    reader.run();
+    assertNotNull(dao.getAllTrips().iterator().next().getProxy());
+
+    // Proxied trips, stops and routes are serialized as detached copies
+    File snapshot = writeSnapshot(dao, feed);
+
+    GtfsRelationalDaoImpl restored = new GtfsRelationalDaoImpl();
+    readSnapshot(snapshot, restored);
+    assertSameFeed(expected, restored);
+    Trip trip = restored.getAllTrips().iterator().next();
+    assertNull(trip.getProxy());
+    assertNotNull(trip.getRoute().getId());
+
+    restored = new GtfsRelationalDaoImpl();
+    restored.setPackTrips(true);
+    restored.setPackStops(true);
+    restored.setPackRoutes(true);
+    readSnapshot(snapshot, restored);
+    assertSameFeed(expected, restored);
+  }
+
+  @Test
+  public void testMissingIds() throws IOException {
+    File feed = GtfsTestData.getCaltrainGtfs();
+    final GtfsRelationalDaoImpl expected = readFeed(feed, false);
+    final ShapePoint extra = new ShapePoint(
+        expected.getAllShapePoints().iterator().next());
+    extra.setSequence(100000);
+    extra.setProxy(new NoIdShapePointProxy(new ShapePoint(extra)));
+
+    File snapshot = writeSnapshot(new GtfsRelationalDaoImpl() {
+      @Override
+      public <T> Collection<T> getAllEntitiesForType(Class<T> type) {
+        return expected.getAllEntitiesForType(type);
+      }
+
+      @Override
+      public Collection<ShapePoint> getAllShapePoints() {
+        List<ShapePoint> shapePoints = new ArrayList<ShapePoint>(
+            expected.getAllShapePoints());
+        shapePoints.add(extra);
+        return shapePoints;
+      }
+    }, feed);
+
+    // The shape point without an id is given the next generated id
+    GtfsRelationalDaoImpl restored = new GtfsRelationalDaoImpl();
+    readSnapshot(snapshot, restored);
+    int count = expected.getAllShapePoints().size();
+    assertEquals(count + 1, restored.getAllShapePoints().size());
+    assertNotNull(restored.getShapePointForId(count + 1));
+    assertEquals(100000,
+        restored.getShapePointForId(count + 1).getSequence());
+
+    restored = new GtfsRelationalDaoImpl();
+    restored.setPackShapePoints(true);
+    readSnapshot(snapshot, restored);
+    assertEquals(count + 1, restored.getAllShapePoints().size());
+  }
+
+  @Test
+  public void testSnapshotCurrent() throws IOException {
+    File feed = GtfsTestData.getCaltrainGtfs();
+    String feedHash = GtfsSnapshotReader.computeFeedHash(feed);
+    assertEquals(feedHash, GtfsSnapshotReader.computeFeedHash(feed));
+    assertFalse(feedHash.equals(GtfsSnapshotReader.computeFeedHash(GtfsTestData.getBartGtfs())));
+
+    File snapshot = writeSnapshot(readFeed(feed, true), feed);
+
+    GtfsSnapshotReader reader = new GtfsSnapshotReader();
+    reader.setInputLocation(snapshot);
+    reader.setFeedHash(feedHash);
+    assertTrue(reader.isSnapshotCurrent());
+    reader.setFeedHash(null);
+    assertTrue(reader.isSnapshotCurrent());
+
+    reader.setFeedHash("other");
+    assertFalse(reader.isSnapshotCurrent());
+    try {
+      reader.run();
+      fail();
+    } catch (IOException ex) {
+
+    }
+
+    reader.setFeedHash(feedHash);
+    RandomAccessFile file = new RandomAccessFile(snapshot, "rw");
+    file.seek(GtfsSnapshotWriter.MAGIC.length);
+    file.writeInt(GtfsSnapshotWriter.VERSION + 1);
+    file.close();
+    assertFalse(reader.isSnapshotCurrent());
+
+    reader.setInputLocation(feed);
+    assertFalse(reader.isSnapshotCurrent());
+    reader.setInputLocation(new File(_tmpDirectory, "missing"));
+    assertFalse(reader.isSnapshotCurrent());
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private GtfsRelationalDaoImpl readFeed(File feed, boolean pack)
+      throws IOException {
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setPackStopTimes(pack);
+    dao.setPackShapePoints(pack);
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(feed);
+    reader.setEntityStore(dao);
+    reader.run();
+    return dao;
+  }
+
+  private File writeSnapshot(GtfsDao dao, File feed) throws IOException {
+    File snapshot = new File(_tmpDirectory, "snapshot.bin");
+    GtfsSnapshotWriter writer = new GtfsSnapshotWriter();
+    writer.setOutputLocation(snapshot);
+    writer.setFeedHash(GtfsSnapshotReader.computeFeedHash(feed));
+    writer.run(dao);
+    return snapshot;
+  }
+
+  private void readSnapshot(File snapshot, GtfsRelationalDaoImpl dao)
+      throws IOException {
+    GtfsSnapshotReader reader = new GtfsSnapshotReader();
+    reader.setInputLocation(snapshot);
+    reader.setEntityStore(dao);
+    reader.run();
+  }
+
+  /**
+   * Compares two feeds by writing both out as CSV.
+   */
+  private void assertSameFeed(GtfsDao expected, GtfsDao actual)
+      throws IOException {
+    File expectedDirectory = writeFeed(expected, "expected");
+    File actualDirectory = writeFeed(actual, "actual");
+    String[] names = expectedDirectory.list();
+    Arrays.sort(names);
+    String[] actualNames = actualDirectory.list();
+    Arrays.sort(actualNames);
+    assertEquals(Arrays.asList(names), Arrays.asList(actualNames));
+    assertTrue(names.length > 5);
+    for (String name : names) {
+      assertEquals(name, readFile(new File(expectedDirectory, name)),
+          readFile(new File(actualDirectory, name)));
+    }
+    deleteFileRecursively(expectedDirectory);
+    deleteFileRecursively(actualDirectory);
+  }
+
+  private File writeFeed(GtfsDao dao, String name) throws IOException {
+    File directory = new File(_tmpDirectory, name);
+    GtfsWriter writer = new GtfsWriter();
+    writer.setOutputLocation(directory);
+    writer.run(dao);
+    return directory;
+  }
+
+  private String readFile(File file) throws IOException {
+    InputStream in = new FileInputStream(file);
+    try {
+      byte[] bytes = new byte[(int) file.length()];
+      int offset = 0;
+      while (offset < bytes.length) {
+        int n = in.read(bytes, offset, bytes.length - offset);
+        if (n == -1)
+          break;
+        offset += n;
+      }
+      return new String(bytes, "UTF-8");
+    } finally {
+      in.close();
+    }
+  }
+
+  /**
+   * A shape point saved without an id, which the unpacked daos otherwise never
+   * produce since the id of a {@link ShapePoint} is an int
+   */
+  private static class NoIdShapePointProxy implements ShapePointProxy {
+
+    private final ShapePoint shapePoint;
+
+    public NoIdShapePointProxy(ShapePoint shapePoint) {
+      this.shapePoint = shapePoint;
+    }
+
+    public Integer getId() {
+      return null;
+    }
+
+    public void setId(Integer id) {
+
+    }
+
+    public AgencyAndId getShapeId() {
+      return shapePoint.getShapeId();
+    }
+
+    public void setShapeId(AgencyAndId shapeId) {
+      shapePoint.setShapeId(shapeId);
+    }
+
+    public int getSequence() {
+      return shapePoint.getSequence();
+    }
+
+    public void setSequence(int sequence) {
+      shapePoint.setSequence(sequence);
+    }
+
+    public boolean isDistTraveledSet() {
+      return shapePoint.isDistTraveledSet();
+    }
+
+    public double getDistTraveled() {
+      return shapePoint.getDistTraveled();
+    }
+
+    public void setDistTraveled(double distTraveled) {
+      shapePoint.setDistTraveled(distTraveled);
+    }
+
+    public void clearDistTraveled() {
+      shapePoint.clearDistTraveled();
+    }
+
+    public double getLat() {
+      return shapePoint.getLat();
+    }
+
+    public void setLat(double lat) {
+      shapePoint.setLat(lat);
+    }
+
+    public double getLon() {
+      return shapePoint.getLon();
+    }
+
+    public void setLon(double lon) {
+      shapePoint.setLon(lon);
+    }
+  }
+
+  private void deleteFileRecursively(File file) {
+
+    if (!file.exists())
+      return;
+
+    if (file.isDirectory()) {
+      File[] files = file.listFiles();
+      if (files != null) {
+        for (File child : files)
+          deleteFileRecursively(child);
+      }
+    }
+
+    file.delete();
+  }
+}
@@ -0,0 +1,223 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.onebusaway.csv_entities.CsvInputSource;
+import org.onebusaway.gtfs.GtfsTestData;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.ShapePoint;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+
+public class MappedCsvInputSourceTest {
+
+  private File _bartZip;
+
+  private GtfsRelationalDaoImpl _expected;
+
+  @Before
+  public void before() throws IOException {
+    _bartZip = GtfsTestData.getBartGtfs();
+    GtfsReader reader = new GtfsReader();
+    reader.setInputLocation(_bartZip);
+    _expected = read(reader, false);
+  }
+
+  @Test
+  public void testDirectory() throws IOException {
+    File directory = extract(_bartZip);
+    MappedCsvInputSource source = new MappedCsvInputSource(directory);
+    assertNotNull(source.getMappedResource("stop_times.txt"));
+    assertNull(source.getMappedResource("does_not_exist.txt"));
+    assertTrue(source.hasResource("stops.txt"));
+    assertFalse(source.hasResource("does_not_exist.txt"));
+
+    verify(source, false);
+    verify(new MappedCsvInputSource(directory), true);
+  }
+
+  @Test
+  public void testStoredZip() throws IOException {
+    File zip = createStoredZip(_bartZip);
+    MappedCsvInputSource source = new MappedCsvInputSource(zip);
+    assertNotNull(source.getMappedResource("stop_times.txt"));
+    verify(source, false);
+    verify(new MappedCsvInputSource(zip), true);
+  }
+
+  @Test
+  public void testCompressedZip() throws IOException {
+    MappedCsvInputSource source = new MappedCsvInputSource(_bartZip);
+    assertNull(source.getMappedResource("stop_times.txt"));
+    assertTrue(source.hasResource("stop_times.txt"));
+    verify(source, false);
+  }
+
+  @Test
+  public void testGetResource() throws IOException {
+    File zip = createStoredZip(_bartZip);
+    MappedCsvInputSource source = new MappedCsvInputSource(zip);
+    ZipFile zipFile = new ZipFile(_bartZip);
+    assertEquals(
+        new String(readFully(zipFile.getInputStream(zipFile.getEntry("stops.txt")))),
+        new String(readFully(source.getResource("stops.txt"))));
+    zipFile.close();
+    source.close();
+  }
+
+  private void verify(CsvInputSource source, boolean packed)
+      throws IOException {
+
+    GtfsReader reader = new GtfsReader();
+    reader.setInputSource(source);
+    GtfsRelationalDaoImpl actual = read(reader, packed);
+
+    assertEquals(new ArrayList<Agency>(_expected.getAllAgencies()),
+        new ArrayList<Agency>(actual.getAllAgencies()));
+    assertEquals(_expected.getAllRoutes().size(), actual.getAllRoutes().size());
+    assertEquals(_expected.getAllTrips().size(), actual.getAllTrips().size());
+    assertEquals(_expected.getAllCalendarDates().size(),
+        actual.getAllCalendarDates().size());
+
+    assertEquals(_expected.getAllStops().size(), actual.getAllStops().size());
+    for (Stop stop : _expected.getAllStops()) {
+      Stop other = actual.getStopForId(stop.getId());
+      assertEquals(stop.getName(), other.getName());
+      assertEquals(stop.getLat(), other.getLat(), 0.0);
+      assertEquals(stop.getLon(), other.getLon(), 0.0);
+    }
+
+    List<StopTime> expectedStopTimes = new ArrayList<StopTime>(
+        _expected.getAllStopTimes());
+    List<StopTime> stopTimes = new ArrayList<StopTime>(
+        actual.getAllStopTimes());
+    assertEquals(expectedStopTimes.size(), stopTimes.size());
+    for (int i = 0; i < stopTimes.size(); i++) {
+      StopTime expected = _expected.getStopTimeForId(i + 1);
+      StopTime stopTime = packed ? stopTimes.get(i)
+          : actual.getStopTimeForId(i + 1);
+      assertSame(actual.getTripForId(expected.getTrip().getId()),
+          stopTime.getTrip());
+      assertEquals(expected.getStop().getId(), stopTime.getStop().getId());
+      assertEquals(expected.getArrivalTime(), stopTime.getArrivalTime());
+      assertEquals(expected.getDepartureTime(), stopTime.getDepartureTime());
+      assertEquals(expected.getStopSequence(), stopTime.getStopSequence());
+      assertEquals(expected.getStopHeadsign(), stopTime.getStopHeadsign());
+    }
+
+    List<ShapePoint> shapePoints = new ArrayList<ShapePoint>(
+        actual.getAllShapePoints());
+    assertEquals(_expected.getAllShapePoints().size(), shapePoints.size());
+    for (int i = 0; i < shapePoints.size(); i++) {
+      ShapePoint expected = _expected.getShapePointForId(i + 1);
+      ShapePoint shapePoint = packed ? shapePoints.get(i)
+          : actual.getShapePointForId(i + 1);
+      assertEquals(expected.getShapeId(), shapePoint.getShapeId());
+      assertEquals(expected.getLat(), shapePoint.getLat(), 0.0);
+      assertEquals(expected.getLon(), shapePoint.getLon(), 0.0);
+    }
+  }
+
+  private GtfsRelationalDaoImpl read(GtfsReader reader, boolean packed)
+      throws IOException {
+    reader.setDefaultAgencyId("BART");
+    GtfsRelationalDaoImpl dao = new GtfsRelationalDaoImpl();
+    dao.setGenerateIds(true);
+    dao.setPackStopTimes(packed);
+    dao.setPackShapePoints(packed);
+    reader.setEntityStore(dao);
+    reader.run();
+    reader.close();
+    return dao;
+  }
+
+  private File extract(File zip) throws IOException {
+    File directory = File.createTempFile("MappedCsvInputSourceTest-", "");
+    directory.delete();
+    directory.mkdirs();
+    ZipFile zipFile = new ZipFile(zip);
+    for (Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+      ZipEntry entry = en.nextElement();
+      File file = new File(directory, entry.getName());
+      file.deleteOnExit();
+      FileOutputStream out = new FileOutputStream(file);
+      out.write(readFully(zipFile.getInputStream(entry)));
+      out.close();
+    }
+    zipFile.close();
+    directory.deleteOnExit();
+    return directory;
+  }
+
+  private File createStoredZip(File zip) throws IOException {
+    File stored = File.createTempFile("MappedCsvInputSourceTest-", ".zip");
+    stored.deleteOnExit();
+    ZipFile zipFile = new ZipFile(zip);
+    ZipOutputStream out = new ZipOutputStream(new FileOutputStream(stored));
+    for (Enumeration<? extends ZipEntry> en = zipFile.entries(); en.hasMoreElements();) {
+      ZipEntry entry = en.nextElement();
+      byte[] data = readFully(zipFile.getInputStream(entry));
+      CRC32 crc = new CRC32();
+      crc.update(data);
+      ZipEntry storedEntry = new ZipEntry(entry.getName());
+      storedEntry.setMethod(ZipEntry.STORED);
+      storedEntry.setSize(data.length);
+      storedEntry.setCompressedSize(data.length);
+      storedEntry.setCrc(crc.getValue());
+      storedEntry.setExtra(new byte[] {(byte) 0xCA, (byte) 0xFE, 0, 0});
+      out.putNextEntry(storedEntry);
+      out.write(data);
+      out.closeEntry();
+    }
+    out.setComment("a comment after the central directory");
+    out.close();
+    zipFile.close();
+    return stored;
+  }
+
+  private static byte[] readFully(InputStream in) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int n;
+    while ((n = in.read(buffer)) != -1)
+      out.write(buffer, 0, n);
+    in.close();
+    return out.toByteArray();
+  }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import org.junit.Test;
+
+public class RowCountEstimatorTest {
+
+  @Test
+  public void testCountRows() {
+    assertEquals(0, countRows(""));
+    assertEquals(0, countRows("a,b\n"));
+    assertEquals(2, countRows("a,b\n1,2\n3,4\n"));
+    assertEquals(2, countRows("a,b\r\n1,2\r\n3,4"));
+
+    ByteBuffer buffer = ByteBuffer.wrap("a,b\n1,2\n".getBytes());
+    assertEquals(1, RowCountEstimator.countRows(buffer));
+    assertEquals(0, buffer.position());
+  }
+
+  @Test
+  public void testEstimateRows() throws IOException {
+    String small = "a,b\n1,2\n3,4\n";
+    assertEquals(2, estimateRows(small, small.length()));
+
+    StringBuilder b = new StringBuilder("stop_id,stop_sequence\n");
+    for (int i = 0; i < 100000; i++)
+      b.append("stop").append(i % 1000).append(',').append(i % 50).append('\n');
+    String large = b.toString();
+    int estimate = estimateRows(large, large.length());
+    assertTrue(estimate > 95000 && estimate < 105000);
+  }
+
+  private int countRows(String content) {
+    return RowCountEstimator.countRows(ByteBuffer.wrap(content.getBytes()));
+  }
+
+  private int estimateRows(String content, long size) throws IOException {
+    return RowCountEstimator.estimateRows(new ByteArrayInputStream(
+        content.getBytes()), size);
+  }
+}
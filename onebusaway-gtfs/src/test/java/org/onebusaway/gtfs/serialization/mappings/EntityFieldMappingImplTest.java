@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2013 Google, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization.mappings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.onebusaway.csv_entities.CsvEntityContextImpl;
+import org.onebusaway.csv_entities.schema.BeanWrapperFactory;
+import org.onebusaway.gtfs.impl.GtfsRelationalDaoImpl;
+import org.onebusaway.gtfs.model.Agency;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
+import org.onebusaway.gtfs.serialization.GtfsReader;
+import org.onebusaway.gtfs.services.MockGtfs;
+
+public class EntityFieldMappingImplTest {
+
+  @Test
+  public void testLastReference() throws IOException {
+    CountingDao dao = new CountingDao();
+    GtfsReader reader = read(dao);
+    EntityFieldMappingImpl mapping = new EntityFieldMappingImpl(
+        StopTime.class, "stop_id", "stop", Stop.class, true);
+
+    Stop a = translate(mapping, reader, "s0");
+    assertSame(a, translate(mapping, reader, "s0"));
+    assertEquals(1, dao.lookups);
+
+    Stop b = translate(mapping, reader, "s1");
+    assertNotSame(a, b);
+    assertEquals(2, dao.lookups);
+
+    assertSame(a, translate(mapping, reader, "s0"));
+    assertEquals(3, dao.lookups);
+  }
+
+  @Test
+  public void testLastReferenceIsPerReader() throws IOException {
+    CountingDao daoA = new CountingDao();
+    CountingDao daoB = new CountingDao();
+    GtfsReader readerA = read(daoA);
+    GtfsReader readerB = read(daoB);
+    EntityFieldMappingImpl mapping = new EntityFieldMappingImpl(
+        StopTime.class, "stop_id", "stop", Stop.class, true);
+
+    Stop stopA = translate(mapping, readerA, "s0");
+    Stop stopB = translate(mapping, readerB, "s0");
+    assertNotSame(stopA, stopB);
+    assertSame(daoB.getStopForId(stopB.getId()), stopB);
+    assertEquals(1, daoA.lookups);
+    assertEquals(1, daoB.lookups);
+  }
+
+  @Test
+  public void testLastReferenceAfterEntityStoreChange() throws IOException {
+    CountingDao daoA = new CountingDao();
+    GtfsReader reader = read(daoA);
+    EntityFieldMappingImpl mapping = new EntityFieldMappingImpl(
+        StopTime.class, "stop_id", "stop", Stop.class, true);
+
+    Stop stopA = translate(mapping, reader, "s0");
+
+    CountingDao daoB = new CountingDao();
+    Stop stop = new Stop();
+    stop.setId(stopA.getId());
+    daoB.saveEntity(stop);
+    reader.setEntityStore(daoB);
+
+    Stop stopB = translate(mapping, reader, "s0");
+    assertNotSame(stopA, stopB);
+    assertSame(stop, stopB);
+  }
+
+  /****
+   * Private Methods
+   ****/
+
+  private GtfsReader read(CountingDao dao) throws IOException {
+    MockGtfs gtfs = MockGtfs.create();
+    gtfs.putAgencies(1);
+    gtfs.putStops(2);
+    GtfsReader reader = new GtfsReader();
+    reader.setEntityClasses(Arrays.<Class<?>> asList(Agency.class, Stop.class));
+    reader.setInputLocation(gtfs.getPath());
+    reader.setEntityStore(dao);
+    reader.run();
+    dao.lookups = 0;
+    return reader;
+  }
+
+  private Stop translate(EntityFieldMappingImpl mapping, GtfsReader reader,
+      String stopId) {
+    CsvEntityContextImpl csvContext = new CsvEntityContextImpl();
+    csvContext.put(GtfsReader.KEY_CONTEXT, reader.getGtfsReaderContext());
+    Map<String, Object> csvValues = new HashMap<String, Object>();
+    csvValues.put("stop_id", stopId);
+    StopTime stopTime = new StopTime();
+    mapping.translateFromCSVToObject(csvContext, csvValues,
+        BeanWrapperFactory.wrap(stopTime));
+    return stopTime.getStop();
+  }
+
+  /****
+   * Private Internal Classes
+   ****/
+
+  private static class CountingDao extends GtfsRelationalDaoImpl {
+
+    private int lookups = 0;
+
+    @Override
+    public <T> T getEntityForId(Class<T> type, Serializable id) {
+      if (type == Stop.class)
+        lookups++;
+      return super.getEntityForId(type, id);
+    }
+  }
+}
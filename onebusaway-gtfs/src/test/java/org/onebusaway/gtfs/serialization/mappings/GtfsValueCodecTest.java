@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2012 Brian Ferris <bdferris@onebusaway.org>
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.onebusaway.gtfs.serialization.mappings;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class GtfsValueCodecTest {
+
+  @Test
+  public void testParseTime() {
+    assertEquals(0, GtfsValueCodec.parseTime("00:00:00"));
+    assertEquals(0, GtfsValueCodec.parseTime("-00:00:00"));
+    assertEquals(37230, GtfsValueCodec.parseTime("10:20:30"));
+    assertEquals(37230, GtfsValueCodec.parseTime("x10:20:30x", 1, 9));
+    assertEquals(8 * 3600, GtfsValueCodec.parseTime("8:00:00"));
+    assertEquals(25 * 3600 + 30 * 60, GtfsValueCodec.parseTime("25:30:00"));
+    assertEquals(-34770, GtfsValueCodec.parseTime("-10:20:30"));
+
+    String[] invalid = {
+        "", "00:00", "000000", ":00:00", "-:00:00", "--00:00:00", "00:0:00",
+        "00:00:0", "0a:00:00", "00-00-00", "99999999999:00:00"};
+    for (String value : invalid) {
+      try {
+        GtfsValueCodec.parseTime(value);
+        fail(value);
+      } catch (NumberFormatException ex) {
+
+      }
+    }
+  }
+
+  @Test
+  public void testFormatTime() {
+    assertEquals("00:00:00", GtfsValueCodec.formatTime(0));
+    assertEquals("08:05:09", GtfsValueCodec.formatTime(8 * 3600 + 5 * 60 + 9));
+    assertEquals("25:30:00", GtfsValueCodec.formatTime(25 * 3600 + 30 * 60));
+    assertEquals("-01:59:00", GtfsValueCodec.formatTime(-60));
+    assertEquals("100:15:13", GtfsValueCodec.formatTime(360913));
+
+    Random random = new Random(42);
+    for (int i = 0; i < 10000; i++) {
+      int time = random.nextInt(400000) - 200000;
+      assertEquals(time,
+          GtfsValueCodec.parseTime(GtfsValueCodec.formatTime(time)));
+    }
+  }
+
+  @Test
+  public void testDates() {
+    assertEquals(20120131, GtfsValueCodec.parseDate("20120131"));
+    assertEquals(20120131, GtfsValueCodec.parseDate("d=20120131", 2, 10));
+
+    String[] invalid = {"", "2012013", "201201310", "2012-1-31", "-2012013"};
+    for (String value : invalid) {
+      try {
+        GtfsValueCodec.parseDate(value);
+        fail(value);
+      } catch (NumberFormatException ex) {
+
+      }
+    }
+
+    StringBuilder b = new StringBuilder();
+    GtfsValueCodec.appendDate(b, 812, 1, 5);
+    assertEquals("08120105", b.toString());
+  }
+
+  @Test
+  public void testParseInt() {
+    String[] values = {
+        "0", "-0", "7", "-7", "0042", "2147483647", "-2147483648"};
+    for (String value : values)
+      assertEquals(Integer.parseInt(value), GtfsValueCodec.parseInt(value));
+    assertEquals(12, GtfsValueCodec.parseInt("a12b", 1, 3));
+
+    String[] invalid = {"", "-", "1.5", " 1", "2147483648", "-2147483649", "1e3"};
+    for (String value : invalid) {
+      try {
+        GtfsValueCodec.parseInt(value);
+        fail(value);
+      } catch (NumberFormatException ex) {
+
+      }
+    }
+  }
+
+  @Test
+  public void testParseDouble() {
+    String[] values = {
+        "0", "-0", "47.653839", "-122.307829", "1.", ".5", "+3.25", "1e3",
+        " 12.5 ", "0.1234567890123456789", "123456789012345678", "NaN"};
+    for (String value : values) {
+      assertEquals(value, Double.parseDouble(value),
+          GtfsValueCodec.parseDouble(value), 0.0);
+    }
+
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double coordinate = (random.nextDouble() - 0.5) * 360;
+      String value = Double.toString(coordinate);
+      assertEquals(value, Double.parseDouble(value),
+          GtfsValueCodec.parseDouble(value), 0.0);
+      value = String.format(Locale.US, "%.6f", coordinate);
+      assertEquals(value, Double.parseDouble(value),
+          GtfsValueCodec.parseDouble(value), 0.0);
+    }
+
+    String[] invalid = {"", "-", ".", "1.2.3", "12a"};
+    for (String value : invalid) {
+      try {
+        GtfsValueCodec.parseDouble(value);
+        fail(value);
+      } catch (NumberFormatException ex) {
+
+      }
+    }
+  }
+
+  @Test
+  public void testFormatDecimal() {
+    DecimalFormat format = new DecimalFormat("0.000000",
+        new DecimalFormatSymbols(Locale.US));
+
+    double[] values = {
+        0.0, -0.0, 47.5678, -122.3, 0.0078125, -0.0000001, 0.0000005,
+        179.9999999, 1e12};
+    for (double value : values)
+      assertEquals(format.format(value), GtfsValueCodec.formatDecimal(value, 6));
+
+    Random random = new Random(42);
+    for (int i = 0; i < 100000; i++) {
+      double coordinate = (random.nextDouble() - 0.5) * 360;
+      assertEquals(format.format(coordinate),
+          GtfsValueCodec.formatDecimal(coordinate, 6));
+      // Values that sit exactly on a rounding tie
+      double tie = (random.nextInt(1 << 20) + 0.5) / (1 << 20);
+      assertEquals(format.format(tie), GtfsValueCodec.formatDecimal(tie, 6));
+    }
+  }
+}